@@ -0,0 +1,111 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda;
+
+import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.manager.ConnectionManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of {@link Core#getAudioManager(long)} by several threads at once, which every event of the main gateway
+ * and every connection attempt does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreBenchmark
+{
+    private static final long FIRST_GUILD_ID = 100_000;
+
+    @Param({"1000"})
+    public int guilds;
+
+    private Core core;
+
+    @Setup
+    public void setup()
+    {
+        //No connection manager thread, nothing is ever connected.
+        core = new Core("1", new Client(), (Core c) -> new ConnectionManager()
+        {
+            @Override
+            public void queueAudioConnect(String guildId, String channelId) {}
+
+            @Override
+            public void removeAudioConnection(String guildId) {}
+        });
+        for (int i = 0; i < guilds; i++)
+            core.getAudioManager(FIRST_GUILD_ID + i);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AudioManager getAudioManager()
+    {
+        return core.getAudioManager(FIRST_GUILD_ID + ThreadLocalRandom.current().nextInt(guilds));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public AudioManager getAudioManagerContended()
+    {
+        return core.getAudioManager(FIRST_GUILD_ID + ThreadLocalRandom.current().nextInt(guilds));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public AudioManager getAudioManagerContendedString()
+    {
+        return core.getAudioManager(Long.toString(FIRST_GUILD_ID + ThreadLocalRandom.current().nextInt(guilds)));
+    }
+
+    private static class Client implements CoreClient
+    {
+        @Override
+        public void sendWS(String message) {}
+
+        @Override
+        public boolean isConnected()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean inGuild(String guildId)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean voiceChannelExists(String guildId, String channelId)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean hasPermissionInChannel(String guildId, String channelId, long permission)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building, parsing, encrypting and decrypting the RTP packets of a connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioPacketBenchmark
+{
+    private static final int SSRC = 1234;
+
+    private final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 50000);
+    private byte[] secretKey;
+    private byte[][] opus;
+    private byte[][] rawPackets;
+    private DatagramPacket[] encryptedPackets;
+    private char seq;
+    private int frame;
+
+    @Setup
+    public void setup()
+    {
+        secretKey = new byte[32];
+        new Random(42).nextBytes(secretKey);
+        opus = BenchmarkAudio.opus();
+        rawPackets = new byte[opus.length][];
+        encryptedPackets = new DatagramPacket[opus.length];
+        for (int i = 0; i < opus.length; i++)
+        {
+            AudioPacket packet = new AudioPacket((char) i, i * AudioConnection.OPUS_FRAME_SIZE, SSRC, opus[i]);
+            rawPackets[i] = packet.getRawPacket();
+            encryptedPackets[i] = packet.asEncryptedUdpPacket(address, secretKey);
+        }
+    }
+
+    private int next()
+    {
+        seq++;
+        return frame = (frame + 1) % opus.length;
+    }
+
+    @Benchmark
+    public AudioPacket build()
+    {
+        int i = next();
+        return new AudioPacket(seq, seq * AudioConnection.OPUS_FRAME_SIZE, SSRC, opus[i]);
+    }
+
+    @Benchmark
+    public int parse()
+    {
+        AudioPacket packet = new AudioPacket(rawPackets[next()]);
+        return packet.getSequence() + packet.getTimestamp() + packet.getSSRC() + packet.getEncodedAudioLength();
+    }
+
+    @Benchmark
+    public DatagramPacket encrypt()
+    {
+        int i = next();
+        return new AudioPacket(seq, seq * AudioConnection.OPUS_FRAME_SIZE, SSRC, opus[i]).asEncryptedUdpPacket(address, secretKey);
+    }
+
+    @Benchmark
+    public AudioPacket decrypt()
+    {
+        return AudioPacket.decryptAudioPacket(encryptedPackets[next()], secretKey);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import net.dv8tion.jda.manager.AudioManager;
+
+/**
+ * The audio the benchmarks work with: 20ms frames of a 440Hz tone, as PCM and encoded.
+ */
+class BenchmarkAudio
+{
+    static final int FRAMES = 50;
+    static final int FRAME_SAMPLES = AudioConnection.OPUS_FRAME_SIZE * AudioConnection.OPUS_CHANNEL_COUNT;
+
+    private BenchmarkAudio() {}
+
+    static void loadNatives()
+    {
+        if (!AudioManager.init())
+            throw new IllegalStateException("Audio is not supported on this system, the natives could not be loaded");
+    }
+
+    static short[] pcm(int frame)
+    {
+        short[] pcm = new short[FRAME_SAMPLES];
+        for (int i = 0; i < AudioConnection.OPUS_FRAME_SIZE; i++)
+        {
+            double t = (frame * AudioConnection.OPUS_FRAME_SIZE + i) / (double) AudioConnection.OPUS_SAMPLE_RATE;
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * t) * 8000);
+            pcm[i * 2] = sample;
+            pcm[i * 2 + 1] = sample;
+        }
+        return pcm;
+    }
+
+    static float[] floatPcm(int frame)
+    {
+        short[] pcm = pcm(frame);
+        float[] audio = new float[pcm.length];
+        for (int i = 0; i < pcm.length; i++)
+            audio[i] = pcm[i] / 32768f;
+        return audio;
+    }
+
+    /**
+     * @return The frame as 16bit big-endian PCM, see {@link AudioSendHandler#INPUT_FORMAT}
+     */
+    static byte[] bytePcm(int frame)
+    {
+        short[] pcm = pcm(frame);
+        byte[] audio = new byte[pcm.length * 2];
+        for (int i = 0; i < pcm.length; i++)
+        {
+            audio[i * 2] = (byte) (pcm[i] >> 8);
+            audio[i * 2 + 1] = (byte) pcm[i];
+        }
+        return audio;
+    }
+
+    /**
+     * Encodes {@link #FRAMES} consecutive frames with the encoder of a connection.
+     */
+    static byte[][] opus()
+    {
+        loadNatives();
+        AudioConnection connection = new AudioConnection(0, null);
+        try
+        {
+            connection.createEncoder();
+            byte[][] frames = new byte[FRAMES][];
+            for (int i = 0; i < FRAMES; i++)
+                frames[i] = connection.encodeToOpus(bytePcm(i));
+            return frames;
+        }
+        finally
+        {
+            connection.shutdown();
+        }
+    }
+}
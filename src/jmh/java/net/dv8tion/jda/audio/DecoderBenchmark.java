@@ -0,0 +1,80 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a received 20ms frame, into a new array and into a re-used one like the pooled frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark
+{
+    private Decoder decoder;
+    private AudioPacket[] packets;
+    private short[] target;
+    private float[] floatTarget;
+    private int frame;
+
+    @Setup
+    public void setup()
+    {
+        byte[][] opus = BenchmarkAudio.opus();
+        packets = new AudioPacket[opus.length];
+        for (int i = 0; i < opus.length; i++)
+            packets[i] = new AudioPacket((char) i, i * AudioConnection.OPUS_FRAME_SIZE, 1, opus[i]);
+        decoder = new Decoder(1);
+        target = new short[BenchmarkAudio.FRAME_SAMPLES];
+        floatTarget = new float[BenchmarkAudio.FRAME_SAMPLES];
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        decoder.close();
+    }
+
+    @Benchmark
+    public short[] decode()
+    {
+        frame = (frame + 1) % packets.length;
+        return decoder.decodeFromOpus(packets[frame]);
+    }
+
+    @Benchmark
+    public short[] decodeInto()
+    {
+        frame = (frame + 1) % packets.length;
+        decoder.decodeFromOpus(packets[frame], target);
+        return target;
+    }
+
+    @Benchmark
+    public float[] decodeFloatInto()
+    {
+        frame = (frame + 1) % packets.length;
+        decoder.decodeFloatFromOpus(packets[frame], floatTarget);
+        return floatTarget;
+    }
+}
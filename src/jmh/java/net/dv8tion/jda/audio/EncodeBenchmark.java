@@ -0,0 +1,74 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a 20ms frame on the sending thread, from 16bit and from float PCM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark
+{
+    private AudioConnection connection;
+    private byte[][] pcm;
+    private float[][] floatPcm;
+    private int frame;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkAudio.loadNatives();
+        connection = new AudioConnection(0, null);
+        connection.createEncoder();
+        pcm = new byte[BenchmarkAudio.FRAMES][];
+        floatPcm = new float[BenchmarkAudio.FRAMES][];
+        for (int i = 0; i < BenchmarkAudio.FRAMES; i++)
+        {
+            pcm[i] = BenchmarkAudio.bytePcm(i);
+            floatPcm[i] = BenchmarkAudio.floatPcm(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        connection.shutdown();
+    }
+
+    @Benchmark
+    public byte[] encode()
+    {
+        frame = (frame + 1) % BenchmarkAudio.FRAMES;
+        return connection.encodeToOpus(pcm[frame]);
+    }
+
+    @Benchmark
+    public byte[] encodeFloat()
+    {
+        frame = (frame + 1) % BenchmarkAudio.FRAMES;
+        //The encoder soft-clips in place, the tone never reaches the limit so the input stays the same.
+        return connection.encodeToOpus(floatPcm[frame]);
+    }
+}
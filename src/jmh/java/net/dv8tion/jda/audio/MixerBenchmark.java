@@ -0,0 +1,155 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 20ms slot of the combined audio: every user's decoded frame is offered to its playout buffer and the slot
+ * is mixed, like the receiving thread and the {@link CombinedAudioScheduler} do. Decoding is not part of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixerBenchmark
+{
+    private static final AudioFormat FORMAT = AudioReceiveHandler.OUTPUT_FORMAT;
+
+    @Param({"1", "4", "16"})
+    public int users;
+
+    @Param({"false", "true"})
+    public boolean floatAudio;
+
+    @Param({"false", "true"})
+    public boolean mixMinus;
+
+    private SsrcRegistry registry;
+    private AudioFramePool framePool;
+    private CombinedAudioMixer mixer;
+    private SsrcRegistry.Entry[] entries;
+    private short[] pcm;
+    private float[] floatPcm;
+    private Handler handler;
+    private int timestamp;
+
+    @Setup
+    public void setup(Blackhole blackhole)
+    {
+        registry = new SsrcRegistry();
+        framePool = new AudioFramePool();
+        mixer = new CombinedAudioMixer(0, registry, framePool);
+        entries = new SsrcRegistry.Entry[users];
+        for (int i = 0; i < users; i++)
+        {
+            entries[i] = registry.put(i + 1, i + 1);
+            if (mixMinus)
+                mixer.addMixMinusUser(i + 1);
+        }
+        pcm = BenchmarkAudio.pcm(0);
+        floatPcm = BenchmarkAudio.floatPcm(0);
+        handler = new Handler(blackhole, floatAudio, mixMinus);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        mixer.clear();
+    }
+
+    @Benchmark
+    public void slot()
+    {
+        for (SsrcRegistry.Entry entry : entries)
+        {
+            UserAudio audio = framePool.takeUserAudio(entry.userId, FORMAT, floatAudio, BenchmarkAudio.FRAME_SAMPLES, true);
+            if (floatAudio)
+                System.arraycopy(floatPcm, 0, audio.floatAudioData, 0, floatPcm.length);
+            else
+                System.arraycopy(pcm, 0, audio.audioData, 0, pcm.length);
+            mixer.offer(entry, timestamp, audio);
+        }
+        timestamp += AudioConnection.OPUS_FRAME_SIZE;
+        mixer.mix(handler, FORMAT);
+    }
+
+    private static class Handler implements AudioReceiveHandler
+    {
+        private final Blackhole blackhole;
+        private final boolean floatAudio;
+        private final boolean mixMinus;
+
+        private Handler(Blackhole blackhole, boolean floatAudio, boolean mixMinus)
+        {
+            this.blackhole = blackhole;
+            this.floatAudio = floatAudio;
+            this.mixMinus = mixMinus;
+        }
+
+        @Override
+        public boolean canReceiveCombined()
+        {
+            return !mixMinus;
+        }
+
+        @Override
+        public boolean canReceiveUser()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean canReceiveFloat()
+        {
+            return floatAudio;
+        }
+
+        @Override
+        public boolean canReceivePooled()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean canReceiveMixMinus()
+        {
+            return mixMinus;
+        }
+
+        @Override
+        public void handleCombinedAudio(CombinedAudio combinedAudio)
+        {
+            blackhole.consume(combinedAudio);
+        }
+
+        @Override
+        public void handleMixMinusAudio(long userId, CombinedAudio mixMinusAudio)
+        {
+            blackhole.consume(mixMinusAudio);
+        }
+
+        @Override
+        public void handleUserAudio(UserAudio userAudio) {}
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PCM kernels of {@link PcmUtil}, each over one 20ms stereo frame of 1920 samples, into re-used arrays.
+ * <br>Compare the loops against their scalar speed with {@code -jvmArgsAppend -XX:-UseSuperWord}, or look at the
+ * generated code with {@code -prof perfasm}, to check which of them the JIT vectorizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmUtilBenchmark
+{
+    private static final int SAMPLES = BenchmarkAudio.FRAME_SAMPLES;
+    private static final float GAIN = 0.5f;
+
+    private short[] pcm;
+    private short[] otherPcm;
+    private float[] floatPcm;
+    private float[] otherFloatPcm;
+    private byte[] bytePcm;
+
+    private short[] shortTarget;
+    private float[] floatTarget;
+    private byte[] byteTarget;
+    private int[] sum;
+    private short[] monoTarget;
+    private float[] floatMonoTarget;
+
+    @Setup
+    public void setup()
+    {
+        pcm = BenchmarkAudio.pcm(0);
+        otherPcm = BenchmarkAudio.pcm(1);
+        floatPcm = BenchmarkAudio.floatPcm(0);
+        otherFloatPcm = BenchmarkAudio.floatPcm(1);
+        bytePcm = BenchmarkAudio.bytePcm(0);
+
+        shortTarget = new short[SAMPLES];
+        floatTarget = new float[SAMPLES];
+        byteTarget = new byte[SAMPLES * 2];
+        sum = new int[SAMPLES];
+        monoTarget = new short[SAMPLES / 2];
+        floatMonoTarget = new float[SAMPLES / 2];
+        PcmUtil.accumulate(pcm, 0, sum, SAMPLES);
+        PcmUtil.accumulate(otherPcm, 0, sum, SAMPLES);
+    }
+
+    @Benchmark
+    public float[] toFloat()
+    {
+        PcmUtil.toFloat(pcm, 0, floatTarget, 0, SAMPLES);
+        return floatTarget;
+    }
+
+    @Benchmark
+    public short[] toShort()
+    {
+        PcmUtil.toShort(floatPcm, 0, shortTarget, 0, SAMPLES);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public byte[] toBytes()
+    {
+        PcmUtil.toBytes(pcm, 0, byteTarget, 0, SAMPLES, true);
+        return byteTarget;
+    }
+
+    @Benchmark
+    public byte[] toBytesGain()
+    {
+        PcmUtil.toBytes(pcm, 0, byteTarget, 0, SAMPLES, true, GAIN);
+        return byteTarget;
+    }
+
+    @Benchmark
+    public byte[] toBytesFromFloat()
+    {
+        PcmUtil.toBytes(floatPcm, 0, byteTarget, 0, SAMPLES, true, GAIN);
+        return byteTarget;
+    }
+
+    @Benchmark
+    public short[] toShorts()
+    {
+        PcmUtil.toShorts(bytePcm, 0, shortTarget, 0, SAMPLES, true);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public short[] applyGain()
+    {
+        PcmUtil.applyGain(pcm, 0, shortTarget, 0, SAMPLES, GAIN);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public float[] applyGainFloat()
+    {
+        PcmUtil.applyGain(floatPcm, 0, floatTarget, 0, SAMPLES, GAIN);
+        return floatTarget;
+    }
+
+    @Benchmark
+    public short[] mix()
+    {
+        System.arraycopy(otherPcm, 0, shortTarget, 0, SAMPLES);
+        PcmUtil.mix(pcm, shortTarget, SAMPLES);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public float[] mixFloat()
+    {
+        System.arraycopy(otherFloatPcm, 0, floatTarget, 0, SAMPLES);
+        PcmUtil.mix(floatPcm, floatTarget, SAMPLES);
+        return floatTarget;
+    }
+
+    @Benchmark
+    public int[] accumulate()
+    {
+        PcmUtil.accumulate(pcm, 0, sum, SAMPLES);
+        return sum;
+    }
+
+    @Benchmark
+    public short[] saturate()
+    {
+        PcmUtil.saturate(sum, shortTarget, SAMPLES);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public short[] saturateExcluding()
+    {
+        PcmUtil.saturate(sum, pcm, shortTarget, SAMPLES);
+        return shortTarget;
+    }
+
+    @Benchmark
+    public short[] downmix()
+    {
+        PcmUtil.downmix(pcm, monoTarget, SAMPLES / 2);
+        return monoTarget;
+    }
+
+    @Benchmark
+    public float[] downmixFloat()
+    {
+        PcmUtil.downmix(floatPcm, floatMonoTarget, SAMPLES / 2);
+        return floatMonoTarget;
+    }
+}
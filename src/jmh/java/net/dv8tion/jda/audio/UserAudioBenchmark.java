@@ -0,0 +1,68 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a decoded frame to the byte PCM handlers ask for, with and without volume, into a new array and into
+ * a re-used one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserAudioBenchmark
+{
+    @Param({"1.0", "0.5"})
+    public double volume;
+
+    private UserAudio audio;
+    private UserAudio floatAudio;
+    private byte[] target;
+
+    @Setup
+    public void setup()
+    {
+        audio = new UserAudio(1, BenchmarkAudio.pcm(0));
+        floatAudio = new UserAudio(1, BenchmarkAudio.floatPcm(0));
+        target = new byte[BenchmarkAudio.FRAME_SAMPLES * 2];
+    }
+
+    @Benchmark
+    public byte[] getAudioData()
+    {
+        return audio.getAudioData(volume);
+    }
+
+    @Benchmark
+    public byte[] getAudioDataInto()
+    {
+        audio.getAudioData(volume, target, 0);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] getAudioDataFromFloat()
+    {
+        return floatAudio.getAudioData(volume);
+    }
+}
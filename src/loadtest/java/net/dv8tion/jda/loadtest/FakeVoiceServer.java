@@ -0,0 +1,656 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.loadtest;
+
+import com.sun.jna.ptr.PointerByReference;
+import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.AudioPacket;
+import net.dv8tion.jda.audio.VoiceCode;
+import net.dv8tion.jda.utils.SimpleLog;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import tomp2p.opuswrapper.Opus;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for a Discord voice server on the local machine, for load and latency tests of
+ * {@link net.dv8tion.jda.audio.AudioWebSocket AudioWebSocket} and {@link AudioConnection}.
+ * <p>
+ * The WebSocket speaks enough of the voice gateway for JDA to connect: HELLO, READY, SESSION_DESCRIPTION, heartbeats,
+ * RESUMED and the speaking updates of its users. The UDP endpoint answers IP discovery, decrypts everything it
+ * receives and, in {@link Mode#ECHO}, sends it back as the audio of the user {@link #ECHO_USER_ID}.
+ * Every session additionally hears the configured amount of synthetic speakers, who play a tone.
+ * <p>
+ * The WebSocket is a minimal implementation of RFC 6455 for unfragmented text frames, one thread per connection.
+ * It is not meant for anything but this test.
+ */
+public class FakeVoiceServer implements Closeable
+{
+    public static final SimpleLog LOG = SimpleLog.getLog("FakeVoiceServer");
+
+    /**
+     * The user whose audio is the echo of what the session sent.
+     */
+    public static final long ECHO_USER_ID = 1;
+    /**
+     * The user of the first synthetic speaker, the others follow.
+     */
+    public static final long FIRST_SPEAKER_ID = 1000;
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int HEARTBEAT_INTERVAL = 41250;
+    private static final int TONE_FRAMES = 50;
+
+    public enum Mode
+    {
+        /** Sends every received packet back to its session. */
+        ECHO,
+        /** Only counts received packets. */
+        SINK
+    }
+
+    protected final Mode mode;
+    protected final int speakers;
+
+    private final ServerSocket webSocketServer;
+    private final DatagramSocket udpSocket;
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSsrc = new AtomicInteger(1);
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService speakerClock;
+    private final byte[][] tone;
+
+    private final AtomicLong receivedPackets = new AtomicLong();
+    private final AtomicLong sentPackets = new AtomicLong();
+    private final AtomicLong failedPackets = new AtomicLong();
+    private final Histogram sendLateness = new Histogram();
+    private volatile boolean closed = false;
+
+    /**
+     * Starts the server on the loopback interface, on ports chosen by the system.
+     *
+     * @param  mode
+     *         What to do with received audio
+     * @param  speakers
+     *         The amount of synthetic speakers every session hears
+     *
+     * @throws java.io.IOException
+     *         If the sockets can't be opened
+     */
+    public FakeVoiceServer(Mode mode, int speakers) throws IOException
+    {
+        this.mode = mode;
+        this.speakers = speakers;
+        this.tone = speakers > 0 ? encodeTone() : new byte[0][];
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.webSocketServer = new ServerSocket(0, 1024, loopback);
+        this.udpSocket = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        this.udpSocket.setReceiveBufferSize(4 * 1024 * 1024);
+        this.udpSocket.setSendBufferSize(4 * 1024 * 1024);
+
+        Thread acceptThread = new Thread(this::acceptLoop, "FakeVoiceServer WebSocket Accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Thread udpThread = new Thread(this::udpLoop, "FakeVoiceServer UDP");
+        udpThread.setDaemon(true);
+        udpThread.start();
+        speakerClock = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "FakeVoiceServer Speakers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (speakers > 0)
+            speakerClock.scheduleAtFixedRate(this::speak, 20, 20, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The endpoint to provide in the VOICE_SERVER_UPDATE, see
+     * {@link net.dv8tion.jda.Core#provideVoiceServerUpdate(String, JSONObject) Core.provideVoiceServerUpdate(...)}.
+     *
+     * @return The URI of the WebSocket
+     */
+    public String getEndpoint()
+    {
+        return "ws://" + webSocketServer.getInetAddress().getHostAddress() + ":" + webSocketServer.getLocalPort();
+    }
+
+    public int getSessionCount()
+    {
+        return sessions.size();
+    }
+
+    public long getReceivedPackets()
+    {
+        return receivedPackets.get();
+    }
+
+    public long getSentPackets()
+    {
+        return sentPackets.get();
+    }
+
+    /**
+     * @return The amount of packets that could not be decrypted or sent
+     */
+    public long getFailedPackets()
+    {
+        return failedPackets.get();
+    }
+
+    /**
+     * How late the packets of the sessions arrived compared to their RTP timestamps, relative to the earliest packet
+     * of the session. This is the lateness of the sending thread plus the delay of the loopback.
+     *
+     * @return The histogram of the lateness in microseconds
+     */
+    public Histogram getSendLateness()
+    {
+        return sendLateness;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        speakerClock.shutdownNow();
+        udpSocket.close();
+        try
+        {
+            webSocketServer.close();
+        }
+        catch (IOException ignored) {}
+        for (Session session : sessions.values())
+            session.close();
+    }
+
+    // -- WebSocket --
+
+    private void acceptLoop()
+    {
+        while (!closed)
+        {
+            try
+            {
+                Socket socket = webSocketServer.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket), "FakeVoiceServer WebSocket " + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                    LOG.log(e);
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        Session session = null;
+        try
+        {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            if (!handshake(in, out))
+            {
+                socket.close();
+                return;
+            }
+            Connection connection = new Connection(socket, out);
+            connection.send(VoiceCode.HELLO, new JSONObject().put("heartbeat_interval", HEARTBEAT_INTERVAL));
+
+            DataInputStream frames = new DataInputStream(in);
+            String message;
+            while ((message = readTextFrame(frames, connection)) != null)
+            {
+                JSONObject payload = new JSONObject(message);
+                JSONObject data = payload.optJSONObject("d");
+                switch (payload.getInt("op"))
+                {
+                    case VoiceCode.IDENTIFY:
+                        session = new Session(connection, nextSsrc.getAndAdd(speakers + 2));
+                        sessions.put(session.ssrc, session);
+                        connection.send(VoiceCode.READY, new JSONObject()
+                                .put("ssrc", session.ssrc)
+                                .put("port", udpSocket.getLocalPort())
+                                .put("ip", udpSocket.getLocalAddress().getHostAddress())
+                                .put("modes", new JSONArray().put("xsalsa20_poly1305")));
+                        break;
+                    case VoiceCode.SELECT_PROTOCOL:
+                        if (session == null)
+                            break;
+                        byte[] key = new byte[32];
+                        random.nextBytes(key);
+                        JSONArray keyArray = new JSONArray();
+                        for (byte b : key)
+                            keyArray.put(b & 0xFF);
+                        connection.send(VoiceCode.SESSION_DESCRIPTION, new JSONObject()
+                                .put("mode", "xsalsa20_poly1305")
+                                .put("secret_key", keyArray));
+                        session.secretKey = key;
+                        announce(session);
+                        break;
+                    case VoiceCode.HEARTBEAT:
+                        connection.send(VoiceCode.HEARTBEAT_ACK, payload.get("d"));
+                        break;
+                    case VoiceCode.RESUME:
+                        connection.send(VoiceCode.RESUMED, JSONObject.NULL);
+                        break;
+                    case VoiceCode.USER_SPEAKING_UPDATE:
+                        break;  //Our own speaking state, the audio tells us anyway
+                    default:
+                        LOG.debug("Unexpected op code: " + message + " " + data);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            //The client went away.
+        }
+        finally
+        {
+            if (session != null)
+                sessions.remove(session.ssrc);
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    private void announce(Session session) throws IOException
+    {
+        if (mode == Mode.ECHO)
+            session.connection.sendSpeaking(ECHO_USER_ID, session.ssrc + 1);
+        for (int i = 0; i < speakers; i++)
+            session.connection.sendSpeaking(FIRST_SPEAKER_ID + i, session.ssrc + 2 + i);
+    }
+
+    private static boolean handshake(InputStream in, OutputStream out) throws IOException
+    {
+        //Read up to the end of the header and not further, the frames follow right after it.
+        InputStream header = new HeaderInputStream(in);
+        StringBuilder request = new StringBuilder();
+        int b;
+        while ((b = header.read()) >= 0)
+            request.append((char) b);
+        String key = null;
+        for (String line : request.toString().split("\r\n"))
+        {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key"))
+                key = line.substring(colon + 1).trim();
+        }
+        if (key == null)
+            return false;
+        String accept;
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            accept = Base64.getEncoder().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Reads frames until a complete text message arrived, answering pings and closes on the way.
+     *
+     * @return The message, or null once the connection is closed
+     */
+    private static String readTextFrame(DataInputStream in, Connection connection) throws IOException
+    {
+        ByteBuffer message = ByteBuffer.allocate(0);
+        while (true)
+        {
+            int first = in.read();
+            if (first < 0)
+                return null;
+            int second = in.readUnsignedByte();
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            long length = second & 0x7F;
+            if (length == 126)
+                length = in.readUnsignedShort();
+            else if (length == 127)
+                length = in.readLong();
+            byte[] mask = new byte[4];
+            if ((second & 0x80) != 0)
+                in.readFully(mask);
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++)
+                payload[i] ^= mask[i & 3];
+
+            switch (opcode)
+            {
+                case 0x8:   //Close
+                    connection.write(0x8, payload);
+                    return null;
+                case 0x9:   //Ping
+                    connection.write(0xA, payload);
+                    continue;
+                case 0xA:   //Pong
+                    continue;
+                default:    //Text or continuation
+                    ByteBuffer grown = ByteBuffer.allocate(message.capacity() + payload.length);
+                    grown.put(message.array()).put(payload);
+                    message = grown;
+                    if (fin)
+                        return new String(message.array(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // -- UDP --
+
+    private void udpLoop()
+    {
+        byte[] buffer = new byte[2048];
+        while (!closed)
+        {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try
+            {
+                udpSocket.receive(packet);
+                long arrival = System.nanoTime();
+                if (packet.getLength() == 70 && buffer[0] != AudioPacket.RTP_VERSION_PAD_EXTEND)
+                    discover(packet);
+                else if (packet.getLength() > AudioPacket.RTP_HEADER_BYTE_LENGTH && buffer[0] == AudioPacket.RTP_VERSION_PAD_EXTEND)
+                    receiveAudio(packet, arrival);
+                //Anything else is a keep-alive.
+            }
+            catch (SocketException e)
+            {
+                //Closed
+            }
+            catch (Exception e)
+            {
+                failedPackets.incrementAndGet();
+                LOG.log(e);
+            }
+        }
+    }
+
+    private void discover(DatagramPacket packet) throws IOException
+    {
+        int ssrc = ByteBuffer.wrap(packet.getData(), 0, 4).getInt();
+        Session session = sessions.get(ssrc);
+        if (session == null)
+            return;
+        InetSocketAddress address = (InetSocketAddress) packet.getSocketAddress();
+        session.address = address;
+
+        //4 bytes ssrc, the address as null padded string, the port as little-endian unsigned short in the last 2 bytes.
+        byte[] response = new byte[70];
+        ByteBuffer.wrap(response).putInt(ssrc);
+        byte[] ip = address.getAddress().getHostAddress().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(ip, 0, response, 4, ip.length);
+        response[68] = (byte) address.getPort();
+        response[69] = (byte) (address.getPort() >> 8);
+        udpSocket.send(new DatagramPacket(response, response.length, address));
+    }
+
+    private void receiveAudio(DatagramPacket packet, long arrival) throws IOException
+    {
+        receivedPackets.incrementAndGet();
+        Session session = sessions.get(AudioPacket.readSSRC(packet));
+        if (session == null || session.secretKey == null)
+            return;
+        AudioPacket decrypted;
+        try
+        {
+            decrypted = AudioPacket.decryptAudioPacket(packet, session.secretKey);
+        }
+        catch (NullPointerException e)
+        {
+            //The box did not open, the packet was not encrypted with the session key.
+            failedPackets.incrementAndGet();
+            return;
+        }
+        session.measure(decrypted.getTimestamp(), arrival);
+        if (mode == Mode.ECHO && session.address != null)
+        {
+            AudioPacket echo = new AudioPacket(decrypted.getSequence(), decrypted.getTimestamp(), session.ssrc + 1, decrypted.getEncodedAudio());
+            udpSocket.send(echo.asEncryptedUdpPacket(session.address, session.secretKey));
+            sentPackets.incrementAndGet();
+        }
+    }
+
+    private void speak()
+    {
+        for (Session session : sessions.values())
+        {
+            if (session.address == null || session.secretKey == null)
+                continue;
+            byte[] frame = tone[(int) (session.speakerFrames++ % tone.length)];
+            for (int i = 0; i < speakers; i++)
+            {
+                AudioPacket packet = new AudioPacket(session.speakerSequence, session.speakerTimestamp, session.ssrc + 2 + i, frame);
+                try
+                {
+                    udpSocket.send(packet.asEncryptedUdpPacket(session.address, session.secretKey));
+                    sentPackets.incrementAndGet();
+                }
+                catch (IOException e)
+                {
+                    failedPackets.incrementAndGet();
+                }
+            }
+            session.speakerSequence++;
+            session.speakerTimestamp += AudioConnection.OPUS_FRAME_SIZE;
+        }
+    }
+
+    /**
+     * Encodes a second of a 440Hz tone, which the synthetic speakers play in a loop. Real Opus frames, so that
+     * receiving them costs what decoding real speech costs.
+     */
+    private static byte[][] encodeTone()
+    {
+        IntBuffer error = IntBuffer.allocate(1);
+        PointerByReference encoder = Opus.INSTANCE.opus_encoder_create(AudioConnection.OPUS_SAMPLE_RATE,
+                AudioConnection.OPUS_CHANNEL_COUNT, Opus.OPUS_APPLICATION_AUDIO, error);
+        try
+        {
+            byte[][] frames = new byte[TONE_FRAMES][];
+            ShortBuffer pcm = ShortBuffer.allocate(AudioConnection.OPUS_FRAME_SIZE * AudioConnection.OPUS_CHANNEL_COUNT);
+            ByteBuffer encoded = ByteBuffer.allocate(4096);
+            for (int frame = 0; frame < TONE_FRAMES; frame++)
+            {
+                pcm.clear();
+                for (int i = 0; i < AudioConnection.OPUS_FRAME_SIZE; i++)
+                {
+                    double t = (frame * AudioConnection.OPUS_FRAME_SIZE + i) / (double) AudioConnection.OPUS_SAMPLE_RATE;
+                    short sample = (short) (Math.sin(2 * Math.PI * 440 * t) * 8000);
+                    pcm.put(sample).put(sample);
+                }
+                pcm.flip();
+                encoded.clear();
+                int length = Opus.INSTANCE.opus_encode(encoder, pcm, AudioConnection.OPUS_FRAME_SIZE, encoded, encoded.capacity());
+                if (length < 0)
+                    throw new IllegalStateException("Failed to encode the tone: " + length);
+                frames[frame] = new byte[length];
+                encoded.get(frames[frame]);
+            }
+            return frames;
+        }
+        finally
+        {
+            Opus.INSTANCE.opus_encoder_destroy(encoder);
+        }
+    }
+
+    private class Session
+    {
+        private final Connection connection;
+        private final int ssrc;
+        private volatile byte[] secretKey;
+        private volatile InetSocketAddress address;
+
+        //Only used by the speaker clock.
+        private long speakerFrames;
+        private char speakerSequence;
+        private int speakerTimestamp;
+
+        //Only used by the UDP thread.
+        private boolean measuring;
+        private int lastTimestamp;
+        private long extendedTimestamp;
+        private long minOffset;
+
+        private Session(Connection connection, int ssrc)
+        {
+            this.connection = connection;
+            this.ssrc = ssrc;
+        }
+
+        private void measure(int timestamp, long arrival)
+        {
+            if (!measuring)
+            {
+                measuring = true;
+                lastTimestamp = timestamp;
+                extendedTimestamp = 0;
+                minOffset = arrival;
+            }
+            extendedTimestamp += timestamp - lastTimestamp;
+            lastTimestamp = timestamp;
+
+            //The offset between the arrival and the time the timestamp stands for, the smallest one is "on time".
+            long offset = arrival - extendedTimestamp * 1_000_000_000L / AudioConnection.OPUS_SAMPLE_RATE;
+            minOffset = Math.min(minOffset, offset);
+            sendLateness.record((offset - minOffset) / 1000);
+        }
+
+        private void close()
+        {
+            try
+            {
+                connection.socket.close();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    private static class Connection
+    {
+        private final Socket socket;
+        private final OutputStream out;
+
+        private Connection(Socket socket, OutputStream out)
+        {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        private void send(int op, Object data) throws IOException
+        {
+            String message = new JSONObject().put("op", op).put("d", data).toString();
+            write(0x1, message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void sendSpeaking(long userId, int ssrc) throws IOException
+        {
+            send(VoiceCode.USER_SPEAKING_UPDATE, new JSONObject()
+                    .put("user_id", Long.toUnsignedString(userId))
+                    .put("ssrc", ssrc)
+                    .put("speaking", true));
+        }
+
+        private synchronized void write(int opcode, byte[] payload) throws IOException
+        {
+            //Server frames are not masked.
+            ByteBuffer header = ByteBuffer.allocate(10);
+            header.put((byte) (0x80 | opcode));
+            if (payload.length < 126)
+                header.put((byte) payload.length);
+            else if (payload.length <= 0xFFFF)
+                header.put((byte) 126).putShort((short) payload.length);
+            else
+                header.put((byte) 127).putLong(payload.length);
+            out.write(header.array(), 0, header.position());
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    /**
+     * Ends at the blank line of the HTTP header, so that reading the header doesn't consume the first frames.
+     */
+    private static class HeaderInputStream extends InputStream
+    {
+        private final InputStream in;
+        private int matched = 0;    //Of "\r\n\r\n"
+
+        private HeaderInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (matched == 4)
+                return -1;
+            int b = in.read();
+            if (b == (matched % 2 == 0 ? '\r' : '\n'))
+                matched++;
+            else
+                matched = b == '\r' ? 1 : 0;
+            return b;
+        }
+    }
+}
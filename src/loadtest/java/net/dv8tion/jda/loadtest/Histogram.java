@@ -0,0 +1,97 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of microsecond values in buckets of 100 microseconds, up to 10 seconds.
+ * <br>Recording is lock-free, so it can be shared by all connections of the test.
+ */
+public class Histogram
+{
+    private static final int BUCKET_MICROS = 100;
+    private static final int BUCKETS = 100_000;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros)
+    {
+        if (micros < 0)
+            micros = 0;
+        buckets.incrementAndGet((int) Math.min(micros / BUCKET_MICROS, BUCKETS - 1));
+        count.incrementAndGet();
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros));
+    }
+
+    /**
+     * Forgets everything recorded so far, e.g. the warm-up. Samples recorded concurrently may be lost.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        max.set(0);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @param  percentile
+     *         The percentile, between 0 and 100
+     *
+     * @return The upper bound of the bucket of the percentile in microseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += buckets.get(i);
+            if (seen >= target)
+                return Math.min((i + 1L) * BUCKET_MICROS, max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (getCount() == 0)
+            return "no samples";
+        return String.format("p50 %.1fms, p99 %.1fms, p99.9 %.1fms, max %.1fms (%d samples)",
+                getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0,
+                getMax() / 1000.0, getCount());
+    }
+}
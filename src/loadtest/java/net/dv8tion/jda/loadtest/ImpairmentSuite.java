@@ -0,0 +1,223 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.loadtest;
+
+import net.dv8tion.jda.Core;
+import net.dv8tion.jda.audio.AudioReceiveHandler;
+import net.dv8tion.jda.audio.AudioStatistics;
+import net.dv8tion.jda.audio.CombinedAudio;
+import net.dv8tion.jda.audio.NetworkImpairment;
+import net.dv8tion.jda.audio.UserAudio;
+import net.dv8tion.jda.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.manager.AudioManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a connection to a {@link FakeVoiceServer} through a series of {@link NetworkImpairment} profiles and reports,
+ * for each of them, how continuous the combined audio of a synthetic speaker stayed and the latency of the echo.
+ * <p>
+ * Both directions are impaired, so the echo latency contains the impairment twice. Continuity is the share of
+ * 20ms slots of the {@link CombinedAudio} that contained the speaker, the longest gap is the longest run of slots
+ * without it. A seed makes the runs repeatable as far as the timing of the threads allows.
+ *
+ * <p>Usage: {@code ImpairmentSuite [seconds per profile] [seed]}
+ */
+public class ImpairmentSuite
+{
+    private static final long USER_ID = 10;
+    private static final long GUILD_ID = 100_000;
+    private static final long CHANNEL_ID = 200_000;
+    private static final long WARMUP = TimeUnit.SECONDS.toMillis(2);
+
+    private static final Profile[] PROFILES = {
+        new Profile("clean", impairment -> {}),
+        new Profile("loss 2%", impairment -> impairment.setLoss(0.02)),
+        new Profile("loss 10%", impairment -> impairment.setLoss(0.1)),
+        new Profile("bursts of 5", impairment -> impairment.setBurstLoss(0.01, 5)),
+        new Profile("jitter 30ms", impairment -> impairment.setDelay(20, 30)),
+        new Profile("jitter 80ms", impairment -> impairment.setDelay(20, 80)),
+        new Profile("reorder 5%", impairment -> impairment.setReorder(0.05, 40)),
+        new Profile("duplicate 5%", impairment -> impairment.setDuplication(0.05)),
+        new Profile("mobile", impairment ->
+        {
+            impairment.setLoss(0.02);
+            impairment.setBurstLoss(0.005, 4);
+            impairment.setDelay(40, 40);
+            impairment.setReorder(0.02, 40);
+            impairment.setDuplication(0.01);
+        })
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        if (!AudioManager.init())
+        {
+            System.err.println("Audio is not supported on this system, the natives could not be loaded");
+            System.exit(1);
+        }
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+        System.out.printf("%-14s %11s %12s %26s %24s %15s%n", "profile", "continuity", "longest gap", "echo latency p50/p99/max",
+                "received: dropped/dup/reord", "lost/concealed");
+        for (Profile profile : PROFILES)
+            System.out.println(run(profile, seconds, seed));
+        System.exit(0);
+    }
+
+    private static String run(Profile profile, int seconds, long seed) throws Exception
+    {
+        NetworkImpairment receive = new NetworkImpairment(seed);
+        NetworkImpairment send = new NetworkImpairment(seed + 1);
+        profile.configure.accept(receive);
+        profile.configure.accept(send);
+
+        Histogram latency = new Histogram();
+        ContinuityHandler continuity = new ContinuityHandler(FakeVoiceServer.FIRST_SPEAKER_ID);
+        CountDownLatch connected = new CountDownLatch(1);
+        AudioStatistics statistics;
+        try (FakeVoiceServer server = new FakeVoiceServer(FakeVoiceServer.Mode.ECHO, 1))
+        {
+            Core core = new LocalGateway(server).createCore(USER_ID);
+            AudioManager audioManager = core.getAudioManager(GUILD_ID);
+            audioManager.setReceiveImpairment(receive);
+            audioManager.setSendImpairment(send);
+            audioManager.setSendingHandler(new LoadTest.TimestampSendHandler());
+            audioManager.addOpusReceiveHandler(new LoadTest.EchoLatencyHandler(latency));
+            audioManager.setReceivingHandler(continuity);
+            audioManager.setConnectionListener(new ConnectionListener()
+            {
+                @Override
+                public void onPing(long ping) {}
+
+                @Override
+                public void onStatusChange(ConnectionStatus status)
+                {
+                    if (status == ConnectionStatus.CONNECTED)
+                        connected.countDown();
+                }
+
+                @Override
+                public void onUserSpeaking(String userId, boolean speaking) {}
+            });
+            audioManager.openAudioConnection(CHANNEL_ID);
+            if (!connected.await(10, TimeUnit.SECONDS))
+                return String.format("%-14s did not connect", profile.name);
+
+            Thread.sleep(WARMUP);
+            latency.reset();
+            continuity.start();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            continuity.stop();
+            statistics = audioManager.getStatistics();
+            audioManager.closeAudioConnection();
+        }
+
+        return String.format("%-14s %10.2f%% %10dms %8.1f/%6.1f/%6.1fms %11d/%d/%d %15s",
+                profile.name, continuity.getContinuity() * 100, continuity.getLongestGap() * 20,
+                latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0,
+                receive.getDropped(), receive.getDuplicated(), receive.getReordered(),
+                statistics.getLost() + "/" + statistics.getConcealed());
+    }
+
+    private static class Profile
+    {
+        private final String name;
+        private final Consumer<NetworkImpairment> configure;
+
+        private Profile(String name, Consumer<NetworkImpairment> configure)
+        {
+            this.name = name;
+            this.configure = configure;
+        }
+    }
+
+    /**
+     * Counts the slots of combined audio that contain the speaker. Only used by the mixing thread while measuring.
+     */
+    private static class ContinuityHandler implements AudioReceiveHandler
+    {
+        private final long speaker;
+        private volatile boolean measuring = false;
+        private long slots;
+        private long present;
+        private long gap;
+        private long longestGap;
+
+        private ContinuityHandler(long speaker)
+        {
+            this.speaker = speaker;
+        }
+
+        private void start()
+        {
+            measuring = true;
+        }
+
+        private synchronized void stop()
+        {
+            measuring = false;
+        }
+
+        private synchronized double getContinuity()
+        {
+            return slots == 0 ? 0 : (double) present / slots;
+        }
+
+        private synchronized long getLongestGap()
+        {
+            return Math.max(longestGap, gap);
+        }
+
+        @Override
+        public boolean canReceiveCombined()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean canReceiveUser()
+        {
+            return false;
+        }
+
+        @Override
+        public synchronized void handleCombinedAudio(CombinedAudio combinedAudio)
+        {
+            if (!measuring)
+                return;
+            slots++;
+            if (combinedAudio.getUserIdsLong().contains(speaker))
+            {
+                present++;
+                longestGap = Math.max(longestGap, gap);
+                gap = 0;
+            }
+            else
+            {
+                gap++;
+            }
+        }
+
+        @Override
+        public void handleUserAudio(UserAudio userAudio) {}
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.loadtest;
+
+import net.dv8tion.jda.Core;
+import net.dv8tion.jda.audio.AudioPacket;
+import net.dv8tion.jda.audio.AudioReceiveHandler;
+import net.dv8tion.jda.audio.AudioSendHandler;
+import net.dv8tion.jda.audio.CombinedAudio;
+import net.dv8tion.jda.audio.OpusReceiveHandler;
+import net.dv8tion.jda.audio.UserAudio;
+import net.dv8tion.jda.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.audio.transport.ChannelTransport;
+import net.dv8tion.jda.manager.AudioManager;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects many guilds of one {@link Core} to a {@link FakeVoiceServer} and reports how the audio system holds up.
+ * <p>
+ * Every guild sends a frame every 20 milliseconds, which the server echoes back, and hears the synthetic speakers
+ * of the server. Measured are:
+ * <ul>
+ *     <li>The time from {@link AudioManager#openAudioConnection(long)} until the connection is
+ *         {@link ConnectionStatus#CONNECTED CONNECTED}</li>
+ *     <li>The send lateness: how far the packets of a connection drift from their 20 millisecond schedule</li>
+ *     <li>The end-to-end latency from {@link AudioSendHandler#provide20MsAudio()} until the echo was received</li>
+ *     <li>CPU, heap, direct memory and threads of the process</li>
+ * </ul>
+ * The server runs in the same process, so CPU and memory include its share, which grows with the guilds as well.
+ *
+ * <p>Usage: {@code LoadTest <guilds> <seconds> [speakers] [decode] [channel]}, e.g. through {@code gradlew loadTest -Pguilds=1000}.
+ * <br>With {@code decode} the received audio is decoded for an {@link AudioReceiveHandler} too.
+ * With {@code channel} the connections use a {@link ChannelTransport} instead of the default socket transport.
+ */
+public class LoadTest
+{
+    private static final long USER_ID = 10;
+    private static final long FIRST_GUILD_ID = 100_000;
+    private static final long CHANNEL_OFFSET = 1_000_000;
+    private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final long WARMUP = TimeUnit.SECONDS.toMillis(5);
+
+    //TOC of a 20ms stereo CELT frame, followed by the time the frame was provided.
+    private static final byte FRAME_TOC = (byte) 0xFC;
+    private static final int FRAME_LENGTH = 120;
+
+    private final int guilds;
+    private final int durationSeconds;
+    private final boolean decode;
+    private final FakeVoiceServer server;
+    private final Core core;
+
+    private final Histogram connectTime = new Histogram();
+    private final Histogram latency = new Histogram();
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final CountDownLatch connected;
+
+    public LoadTest(int guilds, int durationSeconds, int speakers, boolean decode, boolean channel) throws Exception
+    {
+        this.guilds = guilds;
+        this.durationSeconds = durationSeconds;
+        this.decode = decode;
+        this.connected = new CountDownLatch(guilds);
+        this.server = new FakeVoiceServer(FakeVoiceServer.Mode.ECHO, speakers);
+        this.core = new LocalGateway(server).createCore(USER_ID);
+        if (channel)
+            core.setTransportFactory(ChannelTransport::new);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: LoadTest <guilds> <seconds> [speakers] [decode] [channel]");
+            System.exit(1);
+        }
+        if (!AudioManager.init())
+        {
+            System.err.println("Audio is not supported on this system, the natives could not be loaded");
+            System.exit(1);
+        }
+        int guilds = Integer.parseInt(args[0]);
+        int duration = Integer.parseInt(args[1]);
+        int speakers = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        List<String> options = Arrays.asList(args).subList(Math.min(3, args.length), args.length);
+
+        new LoadTest(guilds, duration, speakers, options.contains("decode"), options.contains("channel")).run();
+        System.exit(0);
+    }
+
+    public void run() throws InterruptedException
+    {
+        System.out.printf("Connecting %d guilds to %s%n", guilds, server.getEndpoint());
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < guilds; i++)
+            connect(FIRST_GUILD_ID + i);
+        if (!connected.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS))
+            System.out.printf("Only %d of %d guilds connected within %ds%n", guilds - connected.getCount(), guilds, CONNECT_TIMEOUT / 1000);
+        System.out.printf("Connected in %dms, connect time: %s%n", System.currentTimeMillis() - start, connectTime);
+
+        //Only the steady state counts: skip the warm-up of the JIT, the decoders and the connections that came last.
+        Thread.sleep(WARMUP);
+        server.getSendLateness().reset();
+        latency.reset();
+        Sample before = new Sample();
+        long receivedBefore = server.getReceivedPackets();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        Sample after = new Sample();
+
+        System.out.printf("Send lateness:      %s%n", server.getSendLateness());
+        System.out.printf("End-to-end latency: %s%n", latency);
+        System.out.printf("Packets received by the server: %.0f/s (%.0f/s expected), failed: %d%n",
+                (server.getReceivedPackets() - receivedBefore) / (double) durationSeconds,
+                (guilds - connected.getCount()) * 50.0, server.getFailedPackets());
+        if (decode)
+            System.out.printf("Decoded frames: %d%n", decodedFrames.get());
+        System.out.printf("CPU: %.1f%% of one core%n", (after.cpuNanos - before.cpuNanos) * 100.0 / (after.wallNanos - before.wallNanos));
+        System.out.printf("Heap: %dMB, direct: %dMB, threads: %d%n", after.heap >> 20, after.direct >> 20, after.threads);
+        System.out.printf("Audio statistics of all guilds, including the warm-up:%n%s%n", core.getStatistics());
+
+        for (int i = 0; i < guilds; i++)
+            core.getAudioManager(FIRST_GUILD_ID + i).closeAudioConnection();
+        server.close();
+    }
+
+    private void connect(long guildId)
+    {
+        AudioManager audioManager = core.getAudioManager(guildId);
+        long start = System.nanoTime();
+        audioManager.setConnectionListener(new ConnectionListener()
+        {
+            private boolean counted = false;
+
+            @Override
+            public void onPing(long ping) {}
+
+            @Override
+            public void onStatusChange(ConnectionStatus status)
+            {
+                if (status == ConnectionStatus.CONNECTED && !counted)
+                {
+                    counted = true;
+                    connectTime.record((System.nanoTime() - start) / 1000);
+                    connected.countDown();
+                }
+            }
+
+            @Override
+            public void onUserSpeaking(String userId, boolean speaking) {}
+        });
+        audioManager.setSendingHandler(new TimestampSendHandler());
+        audioManager.addOpusReceiveHandler(new EchoLatencyHandler(latency));
+        if (decode)
+            audioManager.setReceivingHandler(new CountingReceiveHandler());
+        audioManager.openAudioConnection(guildId + CHANNEL_OFFSET);
+    }
+
+    /**
+     * Sends frames that carry the time they were provided, see {@link EchoLatencyHandler}. Not valid audio.
+     */
+    static class TimestampSendHandler implements AudioSendHandler
+    {
+        @Override
+        public boolean canProvide()
+        {
+            return true;
+        }
+
+        @Override
+        public byte[] provide20MsAudio()
+        {
+            byte[] frame = new byte[FRAME_LENGTH];
+            frame[0] = FRAME_TOC;
+            ByteBuffer.wrap(frame, 1, 8).putLong(System.nanoTime());
+            return frame;
+        }
+
+        @Override
+        public boolean isOpus()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Records the time from providing a frame of the {@link TimestampSendHandler} until its echo arrived.
+     */
+    static class EchoLatencyHandler implements OpusReceiveHandler
+    {
+        private final Histogram latency;
+
+        EchoLatencyHandler(Histogram latency)
+        {
+            this.latency = latency;
+        }
+
+        @Override
+        public boolean canReceiveUser(long userId)
+        {
+            return userId == FakeVoiceServer.ECHO_USER_ID;
+        }
+
+        @Override
+        public void handleOpusPacket(long userId, AudioPacket packet)
+        {
+            long now = System.nanoTime();
+            byte[] audio = packet.getEncodedAudio();
+            if (audio.length == FRAME_LENGTH && audio[0] == FRAME_TOC)
+                latency.record((now - ByteBuffer.wrap(audio, 1, 8).getLong()) / 1000);
+        }
+    }
+
+    private class CountingReceiveHandler implements AudioReceiveHandler
+    {
+        @Override
+        public boolean canReceiveCombined()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean canReceiveUser()
+        {
+            return true;
+        }
+
+        @Override
+        public void handleCombinedAudio(CombinedAudio combinedAudio) {}
+
+        @Override
+        public void handleUserAudio(UserAudio userAudio)
+        {
+            decodedFrames.incrementAndGet();
+        }
+    }
+
+    private static class Sample
+    {
+        private final long wallNanos = System.nanoTime();
+        private final long cpuNanos = processCpuTime();
+        private final long heap;
+        private final long direct;
+        private final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        private Sample()
+        {
+            MemoryUsage usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            heap = usage.getUsed();
+            long direct = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+            {
+                if (pool.getName().equals("direct"))
+                    direct += pool.getMemoryUsed();
+            }
+            this.direct = direct;
+        }
+
+        private static long processCpuTime()
+        {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            return 0;
+        }
+    }
+}
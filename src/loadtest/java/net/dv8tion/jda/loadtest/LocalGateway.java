@@ -0,0 +1,138 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.loadtest;
+
+import net.dv8tion.jda.Core;
+import net.dv8tion.jda.CoreClient;
+import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.manager.ConnectionManager;
+import net.dv8tion.jda.utils.MiscUtil;
+import org.json.JSONObject;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stands in for the main gateway of Discord: answers the voice state updates of a {@link Core} with a voice server
+ * update for a {@link FakeVoiceServer}, and lets every guild and channel exist.
+ */
+class LocalGateway implements CoreClient
+{
+    private final FakeVoiceServer server;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r ->
+    {
+        Thread thread = new Thread(r, "LocalGateway");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Core core;
+
+    LocalGateway(FakeVoiceServer server)
+    {
+        this.server = server;
+    }
+
+    /**
+     * Creates the core this gateway answers.
+     */
+    Core createCore(long userId)
+    {
+        core = new Core(MiscUtil.toSnowflake(userId), this, DirectConnectionManager::new);
+        return core;
+    }
+
+    @Override
+    public void sendWS(String message)
+    {
+        JSONObject payload = new JSONObject(message);
+        if (payload.getInt("op") != 4)
+            return;
+        JSONObject data = payload.getJSONObject("d");
+        if (data.isNull("channel_id"))
+            return;
+        String guildId = data.getString("guild_id");
+        JSONObject serverUpdate = new JSONObject()
+                .put("guild_id", guildId)
+                .put("endpoint", server.getEndpoint())
+                .put("token", "loadtest");
+        executor.execute(() -> core.provideVoiceServerUpdate("loadtest-" + guildId, serverUpdate));
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean inGuild(String guildId)
+    {
+        return true;
+    }
+
+    @Override
+    public boolean voiceChannelExists(String guildId, String channelId)
+    {
+        return true;
+    }
+
+    @Override
+    public boolean hasPermissionInChannel(String guildId, String channelId, long permission)
+    {
+        return true;
+    }
+
+    /**
+     * Sends the voice state update right away. The local gateway has no rate limit, and thousands of guilds
+     * would otherwise take an hour to connect.
+     */
+    private static class DirectConnectionManager implements ConnectionManager
+    {
+        private final Core core;
+
+        private DirectConnectionManager(Core core)
+        {
+            this.core = core;
+        }
+
+        @Override
+        public void queueAudioConnect(String guildId, String channelId)
+        {
+            queueAudioConnect(MiscUtil.parseSnowflake(guildId), MiscUtil.parseSnowflake(channelId));
+        }
+
+        @Override
+        public void removeAudioConnection(String guildId) {}
+
+        @Override
+        public void queueAudioConnect(long guildId, long channelId)
+        {
+            AudioManager audioManager = core.getAudioManager(guildId);
+            core.getClient().sendWS(new JSONObject()
+                    .put("op", 4)
+                    .put("d", new JSONObject()
+                            .put("guild_id", MiscUtil.toSnowflake(guildId))
+                            .put("channel_id", MiscUtil.toSnowflake(channelId))
+                            .put("self_mute", audioManager.isSelfMuted())
+                            .put("self_deaf", audioManager.isSelfDeafened()))
+                    .toString());
+        }
+
+        @Override
+        public void removeAudioConnection(long guildId) {}
+    }
+}
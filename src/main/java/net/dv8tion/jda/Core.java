@@ -16,31 +16,44 @@
 
 package net.dv8tion.jda;
 
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.audio.AudioCounters;
+import net.dv8tion.jda.audio.AudioStatistics;
 import net.dv8tion.jda.audio.AudioWebSocket;
+import net.dv8tion.jda.audio.CombinedAudioScheduler;
 import net.dv8tion.jda.audio.factory.DefaultSendFactory;
 import net.dv8tion.jda.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.audio.transport.SocketTransport;
+import net.dv8tion.jda.audio.transport.VoiceTransportFactory;
 import net.dv8tion.jda.handle.VoiceServerUpdateHandler;
 import net.dv8tion.jda.manager.AudioManager;
 import net.dv8tion.jda.manager.ConnectionManager;
 import net.dv8tion.jda.manager.ConnectionManagerBuilder;
 import net.dv8tion.jda.manager.DefaultConnectionManager;
+import net.dv8tion.jda.utils.MiscUtil;
 import net.dv8tion.jda.utils.SimpleLog;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 public class Core
 {
     public static SimpleLog LOG = SimpleLog.getLog("Core");
 
-    private final HashMap<String, AudioManager> audioManagers = new HashMap<>();
+    //Copy-on-write, republished on every insert so that lookups never lock. AudioManagers are never removed.
+    private volatile TLongObjectMap<AudioManager> audioManagers = new TLongObjectHashMap<>();
+    private final Object audioManagerLock = new Object();
     private final ConnectionManager connManager;
     private final ScheduledThreadPoolExecutor audioKeepAlivePool;
+    private final CombinedAudioScheduler combinedAudioScheduler;
     private final VoiceServerUpdateHandler vsuHandler;
-    private final String userId;
+    private final long userId;
     private final CoreClient coreClient;
     private final IAudioSendFactory sendFactory;
+    private volatile VoiceTransportFactory transportFactory = SocketTransport::new;
 
     /**
      * Creates a new Core instance. You should probably have one of these for each shard, but you do you.
@@ -85,11 +98,12 @@ public class Core
      */
     public Core(String userId, CoreClient coreClient, ConnectionManagerBuilder connectionManagerBuilder, IAudioSendFactory sendFactory)
     {
-        this.userId = userId;
+        this.userId = MiscUtil.parseSnowflake(userId);
         this.coreClient = coreClient;
         this.vsuHandler = new VoiceServerUpdateHandler(this);
         this.connManager = connectionManagerBuilder.build(this);
         this.audioKeepAlivePool = new ScheduledThreadPoolExecutor(1, new AudioWebSocket.KeepAliveThreadFactory());
+        this.combinedAudioScheduler = new CombinedAudioScheduler();
         this.sendFactory = sendFactory;
     }
 
@@ -104,22 +118,56 @@ public class Core
     }
 
     public AudioManager getAudioManager(String guildId)
+    {
+        return getAudioManager(MiscUtil.parseSnowflake(guildId));
+    }
+
+    public AudioManager getAudioManager(long guildId)
     {
         AudioManager manager = audioManagers.get(guildId);
-        if (manager == null)
+        if (manager != null)
+            return manager;
+        synchronized (audioManagerLock)
         {
-            synchronized (audioManagers)
+            manager = audioManagers.get(guildId);
+            if (manager == null)
             {
-                manager = audioManagers.get(guildId);
-                if (manager == null)
-                {
-                    manager = new AudioManager(this, guildId);
-                    audioManagers.put(guildId, manager);
-                }
+                manager = new AudioManager(this, guildId);
+                TLongObjectMap<AudioManager> updated = new TLongObjectHashMap<>(audioManagers.size() + 1);
+                updated.putAll(audioManagers);
+                updated.put(guildId, manager);
+                audioManagers = updated;
             }
+            return manager;
         }
+    }
 
-        return manager;
+    /**
+     * @return Snapshot of all AudioManagers that were created so far
+     */
+    public List<AudioManager> getAudioManagers()
+    {
+        return new ArrayList<>(audioManagers.valueCollection());
+    }
+
+    /**
+     * Adds up the {@link net.dv8tion.jda.audio.AudioStatistics AudioStatistics} of all guilds.
+     * <br>The statistics are collected from every {@link AudioManager} when this is called, nothing is aggregated
+     * while audio is sent or received.
+     *
+     * @return The statistics of all guilds
+     */
+    public AudioStatistics getStatistics()
+    {
+        List<AudioManager> managers = getAudioManagers();
+        List<AudioCounters> counters = new ArrayList<>(managers.size());
+        int decoders = 0;
+        for (AudioManager manager : managers)
+        {
+            counters.add(manager.getCounters());
+            decoders += manager.getDecoderCount();
+        }
+        return AudioCounters.snapshot(counters, decoders);
     }
 
     public IAudioSendFactory getSendFactory()
@@ -127,6 +175,25 @@ public class Core
         return sendFactory;
     }
 
+    public VoiceTransportFactory getTransportFactory()
+    {
+        return transportFactory;
+    }
+
+    /**
+     * Sets the factory of the datagram transports between the audio connections and the voice servers.
+     * <br>Only connections that are established after this call use the new factory.
+     *
+     * @param transportFactory
+     *        The factory to use, {@link net.dv8tion.jda.audio.transport.SocketTransport SocketTransport::new} by default
+     */
+    public void setTransportFactory(VoiceTransportFactory transportFactory)
+    {
+        if (transportFactory == null)
+            throw new IllegalArgumentException("Provided transport factory must not be null");
+        this.transportFactory = transportFactory;
+    }
+
     // ====================================================================
     // =                         Helper Methods
     // ====================================================================
@@ -146,7 +213,17 @@ public class Core
         return audioKeepAlivePool;
     }
 
+    public CombinedAudioScheduler getCombinedAudioScheduler()
+    {
+        return combinedAudioScheduler;
+    }
+
     public String getUserId()
+    {
+        return MiscUtil.toSnowflake(userId);
+    }
+
+    public long getUserIdLong()
     {
         return userId;
     }
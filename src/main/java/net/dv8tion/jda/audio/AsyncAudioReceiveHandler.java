@@ -0,0 +1,427 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import net.dv8tion.jda.manager.AudioManager;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates an {@link AudioReceiveHandler} so that its callbacks run on an executor of its own instead of the
+ * receiving and mixing threads of the connection.
+ * <br>Audio is handed over through bounded queues, a handler that falls behind loses audio according to its
+ * {@link OverflowPolicy} instead of stalling the intake of packets. User frames have a queue of their own, apart from
+ * the combined and mix-minus frames, so that the frames of many users never push the mixed audio out.
+ * <p>
+ * Up to {@link #getMaxBatch() maxBatch} queued frames of the same kind are delivered at once through
+ * {@link AudioReceiveHandler#handleUserAudioBatch(List)} and {@link AudioReceiveHandler#handleCombinedAudioBatch(List)}.
+ * The frames of each queue are always delivered in the order they were received, by one thread at a time.
+ * <br>{@link AudioReceiveHandler#canReceivePooled() Pooled frames} are retained while they are queued, so the
+ * decorated handler gets the same guarantees as without the decorator.
+ *
+ * <pre><code>
+ * audioManager.setReceivingHandler(new AsyncAudioReceiveHandler(recorder, 500, OverflowPolicy.DROP_OLDEST));
+ * </code></pre>
+ */
+public class AsyncAudioReceiveHandler implements AudioReceiveHandler
+{
+    /**
+     * What happens to a frame that arrives while the queue is full.
+     */
+    public enum OverflowPolicy
+    {
+        /** The oldest queued frame is dropped to make room, the handler stays as close to real time as possible. */
+        DROP_OLDEST,
+        /** The new frame is dropped, the handler gets continuous audio that lags behind. */
+        DROP_NEWEST,
+        /**
+         * The connection waits for room in the queue. Nothing is lost, but a slow handler holds up the receiving
+         * of packets again, just like it would without this decorator.
+         */
+        BLOCK
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger(1);
+
+    protected final AudioReceiveHandler handler;
+    protected final OverflowPolicy policy;
+    protected final int maxBatch;
+    protected final Executor executor;
+    protected final ExecutorService ownedExecutor;
+
+    private final ArrayBlockingQueue<Object> userQueue;
+    private final ArrayBlockingQueue<Object> mixedQueue;   //Combined and mix-minus frames
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * Creates a decorator with a daemon thread of its own that delivers the frames one by one.
+     *
+     * @param  handler
+     *         The handler to decorate
+     * @param  capacity
+     *         The amount of frames each of the two queues can hold
+     * @param  policy
+     *         What happens to frames that arrive while their queue is full
+     */
+    public AsyncAudioReceiveHandler(AudioReceiveHandler handler, int capacity, OverflowPolicy policy)
+    {
+        this(handler, capacity, policy, 1, null);
+    }
+
+    /**
+     * Creates a decorator that delivers the frames on the provided executor.
+     *
+     * @param  handler
+     *         The handler to decorate
+     * @param  capacity
+     *         The amount of frames each of the two queues can hold
+     * @param  policy
+     *         What happens to frames that arrive while their queue is full
+     * @param  maxBatch
+     *         The maximum amount of frames delivered by a single callback
+     * @param  executor
+     *         The executor running the callbacks, or {@code null} to use a daemon thread of its own.
+     *         A shared pool is fine, the callbacks of this handler never run concurrently.
+     */
+    public AsyncAudioReceiveHandler(AudioReceiveHandler handler, int capacity, OverflowPolicy policy, int maxBatch, Executor executor)
+    {
+        if (handler == null)
+            throw new IllegalArgumentException("Provided handler must not be null");
+        if (policy == null)
+            throw new IllegalArgumentException("Provided policy must not be null");
+        if (capacity < 1)
+            throw new IllegalArgumentException("Provided capacity must be at least 1");
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("Provided maxBatch must be at least 1");
+        this.handler = handler;
+        this.policy = policy;
+        this.maxBatch = maxBatch;
+        this.userQueue = new ArrayBlockingQueue<>(capacity);
+        this.mixedQueue = new ArrayBlockingQueue<>(capacity);
+        if (executor == null)
+        {
+            this.ownedExecutor = Executors.newSingleThreadExecutor(r ->
+            {
+                Thread t = new Thread(AudioManager.AUDIO_THREADS, r, "JDA Async Receive Handler - Thread " + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+            this.executor = ownedExecutor;
+        }
+        else
+        {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+    public AudioReceiveHandler getHandler()
+    {
+        return handler;
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return policy;
+    }
+
+    public int getMaxBatch()
+    {
+        return maxBatch;
+    }
+
+    /**
+     * @return The amount of frames waiting to be delivered
+     */
+    public int getQueueDepth()
+    {
+        return userQueue.size() + mixedQueue.size();
+    }
+
+    /**
+     * @return The amount of frames that were lost because their queue was full
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return The amount of frames that were delivered to the handler
+     */
+    public long getDeliveredCount()
+    {
+        return delivered.get();
+    }
+
+    /**
+     * Stops the thread this decorator created for itself. Queued frames are still delivered.
+     * <br>Does nothing if the decorator runs on a provided executor.
+     */
+    public void shutdown()
+    {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+    @Override
+    public AudioFormat getOutputFormat()
+    {
+        return handler.getOutputFormat();
+    }
+
+    @Override
+    public boolean canReceiveCombined()
+    {
+        return handler.canReceiveCombined();
+    }
+
+    @Override
+    public boolean canReceiveUser()
+    {
+        return handler.canReceiveUser();
+    }
+
+    @Override
+    public boolean shouldReceiveUser(long userId)
+    {
+        return handler.shouldReceiveUser(userId);
+    }
+
+    @Override
+    public boolean canReceiveFloat()
+    {
+        return handler.canReceiveFloat();
+    }
+
+    @Override
+    public boolean canReceiveMixMinus()
+    {
+        return handler.canReceiveMixMinus();
+    }
+
+    @Override
+    public boolean canReceivePooled()
+    {
+        return handler.canReceivePooled();
+    }
+
+    @Override
+    public void handleCombinedAudio(CombinedAudio combinedAudio)
+    {
+        enqueue(mixedQueue, combinedAudio);
+    }
+
+    @Override
+    public void handleUserAudio(UserAudio userAudio)
+    {
+        enqueue(userQueue, userAudio);
+    }
+
+    @Override
+    public void handleMixMinusAudio(long userId, CombinedAudio mixMinusAudio)
+    {
+        enqueue(mixedQueue, new MixMinus(userId, mixMinusAudio));
+    }
+
+    private void enqueue(ArrayBlockingQueue<Object> queue, Object frame)
+    {
+        //The frame is only valid during the callback that provided it, unless it is retained.
+        retain(frame);
+        switch (policy)
+        {
+            case DROP_NEWEST:
+                if (!queue.offer(frame))
+                    drop(frame);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(frame))
+                {
+                    Object oldest = queue.poll();
+                    if (oldest != null)
+                        drop(oldest);
+                }
+                break;
+            case BLOCK:
+                try
+                {
+                    queue.put(frame);
+                }
+                catch (InterruptedException e)
+                {
+                    drop(frame);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                break;
+        }
+        schedule();
+    }
+
+    private void drop(Object frame)
+    {
+        dropped.incrementAndGet();
+        release(frame);
+    }
+
+    private void schedule()
+    {
+        if ((!userQueue.isEmpty() || !mixedQueue.isEmpty()) && scheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(this::drain);
+            }
+            catch (Exception e)
+            {
+                //Rejected, most likely shut down. Nothing will deliver the queue anymore.
+                scheduled.set(false);
+                Object frame;
+                while ((frame = mixedQueue.poll()) != null)
+                    drop(frame);
+                while ((frame = userQueue.poll()) != null)
+                    drop(frame);
+            }
+        }
+    }
+
+    private void drain()
+    {
+        List<Object> batch = new ArrayList<>(Math.min(maxBatch, 64));
+        try
+        {
+            //Take turns, so that neither kind of frame holds up the other.
+            boolean drained = true;
+            while (drained)
+            {
+                drained = false;
+                if (mixedQueue.drainTo(batch, maxBatch) > 0)
+                {
+                    deliver(batch);
+                    batch.clear();
+                    drained = true;
+                }
+                if (userQueue.drainTo(batch, maxBatch) > 0)
+                {
+                    deliver(batch);
+                    batch.clear();
+                    drained = true;
+                }
+            }
+        }
+        finally
+        {
+            scheduled.set(false);
+        }
+        //Frames queued after the last drainTo but before the flag was cleared.
+        schedule();
+    }
+
+    private void deliver(List<Object> batch)
+    {
+        int start = 0;
+        while (start < batch.size())
+        {
+            //Deliver runs of the same kind of frame together.
+            Class<?> kind = batch.get(start).getClass();
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).getClass() == kind)
+                end++;
+            List<Object> run = batch.subList(start, end);
+            try
+            {
+                deliverRun(kind, run);
+            }
+            catch (Exception e)
+            {
+                AudioConnection.LOG.log(e);
+            }
+            finally
+            {
+                for (Object frame : run)
+                    release(frame);
+            }
+            delivered.addAndGet(run.size());
+            start = end;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverRun(Class<?> kind, List<?> run)
+    {
+        if (kind == MixMinus.class)
+        {
+            for (Object frame : run)
+                handler.handleMixMinusAudio(((MixMinus) frame).userId, ((MixMinus) frame).audio);
+        }
+        else if (run.size() == 1)
+        {
+            Object frame = run.get(0);
+            if (frame instanceof UserAudio)
+                handler.handleUserAudio((UserAudio) frame);
+            else
+                handler.handleCombinedAudio((CombinedAudio) frame);
+        }
+        else if (run.get(0) instanceof UserAudio)
+        {
+            handler.handleUserAudioBatch((List<UserAudio>) run);
+        }
+        else
+        {
+            handler.handleCombinedAudioBatch((List<CombinedAudio>) run);
+        }
+    }
+
+    private static void retain(Object frame)
+    {
+        if (frame instanceof MixMinus)
+            ((MixMinus) frame).audio.retain();
+        else
+            ((PooledAudio) frame).retain();
+    }
+
+    private static void release(Object frame)
+    {
+        if (frame instanceof MixMinus)
+            ((MixMinus) frame).audio.release();
+        else
+            ((PooledAudio) frame).release();
+    }
+
+    private static class MixMinus
+    {
+        private final long userId;
+        private final CombinedAudio audio;
+
+        private MixMinus(long userId, CombinedAudio audio)
+        {
+            this.userId = userId;
+            this.audio = audio;
+        }
+    }
+}
@@ -17,31 +17,34 @@
 package net.dv8tion.jda.audio;
 
 import com.sun.jna.ptr.PointerByReference;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import net.dv8tion.jda.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.audio.factory.IPacketProvider;
 import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.audio.jfr.AudioEvents;
+import net.dv8tion.jda.audio.transport.SocketTransport;
+import net.dv8tion.jda.audio.transport.VoiceTransport;
 import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.utils.MiscUtil;
 import net.dv8tion.jda.utils.SimpleLog;
-import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONObject;
 import tomp2p.opuswrapper.Opus;
 
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
-import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class AudioConnection
 {
@@ -51,25 +54,46 @@ public class AudioConnection
     public static final int OPUS_FRAME_TIME_AMOUNT = 20;//This is 20 milliseconds. We are only dealing with 20ms opus packets.
     public static final int OPUS_CHANNEL_COUNT = 2;     //We want to use stereo. If the audio given is mono, the encoder promotes it
                                                         // to Left and Right mono (stereo that is the same on both sides)
+    private static final int RECEIVE_TIMEOUT = 1000;    //Low, so that we wont block forever so we can properly shutdown the loop.
+    private static final int MAX_CONCEALED_FRAMES = 3;  //Longer gaps are left to the playout buffer, concealing them sounds worse than silence.
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(OPUS_FRAME_TIME_AMOUNT);
+    private static final long SEND_RESYNC_NANOS = 3 * FRAME_NANOS;    //Where the DefaultSendSystem stops catching up.
 
     public final IAudioSendFactory sendFactory;
+    public final CombinedAudioScheduler combinedScheduler;
 
-    private final TIntObjectMap<String> ssrcMap = new TIntObjectHashMap();
-    private final TIntObjectMap<Decoder> opusDecoders = new TIntObjectHashMap<>();
-    private final HashMap<String, Queue<Pair<Long, short[]>>> combinedQueue = new HashMap<>();
+    private final SsrcRegistry ssrcRegistry = new SsrcRegistry();
+    private final AudioFramePool framePool = new AudioFramePool();
+    private final CombinedAudioMixer combinedMixer;
+    private final CopyOnWriteArrayList<OpusReceiveHandler> opusHandlers = new CopyOnWriteArrayList<>();
 
     private final String threadIdentifier;
     private final AudioWebSocket webSocket;
-    private DatagramSocket udpSocket;
-    private String channelId;
+    private final long guildId;
+    private VoiceTransport transport;
+    private volatile long channelId;
     private volatile AudioSendHandler sendHandler = null;
     private volatile AudioReceiveHandler receiveHandler = null;
+    private volatile AudioFormat receiveFormat = AudioReceiveHandler.OUTPUT_FORMAT;
+    private volatile VoiceMeterListener meterListener = null;
+    private volatile boolean decodeSilence = true;
+    private volatile PacketCapture capture = null;
+    private volatile ReceiveTimings timings = null;   //Only set while replaying a capture
+    private volatile AudioCounters counters = new AudioCounters();
+    private volatile ImpairedPath receiveImpairment = null;
+    private volatile ImpairedPath sendImpairment = null;
+    private Thread impairedSendThread;
     private PointerByReference opusEncoder;
-    private ScheduledExecutorService combinedAudioExecutor;
+    //Only used by the sending thread.
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(4096);
+    private ShortBuffer encodeInput = ShortBuffer.allocate(OPUS_FRAME_SIZE * OPUS_CHANNEL_COUNT);
+    private final FloatBuffer sendClipMemory = FloatBuffer.allocate(OPUS_CHANNEL_COUNT);
+    private FloatBuffer sendClipAudio;  //Wraps the last float frame, send handlers usually fill the same array every time
+    private boolean warnedFrameLength = false;
+    private CombinedAudioScheduler.Registration combinedAudioTask;
 
     private IAudioSendSystem sendSystem;
     private Thread receiveThread;
-    private long queueTimeout;
 
     private volatile boolean couldReceive = false;
     private volatile boolean speaking = false;      //Also acts as "couldProvide"
@@ -78,14 +102,42 @@ public class AudioConnection
     boolean sentSilenceOnConnect = false;
     private final byte[] silenceBytes = new byte[] {(byte)0xF8, (byte)0xFF, (byte)0xFE};
 
-    public AudioConnection(AudioWebSocket webSocket, String channelId, IAudioSendFactory sendFactory)
+    public AudioConnection(AudioWebSocket webSocket, long channelId, IAudioSendFactory sendFactory, CombinedAudioScheduler combinedScheduler)
     {
         this.channelId = channelId;
         this.webSocket = webSocket;
         this.sendFactory = sendFactory;
+        this.combinedScheduler = combinedScheduler;
+        this.guildId = webSocket.getGuildId();
+        this.combinedMixer = new CombinedAudioMixer(guildId, ssrcRegistry, framePool);
         this.webSocket.audioConnection = this;
 
-        this.threadIdentifier = /**api.getIdentifierString() + */ " AudioConnection ChannelId: " + channelId;
+        this.threadIdentifier = /**api.getIdentifierString() + */ " AudioConnection ChannelId: " + MiscUtil.toSnowflake(channelId);
+    }
+
+    /**
+     * @deprecated Use {@link #AudioConnection(AudioWebSocket, long, IAudioSendFactory, CombinedAudioScheduler)}
+     */
+    @Deprecated
+    public AudioConnection(AudioWebSocket webSocket, String channelId, IAudioSendFactory sendFactory)
+    {
+        this(webSocket, MiscUtil.parseSnowflake(channelId), sendFactory, webSocket.getCore().getCombinedAudioScheduler());
+    }
+
+    /**
+     * Creates a connection without a voice server, which only receives what is passed to
+     * {@link #processReceivedPacket(DatagramPacket, byte[])}. Used by {@link CaptureReplay} and the benchmarks.
+     */
+    AudioConnection(long channelId, ReceiveTimings timings)
+    {
+        this.channelId = channelId;
+        this.webSocket = null;
+        this.sendFactory = null;
+        this.combinedScheduler = null;
+        this.guildId = 0;
+        this.combinedMixer = new CombinedAudioMixer(0, ssrcRegistry, framePool);
+        this.timings = timings;
+        this.threadIdentifier = " AudioConnection Replay ChannelId: " + MiscUtil.toSnowflake(channelId);
     }
 
     public void ready(long timeout)
@@ -117,7 +169,7 @@ public class AudioConnection
                 }
                 if (!connectionTimeout)
                 {
-                    AudioConnection.this.udpSocket = webSocket.getUdpSocket();
+                    AudioConnection.this.transport = webSocket.getTransport();
 
                     setupSendSystem();
                     setupReceiveSystem();
@@ -140,66 +192,361 @@ public class AudioConnection
 
     public void setReceivingHandler(AudioReceiveHandler handler)
     {
+        if (handler != null)
+            this.receiveFormat = checkOutputFormat(handler.getOutputFormat());
         this.receiveHandler = handler;
+        refreshReceiveFilter();
         setupReceiveSystem();
     }
 
-    public void setQueueTimeout(long queueTimeout)
+    /**
+     * Adds a handler that is provided with the decrypted Opus packets of every userId, before any decoding happens.
+     *
+     * @param  handler
+     *         The handler to add
+     */
+    public void addOpusReceiveHandler(OpusReceiveHandler handler)
     {
-        this.queueTimeout = queueTimeout;
+        opusHandlers.addIfAbsent(handler);
+        refreshReceiveFilter();
+        setupReceiveSystem();
     }
 
-    public String getChannelId()
+    public void removeOpusReceiveHandler(OpusReceiveHandler handler)
     {
-        return channelId;
+        opusHandlers.remove(handler);
+        refreshReceiveFilter();
+        setupReceiveSystem();
     }
 
-    public void setChannelId(String channelId)
+    /**
+     * Asks the handlers again which userIds they want to receive, see
+     * {@link AudioReceiveHandler#shouldReceiveUser(long)} and {@link OpusReceiveHandler#canReceiveUser(long)}.
+     */
+    public void refreshReceiveFilter()
     {
-        this.channelId = channelId;
+        for (SsrcRegistry.Entry entry : ssrcRegistry.entries())
+            updateReceiveFilter(entry);
     }
 
-    public void removeUserSSRC(String userId)
+    private void updateReceiveFilter(SsrcRegistry.Entry entry)
     {
-        final AtomicInteger ssrcRef = new AtomicInteger(0);
-        final boolean modified = ssrcMap.retainEntries((ssrc, id) ->
+        final long userId = entry.userId;
+        try
         {
-            final boolean isEntry = id.equals(userId);
-            if (isEntry)
-                ssrcRef.set(ssrc);
-            // if isEntry == true we don't want to retain it
-            return !isEntry;
-        });
-        if (!modified)
-            return;
-        final Decoder decoder = opusDecoders.remove(ssrcRef.get());
-        if (decoder != null) // cleanup decoder
-            decoder.close();
+            final AudioReceiveHandler handler = receiveHandler;
+            entry.decode = handler != null && handler.shouldReceiveUser(userId);
+            boolean relay = false;
+            for (OpusReceiveHandler opusHandler : opusHandlers)
+            {
+                if (opusHandler.canReceiveUser(userId))
+                {
+                    relay = true;
+                    break;
+                }
+            }
+            entry.relay = relay;
+        }
+        catch (Exception e)
+        {
+            LOG.log(e);
+            entry.decode = true;
+            entry.relay = true;
+        }
     }
 
-    public void updateUserSSRC(int ssrc, String userId)
+    /**
+     * Sets the listener for voice activity detected from the received Opus packets.
+     * <br>While a listener is set, packets are received and metered even if no handler wants them.
+     *
+     * @param  listener
+     *         The listener, or {@code null} to remove it
+     */
+    public void setVoiceMeterListener(VoiceMeterListener listener)
+    {
+        this.meterListener = listener;
+        setupReceiveSystem();
+    }
+
+    /**
+     * Whether packets that carry no audio, see {@link OpusPacketInfo#isSilent(byte[])}, are passed to the decoder.
+     * <br>Skipping them saves the decoding of DTX and silence frames, the mixer fills the gap with silence anyway.
+     *
+     * @param  decodeSilence
+     *         False, to drop silent packets before the decoder. Default: true
+     */
+    public void setDecodeSilence(boolean decodeSilence)
+    {
+        this.decodeSilence = decodeSilence;
+    }
+
+    /**
+     * @return Snapshot of the {@link VoiceMeter VoiceMeters} of all known SSRCs
+     */
+    public List<VoiceMeter> getVoiceMeters()
+    {
+        long now = System.currentTimeMillis();
+        SsrcRegistry.Entry[] entries = ssrcRegistry.entries();
+        List<VoiceMeter> meters = new ArrayList<>(entries.length);
+        for (SsrcRegistry.Entry entry : entries)
+            meters.add(entry.toMeter(now));
+        return meters;
+    }
+
+    /**
+     * @return Possibly-null {@link VoiceMeter} of the userId, the one of its most recent SSRC if there are several
+     */
+    public VoiceMeter getVoiceMeter(long userId)
+    {
+        SsrcRegistry.Entry latest = null;
+        for (SsrcRegistry.Entry entry : ssrcRegistry.entries())
+        {
+            if (entry.userId == userId && (latest == null || entry.lastPacket > latest.lastPacket))
+                latest = entry;
+        }
+        return latest == null ? null : latest.toMeter(System.currentTimeMillis());
+    }
+
+    /**
+     * Starts writing every received datagram, still encrypted, to the provided file, along with the session key and
+     * the SSRCs of the users. The file can be fed through the receiving pipeline again by {@link CaptureReplay}.
+     * <br><b>The file contains the secret key of the session, anyone with the file can listen to the captured audio.</b>
+     * <p>
+     * A capture that is already running is stopped first.
+     *
+     * @param  file
+     *         The file to write, it is replaced if it exists
+     *
+     * @throws java.io.IOException
+     *         If the file can't be created
+     */
+    public void startCapture(Path file) throws IOException
+    {
+        PacketCapture capture = new PacketCapture(file);
+        byte[] secretKey = webSocket.getSecretKey();
+        if (secretKey != null)
+            capture.writeSecretKey(secretKey);
+        for (SsrcRegistry.Entry entry : ssrcRegistry.entries())
+            capture.writeSsrc(entry.ssrc, entry.userId);
+        PacketCapture previous = this.capture;
+        this.capture = capture;
+        if (previous != null)
+            previous.close();
+    }
+
+    /**
+     * Stops the capture started by {@link #startCapture(Path)} and closes its file.
+     */
+    public void stopCapture()
+    {
+        PacketCapture capture = this.capture;
+        this.capture = null;
+        if (capture != null)
+            capture.close();
+    }
+
+    public boolean isCapturing()
+    {
+        return capture != null;
+    }
+
+    /**
+     * Passes the received packets through a simulated bad network before they reach the receiving pipeline.
+     * For testing only, see {@link NetworkImpairment}.
+     * <br>Packets still held back by a previous impairment are dropped.
+     *
+     * @param  impairment
+     *         The impairment, or {@code null} to receive packets as they arrive
+     */
+    public void setReceiveImpairment(NetworkImpairment impairment)
+    {
+        this.receiveImpairment = impairment == null ? null : new ImpairedPath(impairment);
+    }
+
+    /**
+     * Passes the sent packets through a simulated bad network before they reach the socket. The packets of the
+     * {@link IAudioSendSystem} are taken over and sent by a thread of the impairment once they are due.
+     * For testing only, see {@link NetworkImpairment}.
+     * <br>Packets still held back by a previous impairment are dropped.
+     *
+     * @param  impairment
+     *         The impairment, or {@code null} to send packets right away
+     */
+    public synchronized void setSendImpairment(NetworkImpairment impairment)
     {
-        if (ssrcMap.containsKey(ssrc))
+        if (impairedSendThread != null)
         {
-            String previousId = ssrcMap.get(ssrc);
-            if (!previousId.equals(userId))
+            impairedSendThread.interrupt();
+            impairedSendThread = null;
+        }
+        final ImpairedPath path = impairment == null ? null : new ImpairedPath(impairment);
+        this.sendImpairment = path;
+        if (path == null)
+            return;
+
+        impairedSendThread = new Thread(AudioManager.AUDIO_THREADS, () ->
+        {
+            while (!Thread.currentThread().isInterrupted())
             {
-                //Different User already existed with this ssrc. What should we do? Just replace? Probably should nuke the old opusDecoder.
-                //Log for now and see if any userId report the error.
-                LOG.fatal("Yeah.. So.. JDA received a UserSSRC update for an ssrc that already had a User set. Inform DV8FromTheWorld.\n" +
-                        "ChannelId: " + channelId + " SSRC: " + ssrc + " oldId: " + previousId + " newId: " + userId);
+                try
+                {
+                    DatagramPacket packet = path.take();
+                    VoiceTransport transport = AudioConnection.this.transport;
+                    if (transport != null && !transport.isClosed())
+                        transport.send(packet);
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                catch (SocketException e)
+                {
+                    //The transport was closed, the connection is shutting down.
+                }
+                catch (Exception e)
+                {
+                    LOG.log(e);
+                }
             }
+        }, threadIdentifier + " Impaired Sending Thread");
+        impairedSendThread.setDaemon(true);
+        impairedSendThread.start();
+    }
+
+    public void setQueueTimeout(long queueTimeout)
+    {
+        combinedMixer.setResyncThreshold(queueTimeout);
+    }
+
+    public void setCombinedDelay(long delay)
+    {
+        combinedMixer.setDelay(delay);
+    }
+
+    public void setCombinedMixLimit(int limit)
+    {
+        combinedMixer.setMixLimit(limit);
+    }
+
+    public void addMixMinusUser(long userId)
+    {
+        combinedMixer.addMixMinusUser(userId);
+    }
+
+    public void removeMixMinusUser(long userId)
+    {
+        combinedMixer.removeMixMinusUser(userId);
+    }
+
+    /**
+     * The amount of received frames that arrived after the slot they belong to was already mixed
+     * into {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio}.
+     *
+     * @return The amount of late frames for this connection
+     */
+    public long getCombinedLateFrames()
+    {
+        return combinedMixer.getLateFrames();
+    }
+
+    /**
+     * Sets the counters this connection records its {@link AudioStatistics} into, those of its
+     * {@link net.dv8tion.jda.manager.AudioManager AudioManager}.
+     */
+    public void setCounters(AudioCounters counters)
+    {
+        if (counters == null)
+            throw new IllegalArgumentException("Provided counters must not be null");
+        this.counters = counters;
+    }
+
+    /**
+     * @return The amount of decoders this connection holds
+     */
+    public int getDecoderCount()
+    {
+        int decoders = 0;
+        for (SsrcRegistry.Entry entry : ssrcRegistry.entries())
+        {
+            if (entry.decoder != null)
+                decoders++;
         }
-        else
+        return decoders;
+    }
+
+    public String getChannelId()
+    {
+        return MiscUtil.toSnowflake(channelId);
+    }
+
+    public long getChannelIdLong()
+    {
+        return channelId;
+    }
+
+    public void setChannelId(long channelId)
+    {
+        this.channelId = channelId;
+    }
+
+    /**
+     * @deprecated Use {@link #setChannelId(long)}
+     */
+    @Deprecated
+    public void setChannelId(String channelId)
+    {
+        setChannelId(MiscUtil.parseSnowflake(channelId));
+    }
+
+    public void removeUserSSRC(long userId)
+    {
+        final PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.writeUserRemoval(userId);
+        for (SsrcRegistry.Entry entry : ssrcRegistry.removeUser(userId))
         {
-            ssrcMap.put(ssrc, userId);
+            entry.playout.clear();
+            entry.remove(); // cleanup decoder
+        }
+    }
 
-            //Only create a decoder if we are actively handling received audio.
-            if (receiveThread != null)
-                opusDecoders.put(ssrc, new Decoder(ssrc));
+    /**
+     * @deprecated Use {@link #removeUserSSRC(long)}
+     */
+    @Deprecated
+    public void removeUserSSRC(String userId)
+    {
+        removeUserSSRC(MiscUtil.parseSnowflake(userId));
+    }
+
+    public void updateUserSSRC(int ssrc, long userId)
+    {
+        final PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.writeSsrc(ssrc, userId);
+        //Decoders are created by the receiving thread once the first packet of the ssrc arrives.
+        SsrcRegistry.Entry entry = ssrcRegistry.put(ssrc, userId);
+        long previousId = entry.userId;
+        updateReceiveFilter(entry);
+        if (previousId != userId)
+        {
+            //Different User already existed with this ssrc. What should we do? Just replace? Probably should nuke the old opusDecoder.
+            //Log for now and see if any userId report the error.
+            LOG.fatal("Yeah.. So.. JDA received a UserSSRC update for an ssrc that already had a User set. Inform DV8FromTheWorld.\n" +
+                    "ChannelId: " + getChannelId() + " SSRC: " + ssrc + " oldId: " + MiscUtil.toSnowflake(previousId)
+                    + " newId: " + MiscUtil.toSnowflake(userId));
         }
     }
 
+    /**
+     * @deprecated Use {@link #updateUserSSRC(int, long)}
+     */
+    @Deprecated
+    public void updateUserSSRC(int ssrc, String userId)
+    {
+        updateUserSSRC(ssrc, MiscUtil.parseSnowflake(userId));
+    }
+
     public void close(ConnectionStatus closeStatus)
     {
         shutdown();
@@ -209,6 +556,12 @@ public class AudioConnection
     public synchronized void shutdown()
     {
 //        setSpeaking(false);
+        stopCapture();
+        if (impairedSendThread != null)
+        {
+            impairedSendThread.interrupt();
+            impairedSendThread = null;
+        }
         if (sendSystem != null)
         {
             sendSystem.shutdown();
@@ -219,28 +572,26 @@ public class AudioConnection
             receiveThread.interrupt();
             receiveThread = null;
         }
-        if (combinedAudioExecutor != null)
+        if (combinedAudioTask != null)
         {
-            combinedAudioExecutor.shutdownNow();
-            combinedAudioExecutor = null;
+            combinedAudioTask.cancel();
+            combinedAudioTask = null;
         }
+        combinedMixer.clear();
         if (opusEncoder != null)
         {
             Opus.INSTANCE.opus_encoder_destroy(opusEncoder);
             opusEncoder = null;
         }
 
-        opusDecoders.valueCollection().forEach(Decoder::close);
-        opusDecoders.clear();
+        ssrcRegistry.closeDecoders();
     }
 
     private synchronized void setupSendSystem()
     {
-        if (udpSocket != null && !udpSocket.isClosed() && sendHandler != null && sendSystem == null)
+        if (transport != null && !transport.isClosed() && sendHandler != null && sendSystem == null)
         {
-            IntBuffer error = IntBuffer.allocate(4);
-            opusEncoder = Opus.INSTANCE.opus_encoder_create(OPUS_SAMPLE_RATE, OPUS_CHANNEL_COUNT, Opus.OPUS_APPLICATION_AUDIO, error);
-
+            createEncoder();
 
             sendSystem = sendFactory.createSendSystem(new PacketProvider());
             sendSystem.start();
@@ -260,28 +611,30 @@ public class AudioConnection
 
     private synchronized void setupReceiveSystem()
     {
-        if (udpSocket != null && !udpSocket.isClosed() && receiveHandler != null && receiveThread == null)
+        final boolean receiving = receiveHandler != null || !opusHandlers.isEmpty() || meterListener != null;
+        if (transport != null && !transport.isClosed() && receiving && receiveThread == null)
         {
             setupReceiveThread();
         }
-        else if (receiveHandler == null && receiveThread != null)
+        else if (!receiving && receiveThread != null)
         {
             receiveThread.interrupt();
             receiveThread = null;
 
-            if (combinedAudioExecutor != null)
+            if (combinedAudioTask != null)
             {
-                combinedAudioExecutor.shutdownNow();
-                combinedAudioExecutor = null;
+                combinedAudioTask.cancel();
+                combinedAudioTask = null;
             }
+            combinedMixer.clear();
 
-            opusDecoders.valueCollection().forEach(Decoder::close);
-            opusDecoders.clear();
+            ssrcRegistry.closeDecoders();
         }
-        else if (receiveHandler != null && !receiveHandler.canReceiveCombined() && combinedAudioExecutor != null)
+        else if ((receiveHandler == null || !isMixing(receiveHandler)) && combinedAudioTask != null)
         {
-            combinedAudioExecutor.shutdownNow();
-            combinedAudioExecutor = null;
+            combinedAudioTask.cancel();
+            combinedAudioTask = null;
+            combinedMixer.clear();
         }
     }
 
@@ -291,100 +644,38 @@ public class AudioConnection
         {
             receiveThread = new Thread(AudioManager.AUDIO_THREADS, () ->
             {
-                try
+                final VoiceTransport transport = this.transport;
+                while (!transport.isClosed() && !Thread.currentThread().isInterrupted())
                 {
-                    udpSocket.setSoTimeout(1000);
-                }
-                catch (SocketException e)
-                {
-                    LOG.log(e);
-                }
-                while (!udpSocket.isClosed() && !Thread.currentThread().isInterrupted())
-                {
-                    DatagramPacket receivedPacket = new DatagramPacket(new byte[1920], 1920);
                     try
                     {
-                        udpSocket.receive(receivedPacket);
-
-                        if (receiveHandler != null && (receiveHandler.canReceiveUser() || receiveHandler.canReceiveCombined()) && webSocket.getSecretKey() != null)
+                        final ImpairedPath impairment = receiveImpairment;
+                        if (impairment == null)
                         {
-                            if (!couldReceive)
-                            {
-                                couldReceive = true;
-                                sendSilentPackets();
-                            }
-                            AudioPacket decryptedPacket = AudioPacket.decryptAudioPacket(receivedPacket, webSocket.getSecretKey());
-
-                            int ssrc = decryptedPacket.getSSRC();
-                            final String userId = ssrcMap.get(ssrc);
-                            Decoder decoder = opusDecoders.get(ssrc);
-                            if (userId == null)
-                            {
-                                byte[] audio = decryptedPacket.getEncodedAudio();
-
-                                //If the bytes are silence, then this was caused by a User joining the voice channelId,
-                                // and as such, we haven't yet received information to pair the SSRC with the UserId.
-                                if (!Arrays.equals(audio, silenceBytes))
-                                    LOG.debug("Received audio data with an unknown SSRC id. Ignoring");
-
-                                continue;
-                            }
-                            if (decoder == null)
-                            {
-                                decoder = new Decoder(ssrc);
-                                opusDecoders.put(ssrc, decoder);
-                            }
-                            if (!decoder.isInOrder(decryptedPacket.getSequence()))
-                            {
-                                LOG.trace("Got out-of-order audio packet. Ignoring.");
-                                continue;
-                            }
-
-                            short[] decodedAudio = decoder.decodeFromOpus(decryptedPacket);
-
-                            //If decodedAudio is null, then the Opus decode failed, so throw away the packet.
-                            if (decodedAudio == null)
-                            {
-                                LOG.trace("Received audio data but Opus failed to properly decode, instead it returned an error");
-                            }
-                            else
-                            {
-                                if (receiveHandler.canReceiveUser())
-                                {
-                                    receiveHandler.handleUserAudio(new UserAudio(userId, decodedAudio));
-                                }
-                                if (receiveHandler.canReceiveCombined())
-                                {
-                                    Queue<Pair<Long, short[]>> queue = combinedQueue.get(userId);
-                                    if (queue == null)
-                                    {
-                                        queue = new ConcurrentLinkedQueue<>();
-                                        combinedQueue.put(userId, queue);
-                                    }
-                                    queue.add(Pair.<Long, short[]>of(System.currentTimeMillis(), decodedAudio));
-                                }
-                            }
+                            DatagramPacket receivedPacket = receive(transport, RECEIVE_TIMEOUT);
+                            if (receivedPacket != null)
+                                receivePacket(receivedPacket);
                         }
-                        else if (couldReceive)
+                        else
                         {
-                            couldReceive = false;
-                            sendSilentPackets();
+                            receiveImpaired(transport, impairment);
                         }
                     }
-                    catch (SocketTimeoutException e)
-                    {
-                        //Ignore. We set a low timeout so that we wont block forever so we can properly shutdown the loop.
-                    }
                     catch (SocketException e)
                     {
-                        //The socket was closed while we were listening for the next packet.
+                        //The transport was closed while we were listening for the next packet.
                         //This is expected. Ignore the exception. The thread will exit during the next while
-                        // iteration because the udpSocket.isClosed() will return true.
+                        // iteration because the transport.isClosed() will return true.
                     }
                     catch (Exception e)
                     {
                         LOG.log(e);
                     }
+                    finally
+                    {
+                        //Release the native state of decoders whose users went quiet.
+                        DecoderPool.evictIdle();
+                    }
                 }
             });
             receiveThread.setName(threadIdentifier + " Receiving Thread");
@@ -392,102 +683,374 @@ public class AudioConnection
             receiveThread.start();
         }
 
-        if (receiveHandler.canReceiveCombined())
+        if (receiveHandler != null && isMixing(receiveHandler))
         {
             setupCombinedExecutor();
         }
     }
 
-    private synchronized void setupCombinedExecutor()
+    private void receivePacket(DatagramPacket receivedPacket)
+    {
+        final byte[] secretKey = webSocket.getSecretKey();
+        final PacketCapture capture = this.capture;
+        if (capture != null)
+            capture.writePacket(receivedPacket, secretKey);
+        processReceivedPacket(receivedPacket, secretKey);
+    }
+
+    private void receiveImpaired(VoiceTransport transport, ImpairedPath impairment) throws IOException
+    {
+        //Wake up in time for the next held back packet.
+        long nextRelease = impairment.nextRelease();
+        long wait = nextRelease == Long.MAX_VALUE ? RECEIVE_TIMEOUT : TimeUnit.NANOSECONDS.toMillis(nextRelease - System.nanoTime());
+        DatagramPacket receivedPacket = receive(transport, (int) Math.max(1, Math.min(RECEIVE_TIMEOUT, wait)));
+        if (receivedPacket != null)
+            impairment.offer(receivedPacket, System.nanoTime());
+
+        //Captured as delivered, so that a replay sees the impaired network.
+        DatagramPacket packet;
+        while ((packet = impairment.poll(System.nanoTime())) != null)
+            receivePacket(packet);
+    }
+
+    private static DatagramPacket receive(VoiceTransport transport, int timeout) throws IOException
     {
-        if (combinedAudioExecutor == null)
+        //A new array for every packet, the pipeline and the impairment may hold on to it.
+        byte[] buffer = new byte[1920];
+        int length = transport.receive(ByteBuffer.wrap(buffer), timeout);
+        return length < 0 ? null : new DatagramPacket(buffer, length, transport.getServerAddress());
+    }
+
+    /**
+     * Runs a received datagram through the receiving pipeline: filtering, decryption, metering, relaying to the
+     * {@link OpusReceiveHandler OpusReceiveHandlers}, decoding and finally the {@link AudioReceiveHandler}.
+     * <br>Called by the receiving thread, and by {@link CaptureReplay} to feed captured datagrams.
+     *
+     * @param  receivedPacket
+     *         The encrypted datagram
+     * @param  secretKey
+     *         The key of the session, or null if it isn't known yet
+     */
+    void processReceivedPacket(DatagramPacket receivedPacket, byte[] secretKey)
+    {
+        final AudioReceiveHandler handler = receiveHandler;
+        final boolean decoding = handler != null && (handler.canReceiveUser() || isMixing(handler));
+        final VoiceMeterListener meterListener = this.meterListener;
+        if ((decoding || !opusHandlers.isEmpty() || meterListener != null) && secretKey != null)
         {
-            combinedAudioExecutor = Executors.newSingleThreadScheduledExecutor( r ->
-                    new Thread(AudioManager.AUDIO_THREADS, r, threadIdentifier + " Combined Thread"));
-            combinedAudioExecutor.scheduleAtFixedRate(() ->
+            if (!couldReceive)
             {
-                try
+                couldReceive = true;
+                sendSilentPackets();
+            }
+            final AudioCounters counters = this.counters;
+            counters.received(receivedPacket.getLength());
+            if (receivedPacket.getLength() <= AudioPacket.RTP_HEADER_BYTE_LENGTH)
+                return; //Not audio, e.g. the empty datagrams seen while connections shut down
+            final AudioEvents events = AudioEvents.get();
+            final int ssrc = AudioPacket.readSSRC(receivedPacket);
+            events.packetReceived(guildId, ssrc, receivedPacket.getLength());
+            final SsrcRegistry.Entry entry = ssrcRegistry.get(ssrc);
+            if (entry != null && !entry.isReceived() && meterListener == null)
+            {
+                //None of the handlers wants this user, drop the packet before decrypting it.
+                entry.filtered++;
+                return;
+            }
+            final ReceiveTimings timings = this.timings;
+            long time = System.nanoTime();
+            AudioPacket decryptedPacket = AudioPacket.decryptAudioPacket(receivedPacket, secretKey);
+            long now = System.nanoTime();
+            counters.decrypt.record(now - time);
+            if (timings != null)
+                timings.decrypted(now - time);
+            events.packetDecrypted(guildId, ssrc, entry == null ? 0 : entry.userId, now - time, decryptedPacket.getSequence());
+
+            if (entry == null)
+            {
+                byte[] audio = decryptedPacket.getEncodedAudio();
+
+                //If the bytes are silence, then this was caused by a User joining the voice channelId,
+                // and as such, we haven't yet received information to pair the SSRC with the UserId.
+                if (!Arrays.equals(audio, silenceBytes))
+                    LOG.debug("Received audio data with an unknown SSRC id. Ignoring");
+
+                return;
+            }
+            final long userId = entry.userId;
+            final byte[] opus = decryptedPacket.peekEncodedAudio();
+            entry.packets++;
+            final int lost = entry.trackSequence(decryptedPacket.getSequence());
+            if (lost < 0)
+                counters.outOfOrder.increment();
+            if (lost == SsrcRegistry.LATE)
+                counters.lost.decrement();  //It was counted as lost when the packet after it arrived.
+            else if (lost > 0)
+                counters.lost.add(lost);
+            if (entry.meter(opus, System.currentTimeMillis()) && meterListener != null)
+                notifyVoiceActivity(meterListener, entry);
+            if (entry.relay)
+                relayOpusPacket(userId, ssrc, decryptedPacket);
+            if (!decoding || !entry.decode)
+                return;
+            if (!decodeSilence && OpusPacketInfo.isSilent(opus))
+                return;
+            final AudioFormat format = receiveFormat;
+            final int sampleRate = (int) format.getSampleRate();
+            Decoder decoder = entry.decoder;
+            if (decoder != null && !decoder.hasFormat(sampleRate, format.getChannels()))
+            {
+                //The handler asked for a different format, decoders can't be switched over.
+                entry.closeDecoder();
+                decoder = null;
+            }
+            if (decoder == null)
+            {
+                entry.decoder = decoder = new Decoder(ssrc, sampleRate, format.getChannels());
+                if (entry.removed)
                 {
-                    List<String> users = new LinkedList<>();
-                    List<short[]> audioParts = new LinkedList<>();
-                    if (receiveHandler != null && receiveHandler.canReceiveCombined())
-                    {
-                        long currentTime = System.currentTimeMillis();
-                        for (Map.Entry<String, Queue<Pair<Long, short[]>>> entry : combinedQueue.entrySet())
-                        {
-                            String user = entry.getKey();
-                            Queue<Pair<Long, short[]>> queue = entry.getValue();
-
-                            if (queue.isEmpty())
-                                continue;
-
-                            Pair<Long, short[]> audioData = queue.poll();
-                            //Make sure the audio packet is younger than 100ms
-                            while (audioData != null && currentTime - audioData.getLeft() > queueTimeout)
-                            {
-                                audioData = queue.poll();
-                            }
-
-                            //If none of the audio packets were younger than 100ms, then there is nothing to add.
-                            if (audioData == null)
-                            {
-                                continue;
-                            }
-                            users.add(user);
-                            audioParts.add(audioData.getRight());
-                        }
+                    //The user was removed while we looked up the entry, nobody would close this decoder.
+                    entry.closeDecoder();
+                    return;
+                }
+            }
+            if (!decoder.isInOrder(decryptedPacket.getSequence()))
+            {
+                entry.outOfOrder++;
+                LOG.trace("Got out-of-order audio packet. Ignoring.");
+                return;
+            }
 
-                        if (!audioParts.isEmpty())
-                        {
-                            int audioLength = audioParts.get(0).length;
-                            short[] mix = new short[1920];  //960 PCM samples for each channelId
-                            int sample;
-                            for (int i = 0; i < audioLength; i++)
-                            {
-                                sample = 0;
-                                for (short[] audio : audioParts)
-                                {
-                                    sample += audio[i];
-                                }
-                                if (sample > Short.MAX_VALUE)
-                                    mix[i] = Short.MAX_VALUE;
-                                else if (sample < Short.MIN_VALUE)
-                                    mix[i] = Short.MIN_VALUE;
-                                else
-                                    mix[i] = (short) sample;
-                            }
-                            receiveHandler.handleCombinedAudio(new CombinedAudio(users, mix));
-                        }
-                        else
-                        {
-                            //No audio to mix, provide 20 MS of silence. (960 PCM samples for each channelId)
-                            receiveHandler.handleCombinedAudio(new CombinedAudio(Collections.emptyList(), new short[1920]));
-                        }
-                    }
+            //Float audio is decoded as float right away, so it never passes through 16bit.
+            final boolean asFloat = handler.canReceiveFloat();
+            if (lost > 0 && lost <= MAX_CONCEALED_FRAMES && isMixing(handler))
+                conceal(entry, decoder, format, asFloat, handler.canReceivePooled(), decryptedPacket, lost, counters);
+            final UserAudio userAudio = framePool.takeUserAudio(userId, format, asFloat,
+                    decoder.frameSize * decoder.channels, handler.canReceivePooled());
+            time = System.nanoTime();
+            final int samples = asFloat
+                    ? decoder.decodeFloatFromOpus(decryptedPacket, userAudio.floatAudioData)
+                    : decoder.decodeFromOpus(decryptedPacket, userAudio.audioData);
+            now = System.nanoTime();
+            counters.decode.record(now - time);
+            if (timings != null)
+                timings.decoded(now - time);
+            events.packetDecoded(guildId, ssrc, userId, now - time, decryptedPacket.getSequence(), samples, false);
+            time = now;
+
+            //If samples is negative, then the Opus decode failed, so throw away the packet.
+            if (samples < 0)
+            {
+                userAudio.release();
+                entry.decodeFailures++;
+                counters.decodeFailures.increment();
+                LOG.trace("Received audio data but Opus failed to properly decode, instead it returned an error");
+                return;
+            }
+            try
+            {
+                userAudio.trim(samples * decoder.channels);
+                userAudio.timestamp = decryptedPacket.getTimestamp();
+                entry.meterLevels(userAudio.samples());
+                if (isMixing(handler))
+                {
+                    //The playout buffer holds a reference of its own until the frame is mixed.
+                    userAudio.retain();
+                    combinedMixer.offer(entry, decryptedPacket.getTimestamp(), userAudio);
                 }
-                catch (Exception e)
+                if (handler.canReceiveUser())
                 {
-                    LOG.log(e);
+                    long start = System.nanoTime();
+                    handler.handleUserAudio(userAudio);
+                    now = System.nanoTime();
+                    events.handlerDispatched(guildId, ssrc, userId, handler, "user", now - start);
+                    if (timings != null)
+                        timings.handled(now - time);
+                }
+            }
+            finally
+            {
+                userAudio.release();
+            }
+        }
+        else if (couldReceive)
+        {
+            couldReceive = false;
+            sendSilentPackets();
+        }
+
+    }
+
+    /**
+     * Lets the decoder make up the frames of lost packets, right before the packet after them is decoded.
+     * <br>The frames only go into the combined audio, handlers of user audio only get what was actually received.
+     */
+    private void conceal(SsrcRegistry.Entry entry, Decoder decoder, AudioFormat format, boolean asFloat, boolean pooled,
+                         AudioPacket next, int frames, AudioCounters counters)
+    {
+        final int timestamp = next.getTimestamp();
+        for (int i = frames; i > 0; i--)
+        {
+            UserAudio audio = framePool.takeUserAudio(entry.userId, format, asFloat, decoder.frameSize * decoder.channels, pooled);
+            long start = System.nanoTime();
+            int samples = asFloat
+                    ? decoder.decodeFloatFromOpus(null, audio.floatAudioData)
+                    : decoder.decodeFromOpus(null, audio.audioData);
+            long elapsed = System.nanoTime() - start;
+            counters.decode.record(elapsed);
+            AudioEvents.get().packetDecoded(guildId, entry.ssrc, entry.userId, elapsed, (char) (next.getSequence() - i), samples, true);
+            if (samples < 0)
+            {
+                audio.release();
+                return;
+            }
+            audio.trim(samples * decoder.channels);
+            audio.timestamp = timestamp - i * OPUS_FRAME_SIZE;
+            counters.concealed.increment();
+            combinedMixer.offer(entry, audio.timestamp, audio);
+        }
+    }
+
+    private synchronized void setupCombinedExecutor()
+    {
+        if (combinedAudioTask == null)
+        {
+            combinedAudioTask = combinedScheduler.register(this::mixCombined);
+        }
+    }
+
+    /**
+     * Mixes the next 20ms slot of combined audio, every 20 milliseconds on a thread of the
+     * {@link CombinedAudioScheduler}.
+     */
+    void mixCombined()
+    {
+        AudioReceiveHandler handler = receiveHandler;
+        if (handler != null && isMixing(handler))
+            combinedMixer.mix(handler, receiveFormat);
+    }
+
+    private void notifyVoiceActivity(VoiceMeterListener listener, SsrcRegistry.Entry entry)
+    {
+        try
+        {
+            listener.onVoiceActivity(entry.toMeter(entry.lastPacket));
+        }
+        catch (Exception e)
+        {
+            LOG.log(e);
+        }
+    }
+
+    private void relayOpusPacket(long userId, int ssrc, AudioPacket packet)
+    {
+        for (OpusReceiveHandler opusHandler : opusHandlers)
+        {
+            try
+            {
+                if (opusHandler.canReceiveUser(userId))
+                {
+                    long start = System.nanoTime();
+                    opusHandler.handleOpusPacket(userId, packet);
+                    AudioEvents.get().handlerDispatched(guildId, ssrc, userId, opusHandler, "opus", System.nanoTime() - start);
                 }
-            }, 0, 20, TimeUnit.MILLISECONDS);
+            }
+            catch (Exception e)
+            {
+                LOG.log(e);
+            }
         }
     }
 
-    private byte[] encodeToOpus(byte[] rawAudio)
+    /**
+     * Validates an {@link AudioReceiveHandler#getOutputFormat() output format} requested by a receiving handler.
+     *
+     * @param  format
+     *         The requested format
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If libopus can't decode to the format
+     *
+     * @return The format
+     */
+    public static AudioFormat checkOutputFormat(AudioFormat format)
     {
-        ShortBuffer nonEncodedBuffer = ShortBuffer.allocate(rawAudio.length / 2);
-        ByteBuffer encoded = ByteBuffer.allocate(4096);
-        for (int i = 0; i < rawAudio.length; i += 2)
+        if (format == null)
+            throw new IllegalArgumentException("Provided output format must not be null");
+        int sampleRate = (int) format.getSampleRate();
+        if (sampleRate != format.getSampleRate() || (sampleRate != 8000 && sampleRate != 12000
+                && sampleRate != 16000 && sampleRate != 24000 && sampleRate != 48000))
+            throw new IllegalArgumentException("Output sample rate must be 8000, 12000, 16000, 24000 or 48000 Hz, provided: " + format.getSampleRate());
+        if (format.getChannels() != 1 && format.getChannels() != 2)
+            throw new IllegalArgumentException("Output must be mono or stereo, provided channels: " + format.getChannels());
+        if (format.getSampleSizeInBits() != 16 || !AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()))
+            throw new IllegalArgumentException("Output must be signed 16bit PCM, provided: " + format);
+        return format;
+    }
+
+    private static boolean isMixing(AudioReceiveHandler handler)
+    {
+        return handler.canReceiveCombined() || handler.canReceiveMixMinus();
+    }
+
+    //Package-private for the benchmarks, like the encodeToOpus methods.
+    void createEncoder()
+    {
+        IntBuffer error = IntBuffer.allocate(4);
+        opusEncoder = Opus.INSTANCE.opus_encoder_create(OPUS_SAMPLE_RATE, OPUS_CHANNEL_COUNT, Opus.OPUS_APPLICATION_AUDIO, error);
+    }
+
+    byte[] encodeToOpus(float[] rawAudio)
+    {
+        if (rawAudio.length != OPUS_FRAME_SIZE * OPUS_CHANNEL_COUNT)
         {
-            int firstByte =  (0x000000FF & rawAudio[i]);      //Promotes to int and handles the fact that it was unsigned.
-            int secondByte = (0x000000FF & rawAudio[i + 1]);  //
+            //libopus reads a whole frame no matter how long the array is, a shorter one would be read past its end.
+            String message = "Dropping float audio of " + rawAudio.length + " samples, a frame has to be 20ms of 48KHz stereo ("
+                    + OPUS_FRAME_SIZE * OPUS_CHANNEL_COUNT + " samples)";
+            if (warnedFrameLength)
+            {
+                LOG.debug(message);
+            }
+            else
+            {
+                warnedFrameLength = true;
+                LOG.warn(message);
+            }
+            return null;
+        }
 
-            //Combines the 2 bytes into a short. Opus deals with unsigned shorts, not bytes.
-            short toShort = (short) ((firstByte << 8) | secondByte);
+        //Out of range samples are soft-clipped rather than left to the hard clipping of the encoder.
+        FloatBuffer clipAudio = sendClipAudio;
+        if (clipAudio == null || clipAudio.array() != rawAudio)
+            sendClipAudio = clipAudio = FloatBuffer.wrap(rawAudio);
+        PcmUtil.softClip(clipAudio, OPUS_CHANNEL_COUNT, sendClipMemory);
 
-            nonEncodedBuffer.put(toShort);
+        ByteBuffer encoded = encodeBuffer;
+        encoded.clear();
+        int result = Opus.INSTANCE.opus_encode_float(opusEncoder, rawAudio, OPUS_FRAME_SIZE, encoded, encoded.capacity());
+        if (result < Opus.OPUS_OK)
+        {
+            LOG.debug("Encoder failed to encode float audio with code " + result);
+            return null;
         }
-        nonEncodedBuffer.flip();
+
+        byte[] audio = new byte[result];
+        encoded.get(audio);
+        return audio;
+    }
+
+    byte[] encodeToOpus(byte[] rawAudio)
+    {
+        //Opus deals with shorts, not bytes. The provided audio is big endian, see AudioSendHandler.INPUT_FORMAT
+        int samples = rawAudio.length / 2;
+        if (encodeInput.capacity() < samples)
+            encodeInput = ShortBuffer.allocate(samples);
+        ShortBuffer nonEncodedBuffer = encodeInput;
+        PcmUtil.toShorts(rawAudio, 0, nonEncodedBuffer.array(), 0, samples, true);
+        nonEncodedBuffer.clear();
+        nonEncodedBuffer.limit(samples);
+        ByteBuffer encoded = encodeBuffer;
+        encoded.clear();
 
         //TODO: check for 0 / negative value for error.
         int result = Opus.INSTANCE.opus_encode(opusEncoder, nonEncodedBuffer, OPUS_FRAME_SIZE, encoded, encoded.capacity());
@@ -538,6 +1101,8 @@ public class AudioConnection
 
         int timestamp = 0;      //Used to sync up our packets within the same timeframe of other people talking.
 
+        long nextFrame = 0;     //When the send system should ask for the next packet, for the statistics.
+
         @Override
         public String getIdentifier()
         {
@@ -547,26 +1112,53 @@ public class AudioConnection
         @Override
         public String getConnectedChannel()
         {
-            return AudioConnection.this.channelId;
+            return getChannelId();
         }
 
         @Override
+        @Deprecated
         public DatagramSocket getUdpSocket()
         {
-            return AudioConnection.this.udpSocket;
+            VoiceTransport transport = AudioConnection.this.transport;
+            return transport instanceof SocketTransport ? ((SocketTransport) transport).getSocket() : null;
+        }
+
+        @Override
+        public VoiceTransport getTransport()
+        {
+            return AudioConnection.this.transport;
         }
 
         @Override
         public DatagramPacket getNextPacket(boolean changeTalking)
         {
             DatagramPacket nextPacket = null;
+            final AudioCounters counters = AudioConnection.this.counters;
+            final long lateness = trackSchedule(counters);
+            final int sequence = seq;
 
             try
             {
-                if (sentSilenceOnConnect && sendHandler != null && sendHandler.canProvide())
+                AudioSendHandler handler = sendHandler;
+                if (sentSilenceOnConnect && handler != null && handler.canProvide())
                 {
                     silenceCounter = -1;
-                    byte[] rawAudio = sendHandler.provide20MsAudio();
+                    byte[] rawAudio;
+                    boolean encodeFloat = !handler.isOpus() && handler.isFloat();
+                    long start = System.nanoTime();
+                    if (encodeFloat)
+                    {
+                        float[] floatAudio = handler.provide20MsFloatAudio();
+                        AudioEvents.get().frameProvided(guildId, webSocket.getSSRC(), System.nanoTime() - start,
+                                floatAudio == null ? 0 : floatAudio.length, false);
+                        rawAudio = floatAudio == null || floatAudio.length == 0 ? null : encode(floatAudio, counters);
+                    }
+                    else
+                    {
+                        rawAudio = handler.provide20MsAudio();
+                        AudioEvents.get().frameProvided(guildId, webSocket.getSSRC(), System.nanoTime() - start,
+                                rawAudio == null ? 0 : rawAudio.length, handler.isOpus());
+                    }
                     if (rawAudio == null || rawAudio.length == 0)
                     {
                         if (speaking && changeTalking)
@@ -574,15 +1166,15 @@ public class AudioConnection
                     }
                     else
                     {
-                        if (!sendHandler.isOpus())
+                        if (!encodeFloat && !handler.isOpus())
                         {
-                            rawAudio = encodeToOpus(rawAudio);
+                            rawAudio = encode(rawAudio, counters);
                         }
                         AudioPacket packet = new AudioPacket(seq, timestamp, webSocket.getSSRC(), rawAudio);
                         if (!speaking)
                             setSpeaking(true);
 
-                        nextPacket = packet.asEncryptedUdpPacket(webSocket.getAddress(), webSocket.getSecretKey());
+                        nextPacket = encrypt(packet, counters);
 
                         if (seq + 1 > Character.MAX_VALUE)
                             seq = 0;
@@ -594,7 +1186,7 @@ public class AudioConnection
                 {
                     AudioPacket packet = new AudioPacket(seq, timestamp, webSocket.getSSRC(), silenceBytes);
 
-                    nextPacket = packet.asEncryptedUdpPacket(webSocket.getAddress(), webSocket.getSecretKey());
+                    nextPacket = encrypt(packet, counters);
 
                     if (seq + 1 > Character.MAX_VALUE)
                         seq = 0;
@@ -616,11 +1208,78 @@ public class AudioConnection
             }
 
             if (nextPacket != null)
+            {
                 timestamp += OPUS_FRAME_SIZE;
+                counters.sent(nextPacket.getLength());
+                AudioEvents.get().frameSent(guildId, webSocket.getSSRC(), sequence, nextPacket.getLength(), lateness);
+                ImpairedPath impairment = sendImpairment;
+                if (impairment != null)
+                {
+                    //The impairment sends it once it is due.
+                    impairment.offer(nextPacket, System.nanoTime());
+                    return null;
+                }
+            }
 
             return nextPacket;
         }
 
+        private byte[] encode(float[] rawAudio, AudioCounters counters)
+        {
+            long start = System.nanoTime();
+            byte[] encoded = encodeToOpus(rawAudio);
+            encoded(System.nanoTime() - start, encoded, counters);
+            return encoded;
+        }
+
+        private byte[] encode(byte[] rawAudio, AudioCounters counters)
+        {
+            long start = System.nanoTime();
+            byte[] encoded = encodeToOpus(rawAudio);
+            encoded(System.nanoTime() - start, encoded, counters);
+            return encoded;
+        }
+
+        private void encoded(long elapsed, byte[] encoded, AudioCounters counters)
+        {
+            counters.encode.record(elapsed);
+            AudioEvents.get().frameEncoded(guildId, webSocket.getSSRC(), elapsed, encoded == null ? 0 : encoded.length);
+        }
+
+        private DatagramPacket encrypt(AudioPacket packet, AudioCounters counters)
+        {
+            long start = System.nanoTime();
+            DatagramPacket encrypted = packet.asEncryptedUdpPacket(webSocket.getAddress(), webSocket.getSecretKey());
+            long elapsed = System.nanoTime() - start;
+            counters.encrypt.record(elapsed);
+            AudioEvents.get().frameEncrypted(guildId, packet.getSSRC(), elapsed, packet.getSequence());
+            return encrypted;
+        }
+
+        /**
+         * Measures how far this call is behind the 20ms schedule of the send system.
+         *
+         * @return The lateness in nanoseconds
+         */
+        private long trackSchedule(AudioCounters counters)
+        {
+            long now = System.nanoTime();
+            if (nextFrame == 0)
+                nextFrame = now;
+            long lateness = Math.max(0, now - nextFrame);
+            counters.sendLateness.record(lateness);
+            if (lateness >= FRAME_NANOS / 2)
+                counters.lateFrames.increment();
+            if (lateness >= SEND_RESYNC_NANOS)
+            {
+                //The send system starts over from now, the frames in between are never sent.
+                counters.skippedFrames.add(lateness / FRAME_NANOS);
+                nextFrame = now;
+            }
+            nextFrame += FRAME_NANOS;
+            return lateness;
+        }
+
         @Override
         public void onConnectionError(ConnectionStatus status)
         {
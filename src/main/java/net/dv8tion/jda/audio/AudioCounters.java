@@ -0,0 +1,118 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live counters behind the {@link AudioStatistics} of a guild, written by the sending and receiving threads of
+ * its connections. They outlive the connections, so the statistics of a guild keep counting across reconnects.
+ * <p>
+ * The hot paths only pay for adding to {@link java.util.concurrent.atomic.LongAdder LongAdders} and, for the
+ * histograms, to one bucket of an array. Every histogram is written by a single thread of the connection, so its
+ * buckets are plain atomics rather than striped. Everything else happens when a snapshot is taken.
+ */
+public final class AudioCounters
+{
+    final LongAdder packetsSent = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder packetsReceived = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder lateFrames = new LongAdder();
+    final LongAdder skippedFrames = new LongAdder();
+    final LongAdder outOfOrder = new LongAdder();
+    final LongAdder lost = new LongAdder();
+    final LongAdder concealed = new LongAdder();
+    final LongAdder decodeFailures = new LongAdder();
+
+    final Histogram sendLateness = new Histogram();
+    final Histogram encode = new Histogram();
+    final Histogram encrypt = new Histogram();
+    final Histogram decrypt = new Histogram();
+    final Histogram decode = new Histogram();
+
+    /**
+     * Takes a snapshot of the counters. It is not atomic: counters that are written while it is taken may be
+     * a packet apart.
+     *
+     * @param  decoders
+     *         The amount of decoders the connection of the guild currently holds
+     *
+     * @return The snapshot
+     */
+    public AudioStatistics snapshot(int decoders)
+    {
+        return new AudioStatistics(Collections.singletonList(this), decoders);
+    }
+
+    /**
+     * Adds up the provided counters into one snapshot, without taking a snapshot of each of them.
+     *
+     * @param  counters
+     *         The counters to add up
+     * @param  decoders
+     *         The amount of decoders their connections currently hold
+     *
+     * @return The snapshot
+     */
+    public static AudioStatistics snapshot(Collection<AudioCounters> counters, int decoders)
+    {
+        if (counters == null)
+            throw new IllegalArgumentException("Provided counters must not be null");
+        return new AudioStatistics(counters, decoders);
+    }
+
+    void sent(int bytes)
+    {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    void received(int bytes)
+    {
+        packetsReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Log2 histogram of durations in nanoseconds: bucket {@code i} counts the values below {@code 2^(i+1)}
+     * that did not fit into a lower bucket.
+     */
+    static class Histogram
+    {
+        static final int BUCKETS = 40;  //2^40ns are about 18 minutes, plenty for anything measured here.
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final LongAdder sum = new LongAdder();
+
+        void record(long nanos)
+        {
+            buckets.incrementAndGet(bucketOf(nanos));
+            sum.add(Math.max(0, nanos));
+        }
+
+        static int bucketOf(long nanos)
+        {
+            if (nanos <= 1)
+                return 0;
+            return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayDeque;
+
+/**
+ * Released {@link UserAudio} and {@link CombinedAudio} frames of a connection, ready to be re-used.
+ * <br>Frames keep their sample arrays, so once the pool is warm decoding and mixing allocate nothing per frame.
+ * Frames with a different sample layout than requested, left over from before the handler changed, are dropped on
+ * the way out.
+ * <p>
+ * ArrayDeques rather than a concurrent queue, those would allocate a node for every released frame.
+ */
+class AudioFramePool
+{
+    static final int MAX_POOLED = 64;   //Per kind, enough for 1.28 seconds of 20ms frames
+
+    private final ArrayDeque<UserAudio> userAudio = new ArrayDeque<>();
+    private final ArrayDeque<CombinedAudio> combinedAudio = new ArrayDeque<>();
+
+    /**
+     * Provides a frame to decode into.
+     *
+     * @param  pooled
+     *         Whether the frame is re-used after its release, see {@link AudioReceiveHandler#canReceivePooled()}
+     *
+     * @return The frame, with a sample array of the provided length
+     */
+    UserAudio takeUserAudio(long userId, AudioFormat format, boolean asFloat, int length, boolean pooled)
+    {
+        UserAudio audio = null;
+        if (pooled)
+        {
+            synchronized (userAudio)
+            {
+                while ((audio = userAudio.pollFirst()) != null && !audio.fits(asFloat, length))
+                {
+                    //Drop it, the format changed.
+                }
+            }
+        }
+        if (audio == null)
+            audio = new UserAudio(pooled ? this : null, userId, format, asFloat, length);
+        audio.reset(userId, format);
+        return audio;
+    }
+
+    /**
+     * Provides a frame to mix into.
+     *
+     * @return The frame, with a sample array of the provided length and room for the ids of {@code users} users
+     */
+    CombinedAudio takeCombinedAudio(AudioFormat format, boolean asFloat, int length, int users, boolean pooled)
+    {
+        CombinedAudio audio = null;
+        if (pooled)
+        {
+            synchronized (combinedAudio)
+            {
+                while ((audio = combinedAudio.pollFirst()) != null && !audio.fits(asFloat, length))
+                {
+                    //Drop it, the format changed.
+                }
+            }
+        }
+        if (audio == null)
+            audio = new CombinedAudio(pooled ? this : null, format, asFloat, length);
+        audio.reset(users, format);
+        return audio;
+    }
+
+    void recycle(UserAudio audio)
+    {
+        synchronized (userAudio)
+        {
+            if (userAudio.size() < MAX_POOLED)
+                userAudio.offerFirst(audio);
+        }
+    }
+
+    void recycle(CombinedAudio audio)
+    {
+        synchronized (combinedAudio)
+        {
+            if (combinedAudio.size() < MAX_POOLED)
+                combinedAudio.offerFirst(audio);
+        }
+    }
+}
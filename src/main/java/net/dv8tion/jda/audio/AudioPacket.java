@@ -133,6 +133,38 @@ public class AudioPacket
         return Arrays.copyOf(encodedAudio, encodedAudio.length);
     }
 
+    /**
+     * The length of {@link #getEncodedAudio()}.
+     *
+     * @return The amount of bytes of the encoded audio
+     */
+    public int getEncodedAudioLength()
+    {
+        return encodedAudio.length;
+    }
+
+    /**
+     * Copies the encoded audio into the provided buffer, without allocating a copy like {@link #getEncodedAudio()}.
+     *
+     * @param  target
+     *         The buffer to put the audio into, at its position
+     *
+     * @throws java.nio.BufferOverflowException
+     *         If the buffer has less than {@link #getEncodedAudioLength()} bytes remaining
+     */
+    public void getEncodedAudio(ByteBuffer target)
+    {
+        target.put(encodedAudio);
+    }
+
+    /**
+     * The encoded audio without copying it, for internal reads that don't modify it.
+     */
+    byte[] peekEncodedAudio()
+    {
+        return encodedAudio;
+    }
+
     public char getSequence()
     {
         return seq;
@@ -176,6 +208,20 @@ public class AudioPacket
         return new AudioPacket(seq, timestamp, ssrc, encryptedAudio).asUdpPacket(address);
     }
 
+    /**
+     * Reads the SSRC from the cleartext RTP header of a received packet, without decrypting or copying it.
+     *
+     * @param  packet
+     *         The received packet
+     *
+     * @return The SSRC of the sender
+     */
+    public static int readSSRC(DatagramPacket packet)
+    {
+        return ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength())
+                .getInt(packet.getOffset() + SSRC_INDEX);
+    }
+
     public static AudioPacket createEchoPacket(DatagramPacket packet, int ssrc)
     {
         ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength()));
@@ -17,6 +17,7 @@
 package net.dv8tion.jda.audio;
 
 import javax.sound.sampled.AudioFormat;
+import java.util.List;
 
 /**
  * Interface used to receive audio from Discord through JDA.
@@ -24,10 +25,28 @@ import javax.sound.sampled.AudioFormat;
 public interface AudioReceiveHandler
 {
     /**
-     * Audio Output Format used by JDA. 48KHz 16bit stereo signed BigEndian PCM.
+     * Default Audio Output Format used by JDA. 48KHz 16bit stereo signed BigEndian PCM.
+     * <br>Handlers can request a different format with {@link #getOutputFormat()}.
      */
     AudioFormat OUTPUT_FORMAT = new AudioFormat(48000.0f, 16, 2, true, true);
 
+    /**
+     * The format JDA should provide the received audio in. The audio is decoded natively at this sample rate and
+     * channel count, so requesting what is actually needed (e.g. 16KHz mono for speech recognition) saves decoding
+     * work and memory, and no resampling or downmixing is necessary afterwards.
+     * <br>Supported are signed 16bit PCM with a sample rate of 8, 12, 16, 24 or 48KHz, mono or stereo, in either byte order.
+     * <p>
+     * The format is read when the handler is set, {@link UserAudio#getFormat()} and {@link CombinedAudio#getFormat()}
+     * report the format of the provided audio.
+     *
+     * @return The requested output format.
+     *         <br>Default - {@link #OUTPUT_FORMAT}
+     */
+    default AudioFormat getOutputFormat()
+    {
+        return OUTPUT_FORMAT;
+    }
+
     /**
      * If this method returns true, then JDA will generate combined audio data and provide it to the handler.
      * <br><b>Only enable if you specifically want combined audio because combining audio is costly if unused.</b>
@@ -43,12 +62,66 @@ public interface AudioReceiveHandler
      */
     boolean canReceiveUser();
 
+    /**
+     * Used to filter the userIds this handler is interested in, for {@link #handleUserAudio(UserAudio)} as well as
+     * for combined and mix-minus audio. Packets of other userIds are dropped right after reading their unencrypted
+     * header, they are never decrypted or decoded.
+     * <br>The filter is resolved whenever a userId starts or stops speaking and when
+     * {@link net.dv8tion.jda.manager.AudioManager#updateReceiveFilter() AudioManager.updateReceiveFilter()} is called.
+     *
+     * @param  userId
+     *         The id of the user
+     *
+     * @return If true, the audio of the userId is received.
+     *         <br>Default - True.
+     */
+    default boolean shouldReceiveUser(long userId)
+    {
+        return true;
+    }
+
+    /**
+     * If this method returns true, JDA decodes and mixes the received audio as float samples instead of 16bit samples.
+     * <br>The audio is then available without any conversion through {@link UserAudio#getFloatAudioData()} and
+     * {@link CombinedAudio#getFloatAudioData()}, and combined audio is soft-clipped instead of hard-clipped,
+     * which distorts much less when many userIds speak at once.
+     *
+     * @return If true, JDA provides float audio.
+     *         <br>Default - False.
+     */
+    default boolean canReceiveFloat()
+    {
+        return false;
+    }
+
+    /**
+     * If this method returns true, the {@link UserAudio} and {@link CombinedAudio} objects provided to this handler are
+     * taken from a pool and re-used once the callback returns, so that receiving audio allocates nothing per frame.
+     * <br>A frame that is needed after the callback returns, e.g. because it is handed to another thread, has to be
+     * {@link UserAudio#retain() retained} and {@link UserAudio#release() released} once it is no longer used.
+     * <br>Frames must not be modified either way, the same samples are used for the combined audio.
+     *
+     * @return If true, JDA provides pooled frames that are only valid during the callback.
+     *         <br>Default - False.
+     */
+    default boolean canReceivePooled()
+    {
+        return false;
+    }
+
     /**
      * If {@link #canReceiveCombined()} returns true, JDA will provide a {@link net.dv8tion.jda.core.audio.CombinedAudio CombinedAudio}
      * object to this method <b>every 20 milliseconds</b>. The data provided by CombinedAudio is all audio that occurred
      * during the 20 millisecond period mixed together into a single 20 millisecond packet. If no userIds spoke, this method
      * will still be provided with a CombinedAudio object containing 20 milliseconds of silence and
      * {@link CombinedAudio#getUserIds()}'s list will be empty.
+     * <br>Each userId's audio is aligned on its RTP timestamp and held back by the
+     * {@link net.dv8tion.jda.manager.AudioManager#setCombinedDelay(long) combined delay}, so the mix lags behind
+     * {@link #handleUserAudio(UserAudio)} by that amount.
+     * <p>
+     * This method is called on a mixing thread that is shared by up to
+     * {@link CombinedAudioScheduler#CONNECTIONS_PER_LANE} connections, so it <b>must not block</b>: a slow call delays
+     * the combined audio of all of them. Do file or network I/O through an {@link AsyncAudioReceiveHandler}.
      * <p>
      * The main use of this method is if you are wanting to record audio. Because it automatically combines audio and
      * maintains timeline (no gaps in audio due to silence) it is an incredible resource for audio recording.
@@ -56,7 +129,7 @@ public interface AudioReceiveHandler
      * If you are wanting to do audio processing (voice recognition) or you only want to deal with a single userId's audio,
      * please consider {@link #handleUserAudio(UserAudio)}.
      * <p>
-     * Output audio format: 48KHz 16bit stereo signed BigEndian PCM
+     * Output audio format: {@link #getOutputFormat()}, by default 48KHz 16bit stereo signed BigEndian PCM
      * <br>and is defined by: {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioRecieveHandler.OUTPUT_FORMAT}
      *
      * @param  combinedAudio
@@ -79,11 +152,72 @@ public interface AudioReceiveHandler
      * If you are wanting to do audio recording, please consider {@link #handleCombinedAudio(CombinedAudio)} as it was created
      * just for that reason.
      * <p>
-     * Output audio format: 48KHz 16bit stereo signed BigEndian PCM
+     * Output audio format: {@link #getOutputFormat()}, by default 48KHz 16bit stereo signed BigEndian PCM
      * <br>and is defined by: {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioRecieveHandler.OUTPUT_FORMAT}
      *
      * @param  userAudio
      *         The userId audio data
      */
     void handleUserAudio(UserAudio userAudio);
+
+    /**
+     * Called with several consecutive frames of {@link #handleCombinedAudio(CombinedAudio)} at once, when this handler
+     * is decorated by an {@link AsyncAudioReceiveHandler} that fell behind.
+     * <br>Handlers that can process several frames more efficiently in one go, e.g. with one write, override this.
+     *
+     * @param  combinedAudio
+     *         The combined audio frames, oldest first
+     */
+    default void handleCombinedAudioBatch(List<CombinedAudio> combinedAudio)
+    {
+        for (CombinedAudio audio : combinedAudio)
+            handleCombinedAudio(audio);
+    }
+
+    /**
+     * Called with several consecutive frames of {@link #handleUserAudio(UserAudio)} at once, when this handler
+     * is decorated by an {@link AsyncAudioReceiveHandler} that fell behind.
+     * <br>The frames can belong to different userIds.
+     *
+     * @param  userAudio
+     *         The userId audio frames, oldest first
+     */
+    default void handleUserAudioBatch(List<UserAudio> userAudio)
+    {
+        for (UserAudio audio : userAudio)
+            handleUserAudio(audio);
+    }
+
+    /**
+     * If this method returns true, then JDA will provide mix-minus audio to {@link #handleMixMinusAudio(long, CombinedAudio)}
+     * for every userId subscribed with {@link net.dv8tion.jda.manager.AudioManager#addMixMinusUser(long)
+     * AudioManager.addMixMinusUser(long)}.
+     *
+     * @return If true, JDA enables subsystems to provide mix-minus audio.
+     *         <br>Default - False.
+     */
+    default boolean canReceiveMixMinus()
+    {
+        return false;
+    }
+
+    /**
+     * If {@link #canReceiveMixMinus()} returns true, JDA will call this method <b>every 20 milliseconds</b> for each
+     * subscribed userId, providing the combined audio of everyone <b>except</b> that userId.
+     * <br>This is what a participant of a voice bridge should hear. The full mix is only computed once per
+     * 20 milliseconds and each userId's own audio is subtracted from it, so this is much cheaper than mixing
+     * {@link #handleUserAudio(UserAudio)} for every participant.
+     * <p>
+     * Like {@link #handleCombinedAudio(CombinedAudio)} this is called on a shared mixing thread and <b>must not
+     * block</b>, see {@link AsyncAudioReceiveHandler}.
+     * <p>
+     * Output audio format: {@link #getOutputFormat()}, by default 48KHz 16bit stereo signed BigEndian PCM
+     * <br>and is defined by: {@link net.dv8tion.jda.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioRecieveHandler.OUTPUT_FORMAT}
+     *
+     * @param  userId
+     *         The userId this audio is meant for
+     * @param  mixMinusAudio
+     *         The combined audio of all other userIds
+     */
+    default void handleMixMinusAudio(long userId, CombinedAudio mixMinusAudio) {}
 }
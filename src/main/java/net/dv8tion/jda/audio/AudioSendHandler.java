@@ -54,6 +54,32 @@ public interface AudioSendHandler
      */
     byte[] provide20MsAudio();
 
+    /**
+     * If {@link #isFloat()} returns true JDA will call this method instead of {@link #provide20MsAudio()} to retrieve
+     * 20 Milliseconds of audio as interleaved 48KHz stereo float samples in the range {@code -1..1} (1920 values).
+     * <br>The audio is encoded with libopus' float encoder, so it is never converted to 16bit. Samples outside of
+     * {@code -1..1} are soft-clipped in place. Arrays of any other length are dropped.
+     * <br>Filling the same array for every frame saves JDA some work.
+     *
+     * @return Should return a float[] containing 20 Milliseconds of audio, or null if there is none.
+     */
+    default float[] provide20MsFloatAudio()
+    {
+        return null;
+    }
+
+    /**
+     * If this method returns true JDA will retrieve the audio data from {@link #provide20MsFloatAudio()} instead
+     * of {@link #provide20MsAudio()}. Ignored if {@link #isOpus()} returns true.
+     *
+     * @return If true, JDA will encode the float audio provided by {@link #provide20MsFloatAudio()}.
+     *         <br>Default - False.
+     */
+    default boolean isFloat()
+    {
+        return false;
+    }
+
     /**
      * If this method returns true JDA will treat the audio data provided by {@link #provide20MsAudio()} as a pre-encoded
      * 20 Millisecond packet of Opus audio. This means that JDA <b>WILL NOT</b> attempt to encode the audio as Opus, but
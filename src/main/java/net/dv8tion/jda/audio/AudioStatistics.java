@@ -0,0 +1,368 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Snapshot of the audio statistics of a guild, see {@link net.dv8tion.jda.manager.AudioManager#getStatistics()},
+ * or of all guilds of a {@link net.dv8tion.jda.Core Core}, see {@link net.dv8tion.jda.Core#getStatistics()}.
+ * <br>All counts are totals since the {@link net.dv8tion.jda.manager.AudioManager AudioManager} was created,
+ * only the {@link #getDecoders() decoders} are a current value.
+ *
+ * <p>Sending is measured against the 20 millisecond schedule of the calls the send system makes for the next packet:
+ * a frame is late when that call is half a frame or more behind the schedule, and frames are skipped when it is
+ * so far behind that the {@link net.dv8tion.jda.audio.factory.DefaultSendSystem DefaultSendSystem} gives up
+ * catching up.
+ * <br>Receiving tracks the RTP sequence of every user: packets older than the newest one of the user are out of
+ * order, gaps that are not filled by such late packets are lost packets. For users that are mixed into
+ * {@link CombinedAudio CombinedAudio}, the decoder conceals short gaps so that the mix has no holes.
+ */
+public class AudioStatistics
+{
+    public static final AudioStatistics EMPTY = new AudioStatistics(Collections.emptyList(), 0);
+
+    protected final long packetsSent;
+    protected final long bytesSent;
+    protected final long packetsReceived;
+    protected final long bytesReceived;
+    protected final long lateFrames;
+    protected final long skippedFrames;
+    protected final long outOfOrder;
+    protected final long lost;
+    protected final long concealed;
+    protected final long decodeFailures;
+    protected final int decoders;
+    protected final Histogram sendLateness;
+    protected final Histogram encode;
+    protected final Histogram encrypt;
+    protected final Histogram decrypt;
+    protected final Histogram decode;
+
+    AudioStatistics(Collection<AudioCounters> counters, int decoders)
+    {
+        this.packetsSent = sum(counters, c -> c.packetsSent);
+        this.bytesSent = sum(counters, c -> c.bytesSent);
+        this.packetsReceived = sum(counters, c -> c.packetsReceived);
+        this.bytesReceived = sum(counters, c -> c.bytesReceived);
+        this.lateFrames = sum(counters, c -> c.lateFrames);
+        this.skippedFrames = sum(counters, c -> c.skippedFrames);
+        this.outOfOrder = sum(counters, c -> c.outOfOrder);
+        long lost = 0;
+        for (AudioCounters c : counters)
+            lost += Math.max(0, c.lost.sum());  //A late packet from before the first one of its user has no gap to fill.
+        this.lost = lost;
+        this.concealed = sum(counters, c -> c.concealed);
+        this.decodeFailures = sum(counters, c -> c.decodeFailures);
+        this.decoders = decoders;
+        this.sendLateness = new Histogram(counters, c -> c.sendLateness);
+        this.encode = new Histogram(counters, c -> c.encode);
+        this.encrypt = new Histogram(counters, c -> c.encrypt);
+        this.decrypt = new Histogram(counters, c -> c.decrypt);
+        this.decode = new Histogram(counters, c -> c.decode);
+    }
+
+    private AudioStatistics(AudioStatistics a, AudioStatistics b)
+    {
+        this.packetsSent = a.packetsSent + b.packetsSent;
+        this.bytesSent = a.bytesSent + b.bytesSent;
+        this.packetsReceived = a.packetsReceived + b.packetsReceived;
+        this.bytesReceived = a.bytesReceived + b.bytesReceived;
+        this.lateFrames = a.lateFrames + b.lateFrames;
+        this.skippedFrames = a.skippedFrames + b.skippedFrames;
+        this.outOfOrder = a.outOfOrder + b.outOfOrder;
+        this.lost = a.lost + b.lost;
+        this.concealed = a.concealed + b.concealed;
+        this.decodeFailures = a.decodeFailures + b.decodeFailures;
+        this.decoders = a.decoders + b.decoders;
+        this.sendLateness = a.sendLateness.plus(b.sendLateness);
+        this.encode = a.encode.plus(b.encode);
+        this.encrypt = a.encrypt.plus(b.encrypt);
+        this.decrypt = a.decrypt.plus(b.decrypt);
+        this.decode = a.decode.plus(b.decode);
+    }
+
+    /**
+     * Adds up these and the provided statistics, e.g. those of the Cores of several shards.
+     *
+     * @param  other
+     *         The statistics to add
+     *
+     * @return The sum
+     */
+    public AudioStatistics plus(AudioStatistics other)
+    {
+        if (other == null)
+            throw new IllegalArgumentException("Provided statistics must not be null");
+        return new AudioStatistics(this, other);
+    }
+
+    private static long sum(Collection<AudioCounters> counters, Function<AudioCounters, LongAdder> counter)
+    {
+        long sum = 0;
+        for (AudioCounters c : counters)
+            sum += counter.apply(c).sum();
+        return sum;
+    }
+
+    /**
+     * @return The amount of packets handed to the send system
+     */
+    public long getPacketsSent()
+    {
+        return packetsSent;
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent;
+    }
+
+    /**
+     * @return The amount of datagrams that reached the receiving pipeline
+     */
+    public long getPacketsReceived()
+    {
+        return packetsReceived;
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived;
+    }
+
+    /**
+     * @return The amount of frames that were sent half a frame or more behind their schedule
+     */
+    public long getLateFrames()
+    {
+        return lateFrames;
+    }
+
+    /**
+     * @return The amount of 20ms frames that were never sent, because sending fell too far behind
+     */
+    public long getSkippedFrames()
+    {
+        return skippedFrames;
+    }
+
+    /**
+     * @return The amount of received packets that were older than the newest packet of their user, or duplicates
+     */
+    public long getOutOfOrder()
+    {
+        return outOfOrder;
+    }
+
+    /**
+     * @return The amount of packets that never arrived, from the gaps in the sequence of every user
+     *         less the packets that arrived late to fill them
+     */
+    public long getLost()
+    {
+        return lost;
+    }
+
+    /**
+     * @return The amount of frames the decoder made up for missing packets, including those that arrived too late
+     */
+    public long getConcealed()
+    {
+        return concealed;
+    }
+
+    /**
+     * @return The amount of packets that Opus failed to decode
+     */
+    public long getDecodeFailures()
+    {
+        return decodeFailures;
+    }
+
+    /**
+     * @return The amount of decoders the connections hold right now
+     */
+    public int getDecoders()
+    {
+        return decoders;
+    }
+
+    /**
+     * @return How far behind its schedule every frame was sent, in nanoseconds
+     */
+    public Histogram getSendLateness()
+    {
+        return sendLateness;
+    }
+
+    /**
+     * @return The time spent encoding a frame to Opus, in nanoseconds. Opus audio provided by the handler is not encoded.
+     */
+    public Histogram getEncode()
+    {
+        return encode;
+    }
+
+    public Histogram getEncrypt()
+    {
+        return encrypt;
+    }
+
+    public Histogram getDecrypt()
+    {
+        return decrypt;
+    }
+
+    /**
+     * @return The time spent decoding a packet or concealing a lost one, in nanoseconds
+     */
+    public Histogram getDecode()
+    {
+        return decode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("sent %d packets (%d bytes), late %d, skipped %d, lateness %s%n"
+                        + "received %d packets (%d bytes), out of order %d, lost %d, concealed %d, decode failures %d, decoders %d%n"
+                        + "encode %s, encrypt %s, decrypt %s, decode %s",
+                packetsSent, bytesSent, lateFrames, skippedFrames, sendLateness,
+                packetsReceived, bytesReceived, outOfOrder, lost, concealed, decodeFailures, decoders,
+                encode, encrypt, decrypt, decode);
+    }
+
+    /**
+     * Snapshot of a log2 histogram of durations in nanoseconds.
+     * <br>Bucket {@code i} counts the durations below {@link #getUpperBound(int) 2^(i+1)} nanoseconds that did not
+     * fit into a lower bucket, so every percentile is precise to a factor of two.
+     */
+    public static class Histogram
+    {
+        protected final long[] buckets;
+        protected final long count;
+        protected final long sum;
+
+        Histogram(Collection<AudioCounters> counters, Function<AudioCounters, AudioCounters.Histogram> histogram)
+        {
+            long[] buckets = new long[AudioCounters.Histogram.BUCKETS];
+            long count = 0;
+            long sum = 0;
+            for (AudioCounters c : counters)
+            {
+                AudioCounters.Histogram h = histogram.apply(c);
+                for (int i = 0; i < buckets.length; i++)
+                {
+                    long bucket = h.buckets.get(i);
+                    buckets[i] += bucket;
+                    count += bucket;
+                }
+                sum += h.sum.sum();
+            }
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        private Histogram(long[] buckets, long count, long sum)
+        {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        Histogram plus(Histogram other)
+        {
+            long[] buckets = Arrays.copyOf(this.buckets, this.buckets.length);
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] += other.buckets[i];
+            return new Histogram(buckets, count + other.count, sum + other.sum);
+        }
+
+        public int getBucketCount()
+        {
+            return buckets.length;
+        }
+
+        public long getBucket(int bucket)
+        {
+            return buckets[bucket];
+        }
+
+        /**
+         * @return The exclusive upper bound of the bucket in nanoseconds
+         */
+        public static long getUpperBound(int bucket)
+        {
+            return 1L << (bucket + 1);
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return The sum of all durations in nanoseconds
+         */
+        public long getSum()
+        {
+            return sum;
+        }
+
+        public double getMean()
+        {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param  percentile
+         *         The percentile, from 0 to 100
+         *
+         * @return The upper bound of the bucket the percentile falls into in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile)
+        {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Provided percentile must be between 0 and 100");
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return getUpperBound(i);
+            }
+            return getUpperBound(buckets.length - 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("mean %.1fus p50 <%dus p99 <%dus (%d)", getMean() / 1000,
+                    TimeUnit.NANOSECONDS.toMicros(getPercentile(50)), TimeUnit.NANOSECONDS.toMicros(getPercentile(99)), count);
+        }
+    }
+}
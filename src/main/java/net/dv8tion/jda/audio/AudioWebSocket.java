@@ -25,17 +25,20 @@ import com.neovisionaries.ws.client.WebSocketFrame;
 import net.dv8tion.jda.Core;
 import net.dv8tion.jda.audio.hooks.ConnectionListener;
 import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.audio.jfr.AudioEvents;
+import net.dv8tion.jda.audio.transport.SocketTransport;
+import net.dv8tion.jda.audio.transport.VoiceTransport;
 import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.utils.MiscUtil;
 import net.dv8tion.jda.utils.SimpleLog;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.SocketException;
+import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
@@ -58,8 +61,9 @@ public class AudioWebSocket extends WebSocketAdapter
     protected ConnectionStatus connectionStatus = ConnectionStatus.NOT_CONNECTED;
 
     private final Core core;
-    private final String guildId;
+    private final long guildId;
     private final String endpoint;
+    private final String host;
     private final String sessionId;
     private final String token;
     private boolean reconnecting = false;
@@ -72,12 +76,12 @@ public class AudioWebSocket extends WebSocketAdapter
 
     private int ssrc;
     private byte[] secretKey;
-    private DatagramSocket udpSocket;
+    private VoiceTransport transport;
     private InetSocketAddress address;
 
     public WebSocket socket;
 
-    public AudioWebSocket(ConnectionListener listener, String endpoint, Core core, String guildId, String sessionId, String token, boolean shouldReconnect)
+    public AudioWebSocket(ConnectionListener listener, String endpoint, Core core, long guildId, String sessionId, String token, boolean shouldReconnect)
     {
         this.core = core;
         this.listener = listener;
@@ -89,9 +93,20 @@ public class AudioWebSocket extends WebSocketAdapter
 
         keepAlivePool = core.getAudioKeepAlivePool();
 
-        //Append the Secure Websocket scheme so that our websocket library knows how to connect
-        //specify v3 to work according to documentation details
-        wssEndpoint = String.format("wss://%s/?v=3", endpoint);
+        if (endpoint.startsWith("ws://") || endpoint.startsWith("wss://"))
+        {
+            //A complete URI, used by local voice servers such as the one of the load test.
+            // The UDP endpoint is on the same host.
+            wssEndpoint = String.format("%s/?v=3", endpoint);
+            host = URI.create(endpoint).getHost();
+        }
+        else
+        {
+            //Append the Secure Websocket scheme so that our websocket library knows how to connect
+            //specify v3 to work according to documentation details
+            wssEndpoint = String.format("wss://%s/?v=3", endpoint);
+            host = endpoint;
+        }
 
         if (sessionId == null || sessionId.isEmpty())
             throw new IllegalArgumentException("Cannot create a voice connection using a null/empty sessionId!");
@@ -99,6 +114,15 @@ public class AudioWebSocket extends WebSocketAdapter
             throw new IllegalArgumentException("Cannot create a voice connection using a null/empty token!");
     }
 
+    /**
+     * @deprecated Use {@link #AudioWebSocket(ConnectionListener, String, Core, long, String, String, boolean)}
+     */
+    @Deprecated
+    public AudioWebSocket(ConnectionListener listener, String endpoint, Core core, String guildId, String sessionId, String token, boolean shouldReconnect)
+    {
+        this(listener, endpoint, core, MiscUtil.parseSnowflake(guildId), sessionId, token, shouldReconnect);
+    }
+
     public void send(String message)
     {
         socket.sendText(message);
@@ -135,7 +159,7 @@ public class AudioWebSocket extends WebSocketAdapter
     {
         send(VoiceCode.IDENTIFY,
             new JSONObject()
-                .put("server_id", guildId)
+                .put("server_id", MiscUtil.toSnowflake(guildId))
                 .put("user_id", core.getUserId())
                 .put("session_id", sessionId)
                 .put("token", token));
@@ -145,7 +169,7 @@ public class AudioWebSocket extends WebSocketAdapter
     {
         send(VoiceCode.RESUME,
             new JSONObject()
-                .put("server_id", guildId)
+                .put("server_id", MiscUtil.toSnowflake(guildId))
                 .put("session_id", sessionId)
                 .put("token", token));
     }
@@ -185,7 +209,7 @@ public class AudioWebSocket extends WebSocketAdapter
                 int tries = 0;
                 do
                 {
-                    externalIpAndPort = handleUdpDiscovery(new InetSocketAddress(endpoint, port), ssrc);
+                    externalIpAndPort = handleUdpDiscovery(new InetSocketAddress(host, port), ssrc);
                     tries++;
                     if (externalIpAndPort == null && tries > 5)
                     {
@@ -242,14 +266,14 @@ public class AudioWebSocket extends WebSocketAdapter
                 final int ssrc = content.getInt("ssrc");
                 final String userId = content.getString("user_id");
 
-                audioConnection.updateUserSSRC(ssrc, userId);
+                audioConnection.updateUserSSRC(ssrc, MiscUtil.parseSnowflake(userId));
                 listener.onUserSpeaking(userId, speaking);
                 break;
             }
             case VoiceCode.USER_DISCONNECT:
             {
                 final JSONObject payload = contentAll.getJSONObject("d");
-                final String userId = payload.getString("user_id");
+                final long userId = MiscUtil.parseSnowflake(payload.getString("user_id"));
                 audioConnection.removeUserSSRC(userId);
                 break;
             }
@@ -316,7 +340,7 @@ public class AudioWebSocket extends WebSocketAdapter
     public void onThreadCreated(WebSocket websocket, ThreadType threadType, Thread thread) throws Exception
     {
         String identifier = "JDA-Audio";
-        String guildId = this.guildId;
+        String guildId = MiscUtil.toSnowflake(this.guildId);
         switch (threadType)
         {
             case CONNECT_THREAD:
@@ -389,7 +413,7 @@ public class AudioWebSocket extends WebSocketAdapter
             JSONObject obj = new JSONObject()
                 .put("op", 4)
                 .put("d", new JSONObject()
-                    .put("guild_id", guildId)
+                    .put("guild_id", MiscUtil.toSnowflake(guildId))
                     .put("channel_id", JSONObject.NULL)
                     .put("self_mute", false)
                     .put("self_deaf", false)
@@ -402,12 +426,12 @@ public class AudioWebSocket extends WebSocketAdapter
             keepAliveHandle  = null;
         }
 
-        if (udpSocket != null)
-            udpSocket.close();
+        if (transport != null)
+            transport.close();
         if (socket != null && socket.isOpen())
             socket.sendClose(1000);
 
-        String disconnectedChannelId;
+        long disconnectedChannelId;
         AudioManager manager = core.getAudioManager(guildId);
 
         synchronized (manager.CONNECTION_LOCK)
@@ -415,9 +439,9 @@ public class AudioWebSocket extends WebSocketAdapter
             if (audioConnection != null)
                 audioConnection.shutdown();
             if (manager.isConnected())
-                disconnectedChannelId = manager.getConnectedChannel();
+                disconnectedChannelId = manager.getConnectedChannelLong();
             else
-                disconnectedChannelId = manager.getQueuedAudioConnectionId();
+                disconnectedChannelId = manager.getQueuedAudioConnectionIdLong();
 
             manager.setAudioConnection(null);
         }
@@ -453,9 +477,20 @@ public class AudioWebSocket extends WebSocketAdapter
         }
     }
 
+    public VoiceTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * @return The socket of the transport, or null if the connection does not use a {@link SocketTransport}
+     *
+     * @deprecated Use {@link #getTransport()}
+     */
+    @Deprecated
     public DatagramSocket getUdpSocket()
     {
-        return udpSocket;
+        return transport instanceof SocketTransport ? ((SocketTransport) transport).getSocket() : null;
     }
 
     public InetSocketAddress getAddress()
@@ -465,7 +500,17 @@ public class AudioWebSocket extends WebSocketAdapter
 
     public byte[] getSecretKey()
     {
-        return Arrays.copyOf(secretKey, secretKey.length);
+        return secretKey == null ? null : Arrays.copyOf(secretKey, secretKey.length);
+    }
+
+    public long getGuildId()
+    {
+        return guildId;
+    }
+
+    Core getCore()
+    {
+        return core;
     }
 
     public int getSSRC()
@@ -485,64 +530,28 @@ public class AudioWebSocket extends WebSocketAdapter
     {
         //We will now send a packet to discord to punch a port hole in the NAT wall.
         //This is called UDP hole punching.
+        VoiceTransport transport = null;
+        long start = System.nanoTime();
+        InetSocketAddress externalAddress = null;
         try
         {
-            udpSocket = new DatagramSocket();   //Use UDP, not TCP.
-
-            //Create a byte array of length 70 containing our ssrc.
-            ByteBuffer buffer = ByteBuffer.allocate(70);    //70 taken from https://github.com/Rapptz/discord.py/blob/async/discord/voice_client.py#L208
-            buffer.putInt(ssrc);                            //Put the ssrc that we were given into the packet to send back to discord.
-
-            //Construct our packet to be sent loaded with the byte buffer we store the ssrc in.
-            DatagramPacket discoveryPacket = new DatagramPacket(buffer.array(), buffer.array().length, address);
-            udpSocket.send(discoveryPacket);
-
-            //Discord responds to our packet, returning a packet containing our external ip and the port we connected through.
-            DatagramPacket receivedPacket = new DatagramPacket(new byte[70], 70);   //Give a buffer the same size as the one we sent.
-            udpSocket.setSoTimeout(1000);
-            udpSocket.receive(receivedPacket);
-
-            //The byte array returned by discord containing our external ip and the port that we used
-            //to connect to discord with.
-            byte[] received = receivedPacket.getData();
-
-            //Example string:"   121.83.253.66                                                   ��"
-            //You'll notice that there are 4 leading nulls and a large amount of nulls between the the ip and
-            // the last 2 bytes. Not sure why these exist.  The last 2 bytes are the port. More info below.
-            String ourIP = new String(receivedPacket.getData());//Puts the entire byte array in. nulls are converted to spaces.
-            ourIP = ourIP.substring(4, ourIP.length() - 2); //Removes the port that is stuck on the end of this string. (last 2 bytes are the port)
-            ourIP = ourIP.trim();                           //Removes the extra whitespace(nulls) attached to both sides of the IP
-
-            //The port exists as the last 2 bytes in the packet data, and is encoded as an UNSIGNED short.
-            //Furthermore, it is stored in Little Endian instead of normal Big Endian.
-            //We will first need to convert the byte order from Little Endian to Big Endian (reverse the order)
-            //Then we will need to deal with the fact that the bytes represent an unsigned short.
-            //Java cannot deal with unsigned types, so we will have to promote the short to a higher type.
-            //Options:  char or int.  I will be doing int because it is just easier to work with.
-            byte[] portBytes = new byte[2];                 //The port is exactly 2 bytes in size.
-            portBytes[0] = received[received.length - 1];   //Get the second byte and store as the first
-            portBytes[1] = received[received.length - 2];   //Get the first byte and store as the second.
-            //We have now effectively converted from Little Endian -> Big Endian by reversing the order.
-
-            //For more information on how this is converting from an unsigned short to an int refer to:
-            //http://www.darksleep.com/player/JavaAndUnsignedTypes.html
-            int firstByte = (0x000000FF & ((int) portBytes[0]));    //Promotes to int and handles the fact that it was unsigned.
-            int secondByte = (0x000000FF & ((int) portBytes[1]));   //
-
-            //Combines the 2 bytes back together.
-            int ourPort = (firstByte << 8) | secondByte;
+            transport = core.getTransportFactory().create(address);
+            externalAddress = transport.discover(ssrc);
 
+            this.transport = transport;
             this.address = address;
 
-            return new InetSocketAddress(ourIP, ourPort);
+            return externalAddress;
         }
-        catch (SocketException e)
+        catch (IOException e)
         {
+            if (transport != null)
+                transport.close();
             return null;
         }
-        catch (IOException e)
+        finally
         {
-            return null;
+            AudioEvents.get().udpDiscovery(guildId, ssrc, address, externalAddress, System.nanoTime() - start);
         }
     }
 
@@ -557,7 +566,7 @@ public class AudioWebSocket extends WebSocketAdapter
             {
                 sendKeepAlive();
             }
-            if (udpSocket != null && !udpSocket.isClosed())
+            if (transport != null && !transport.isClosed())
             {
                 long seq = 0;
                 try
@@ -565,8 +574,8 @@ public class AudioWebSocket extends WebSocketAdapter
                     ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 1);
                     buffer.put((byte)0xC9);
                     buffer.putLong(seq);
-                    DatagramPacket keepAlivePacket = new DatagramPacket(buffer.array(), buffer.array().length, address);
-                    udpSocket.send(keepAlivePacket);
+                    buffer.flip();
+                    transport.send(buffer);
 
                 }
                 catch (NoRouteToHostException e)
@@ -600,6 +609,7 @@ public class AudioWebSocket extends WebSocketAdapter
 
     public void changeStatus(ConnectionStatus newStatus)
     {
+        AudioEvents.get().connectionStatusChanged(guildId, ssrc, connectionStatus, newStatus);
         connectionStatus = newStatus;
         listener.onStatusChange(newStatus);
     }
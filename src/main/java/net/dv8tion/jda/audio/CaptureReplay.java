@@ -0,0 +1,269 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import net.dv8tion.jda.manager.AudioManager;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a capture of {@link AudioConnection#startCapture(java.nio.file.Path) AudioConnection.startCapture(Path)}
+ * through the receiving pipeline again: decryption, decoding, mixing and the handlers, without any network.
+ * <br>The packets are fed as fast as possible, combined audio is mixed every 20 milliseconds of captured time
+ * instead of wall-clock time. This makes the receive load of production reproducible, e.g. for benchmarking changes
+ * to the pipeline or to a handler.
+ *
+ * <pre><code>
+ * CaptureReplay.Report report = new CaptureReplay(Paths.get("voice.cap")).replay(handler);
+ * System.out.println(report);
+ * </code></pre>
+ */
+public class CaptureReplay
+{
+    private static final long SLOT_NANOS = TimeUnit.MILLISECONDS.toNanos(AudioConnection.OPUS_FRAME_TIME_AMOUNT);
+    private static final int DRAIN_SLOTS = 10;  //Mixed after the last packet, so the frames held back by the delay come out
+
+    protected final Path file;
+
+    public CaptureReplay(Path file)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("Provided file must not be null");
+        this.file = file;
+    }
+
+    /**
+     * Replays the capture once into the provided handlers.
+     * <br>The capture is read into memory first, so reading the file is not part of the measurement.
+     *
+     * @param  handler
+     *         The handler to receive the decoded audio, or null to only decrypt and relay the packets
+     * @param  opusHandlers
+     *         Handlers to receive the decrypted packets
+     *
+     * @throws java.io.IOException
+     *         If the capture can't be read
+     * @throws java.lang.IllegalStateException
+     *         If the native audio libraries are not available
+     *
+     * @return The measurements of the replay
+     */
+    public Report replay(AudioReceiveHandler handler, OpusReceiveHandler... opusHandlers) throws IOException
+    {
+        if (!AudioManager.init())
+            throw new IllegalStateException("Audio is not supported on this system, the natives could not be loaded");
+        ByteBuffer capture = ByteBuffer.wrap(Files.readAllBytes(file));
+        byte[] magic = new byte[PacketCapture.MAGIC.length];
+        if (capture.remaining() < magic.length + 1)
+            throw new IOException("Provided file is not a packet capture");
+        capture.get(magic);
+        if (!Arrays.equals(magic, PacketCapture.MAGIC))
+            throw new IOException("Provided file is not a packet capture");
+        int version = capture.get();
+        if (version != PacketCapture.VERSION)
+            throw new IOException("Unsupported capture version " + version);
+
+        ReceiveTimings timings = new ReceiveTimings();
+        AudioConnection connection = new AudioConnection(0, timings);
+        connection.setReceivingHandler(handler);
+        for (OpusReceiveHandler opusHandler : opusHandlers)
+            connection.addOpusReceiveHandler(opusHandler);
+
+        byte[] secretKey = null;
+        long packets = 0;
+        long bytes = 0;
+        long arrival = 0;
+        long nextSlot = 0;
+        boolean mixing = handler != null && (handler.canReceiveCombined() || handler.canReceiveMixMinus());
+        long start = System.nanoTime();
+        try
+        {
+            while (capture.hasRemaining())
+            {
+                int type = capture.get();
+                switch (type)
+                {
+                    case PacketCapture.SECRET_KEY:
+                        secretKey = new byte[capture.getShort()];
+                        capture.get(secretKey);
+                        break;
+                    case PacketCapture.SSRC:
+                        int ssrc = capture.getInt();
+                        connection.updateUserSSRC(ssrc, capture.getLong());
+                        break;
+                    case PacketCapture.USER_REMOVAL:
+                        connection.removeUserSSRC(capture.getLong());
+                        break;
+                    case PacketCapture.PACKET:
+                        arrival = capture.getLong();
+                        byte[] datagram = new byte[capture.getShort() & 0xFFFF];
+                        capture.get(datagram);
+                        if (mixing)
+                        {
+                            for (; nextSlot <= arrival; nextSlot += SLOT_NANOS)
+                                mix(connection, timings);
+                        }
+                        connection.processReceivedPacket(new DatagramPacket(datagram, datagram.length), secretKey);
+                        packets++;
+                        bytes += datagram.length;
+                        break;
+                    default:
+                        throw new IOException("Capture is corrupted, unknown record type " + type);
+                }
+            }
+            if (mixing)
+            {
+                for (int i = 0; i < DRAIN_SLOTS; i++)
+                    mix(connection, timings);
+            }
+        }
+        finally
+        {
+            connection.shutdown();
+        }
+        return new Report(packets, bytes, arrival, System.nanoTime() - start, timings);
+    }
+
+    private static void mix(AudioConnection connection, ReceiveTimings timings)
+    {
+        long start = System.nanoTime();
+        connection.mixCombined();
+        timings.mixed(System.nanoTime() - start);
+    }
+
+    /**
+     * The measurements of a replay. Stages are only counted for packets that reached them, e.g. packets of users
+     * that are filtered out are never decrypted.
+     */
+    public static class Report
+    {
+        protected final long packets;
+        protected final long bytes;
+        protected final long capturedNanos;
+        protected final long elapsedNanos;
+        protected final long decrypted, decryptNanos;
+        protected final long decoded, decodeNanos;
+        protected final long delivered, deliverNanos;
+        protected final long mixed, mixNanos;
+
+        Report(long packets, long bytes, long capturedNanos, long elapsedNanos, ReceiveTimings timings)
+        {
+            this.packets = packets;
+            this.bytes = bytes;
+            this.capturedNanos = capturedNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.decrypted = timings.decrypted;
+            this.decryptNanos = timings.decryptNanos;
+            this.decoded = timings.decoded;
+            this.decodeNanos = timings.decodeNanos;
+            this.delivered = timings.delivered;
+            this.deliverNanos = timings.deliverNanos;
+            this.mixed = timings.mixed;
+            this.mixNanos = timings.mixNanos;
+        }
+
+        public long getPackets()
+        {
+            return packets;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * @return The time between the start of the capture and its last packet
+         */
+        public long getCapturedNanos()
+        {
+            return capturedNanos;
+        }
+
+        /**
+         * @return The time the replay took
+         */
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return The amount of packets processed per second
+         */
+        public double getThroughput()
+        {
+            return elapsedNanos == 0 ? 0 : packets * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return How many times faster than real time the capture was replayed
+         */
+        public double getSpeedup()
+        {
+            return elapsedNanos == 0 ? 0 : (double) capturedNanos / elapsedNanos;
+        }
+
+        public long getDecryptNanos()
+        {
+            return decryptNanos;
+        }
+
+        public long getDecodeNanos()
+        {
+            return decodeNanos;
+        }
+
+        /**
+         * @return The time from the end of decoding until {@link AudioReceiveHandler#handleUserAudio(UserAudio)}
+         *         returned, including the hand-over to the mixer
+         */
+        public long getDeliverNanos()
+        {
+            return deliverNanos;
+        }
+
+        /**
+         * @return The time spent mixing, including the combined and mix-minus callbacks
+         */
+        public long getMixNanos()
+        {
+            return mixNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Replayed %d packets (%d bytes) of %.1fs in %.1fms: %.0f packets/s, %.1fx real time%n"
+                            + "  decrypt %s%n  decode  %s%n  deliver %s%n  mix     %s",
+                    packets, bytes, capturedNanos / 1e9, elapsedNanos / 1e6, getThroughput(), getSpeedup(),
+                    stage(decrypted, decryptNanos), stage(decoded, decodeNanos),
+                    stage(delivered, deliverNanos), stage(mixed, mixNanos));
+        }
+
+        private static String stage(long count, long nanos)
+        {
+            return String.format("%8d x %8.0fns = %8.1fms", count, count == 0 ? 0.0 : (double) nanos / count, nanos / 1e6);
+        }
+    }
+}
@@ -16,21 +16,91 @@
 
 package net.dv8tion.jda.audio;
 
+import gnu.trove.TCollections;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.hash.TLongFloatHashMap;
+import net.dv8tion.jda.utils.MiscUtil;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents a packet of combined audio data from 0 to n Users.
+ * <p>
+ * If the handler {@link AudioReceiveHandler#canReceivePooled() receives pooled audio} this frame is re-used after
+ * the callback it was provided to returns, unless it is {@link #retain() retained}.
  */
-public class CombinedAudio
+public class CombinedAudio extends PooledAudio
 {
-    protected List<String> userIds;
+    private static final TLongFloatMap NO_ENERGIES = TCollections.unmodifiableMap(new TLongFloatHashMap(0));
+
+    protected long[] userIds;
+    protected int userCount;
     protected short[] audioData;
+    protected float[] floatAudioData;
+    protected AudioFormat format = AudioReceiveHandler.OUTPUT_FORMAT;
+    protected TLongFloatMap energies;
+    private TLongFloatMap mutableEnergies;  //Backs the energies of frames created by the mixer
 
-    public CombinedAudio(List<String> userIds, short[] audioData)
+    public CombinedAudio(long[] userIds, short[] audioData)
+    {
+        this(userIds, audioData, NO_ENERGIES);
+    }
+
+    public CombinedAudio(long[] userIds, short[] audioData, TLongFloatMap energies)
     {
-        this.userIds = Collections.unmodifiableList(this.userIds);
+        super(null);
+        this.userIds = userIds;
+        this.userCount = userIds.length;
         this.audioData = audioData;
+        this.energies = energies == NO_ENERGIES ? energies : TCollections.unmodifiableMap(energies);
+    }
+
+    public CombinedAudio(long[] userIds, float[] floatAudioData)
+    {
+        this(userIds, floatAudioData, NO_ENERGIES);
+    }
+
+    public CombinedAudio(long[] userIds, float[] floatAudioData, TLongFloatMap energies)
+    {
+        this(userIds, (short[]) null, energies);
+        this.floatAudioData = floatAudioData;
+    }
+
+    public CombinedAudio(long[] userIds, short[] audioData, TLongFloatMap energies, AudioFormat format)
+    {
+        this(userIds, audioData, energies);
+        this.format = format;
+    }
+
+    public CombinedAudio(long[] userIds, float[] floatAudioData, TLongFloatMap energies, AudioFormat format)
+    {
+        this(userIds, floatAudioData, energies);
+        this.format = format;
+    }
+
+    public CombinedAudio(List<String> userIds, short[] audioData)
+    {
+        this(userIds.stream().mapToLong(MiscUtil::parseSnowflake).toArray(), audioData);
+    }
+
+    CombinedAudio(AudioFramePool pool, AudioFormat format, boolean asFloat, int length)
+    {
+        super(pool);
+        this.format = format;
+        this.userIds = new long[4];
+        if (asFloat)
+            this.floatAudioData = new float[length];
+        else
+            this.audioData = new short[length];
+        //Filled by the mixer, the view is created once.
+        this.mutableEnergies = new TLongFloatHashMap();
+        this.energies = TCollections.unmodifiableMap(mutableEnergies);
     }
 
     /**
@@ -43,12 +113,42 @@ public class CombinedAudio
      */
     public List<String> getUserIds()
     {
-        return userIds;
+        if (userCount == 0)
+            return Collections.emptyList();
+        List<String> ids = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++)
+            ids.add(MiscUtil.toSnowflake(userIds[i]));
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * An unmodifiable list of the ids of all {@link net.dv8tion.jda.core.entities.User Users} that provided audio that
+     * was combined, see {@link #getUserIds()}.
+     * <br>Unlike {@link #getUserIds()} this does not convert the ids to Strings.
+     *
+     * @return Never-null list of all userIds that provided audio.
+     */
+    public TLongList getUserIdsLong()
+    {
+        long[] ids = userCount == userIds.length ? userIds : Arrays.copyOf(userIds, userCount);
+        return TCollections.unmodifiableList(TLongArrayList.wrap(ids));
+    }
+
+    /**
+     * The estimated loudness of every userId that provided audio for this 20 millisecond period, including those
+     * that were not mixed because of the {@link net.dv8tion.jda.manager.AudioManager#setCombinedMixLimit(int) mix limit}.
+     * <br>Values range from {@code 0} (silence) to {@code 1} (full scale).
+     *
+     * @return Never-null unmodifiable map of userId to estimated loudness.
+     */
+    public TLongFloatMap getEnergies()
+    {
+        return energies;
     }
 
     /**
-     * Provides 20 Milliseconds of combined audio data in 48KHz 16bit stereo signed BigEndian PCM.
-     * <br>Format defined by: {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}.
+     * Provides 20 Milliseconds of combined audio data in the format requested by the handler, see {@link #getFormat()}.
+     * <br>By default: 48KHz 16bit stereo signed BigEndian PCM, defined by {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}.
      * <p>
      * The output volume of the data can be modified by the provided {@code `volume`} parameter. {@code `1.0`} is considered to be 100% volume.
      * <br>Going above `{@code 1.0`} can increase the volume further, but you run the risk of audio distortion.
@@ -58,25 +158,101 @@ public class CombinedAudio
      * @param  volume
      *         Value used to modify the "volume" of the returned audio data. 1.0 is normal volume.
      *
-     * @return Never-null byte array of PCM data defined by {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}
+     * @return Never-null byte array of PCM data in the format of {@link #getFormat()}
      */
     public byte[] getAudioData(double volume)
     {
-        short s;
-        int byteIndex = 0;
-        byte[] audio = new byte[audioData.length * 2];
-        for (int i = 0; i < audioData.length; i++)
-        {
-            s = audioData[i];
-            if (volume != 1.0)
-                s = (short) (s * volume);
-
-            byte leftByte = (byte) ((0x000000FF) & (s >> 8));
-            byte rightByte =  (byte) (0x000000FF & s);
-            audio[byteIndex] = leftByte;
-            audio[byteIndex + 1] = rightByte;
-            byteIndex += 2;
-        }
+        byte[] audio = new byte[samplesLength() * 2];
+        getAudioData(volume, audio, 0);
         return audio;
     }
+
+    /**
+     * Writes the audio data of {@link #getAudioData(double)} into the provided array instead of allocating a new one.
+     *
+     * @param  volume
+     *         Value used to modify the "volume" of the returned audio data. 1.0 is normal volume.
+     * @param  target
+     *         The array to write to
+     * @param  offset
+     *         The index of the first byte to write
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If the target has no room for the audio data
+     *
+     * @return The amount of written bytes
+     */
+    public int getAudioData(double volume, byte[] target, int offset)
+    {
+        int length = samplesLength();
+        if (offset < 0 || target.length - offset < length * 2)
+            throw new IllegalArgumentException("Provided target has no room for " + length * 2 + " bytes at offset " + offset);
+        if (audioData != null)
+            PcmUtil.toBytes(audioData, 0, target, offset, length, format.isBigEndian(), (float) volume);
+        else
+            PcmUtil.toBytes(floatAudioData, 0, target, offset, length, format.isBigEndian(), (float) volume);
+        return length * 2;
+    }
+
+    /**
+     * Provides 20 Milliseconds of combined audio data as float samples in the range {@code -1..1}, with the
+     * sample rate and channels of {@link #getFormat()}.
+     * <br>If the {@link net.dv8tion.jda.audio.AudioReceiveHandler#canReceiveFloat() handler receives float audio}
+     * this is the decoded audio itself, otherwise it is converted from the 16bit audio.
+     *
+     * @return Never-null float array of PCM data
+     */
+    public float[] getFloatAudioData()
+    {
+        return floatAudioData != null ? floatAudioData : PcmUtil.toFloat(audioData);
+    }
+
+    /**
+     * The format of the audio data, as requested by
+     * {@link net.dv8tion.jda.audio.AudioReceiveHandler#getOutputFormat() AudioReceiveHandler.getOutputFormat()}.
+     *
+     * @return The format of {@link #getAudioData(double)}
+     */
+    public AudioFormat getFormat()
+    {
+        return format;
+    }
+
+    boolean fits(boolean asFloat, int length)
+    {
+        return samplesLength() == length && (floatAudioData != null) == asFloat;
+    }
+
+    int samplesLength()
+    {
+        return floatAudioData != null ? floatAudioData.length : audioData.length;
+    }
+
+    void reset(int users, AudioFormat format)
+    {
+        super.reset();
+        this.format = format;
+        if (userIds.length < users)
+            userIds = new long[Math.max(users, userIds.length * 2)];
+        userCount = 0;
+    }
+
+    void addUser(long userId)
+    {
+        userIds[userCount++] = userId;
+    }
+
+    /**
+     * The energies of a frame from the pool, which are filled in place.
+     */
+    TLongFloatMap mutableEnergies()
+    {
+        return mutableEnergies;
+    }
+
+    @Override
+    void recycle()
+    {
+        pool.recycle(this);
+    }
 }
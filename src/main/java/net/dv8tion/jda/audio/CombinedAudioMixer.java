@@ -0,0 +1,440 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.audio.jfr.AudioEvents;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mixes the audio of all users of an {@link net.dv8tion.jda.audio.AudioConnection AudioConnection} into
+ * {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio}.
+ * <br>Every user's frames are aligned on their RTP timestamp and mapped to a shared playout clock that advances
+ * by one 20ms slot every time {@link #mix(AudioReceiveHandler, AudioFormat)} is called. Frames are held back by the
+ * configured delay so that network jitter does not tear the speakers apart.
+ * <br>With a mix limit set, only the loudest users of every slot are mixed, which bounds the cost of a slot no matter
+ * how many users are talking.
+ * <br>For mix-minus output the sum of all users is computed once and only each listener's own frame is subtracted
+ * from it, which keeps the cost of a slot linear in the amount of users.
+ * <br>If the handler {@link AudioReceiveHandler#canReceiveFloat() receives float audio}, the frames are decoded to
+ * float and mixed without ever being converted to 16bit, and the mix is soft-clipped instead of hard-clipped.
+ */
+class CombinedAudioMixer
+{
+    private static final int ENERGY_STRIDE = 7; //Odd step, so that the estimate alternates between both channels.
+    private static final long[] NO_USERS = new long[0];
+
+    private final long guildId;
+    private final SsrcRegistry registry;
+    private final AudioFramePool framePool;
+    private final AtomicLong resyncs = new AtomicLong();
+
+    private volatile long tick = 0;
+    private volatile int delaySlots = 2;
+    private volatile int resyncSlots = 5;
+    private volatile int mixLimit = 0;
+    private volatile long[] mixMinusUsers = NO_USERS;   //Copy-on-write, iterated every slot
+
+    //Soft clipping state of the float outputs, only used by the mixing thread.
+    private final FloatBuffer clipMemory = FloatBuffer.allocate(AudioConnection.OPUS_CHANNEL_COUNT);
+    private final TLongObjectMap<FloatBuffer> mixMinusClipMemory = new TLongObjectHashMap<>();
+
+    //Scratch space of the mixing thread, grown as needed so that mixing a slot allocates nothing.
+    private long[] users = NO_USERS;
+    private UserAudio[] audioParts = new UserAudio[0];
+    private float[] energy = new float[0];
+    private int[] sum = new int[0];
+    private float[] floatSum = new float[0];
+
+    CombinedAudioMixer(long guildId, SsrcRegistry registry, AudioFramePool framePool)
+    {
+        this.guildId = guildId;
+        this.registry = registry;
+        this.framePool = framePool;
+    }
+
+    /**
+     * Called from the receiving thread for every decoded frame. Takes over the caller's reference to the frame.
+     */
+    void offer(SsrcRegistry.Entry entry, int timestamp, UserAudio audio)
+    {
+        int result = entry.playout.offer(entry.ssrc, timestamp, audio, tick, delaySlots, resyncSlots);
+        if (result == PlayoutBuffer.LATE)
+        {
+            audio.release();
+            AudioConnection.LOG.trace("Received audio of user " + entry.userId + " after its slot was already mixed.");
+        }
+        else if (result == PlayoutBuffer.RESYNCED)
+            resyncs.incrementAndGet();
+    }
+
+    /**
+     * Mixes the current slot of the playout clock and provides it to the handler, as combined audio and/or as
+     * mix-minus audio for every subscribed user. Afterwards the clock advances by one slot.
+     */
+    void mix(AudioReceiveHandler handler, AudioFormat format)
+    {
+        long tick = this.tick;
+        boolean asFloat = handler.canReceiveFloat();
+        boolean pooled = handler.canReceivePooled();
+        int frameLength = (int) format.getSampleRate() / 1000 * AudioConnection.OPUS_FRAME_TIME_AMOUNT * format.getChannels();
+        SsrcRegistry.Entry[] entries = registry.entries();
+        ensureCapacity(entries.length, frameLength);
+        long[] users = this.users;
+        UserAudio[] audioParts = this.audioParts;
+        int count = 0;
+        for (SsrcRegistry.Entry entry : entries)
+        {
+            UserAudio audio = entry.playout.poll(tick);
+            if (audio == null)
+                continue;
+            //Frames decoded before the handler switched formats are skipped.
+            if (!audio.fits(asFloat, frameLength))
+            {
+                audio.release();
+                continue;
+            }
+            users[count] = entry.userId;
+            audioParts[count++] = audio;
+        }
+        this.tick = tick + 1;
+
+        try
+        {
+            mix(handler, format, asFloat, pooled, frameLength, count);
+        }
+        finally
+        {
+            //The playout buffers handed us their references to the frames.
+            for (int i = 0; i < count; i++)
+            {
+                audioParts[i].release();
+                audioParts[i] = null;
+            }
+        }
+    }
+
+    private void mix(AudioReceiveHandler handler, AudioFormat format, boolean asFloat, boolean pooled, int frameLength, int count)
+    {
+        int channels = format.getChannels();
+        long[] users = this.users;
+        UserAudio[] audioParts = this.audioParts;
+        float[] energy = this.energy;
+        boolean combined = handler.canReceiveCombined();
+        long[] mixMinusUsers = this.mixMinusUsers;
+        boolean mixMinus = handler.canReceiveMixMinus() && mixMinusUsers.length > 0;
+        if (count == 0)
+        {
+            //No audio to mix, provide 20 MS of silence.
+            if (combined)
+                provideCombined(handler, silence(format, asFloat, frameLength, pooled));
+            if (mixMinus)
+            {
+                for (long userId : mixMinusUsers)
+                    provideMixMinus(handler, userId, silence(format, asFloat, frameLength, pooled));
+            }
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+            energy[i] = asFloat ? estimateEnergy(audioParts[i].floatAudioData) : estimateEnergy(audioParts[i].audioData);
+        int total = count;  //Everyone is reported in the energies, even those that are not mixed
+
+        int limit = mixLimit;
+        if (limit > 0 && count > limit)
+        {
+            //Move the loudest users to the front, only those are mixed.
+            for (int i = 0; i < limit; i++)
+            {
+                int loudest = i;
+                for (int j = i + 1; j < count; j++)
+                {
+                    if (energy[j] > energy[loudest])
+                        loudest = j;
+                }
+                swap(energy, users, audioParts, i, loudest);
+            }
+            count = limit;
+        }
+
+        //The full sum is computed once, mix-minus output only subtracts the listener's own frame from it.
+        int[] sum = this.sum;
+        float[] floatSum = this.floatSum;
+        if (asFloat)
+            Arrays.fill(floatSum, 0, frameLength, 0f);
+        else
+            Arrays.fill(sum, 0, frameLength, 0);
+        for (int part = 0; part < count; part++)
+        {
+            if (asFloat)
+                PcmUtil.mix(audioParts[part].floatAudioData, floatSum, frameLength);
+            else
+                PcmUtil.accumulate(audioParts[part].audioData, 0, sum, frameLength);
+        }
+
+        if (combined)
+        {
+            CombinedAudio audio = framePool.takeCombinedAudio(format, asFloat, frameLength, count, pooled);
+            for (int i = 0; i < count; i++)
+                audio.addUser(users[i]);
+            putEnergies(audio, total);
+            if (asFloat)
+                softClip(floatSum, null, audio.floatAudioData, channels, clipMemory);
+            else
+                clip(sum, null, audio.audioData);
+            provideCombined(handler, audio);
+        }
+        if (mixMinus)
+        {
+            if (asFloat && mixMinusClipMemory.size() > mixMinusUsers.length)
+            {
+                //Forget the clipping state of unsubscribed users.
+                mixMinusClipMemory.retainEntries((userId, memory) -> indexOf(mixMinusUsers, mixMinusUsers.length, userId) >= 0);
+            }
+            for (long userId : mixMinusUsers)
+            {
+                int index = indexOf(users, count, userId);
+                CombinedAudio audio = framePool.takeCombinedAudio(format, asFloat, frameLength, count, pooled);
+                for (int i = 0; i < count; i++)
+                {
+                    if (i != index)
+                        audio.addUser(users[i]);
+                }
+                putEnergies(audio, total);
+                UserAudio own = index < 0 ? null : audioParts[index];
+                if (asFloat)
+                {
+                    FloatBuffer memory = mixMinusClipMemory.get(userId);
+                    if (memory == null)
+                        mixMinusClipMemory.put(userId, memory = FloatBuffer.allocate(AudioConnection.OPUS_CHANNEL_COUNT));
+                    softClip(floatSum, own == null ? null : own.floatAudioData, audio.floatAudioData, channels, memory);
+                }
+                else
+                {
+                    clip(sum, own == null ? null : own.audioData, audio.audioData);
+                }
+                provideMixMinus(handler, userId, audio);
+            }
+        }
+    }
+
+    private void provideCombined(AudioReceiveHandler handler, CombinedAudio audio)
+    {
+        try
+        {
+            long start = System.nanoTime();
+            handler.handleCombinedAudio(audio);
+            AudioEvents.get().handlerDispatched(guildId, 0, 0, handler, "combined", System.nanoTime() - start);
+        }
+        finally
+        {
+            audio.release();
+        }
+    }
+
+    private void provideMixMinus(AudioReceiveHandler handler, long userId, CombinedAudio audio)
+    {
+        try
+        {
+            long start = System.nanoTime();
+            handler.handleMixMinusAudio(userId, audio);
+            AudioEvents.get().handlerDispatched(guildId, 0, userId, handler, "mix-minus", System.nanoTime() - start);
+        }
+        finally
+        {
+            audio.release();
+        }
+    }
+
+    private void putEnergies(CombinedAudio audio, int total)
+    {
+        TLongFloatMap energies = audio.mutableEnergies();
+        energies.clear();
+        for (int i = 0; i < total; i++)
+            energies.put(users[i], energy[i]);
+    }
+
+    private void ensureCapacity(int entries, int frameLength)
+    {
+        if (users.length < entries)
+        {
+            int capacity = Math.max(entries, users.length * 2);
+            users = new long[capacity];
+            audioParts = new UserAudio[capacity];
+            energy = new float[capacity];
+        }
+        if (sum.length < frameLength)
+        {
+            sum = new int[frameLength];
+            floatSum = new float[frameLength];
+        }
+    }
+
+    void clear()
+    {
+        for (SsrcRegistry.Entry entry : registry.entries())
+            entry.playout.clear();
+    }
+
+    synchronized void addMixMinusUser(long userId)
+    {
+        if (indexOf(mixMinusUsers, mixMinusUsers.length, userId) < 0)
+        {
+            long[] updated = Arrays.copyOf(mixMinusUsers, mixMinusUsers.length + 1);
+            updated[mixMinusUsers.length] = userId;
+            mixMinusUsers = updated;
+        }
+    }
+
+    synchronized void removeMixMinusUser(long userId)
+    {
+        int index = indexOf(mixMinusUsers, mixMinusUsers.length, userId);
+        if (index >= 0)
+        {
+            long[] updated = new long[mixMinusUsers.length - 1];
+            System.arraycopy(mixMinusUsers, 0, updated, 0, index);
+            System.arraycopy(mixMinusUsers, index + 1, updated, index, updated.length - index);
+            mixMinusUsers = updated;
+        }
+    }
+
+    void setDelay(long delay)
+    {
+        this.delaySlots = toSlots(delay);
+    }
+
+    void setResyncThreshold(long threshold)
+    {
+        this.resyncSlots = Math.max(1, toSlots(threshold));
+    }
+
+    void setMixLimit(int mixLimit)
+    {
+        this.mixLimit = Math.max(0, mixLimit);
+    }
+
+    long getLateFrames()
+    {
+        return registry.lateFrames.get();
+    }
+
+    long getResyncs()
+    {
+        return resyncs.get();
+    }
+
+    /**
+     * Cheap loudness estimate of a frame, the RMS of every 7th sample normalized to {@code 0..1}.
+     */
+    static float estimateEnergy(float[] audio)
+    {
+        double sum = 0;
+        int samples = 0;
+        for (int i = 0; i < audio.length; i += ENERGY_STRIDE)
+        {
+            sum += audio[i] * audio[i];
+            samples++;
+        }
+        if (samples == 0)
+            return 0f;
+        return (float) Math.min(1, Math.sqrt(sum / samples));
+    }
+
+    /**
+     * Cheap loudness estimate of a frame, the RMS of every 7th sample normalized to {@code 0..1}.
+     */
+    static float estimateEnergy(short[] audio)
+    {
+        long sum = 0;
+        int samples = 0;
+        for (int i = 0; i < audio.length; i += ENERGY_STRIDE)
+        {
+            sum += audio[i] * audio[i];
+            samples++;
+        }
+        if (samples == 0)
+            return 0f;
+        return (float) (Math.sqrt((double) sum / samples) / -Short.MIN_VALUE);
+    }
+
+    private static void clip(int[] sum, short[] exclude, short[] mix)
+    {
+        if (exclude == null)
+            PcmUtil.saturate(sum, mix, mix.length);
+        else
+            PcmUtil.saturate(sum, exclude, mix, mix.length);
+    }
+
+    private static void softClip(float[] sum, float[] exclude, float[] mix, int channels, FloatBuffer memory)
+    {
+        System.arraycopy(sum, 0, mix, 0, mix.length);
+        if (exclude != null)
+        {
+            for (int i = 0; i < mix.length; i++)
+                mix[i] -= exclude[i];
+        }
+        PcmUtil.softClip(mix, channels, memory);
+    }
+
+    private CombinedAudio silence(AudioFormat format, boolean asFloat, int frameLength, boolean pooled)
+    {
+        CombinedAudio audio = framePool.takeCombinedAudio(format, asFloat, frameLength, 0, pooled);
+        audio.mutableEnergies().clear();
+        if (asFloat)
+            Arrays.fill(audio.floatAudioData, 0f);
+        else
+            Arrays.fill(audio.audioData, (short) 0);
+        return audio;
+    }
+
+    private static void swap(float[] energy, long[] users, UserAudio[] audioParts, int i, int j)
+    {
+        if (i == j)
+            return;
+        float e = energy[i];
+        energy[i] = energy[j];
+        energy[j] = e;
+        long user = users[i];
+        users[i] = users[j];
+        users[j] = user;
+        UserAudio audio = audioParts[i];
+        audioParts[i] = audioParts[j];
+        audioParts[j] = audio;
+    }
+
+    private static int indexOf(long[] users, int length, long userId)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (users[i] == userId)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int toSlots(long millis)
+    {
+        int slots = (int) (Math.max(0, millis) / AudioConnection.OPUS_FRAME_TIME_AMOUNT);
+        return Math.min(slots, PlayoutBuffer.CAPACITY - 1);
+    }
+}
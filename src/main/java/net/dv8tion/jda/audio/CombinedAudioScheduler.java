@@ -0,0 +1,244 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import net.dv8tion.jda.manager.AudioManager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the combined audio mixing of all {@link net.dv8tion.jda.audio.AudioConnection AudioConnections} of a
+ * {@link net.dv8tion.jda.Core Core}.
+ * <br>Instead of one thread per connection waking every 20 milliseconds, connections are spread over a small
+ * amount of lanes (at most one per core). Every tick a lane runs the mix of all its connections in one batch.
+ * A connection always stays on the same lane, so its callbacks keep their order.
+ * <p>
+ * The connections of a lane share its thread: a {@link AudioReceiveHandler#handleCombinedAudio(CombinedAudio)} or
+ * {@link AudioReceiveHandler#handleMixMinusAudio(long, CombinedAudio)} that blocks delays the mix of every other
+ * connection on the lane. Ticks that take longer than 20 milliseconds are counted, see {@link #getOverruns()}, and
+ * logged. Slow handlers should be decorated with an {@link AsyncAudioReceiveHandler}.
+ */
+public class CombinedAudioScheduler
+{
+    /**
+     * Amount of connections a lane should handle before another lane is started.
+     */
+    public static final int CONNECTIONS_PER_LANE = 32;
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(AudioConnection.OPUS_FRAME_TIME_AMOUNT);
+    private static final long WARNING_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final Lane[] lanes;
+    private final AtomicInteger threadCount = new AtomicInteger(1);
+    private final AtomicLong overruns = new AtomicLong();
+
+    public CombinedAudioScheduler()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CombinedAudioScheduler(int maxThreads)
+    {
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("Provided maxThreads must be at least 1");
+        this.lanes = new Lane[maxThreads];
+        for (int i = 0; i < maxThreads; i++)
+            lanes[i] = new Lane();
+    }
+
+    /**
+     * Adds the provided mixing task to this scheduler. It is run once every 20 milliseconds until the returned
+     * {@link Registration} is cancelled.
+     *
+     * @param  task
+     *         The task to run every tick
+     *
+     * @return The registration that is used to remove the task again
+     */
+    public synchronized Registration register(Runnable task)
+    {
+        Lane lane = null;
+        for (Lane l : lanes)
+        {
+            if (!l.isStarted())
+                continue;
+            if (lane == null || l.tasks.size() < lane.tasks.size())
+                lane = l;
+        }
+
+        if (lane == null || lane.tasks.size() >= CONNECTIONS_PER_LANE)
+        {
+            for (Lane l : lanes)
+            {
+                if (!l.isStarted())
+                {
+                    lane = l;
+                    break;
+                }
+            }
+        }
+
+        Registration registration = new Registration(lane, task);
+        lane.tasks.add(registration);
+        if (!lane.isStarted())
+            lane.start();
+        return registration;
+    }
+
+    /**
+     * The amount of ticks that took longer than 20 milliseconds, which delayed the mix of the following ticks of
+     * all connections on the lane.
+     *
+     * @return The amount of overrun ticks of all lanes
+     */
+    public long getOverruns()
+    {
+        return overruns.get();
+    }
+
+    /**
+     * Stops all lanes of this scheduler.
+     */
+    public synchronized void shutdown()
+    {
+        for (Lane lane : lanes)
+        {
+            lane.stop();
+            if (lane.executor != null)
+            {
+                lane.executor.shutdownNow();
+                lane.executor = null;
+            }
+        }
+    }
+
+    private synchronized void unregister(Registration registration)
+    {
+        Lane lane = registration.lane;
+        lane.tasks.remove(registration);
+        if (lane.tasks.isEmpty())
+            lane.stop();
+    }
+
+    private class Lane
+    {
+        private final List<Registration> tasks = new CopyOnWriteArrayList<>();
+        private ScheduledThreadPoolExecutor executor;
+        private ScheduledFuture<?> handle;
+        private long lastWarning;   //Only used by the thread of the lane
+
+        private boolean isStarted()
+        {
+            return handle != null;
+        }
+
+        private void start()
+        {
+            if (executor == null)
+            {
+                executor = new ScheduledThreadPoolExecutor(1, r ->
+                {
+                    Thread t = new Thread(AudioManager.AUDIO_THREADS, r, "JDA Audio-Combined Pool - Thread " + threadCount.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            handle = executor.scheduleAtFixedRate(this::tick, 0, AudioConnection.OPUS_FRAME_TIME_AMOUNT, TimeUnit.MILLISECONDS);
+        }
+
+        private void stop()
+        {
+            if (handle != null)
+            {
+                handle.cancel(false);
+                handle = null;
+            }
+        }
+
+        private void tick()
+        {
+            long start = System.nanoTime();
+            long slowest = 0;
+            for (Registration registration : tasks)
+            {
+                if (registration.isCancelled())
+                    continue;
+                long taskStart = System.nanoTime();
+                try
+                {
+                    registration.task.run();
+                }
+                catch (Throwable t)
+                {
+                    AudioConnection.LOG.log(t);
+                }
+                slowest = Math.max(slowest, System.nanoTime() - taskStart);
+            }
+
+            long end = System.nanoTime();
+            if (end - start <= TICK_NANOS)
+                return;
+            overruns.incrementAndGet();
+            if (lastWarning == 0 || end - lastWarning >= WARNING_INTERVAL)
+            {
+                lastWarning = end;
+                AudioConnection.LOG.warn(String.format("Mixing combined audio of %d connections took %dms, the slowest one %dms. "
+                                + "This delays the audio of all of them, receiving handlers that block should be decorated with an AsyncAudioReceiveHandler.",
+                        tasks.size(), TimeUnit.NANOSECONDS.toMillis(end - start), TimeUnit.NANOSECONDS.toMillis(slowest)));
+            }
+        }
+    }
+
+    /**
+     * Handle of a task registered with a {@link CombinedAudioScheduler}.
+     */
+    public class Registration
+    {
+        private final Lane lane;
+        private final Runnable task;
+        private volatile boolean cancelled = false;
+
+        private Registration(Lane lane, Runnable task)
+        {
+            this.lane = lane;
+            this.task = task;
+        }
+
+        /**
+         * Removes the task from the scheduler. The task is not run again after this returns, unless it is
+         * currently running.
+         */
+        public void cancel()
+        {
+            if (cancelled)
+                return;
+            cancelled = true;
+            unregister(this);
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+}
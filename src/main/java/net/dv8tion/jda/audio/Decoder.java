@@ -19,8 +19,10 @@ package net.dv8tion.jda.audio;
 import com.sun.jna.ptr.PointerByReference;
 import tomp2p.opuswrapper.Opus;
 
-import java.nio.IntBuffer;
+import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class that wraps functionality around the Opus decoder.
@@ -28,20 +30,53 @@ import java.nio.ShortBuffer;
 public class Decoder
 {
     protected int ssrc;
+    protected final int sampleRate;
+    protected final int channels;
+    protected final int frameSize;  //Samples per channel of a 20ms frame
     protected char lastSeq;
     protected int lastTimestamp;
     protected PointerByReference opusDecoder;
+    protected volatile long lastUsed;
+    protected boolean evicted = false;
+    protected boolean closed = false;
+
+    //Re-used for every frame, the decoded samples are copied out of them. Guarded by the lock.
+    private final ShortBuffer decoded;
+    private FloatBuffer decodedFloat;
+
+    //Guards the native state. Not a monitor because eviction by other threads may only ever try to lock.
+    private final ReentrantLock lock = new ReentrantLock();
 
     protected Decoder(int ssrc)
+    {
+        this(ssrc, AudioConnection.OPUS_SAMPLE_RATE, AudioConnection.OPUS_CHANNEL_COUNT);
+    }
+
+    /**
+     * Creates a decoder that natively decodes to the provided format, libopus resamples and downmixes internally.
+     *
+     * @param  sampleRate
+     *         One of 8000, 12000, 16000, 24000 or 48000
+     * @param  channels
+     *         1 or 2
+     */
+    protected Decoder(int ssrc, int sampleRate, int channels)
     {
         this.ssrc = ssrc;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frameSize = sampleRate / 1000 * AudioConnection.OPUS_FRAME_TIME_AMOUNT;
+        this.decoded = ShortBuffer.allocate(frameSize * channels);
         this.lastSeq = (char) -1;
         this.lastTimestamp = -1;
+        this.lastUsed = System.currentTimeMillis();
 
-        IntBuffer error = IntBuffer.allocate(4);
-        opusDecoder = Opus.INSTANCE.opus_decoder_create(AudioConnection.OPUS_SAMPLE_RATE,
-                AudioConnection.OPUS_CHANNEL_COUNT, error);
-        //TODO: check `error` for an error flag.
+        opusDecoder = DecoderPool.acquire(this);
+    }
+
+    protected boolean hasFormat(int sampleRate, int channels)
+    {
+        return this.sampleRate == sampleRate && this.channels == channels;
     }
 
     protected boolean isInOrder(char newSeq)
@@ -56,37 +91,99 @@ public class Decoder
 
     protected short[] decodeFromOpus(AudioPacket decryptedPacket)
     {
-        int result;
-        ShortBuffer decoded = ShortBuffer.allocate(4096);
-        if (decryptedPacket == null)    //Flag for packet-loss
-        {
-            result = Opus.INSTANCE.opus_decode(opusDecoder, null, 0, decoded,
-                    AudioConnection.OPUS_FRAME_SIZE, 0);
-            lastSeq = (char) -1;
-            lastTimestamp = -1;
-        }
-        else
+        short[] audio = new short[frameSize * channels];
+        int samples = decode(decryptedPacket, audio);
+        return samples < 0 ? null : Arrays.copyOf(audio, samples * channels);
+    }
+
+    /**
+     * Decodes to interleaved float samples in the range {@code -1..1} instead of 16bit samples.
+     */
+    protected float[] decodeFloatFromOpus(AudioPacket decryptedPacket)
+    {
+        float[] audio = new float[frameSize * channels];
+        int samples = decode(decryptedPacket, audio);
+        return samples < 0 ? null : Arrays.copyOf(audio, samples * channels);
+    }
+
+    /**
+     * Decodes into the provided array, which has to hold a 20ms frame.
+     *
+     * @return The amount of decoded samples per channel, or a negative value if decoding failed
+     */
+    protected int decodeFromOpus(AudioPacket decryptedPacket, short[] target)
+    {
+        return decode(decryptedPacket, target);
+    }
+
+    protected int decodeFloatFromOpus(AudioPacket decryptedPacket, float[] target)
+    {
+        return decode(decryptedPacket, target);
+    }
+
+    private int decode(AudioPacket decryptedPacket, Object target)
+    {
+        final boolean asFloat = target instanceof float[];
+        lock.lock();
+        try
         {
-            char seq = decryptedPacket.getSequence();
-            this.lastSeq = seq;
-            this.lastTimestamp = decryptedPacket.getTimestamp();
+            if (closed)
+                return -1;
+            lastUsed = System.currentTimeMillis();
+            if (opusDecoder == null)
+            {
+                //Our native state was evicted while we were idle, get a fresh one.
+                opusDecoder = DecoderPool.acquire(this);
+                if (evicted)
+                    DecoderPool.recreated();
+                evicted = false;
+            }
 
-            byte[] encodedAudio = decryptedPacket.getEncodedAudio();
+            byte[] encodedAudio = null;
+            if (decryptedPacket == null)    //Flag for packet-loss
+            {
+                lastSeq = (char) -1;
+                lastTimestamp = -1;
+            }
+            else
+            {
+                this.lastSeq = decryptedPacket.getSequence();
+                this.lastTimestamp = decryptedPacket.getTimestamp();
+                encodedAudio = decryptedPacket.peekEncodedAudio();
+            }
+            int length = encodedAudio == null ? 0 : encodedAudio.length;
 
-            result = Opus.INSTANCE.opus_decode(opusDecoder, encodedAudio, encodedAudio.length, decoded,
-                    AudioConnection.OPUS_FRAME_SIZE, 0);
-        }
+            int result;
+            if (asFloat)
+            {
+                if (decodedFloat == null)
+                    decodedFloat = FloatBuffer.allocate(frameSize * channels);
+                decodedFloat.clear();
+                result = Opus.INSTANCE.opus_decode_float(opusDecoder, encodedAudio, length, decodedFloat, frameSize, 0);
+            }
+            else
+            {
+                decoded.clear();
+                result = Opus.INSTANCE.opus_decode(opusDecoder, encodedAudio, length, decoded, frameSize, 0);
+            }
 
-        //If we get a result that is less than 0, then there was an error. Return null as a signifier.
-        if (result < Opus.OPUS_OK)
+            //If we get a result that is less than 0, then there was an error.
+            if (result < Opus.OPUS_OK)
+            {
+                handleDecodeError(result);
+                return result;
+            }
+
+            if (asFloat)
+                decodedFloat.get((float[]) target, 0, result * channels);
+            else
+                decoded.get((short[]) target, 0, result * channels);
+            return result;
+        }
+        finally
         {
-            handleDecodeError(result);
-            return null;
+            lock.unlock();
         }
-
-        short[] audio = new short[result * 2];
-        decoded.get(audio);
-        return audio;
     }
 
     private void handleDecodeError(int result)
@@ -121,12 +218,65 @@ public class Decoder
         AudioConnection.LOG.debug(b.toString());
     }
 
-    protected synchronized void close()
+    /**
+     * Releases the native decoder state while keeping this decoder usable, unless it is currently decoding or
+     * was used after the provided cutoff.
+     * <br>The state is rebuilt on the next call to {@link #decodeFromOpus(AudioPacket)}.
+     *
+     * @param  cutoff
+     *         The latest time, in milliseconds, this decoder may have been used at to be evicted
+     *
+     * @return True, if the native state was released
+     */
+    protected boolean tryEvict(long cutoff)
+    {
+        PointerByReference state = tryTakeState(cutoff);
+        if (state == null)
+            return false;
+        DecoderPool.release(this, state);
+        return true;
+    }
+
+    /**
+     * Takes the native decoder state away from this decoder without releasing it, see {@link #tryEvict(long)}.
+     *
+     * @return The taken state, or {@code null} if this decoder is busy, was used after the cutoff or has no state
+     */
+    PointerByReference tryTakeState(long cutoff)
     {
-        if (opusDecoder != null)
+        if (!lock.tryLock())
+            return null;
+        try
         {
-            Opus.INSTANCE.opus_decoder_destroy(opusDecoder);
+            //lastUsed only changes while holding the lock, so the decoder can't have been used since this check.
+            if (opusDecoder == null || lastUsed > cutoff)
+                return null;
+            PointerByReference state = opusDecoder;
             opusDecoder = null;
+            evicted = true;
+            return state;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    protected void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            if (opusDecoder != null)
+            {
+                DecoderPool.release(this, opusDecoder);
+                opusDecoder = null;
+            }
+        }
+        finally
+        {
+            lock.unlock();
         }
     }
 
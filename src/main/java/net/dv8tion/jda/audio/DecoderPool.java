@@ -0,0 +1,304 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import com.sun.jna.ptr.PointerByReference;
+import tomp2p.opuswrapper.Opus;
+
+import java.nio.IntBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the native Opus decoder states of all {@link net.dv8tion.jda.audio.Decoder Decoders}.
+ * <p>
+ * Decoders that did not decode anything for the {@link #setIdleTimeout(long) idle timeout} give up their native
+ * state, and when the {@link #setMaxNativeMemory(long) memory cap} is reached the least recently used decoder hands
+ * its state over to the new one. An evicted decoder gets a state again once its user speaks, released states are kept
+ * in a small pool for that so they don't have to be re-allocated.
+ * <p>
+ * These settings are shared by all connections of the JVM.
+ * <br>All states are allocated for stereo, the largest layout, so that a released state can be re-initialized for any
+ * output format.
+ */
+public class DecoderPool
+{
+    private static final Set<Decoder> active = ConcurrentHashMap.newKeySet();
+    private static final ConcurrentLinkedDeque<PointerByReference> pooled = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger pooledCount = new AtomicInteger();
+    private static final AtomicLong nativeMemory = new AtomicLong();
+    private static final AtomicLong lastSweep = new AtomicLong();
+
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong recreations = new AtomicLong();
+
+    private static volatile long maxNativeMemory = Long.MAX_VALUE;
+    private static volatile long idleTimeout = 60000;
+    private static volatile int maxPooled = 16;
+    private static int decoderSize = -1;
+
+    private DecoderPool() {}
+
+    /**
+     * Sets the amount of native memory, in bytes, that all decoder states together may use.
+     * <br>The cap is soft: when every decoder is busy decoding, new states are still created.
+     *
+     * @param  bytes
+     *         The memory cap in bytes. Default: unlimited
+     */
+    public static void setMaxNativeMemory(long bytes)
+    {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("Provided bytes must be positive");
+        maxNativeMemory = bytes;
+    }
+
+    /**
+     * Sets the time, in milliseconds, after which the native state of a decoder that did not decode anything is released.
+     *
+     * @param  timeout
+     *         The idle timeout in milliseconds, or {@code 0} to never evict idle decoders. Default: 60000
+     */
+    public static void setIdleTimeout(long timeout)
+    {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Provided timeout must not be negative");
+        idleTimeout = timeout;
+    }
+
+    /**
+     * Sets the amount of released native states kept for re-use.
+     *
+     * @param  max
+     *         The maximum amount of pooled states. Default: 16
+     */
+    public static void setMaxPooled(int max)
+    {
+        if (max < 0)
+            throw new IllegalArgumentException("Provided max must not be negative");
+        maxPooled = max;
+        trimPool();
+    }
+
+    /**
+     * The native memory currently used by decoder states, including pooled ones.
+     *
+     * @return The used native memory in bytes
+     */
+    public static long getNativeMemory()
+    {
+        return nativeMemory.get();
+    }
+
+    public static int getActiveCount()
+    {
+        return active.size();
+    }
+
+    public static int getPooledCount()
+    {
+        return pooledCount.get();
+    }
+
+    /**
+     * @return The amount of native states that were allocated
+     */
+    public static long getCreatedCount()
+    {
+        return created.get();
+    }
+
+    /**
+     * @return The amount of native states that were taken from the pool or from an evicted decoder instead of
+     *         being allocated
+     */
+    public static long getReusedCount()
+    {
+        return reused.get();
+    }
+
+    /**
+     * @return The amount of decoders that had to give up their native state, either because they were idle or
+     *         because the memory cap was reached
+     */
+    public static long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return The amount of evicted decoders that needed a native state again
+     */
+    public static long getRecreationCount()
+    {
+        return recreations.get();
+    }
+
+    /**
+     * Releases the native state of all decoders that are idle for longer than the idle timeout.
+     * <br>This is called regularly by the receiving threads of the connections, calls within a second of the
+     * previous sweep return immediately.
+     */
+    public static void evictIdle()
+    {
+        long timeout = idleTimeout;
+        if (timeout == 0)
+            return;
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < 1000 || !lastSweep.compareAndSet(last, now))
+            return;
+
+        long cutoff = now - timeout;
+        for (Decoder decoder : active)
+        {
+            if (decoder.lastUsed < cutoff && decoder.tryEvict(cutoff))
+                evictions.incrementAndGet();
+        }
+    }
+
+    static PointerByReference acquire(Decoder decoder)
+    {
+        PointerByReference state = pooled.pollFirst();
+        if (state != null)
+        {
+            pooledCount.decrementAndGet();
+            Opus.INSTANCE.opus_decoder_init(state, decoder.sampleRate, decoder.channels);
+            reused.incrementAndGet();
+        }
+        else if ((state = makeRoom(decoder)) != null)
+        {
+            Opus.INSTANCE.opus_decoder_init(state, decoder.sampleRate, decoder.channels);
+            reused.incrementAndGet();
+        }
+        else
+        {
+            IntBuffer error = IntBuffer.allocate(4);
+            state = Opus.INSTANCE.opus_decoder_create(AudioConnection.OPUS_SAMPLE_RATE,
+                    AudioConnection.OPUS_CHANNEL_COUNT, error);
+            //TODO: check `error` for an error flag.
+            if (!decoder.hasFormat(AudioConnection.OPUS_SAMPLE_RATE, AudioConnection.OPUS_CHANNEL_COUNT))
+                Opus.INSTANCE.opus_decoder_init(state, decoder.sampleRate, decoder.channels);
+            nativeMemory.addAndGet(getDecoderSize());
+            created.incrementAndGet();
+        }
+        active.add(decoder);
+        return state;
+    }
+
+    static void release(Decoder decoder, PointerByReference state)
+    {
+        active.remove(decoder);
+        if (pooledCount.get() < maxPooled && nativeMemory.get() <= maxNativeMemory)
+        {
+            pooledCount.incrementAndGet();
+            pooled.offerFirst(state);
+        }
+        else
+        {
+            destroy(state);
+        }
+    }
+
+    static void recreated()
+    {
+        recreations.incrementAndGet();
+    }
+
+    /**
+     * Frees pooled states until a new one fits under the cap. If that's not enough, the state of the least recently
+     * used decoder is taken away and returned so the requester can re-initialize it instead of allocating a new one.
+     *
+     * @return The state of an evicted decoder, or {@code null} if a new state has to be created
+     */
+    private static PointerByReference makeRoom(Decoder requester)
+    {
+        long size = getDecoderSize();
+        while (nativeMemory.get() + size > maxNativeMemory)
+        {
+            //Pooled states go first, they are not used by anyone.
+            PointerByReference state = pooled.pollLast();
+            if (state == null)
+                break;
+            pooledCount.decrementAndGet();
+            destroy(state);
+        }
+        if (nativeMemory.get() + size <= maxNativeMemory)
+            return null;
+
+        //Decoders that are decoding right now can't give up their state, try the next oldest one instead.
+        Set<Decoder> busy = null;
+        while (true)
+        {
+            Decoder eldest = null;
+            long eldestUsed = Long.MAX_VALUE;
+            for (Decoder decoder : active)
+            {
+                long used = decoder.lastUsed;
+                if (decoder != requester && used < eldestUsed && (busy == null || !busy.contains(decoder)))
+                {
+                    eldest = decoder;
+                    eldestUsed = used;
+                }
+            }
+            if (eldest == null)
+                return null; //Everyone is busy, go above the cap rather than failing to decode.
+
+            PointerByReference state = eldest.tryTakeState(eldestUsed);
+            if (state != null)
+            {
+                active.remove(eldest);
+                evictions.incrementAndGet();
+                return state;
+            }
+            if (busy == null)
+                busy = new HashSet<>();
+            busy.add(eldest);
+        }
+    }
+
+    private static void trimPool()
+    {
+        while (pooledCount.get() > maxPooled)
+        {
+            PointerByReference state = pooled.pollLast();
+            if (state == null)
+                return;
+            pooledCount.decrementAndGet();
+            destroy(state);
+        }
+    }
+
+    private static void destroy(PointerByReference state)
+    {
+        Opus.INSTANCE.opus_decoder_destroy(state);
+        nativeMemory.addAndGet(-getDecoderSize());
+    }
+
+    private static int getDecoderSize()
+    {
+        if (decoderSize < 0)
+            decoderSize = Opus.INSTANCE.opus_decoder_get_size(AudioConnection.OPUS_CHANNEL_COUNT);
+        return decoderSize;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One direction of a connection impaired by a {@link NetworkImpairment}: packets are offered as they come and
+ * polled once they are due. Holds a snapshot of the configuration and its own random state.
+ * <br>The receiving thread polls it between receives, the sending side {@link #take() takes} from it on a thread of
+ * its own.
+ */
+class ImpairedPath
+{
+    private final NetworkImpairment impairment;
+    private final Random random;
+    private final double loss;
+    private final double burstProbability;
+    private final double burstEnd;
+    private final double duplication;
+    private final long delay;
+    private final long jitter;
+    private final double reorder;
+    private final long reorderDelay;
+
+    private final PriorityQueue<Held> queue = new PriorityQueue<>();
+    private boolean inBurst = false;
+    private long order = 0; //Breaks ties of the release time, in the order the packets were offered
+
+    ImpairedPath(NetworkImpairment impairment)
+    {
+        this.impairment = impairment;
+        this.random = new Random(impairment.seed);
+        this.loss = impairment.loss;
+        this.burstProbability = impairment.burstProbability;
+        this.burstEnd = 1.0 / impairment.burstLength;
+        this.duplication = impairment.duplication;
+        this.delay = TimeUnit.MILLISECONDS.toNanos(impairment.delay);
+        this.jitter = TimeUnit.MILLISECONDS.toNanos(impairment.jitter);
+        this.reorder = impairment.reorder;
+        this.reorderDelay = TimeUnit.MILLISECONDS.toNanos(impairment.reorderDelay);
+    }
+
+    /**
+     * Decides the fate of a packet. The path takes over the packet, duplicates are copies.
+     *
+     * @param  now
+     *         The time the packet arrived, in {@link System#nanoTime()}
+     */
+    synchronized void offer(DatagramPacket packet, long now)
+    {
+        impairment.packets.incrementAndGet();
+        //Every packet draws the same amount from the random, so one setting doesn't shift the decisions of the others.
+        boolean burst = random.nextDouble() < (inBurst ? 1 - burstEnd : burstProbability);
+        boolean lost = random.nextDouble() < loss;
+        boolean duplicate = random.nextDouble() < duplication;
+        double jitterPart = random.nextDouble(), duplicateJitterPart = random.nextDouble();
+        boolean reordered = random.nextDouble() < reorder, duplicateReordered = random.nextDouble() < reorder;
+        inBurst = burst;
+        if (burst || lost)
+        {
+            impairment.dropped.incrementAndGet();
+            return;
+        }
+        hold(packet, now, jitterPart, reordered);
+        if (duplicate)
+        {
+            impairment.duplicated.incrementAndGet();
+            byte[] copy = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+            hold(new DatagramPacket(copy, copy.length, packet.getSocketAddress()), now, duplicateJitterPart, duplicateReordered);
+        }
+        notifyAll();
+    }
+
+    private void hold(DatagramPacket packet, long now, double jitterPart, boolean reordered)
+    {
+        long release = now + delay + (long) (jitterPart * jitter);
+        if (reordered)
+        {
+            impairment.reordered.incrementAndGet();
+            release += reorderDelay;
+        }
+        queue.add(new Held(release, order++, packet));
+    }
+
+    /**
+     * @return The next packet that is due, or null if there is none
+     */
+    synchronized DatagramPacket poll(long now)
+    {
+        Held next = queue.peek();
+        if (next == null || next.release - now > 0)
+            return null;
+        queue.poll();
+        return next.packet;
+    }
+
+    /**
+     * @return The time the next packet is due, in {@link System#nanoTime()}, or {@link Long#MAX_VALUE} if there is none
+     */
+    synchronized long nextRelease()
+    {
+        Held next = queue.peek();
+        return next == null ? Long.MAX_VALUE : next.release;
+    }
+
+    /**
+     * Waits until the next packet is due.
+     *
+     * @throws java.lang.InterruptedException
+     *         If the waiting thread is interrupted
+     */
+    synchronized DatagramPacket take() throws InterruptedException
+    {
+        while (true)
+        {
+            Held next = queue.peek();
+            if (next == null)
+            {
+                wait();
+                continue;
+            }
+            long remaining = next.release - System.nanoTime();
+            if (remaining <= 0)
+                return queue.poll().packet;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private static class Held implements Comparable<Held>
+    {
+        private final long release;
+        private final long order;
+        private final DatagramPacket packet;
+
+        private Held(long release, long order, DatagramPacket packet)
+        {
+            this.release = release;
+            this.order = order;
+            this.packet = packet;
+        }
+
+        @Override
+        public int compareTo(Held other)
+        {
+            int byRelease = Long.compare(release - other.release, 0);
+            return byRelease != 0 ? byRelease : Long.compare(order, other.order);
+        }
+    }
+}
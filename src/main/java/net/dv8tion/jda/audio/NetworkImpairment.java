@@ -0,0 +1,185 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bad network between the UDP socket and an {@link AudioConnection}, for testing how the receiving pipeline and
+ * the other end cope with it. Set with {@link AudioConnection#setReceiveImpairment(NetworkImpairment)} and
+ * {@link AudioConnection#setSendImpairment(NetworkImpairment)}, or on the
+ * {@link net.dv8tion.jda.manager.AudioManager AudioManager} to survive reconnects.
+ * <p>
+ * Every packet passes these stages in order:
+ * <ol>
+ *     <li>Burst loss: a two-state model that enters a burst with {@link #setBurstLoss(double, int) the configured
+ *         probability} and drops every packet until the burst ends, after the configured mean length</li>
+ *     <li>Loss: drops the packet with the configured probability</li>
+ *     <li>Duplication: delivers the packet twice, each copy with its own delay</li>
+ *     <li>Delay and jitter: holds the packet back for the delay plus a uniformly random part of the jitter.
+ *         Jitter above 20 milliseconds reorders packets by itself.</li>
+ *     <li>Reordering: holds the packet back for an additional time, so the packets after it overtake it</li>
+ * </ol>
+ * All decisions come from a {@link java.util.Random} seeded with {@link #getSeed()}, created anew for every
+ * connection this is set on. The same seed and configuration impair the same sequence of packets the same way.
+ * <br>The configuration is read when it is set on a connection, later changes apply to connections it is set on
+ * afterwards. The counters are shared by every connection it is set on.
+ */
+public class NetworkImpairment
+{
+    protected final long seed;
+
+    protected volatile double loss = 0;
+    protected volatile double burstProbability = 0;
+    protected volatile int burstLength = 1;
+    protected volatile double duplication = 0;
+    protected volatile long delay = 0;
+    protected volatile long jitter = 0;
+    protected volatile double reorder = 0;
+    protected volatile long reorderDelay = 40;
+
+    final AtomicLong packets = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong duplicated = new AtomicLong();
+    final AtomicLong reordered = new AtomicLong();
+
+    /**
+     * Creates an impairment that does nothing until configured.
+     *
+     * @param  seed
+     *         The seed of the random decisions
+     */
+    public NetworkImpairment(long seed)
+    {
+        this.seed = seed;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Drops packets independently of each other.
+     *
+     * @param  probability
+     *         The probability of a packet to be dropped, between 0 and 1
+     */
+    public void setLoss(double probability)
+    {
+        checkProbability(probability);
+        this.loss = probability;
+    }
+
+    /**
+     * Drops packets in bursts, like a congested link or a radio that lost its signal for a moment.
+     *
+     * @param  probability
+     *         The probability of a burst to start at a packet, between 0 and 1
+     * @param  meanLength
+     *         The mean amount of packets dropped by a burst, the lengths are geometrically distributed
+     */
+    public void setBurstLoss(double probability, int meanLength)
+    {
+        checkProbability(probability);
+        if (meanLength < 1)
+            throw new IllegalArgumentException("Provided mean length must be at least 1");
+        this.burstProbability = probability;
+        this.burstLength = meanLength;
+    }
+
+    /**
+     * @param  probability
+     *         The probability of a packet to be delivered twice, between 0 and 1
+     */
+    public void setDuplication(double probability)
+    {
+        checkProbability(probability);
+        this.duplication = probability;
+    }
+
+    /**
+     * @param  delay
+     *         The time, in milliseconds, every packet is held back
+     * @param  jitter
+     *         The maximum time, in milliseconds, a packet is held back additionally, uniformly distributed
+     */
+    public void setDelay(long delay, long jitter)
+    {
+        if (delay < 0 || jitter < 0)
+            throw new IllegalArgumentException("Provided delay and jitter must not be negative");
+        this.delay = delay;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param  probability
+     *         The probability of a packet to be overtaken by the following ones, between 0 and 1
+     * @param  delay
+     *         The time, in milliseconds, such a packet is held back additionally. Default: 40, two frames
+     */
+    public void setReorder(double probability, long delay)
+    {
+        checkProbability(probability);
+        if (delay < 1)
+            throw new IllegalArgumentException("Provided delay must be at least 1");
+        this.reorder = probability;
+        this.reorderDelay = delay;
+    }
+
+    /**
+     * @return The amount of packets that entered the impairment
+     */
+    public long getPackets()
+    {
+        return packets.get();
+    }
+
+    /**
+     * @return The amount of packets dropped by loss and burst loss
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getDuplicated()
+    {
+        return duplicated.get();
+    }
+
+    /**
+     * @return The amount of packets held back to be overtaken, reordering by jitter is not counted
+     */
+    public long getReordered()
+    {
+        return reordered.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("NetworkImpairment(seed %d, loss %.3f, burst %.3f x %d, duplication %.3f, delay %dms + %dms, reorder %.3f + %dms)",
+                seed, loss, burstProbability, burstLength, duplication, delay, jitter, reorder, reorderDelay);
+    }
+
+    private static void checkProbability(double probability)
+    {
+        if (!(probability >= 0 && probability <= 1))
+            throw new IllegalArgumentException("Provided probability must be between 0 and 1");
+    }
+}
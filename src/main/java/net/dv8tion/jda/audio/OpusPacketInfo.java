@@ -0,0 +1,113 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import tomp2p.opuswrapper.Opus;
+
+/**
+ * Reads the properties of an Opus packet from its TOC byte (RFC 6716, section 3.1) without decoding it.
+ * <br>These are the same values {@code opus_packet_get_bandwidth}, {@code opus_packet_get_nb_frames} and
+ * {@code opus_packet_get_samples_per_frame} return, computed in Java so that no native call is needed per packet.
+ */
+public class OpusPacketInfo
+{
+    /**
+     * Packets of at most this many bytes carry no audio: DTX frames and the silence frames Discord clients send
+     * when they stop talking.
+     */
+    public static final int MAX_SILENT_PACKET_SIZE = 3;
+
+    private OpusPacketInfo() {}
+
+    /**
+     * The audio bandwidth of the packet.
+     *
+     * @param  packet
+     *         The Opus packet
+     *
+     * @return One of the {@code Opus.OPUS_BANDWIDTH_*} constants, or {@code Opus.OPUS_INVALID_PACKET} for an empty packet
+     */
+    public static int getBandwidth(byte[] packet)
+    {
+        if (packet.length < 1)
+            return Opus.OPUS_INVALID_PACKET;
+        int config = (packet[0] & 0xFF) >> 3;
+        if (config < 12)        //SILK-only, 4 configurations per bandwidth
+            return Opus.OPUS_BANDWIDTH_NARROWBAND + (config >> 2);
+        if (config < 16)        //Hybrid, 2 configurations per bandwidth
+            return config < 14 ? Opus.OPUS_BANDWIDTH_SUPERWIDEBAND : Opus.OPUS_BANDWIDTH_FULLBAND;
+        int bandwidth = Opus.OPUS_BANDWIDTH_NARROWBAND + ((config - 16) >> 2);   //CELT-only, there is no mediumband
+        return bandwidth == Opus.OPUS_BANDWIDTH_NARROWBAND ? bandwidth : bandwidth + 1;
+    }
+
+    /**
+     * The amount of frames in the packet.
+     *
+     * @param  packet
+     *         The Opus packet
+     *
+     * @return The amount of frames, or {@code Opus.OPUS_INVALID_PACKET} if the packet is malformed
+     */
+    public static int getFrameCount(byte[] packet)
+    {
+        if (packet.length < 1)
+            return Opus.OPUS_INVALID_PACKET;
+        switch (packet[0] & 0x3)
+        {
+            case 0:
+                return 1;
+            case 3:
+                return packet.length < 2 ? Opus.OPUS_INVALID_PACKET : packet[1] & 0x3F;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * The amount of samples per channel of every frame of the packet, at 48KHz.
+     *
+     * @param  packet
+     *         The Opus packet
+     *
+     * @return The samples per frame, or {@code Opus.OPUS_INVALID_PACKET} for an empty packet
+     */
+    public static int getSamplesPerFrame(byte[] packet)
+    {
+        if (packet.length < 1)
+            return Opus.OPUS_INVALID_PACKET;
+        int toc = packet[0] & 0xFF;
+        if ((toc & 0x80) != 0)          //CELT-only: 2.5, 5, 10 or 20ms
+            return 120 << ((toc >> 3) & 0x3);
+        if ((toc & 0x60) == 0x60)       //Hybrid: 10 or 20ms
+            return (toc & 0x08) != 0 ? 960 : 480;
+        int size = (toc >> 3) & 0x3;    //SILK-only: 10, 20, 40 or 60ms
+        return size == 3 ? 2880 : 480 << size;
+    }
+
+    /**
+     * Whether the packet carries no audio, see {@link #MAX_SILENT_PACKET_SIZE}.
+     *
+     * @param  packet
+     *         The Opus packet
+     *
+     * @return True, if the packet is silent
+     */
+    public static boolean isSilent(byte[] packet)
+    {
+        return packet.length <= MAX_SILENT_PACKET_SIZE;
+    }
+}
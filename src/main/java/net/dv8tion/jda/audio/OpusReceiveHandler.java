@@ -0,0 +1,55 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+/**
+ * Interface used to receive the raw Opus audio of every userId from Discord through JDA.
+ * <br>Unlike {@link net.dv8tion.jda.audio.AudioReceiveHandler AudioReceiveHandler} no decoding happens, the packets are
+ * provided right after they were decrypted. Any amount of these handlers can be added to an
+ * {@link net.dv8tion.jda.manager.AudioManager AudioManager}.
+ * <p>
+ * <b>These methods are called on the receiving thread of the connection, so they should return quickly.</b>
+ */
+public interface OpusReceiveHandler
+{
+    /**
+     * Used to filter the userIds this handler is interested in. Packets of userIds for which this returns
+     * false are not provided to {@link #handleOpusPacket(long, AudioPacket)}.
+     *
+     * @param  userId
+     *         The id of the user that sent a packet
+     *
+     * @return If true, the packet is provided to this handler.
+     *         <br>Default - True.
+     */
+    default boolean canReceiveUser(long userId)
+    {
+        return true;
+    }
+
+    /**
+     * Called for every in-bound packet of a userId accepted by {@link #canReceiveUser(long)}.
+     * <br>{@link net.dv8tion.jda.audio.AudioPacket#getEncodedAudio() AudioPacket.getEncodedAudio()} provides the
+     * decrypted Opus frame, the RTP header information is the one sent by the speaking user.
+     *
+     * @param  userId
+     *         The id of the user that sent the packet
+     * @param  packet
+     *         The decrypted packet
+     */
+    void handleOpusPacket(long userId, AudioPacket packet);
+}
@@ -0,0 +1,145 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * Forwards the Opus audio received on one connection to the sending side of another connection, without
+ * decoding and re-encoding it.
+ * <br>Add the relay to the source with {@link net.dv8tion.jda.manager.AudioManager#addOpusReceiveHandler(OpusReceiveHandler)}
+ * and set it as the {@link net.dv8tion.jda.manager.AudioManager#setSendingHandler(AudioSendHandler) sending handler}
+ * of the destination. The destination rewrites sequence, timestamp and SSRC of every frame and encrypts it with its
+ * own key, libopus is never called.
+ * <p>
+ * A connection can only send a single Opus stream, so the relay follows one speaking user at a time. Once that user
+ * has been silent for {@link #SPEAKER_TIMEOUT} milliseconds the next user that speaks is followed instead.
+ */
+public class OpusRelay implements OpusReceiveHandler, AudioSendHandler
+{
+    /**
+     * Time in milliseconds after which the relay switches to another speaking user.
+     */
+    public static final long SPEAKER_TIMEOUT = 100;
+
+    private final LongPredicate userFilter;
+    private final ArrayBlockingQueue<byte[]> frames;
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private volatile long speaker;
+    private volatile long lastReceived;
+    private char lastSeq;
+
+    /**
+     * Creates a relay for all users of the source connection, buffering up to 5 frames (100 milliseconds).
+     */
+    public OpusRelay()
+    {
+        this(userId -> true, 5);
+    }
+
+    /**
+     * Creates a relay for the users of the source connection accepted by the provided filter.
+     *
+     * @param  userFilter
+     *         Filter of the userIds that should be relayed
+     * @param  bufferedFrames
+     *         Maximum amount of 20 millisecond frames held back for the destination. When the buffer is full
+     *         the oldest frame is dropped to bound the latency.
+     */
+    public OpusRelay(LongPredicate userFilter, int bufferedFrames)
+    {
+        if (userFilter == null)
+            throw new IllegalArgumentException("Provided userFilter must not be null");
+        if (bufferedFrames < 1)
+            throw new IllegalArgumentException("Provided bufferedFrames must be at least 1");
+        this.userFilter = userFilter;
+        this.frames = new ArrayBlockingQueue<>(bufferedFrames);
+    }
+
+    @Override
+    public boolean canReceiveUser(long userId)
+    {
+        return userFilter.test(userId);
+    }
+
+    @Override
+    public synchronized void handleOpusPacket(long userId, AudioPacket packet)
+    {
+        long now = System.currentTimeMillis();
+        char seq = packet.getSequence();
+        if (userId != speaker)
+        {
+            if (speaker != 0 && now - lastReceived < SPEAKER_TIMEOUT)
+                return;
+            speaker = userId;
+        }
+        else if (seq <= lastSeq && lastSeq - seq <= 10)
+        {
+            return; //Out of order or duplicated, the frame it belongs before was already relayed.
+        }
+        lastSeq = seq;
+        lastReceived = now;
+
+        byte[] audio = packet.getEncodedAudio();
+        while (!frames.offer(audio))
+        {
+            if (frames.poll() != null)
+                droppedFrames.incrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean canProvide()
+    {
+        return !frames.isEmpty();
+    }
+
+    @Override
+    public byte[] provide20MsAudio()
+    {
+        return frames.poll();
+    }
+
+    @Override
+    public boolean isOpus()
+    {
+        return true;
+    }
+
+    /**
+     * The user whose audio is currently relayed.
+     *
+     * @return The id of the relayed user, or {@code 0} if nobody spoke yet
+     */
+    public long getSpeaker()
+    {
+        return speaker;
+    }
+
+    /**
+     * The amount of frames that were dropped because the destination did not keep up.
+     *
+     * @return The amount of dropped frames
+     */
+    public long getDroppedFrames()
+    {
+        return droppedFrames.get();
+    }
+}
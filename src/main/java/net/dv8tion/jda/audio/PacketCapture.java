@@ -0,0 +1,165 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes the capture file of {@link AudioConnection#startCapture(Path)}, read again by {@link CaptureReplay}.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by records that each start with their type:
+ * <ul>
+ *     <li>{@link #SECRET_KEY}: length (short), key</li>
+ *     <li>{@link #SSRC}: ssrc (int), userId (long)</li>
+ *     <li>{@link #USER_REMOVAL}: userId (long)</li>
+ *     <li>{@link #PACKET}: arrival in nanoseconds since the start of the capture (long), length (short), datagram</li>
+ * </ul>
+ * All numbers are big-endian. Records are buffered, so a packet costs a copy and the file is written in 64KB steps.
+ * <br>A failing write ends the capture, the connection keeps receiving.
+ */
+class PacketCapture
+{
+    static final byte[] MAGIC = {'J', 'D', 'A', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    static final int SECRET_KEY = 1;
+    static final int SSRC = 2;
+    static final int USER_REMOVAL = 3;
+    static final int PACKET = 4;
+
+    protected final Path file;
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+    private byte[] secretKey;
+    private boolean closed = false;
+
+    PacketCapture(Path file) throws IOException
+    {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        try
+        {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+        }
+        catch (IOException e)
+        {
+            out.close();
+            throw e;
+        }
+    }
+
+    synchronized void writeSecretKey(byte[] secretKey)
+    {
+        if (closed)
+            return;
+        try
+        {
+            this.secretKey = secretKey;
+            out.writeByte(SECRET_KEY);
+            out.writeShort(secretKey.length);
+            out.write(secretKey);
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    synchronized void writeSsrc(int ssrc, long userId)
+    {
+        if (closed)
+            return;
+        try
+        {
+            out.writeByte(SSRC);
+            out.writeInt(ssrc);
+            out.writeLong(userId);
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    synchronized void writeUserRemoval(long userId)
+    {
+        if (closed)
+            return;
+        try
+        {
+            out.writeByte(USER_REMOVAL);
+            out.writeLong(userId);
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes a received datagram, and the secret key first if it changed since the last packet.
+     */
+    synchronized void writePacket(DatagramPacket packet, byte[] secretKey)
+    {
+        long arrival = System.nanoTime() - start;
+        if (closed)
+            return;
+        if (secretKey != null && !Arrays.equals(secretKey, this.secretKey))
+            writeSecretKey(secretKey);
+        try
+        {
+            out.writeByte(PACKET);
+            out.writeLong(arrival);
+            out.writeShort(packet.getLength());
+            out.write(packet.getData(), packet.getOffset(), packet.getLength());
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    synchronized void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.log(e);
+        }
+    }
+
+    private void fail(IOException e)
+    {
+        AudioConnection.LOG.fatal("Failed to write the packet capture " + file + ", the capture stops.");
+        AudioConnection.LOG.log(e);
+        close();
+    }
+}
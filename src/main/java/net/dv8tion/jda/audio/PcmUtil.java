@@ -0,0 +1,406 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import tomp2p.opuswrapper.Opus;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Kernels for interleaved PCM audio: conversions between 16bit, float and byte representations, gain, mixing and
+ * downmixing.
+ * <br>Float samples are in the range {@code -1..1}, like libopus uses them. Results that don't fit 16bit saturate
+ * instead of wrapping around.
+ * <p>
+ * All kernels write into buffers provided by the caller, so they can be used without allocating per frame.
+ * The loops are kept free of branches that depend on parameters, such as the gain or the byte order, so that the
+ * JIT can unroll and vectorize them.
+ */
+public class PcmUtil
+{
+    private static final float SHORT_SCALE = -Short.MIN_VALUE;
+
+    private PcmUtil() {}
+
+    static float[] toFloat(short[] audio)
+    {
+        float[] converted = new float[audio.length];
+        toFloat(audio, 0, converted, 0, audio.length);
+        return converted;
+    }
+
+    static short[] toShort(float[] audio)
+    {
+        short[] converted = new short[audio.length];
+        toShort(audio, 0, converted, 0, audio.length);
+        return converted;
+    }
+
+    static short toShort(float sample)
+    {
+        return saturate((int) (sample * SHORT_SCALE));
+    }
+
+    /**
+     * Converts 16bit samples to float samples.
+     *
+     * @param  src
+     *         The 16bit samples
+     * @param  srcOffset
+     *         The index of the first sample to convert
+     * @param  dst
+     *         The array the float samples are written to
+     * @param  dstOffset
+     *         The index of the first float sample
+     * @param  length
+     *         The amount of samples
+     */
+    public static void toFloat(short[] src, int srcOffset, float[] dst, int dstOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = src[srcOffset + i] / SHORT_SCALE;
+    }
+
+    /**
+     * Converts float samples to 16bit samples, samples out of range saturate.
+     *
+     * @param  src
+     *         The float samples
+     * @param  srcOffset
+     *         The index of the first sample to convert
+     * @param  dst
+     *         The array the 16bit samples are written to
+     * @param  dstOffset
+     *         The index of the first 16bit sample
+     * @param  length
+     *         The amount of samples
+     */
+    public static void toShort(float[] src, int srcOffset, short[] dst, int dstOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = saturate((int) (src[srcOffset + i] * SHORT_SCALE));
+    }
+
+    /**
+     * Writes 16bit samples as bytes.
+     *
+     * @param  src
+     *         The samples
+     * @param  srcOffset
+     *         The index of the first sample to write
+     * @param  dst
+     *         The array the bytes are written to, it needs room for {@code length * 2} bytes
+     * @param  dstOffset
+     *         The index of the first byte
+     * @param  length
+     *         The amount of samples
+     * @param  bigEndian
+     *         The byte order to write
+     */
+    public static void toBytes(short[] src, int srcOffset, byte[] dst, int dstOffset, int length, boolean bigEndian)
+    {
+        int high = bigEndian ? 0 : 1;
+        int low = 1 - high;
+        for (int i = 0; i < length; i++)
+        {
+            short sample = src[srcOffset + i];
+            int index = dstOffset + i * 2;
+            dst[index + high] = (byte) (sample >> 8);
+            dst[index + low] = (byte) sample;
+        }
+    }
+
+    /**
+     * Writes 16bit samples as bytes after applying a gain, see {@link #applyGain(short[], int, short[], int, int, float)}.
+     *
+     * @param  src
+     *         The samples
+     * @param  srcOffset
+     *         The index of the first sample to write
+     * @param  dst
+     *         The array the bytes are written to, it needs room for {@code length * 2} bytes
+     * @param  dstOffset
+     *         The index of the first byte
+     * @param  length
+     *         The amount of samples
+     * @param  bigEndian
+     *         The byte order to write
+     * @param  gain
+     *         The factor the samples are multiplied with
+     */
+    public static void toBytes(short[] src, int srcOffset, byte[] dst, int dstOffset, int length, boolean bigEndian, float gain)
+    {
+        if (gain == 1f)
+        {
+            toBytes(src, srcOffset, dst, dstOffset, length, bigEndian);
+            return;
+        }
+        int high = bigEndian ? 0 : 1;
+        int low = 1 - high;
+        for (int i = 0; i < length; i++)
+        {
+            short sample = saturate((int) (src[srcOffset + i] * gain));
+            int index = dstOffset + i * 2;
+            dst[index + high] = (byte) (sample >> 8);
+            dst[index + low] = (byte) sample;
+        }
+    }
+
+    /**
+     * Writes float samples as 16bit bytes after applying a gain, without converting them to a {@code short[]} first.
+     *
+     * @param  src
+     *         The float samples
+     * @param  srcOffset
+     *         The index of the first sample to write
+     * @param  dst
+     *         The array the bytes are written to, it needs room for {@code length * 2} bytes
+     * @param  dstOffset
+     *         The index of the first byte
+     * @param  length
+     *         The amount of samples
+     * @param  bigEndian
+     *         The byte order to write
+     * @param  gain
+     *         The factor the samples are multiplied with
+     */
+    public static void toBytes(float[] src, int srcOffset, byte[] dst, int dstOffset, int length, boolean bigEndian, float gain)
+    {
+        int high = bigEndian ? 0 : 1;
+        int low = 1 - high;
+        float scale = gain * SHORT_SCALE;
+        for (int i = 0; i < length; i++)
+        {
+            short sample = saturate((int) (src[srcOffset + i] * scale));
+            int index = dstOffset + i * 2;
+            dst[index + high] = (byte) (sample >> 8);
+            dst[index + low] = (byte) sample;
+        }
+    }
+
+    /**
+     * Reads 16bit samples from bytes.
+     *
+     * @param  src
+     *         The bytes, two per sample
+     * @param  srcOffset
+     *         The index of the first byte
+     * @param  dst
+     *         The array the samples are written to
+     * @param  dstOffset
+     *         The index of the first sample
+     * @param  length
+     *         The amount of samples
+     * @param  bigEndian
+     *         The byte order to read
+     */
+    public static void toShorts(byte[] src, int srcOffset, short[] dst, int dstOffset, int length, boolean bigEndian)
+    {
+        int high = bigEndian ? 0 : 1;
+        int low = 1 - high;
+        for (int i = 0; i < length; i++)
+        {
+            int index = srcOffset + i * 2;
+            dst[dstOffset + i] = (short) ((src[index + high] << 8) | (src[index + low] & 0xFF));
+        }
+    }
+
+    /**
+     * Multiplies the samples with a gain, results out of range saturate.
+     * <br>Source and destination may be the same array.
+     *
+     * @param  src
+     *         The samples
+     * @param  srcOffset
+     *         The index of the first sample
+     * @param  dst
+     *         The array the results are written to
+     * @param  dstOffset
+     *         The index of the first result
+     * @param  length
+     *         The amount of samples
+     * @param  gain
+     *         The factor the samples are multiplied with, {@code 1} keeps the volume
+     */
+    public static void applyGain(short[] src, int srcOffset, short[] dst, int dstOffset, int length, float gain)
+    {
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = saturate((int) (src[srcOffset + i] * gain));
+    }
+
+    public static void applyGain(float[] src, int srcOffset, float[] dst, int dstOffset, int length, float gain)
+    {
+        for (int i = 0; i < length; i++)
+            dst[dstOffset + i] = src[srcOffset + i] * gain;
+    }
+
+    /**
+     * Adds the samples onto the destination, results out of range saturate.
+     * <br>For mixing many sources {@link #accumulate(short[], int, int[], int)} and {@link #saturate(int[], short[], int)}
+     * saturate only once, which distorts less.
+     *
+     * @param  src
+     *         The samples to add
+     * @param  dst
+     *         The samples that are added to, in place
+     * @param  length
+     *         The amount of samples
+     */
+    public static void mix(short[] src, short[] dst, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[i] = saturate(dst[i] + src[i]);
+    }
+
+    public static void mix(float[] src, float[] dst, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[i] += src[i];
+    }
+
+    /**
+     * Adds the samples onto a sum that can't overflow, see {@link #saturate(int[], short[], int)}.
+     *
+     * @param  src
+     *         The samples to add
+     * @param  srcOffset
+     *         The index of the first sample
+     * @param  sum
+     *         The sum that is added to, in place
+     * @param  length
+     *         The amount of samples
+     */
+    public static void accumulate(short[] src, int srcOffset, int[] sum, int length)
+    {
+        for (int i = 0; i < length; i++)
+            sum[i] += src[srcOffset + i];
+    }
+
+    /**
+     * Converts a sum of samples to 16bit samples, results out of range saturate.
+     *
+     * @param  sum
+     *         The sum, see {@link #accumulate(short[], int, int[], int)}
+     * @param  dst
+     *         The array the samples are written to
+     * @param  length
+     *         The amount of samples
+     */
+    public static void saturate(int[] sum, short[] dst, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[i] = saturate(sum[i]);
+    }
+
+    /**
+     * Converts a sum of samples to 16bit samples after taking the provided samples back out of it, as used for
+     * mix-minus audio. Results out of range saturate.
+     *
+     * @param  sum
+     *         The sum, see {@link #accumulate(short[], int, int[], int)}
+     * @param  exclude
+     *         The samples to subtract from the sum
+     * @param  dst
+     *         The array the samples are written to
+     * @param  length
+     *         The amount of samples
+     */
+    public static void saturate(int[] sum, short[] exclude, short[] dst, int length)
+    {
+        for (int i = 0; i < length; i++)
+            dst[i] = saturate(sum[i] - exclude[i]);
+    }
+
+    /**
+     * Downmixes interleaved stereo audio to mono by averaging both channels.
+     *
+     * @param  stereo
+     *         The interleaved stereo samples
+     * @param  mono
+     *         The array the mono samples are written to, it needs room for {@code frames} samples
+     * @param  frames
+     *         The amount of samples per channel
+     */
+    public static void downmix(short[] stereo, short[] mono, int frames)
+    {
+        for (int i = 0; i < frames; i++)
+            mono[i] = (short) ((stereo[i * 2] + stereo[i * 2 + 1]) >> 1);
+    }
+
+    public static void downmix(float[] stereo, float[] mono, int frames)
+    {
+        for (int i = 0; i < frames; i++)
+            mono[i] = (stereo[i * 2] + stereo[i * 2 + 1]) * 0.5f;
+    }
+
+    /**
+     * The largest absolute sample of the audio, normalized to {@code 0..1}.
+     */
+    static float peak(short[] audio)
+    {
+        int peak = 0;
+        for (short sample : audio)
+            peak = Math.max(peak, Math.abs(sample));
+        return peak / SHORT_SCALE;
+    }
+
+    static float peak(float[] audio)
+    {
+        float peak = 0;
+        for (float sample : audio)
+            peak = Math.max(peak, Math.abs(sample));
+        return Math.min(1, peak);
+    }
+
+    /**
+     * Applies libopus' soft clipping to interleaved audio in place, so that it stays within {@code -1..1}
+     * without the distortion of hard clipping.
+     *
+     * @param  audio
+     *         The audio to clip
+     * @param  channels
+     *         The amount of interleaved channels
+     * @param  memory
+     *         The clipping state of the stream the audio belongs to, one value per channel
+     */
+    static void softClip(float[] audio, int channels, FloatBuffer memory)
+    {
+        softClip(FloatBuffer.wrap(audio), channels, memory);
+    }
+
+    /**
+     * Same as {@link #softClip(float[], int, FloatBuffer)}, for callers that keep a wrapper of their audio array
+     * around instead of wrapping it for every frame.
+     *
+     * @param  audio
+     *         A buffer wrapping the whole audio array, at position {@code 0}
+     * @param  channels
+     *         The amount of interleaved channels
+     * @param  memory
+     *         The clipping state of the stream the audio belongs to, one value per channel
+     */
+    static void softClip(FloatBuffer audio, int channels, FloatBuffer memory)
+    {
+        Opus.INSTANCE.opus_pcm_soft_clip(audio, audio.capacity() / channels, channels, memory);
+    }
+
+    private static short saturate(int sample)
+    {
+        //Branch-free min/max, the JIT turns these into conditional moves.
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+}
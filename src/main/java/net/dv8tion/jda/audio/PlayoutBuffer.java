@@ -0,0 +1,180 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-SSRC jitter buffer used by the combined audio mixer.
+ * <br>Decoded frames are placed into 20ms slots of the shared playout clock based on their RTP timestamp,
+ * so speakers stay aligned to each other no matter when their packets arrive.
+ * <br>The buffer holds a reference to every frame it contains, it is released once the frame leaves the buffer
+ * without being polled.
+ */
+class PlayoutBuffer
+{
+    static final int CAPACITY = 64; //64 slots of 20ms, 1.28 seconds of look-ahead. Must be a power of 2.
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_CONSECUTIVE_LATE = 3;  //A lasting shift of the speaker's delay costs this many frames.
+
+    static final int PLACED = 0;
+    static final int LATE = 1;
+    static final int RESYNCED = 2;
+
+    protected final long userId;
+    protected int ssrc;
+
+    private final AtomicLong lateFrames;
+    private final UserAudio[] frames = new UserAudio[CAPACITY];
+    private final long[] slots = new long[CAPACITY];
+
+    private boolean anchored = false;
+    private int lastTimestamp;
+    private long extendedTimestamp;     //RTP timestamp extended to 64bit so that we survive the 32bit wrap around.
+    private long anchorTimestamp;
+    private long anchorSlot;
+    private int consecutiveLate = 0;
+
+    PlayoutBuffer(long userId, int ssrc, AtomicLong lateFrames)
+    {
+        this.userId = userId;
+        this.ssrc = ssrc;
+        this.lateFrames = lateFrames;
+    }
+
+    /**
+     * Places a frame into the slot that its RTP timestamp maps to.
+     * <br>Takes over the caller's reference to the frame, unless the frame is {@link #LATE}.
+     *
+     * @return The result of the placement, one of {@link #PLACED}, {@link #LATE} or {@link #RESYNCED}
+     */
+    synchronized int offer(int ssrc, int timestamp, UserAudio audio, long tick, int delaySlots, int resyncSlots)
+    {
+        int result = PLACED;
+        if (!anchored || this.ssrc != ssrc)
+        {
+            anchor(ssrc, timestamp, tick + delaySlots);
+        }
+        else
+        {
+            extendedTimestamp += timestamp - lastTimestamp; //int subtraction handles the wrap around
+            lastTimestamp = timestamp;
+        }
+
+        long slot = slotOf(extendedTimestamp);
+        if (slot < tick)
+        {
+            //The slot this frame belongs to was already mixed.
+            if (tick - slot <= resyncSlots && ++consecutiveLate < MAX_CONSECUTIVE_LATE && !isEmpty(tick))
+            {
+                lateFrames.incrementAndGet();
+                return LATE;
+            }
+
+            //Too far behind to be jitter, or late for several frames in a row: the speaker's delay or clock
+            // moved (new talk spurt, network hiccup, drift, ...). What is still buffered would now play out of order.
+            releaseFrames();
+            anchor(ssrc, timestamp, tick + delaySlots);
+            slot = slotOf(extendedTimestamp);
+            result = RESYNCED;
+        }
+        else if (slot >= tick + CAPACITY)
+        {
+            //Too far ahead of the playout clock to be buffered, start over from this frame.
+            anchor(ssrc, timestamp, tick + delaySlots);
+            slot = slotOf(extendedTimestamp);
+            result = RESYNCED;
+        }
+
+        consecutiveLate = 0;
+        int index = (int) (slot & MASK);
+        if (frames[index] != null)
+            frames[index].release();
+        frames[index] = audio;
+        slots[index] = slot;
+        return result;
+    }
+
+    /**
+     * Retrieves the frame that belongs into the provided slot, along with the buffer's reference to it.
+     *
+     * @return Possibly-null frame for the slot.
+     */
+    synchronized UserAudio poll(long tick)
+    {
+        int index = (int) (tick & MASK);
+        UserAudio audio = frames[index];
+        if (audio == null)
+            return null;
+        frames[index] = null;
+        if (slots[index] == tick)
+            return audio;
+
+        //Anything that was left in this index from an older slot arrived just as its slot was mixed.
+        lateFrames.incrementAndGet();
+        audio.release();
+        return null;
+    }
+
+    synchronized void clear()
+    {
+        releaseFrames();
+        anchored = false;
+    }
+
+    /**
+     * Whether no frame is waiting for the provided slot or a later one. Re-anchoring an empty buffer costs nothing.
+     */
+    private boolean isEmpty(long tick)
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            if (frames[i] != null && slots[i] >= tick)
+                return false;
+        }
+        return true;
+    }
+
+    private void releaseFrames()
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            if (frames[i] != null)
+                frames[i].release();
+            frames[i] = null;
+        }
+    }
+
+    private void anchor(int ssrc, int timestamp, long slot)
+    {
+        this.ssrc = ssrc;
+        this.anchored = true;
+        this.lastTimestamp = timestamp;
+        this.extendedTimestamp = timestamp & 0xFFFFFFFFL;
+        this.anchorTimestamp = extendedTimestamp;
+        this.anchorSlot = slot;
+        this.consecutiveLate = 0;
+    }
+
+    private long slotOf(long extendedTimestamp)
+    {
+        //Round to the nearest slot, senders don't always step their timestamp by exactly one frame.
+        long frames = Math.floorDiv(extendedTimestamp - anchorTimestamp + AudioConnection.OPUS_FRAME_SIZE / 2,
+                AudioConnection.OPUS_FRAME_SIZE);
+        return anchorSlot + frames;
+    }
+}
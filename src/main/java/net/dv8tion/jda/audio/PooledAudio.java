@@ -0,0 +1,96 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Reference counting of the received audio frames, which are re-used once nobody holds a reference anymore.
+ * <br>Only frames provided to handlers that {@link AudioReceiveHandler#canReceivePooled() receive pooled audio} are
+ * re-used, for all other frames {@link #retain()} and {@link #release()} do nothing.
+ */
+abstract class PooledAudio
+{
+    private static final AtomicIntegerFieldUpdater<PooledAudio> REFS = AtomicIntegerFieldUpdater.newUpdater(PooledAudio.class, "refs");
+
+    protected final AudioFramePool pool;
+    private volatile int refs = 1;
+
+    PooledAudio(AudioFramePool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Whether this frame is re-used once it is released.
+     *
+     * @return True, if this frame belongs to a pool
+     */
+    public boolean isPooled()
+    {
+        return pool != null;
+    }
+
+    /**
+     * Keeps this frame from being re-used after the callback it was provided to returns.
+     * <br>Every call has to be balanced by a call to {@link #release()}.
+     *
+     * @throws java.lang.IllegalStateException
+     *         If this frame was already released
+     */
+    public void retain()
+    {
+        if (pool == null)
+            return;
+        int refs;
+        do
+        {
+            refs = this.refs;
+            if (refs <= 0)
+                throw new IllegalStateException("Frame was already released");
+        }
+        while (!REFS.compareAndSet(this, refs, refs + 1));
+    }
+
+    /**
+     * Gives up a reference obtained by {@link #retain()}. The frame must not be used afterwards.
+     * <br>A frame that is never released is not re-used, it is garbage collected like any other object.
+     *
+     * @throws java.lang.IllegalStateException
+     *         If this frame was released more often than it was retained
+     */
+    public void release()
+    {
+        if (pool == null)
+            return;
+        int refs = REFS.decrementAndGet(this);
+        if (refs == 0)
+            recycle();
+        else if (refs < 0)
+            throw new IllegalStateException("Frame was released more often than it was retained");
+    }
+
+    /**
+     * Prepares a recycled frame for its next use.
+     */
+    void reset()
+    {
+        refs = 1;
+    }
+
+    abstract void recycle();
+}
@@ -0,0 +1,58 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+/**
+ * Time spent in the stages of the receiving pipeline, collected while {@link CaptureReplay replaying} a capture.
+ * <br>Connections that receive from the network have none, they only record their {@link AudioStatistics}.
+ * Only used by the thread that feeds the connection.
+ */
+class ReceiveTimings
+{
+    long decrypted;
+    long decryptNanos;
+    long decoded;
+    long decodeNanos;
+    long delivered;
+    long deliverNanos;
+    long mixed;
+    long mixNanos;
+
+    void decrypted(long nanos)
+    {
+        decrypted++;
+        decryptNanos += nanos;
+    }
+
+    void decoded(long nanos)
+    {
+        decoded++;
+        decodeNanos += nanos;
+    }
+
+    void handled(long nanos)
+    {
+        delivered++;
+        deliverNanos += nanos;
+    }
+
+    void mixed(long nanos)
+    {
+        mixed++;
+        mixNanos += nanos;
+    }
+}
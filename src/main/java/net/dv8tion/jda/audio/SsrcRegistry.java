@@ -0,0 +1,299 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps the SSRCs of a connection to everything the receiving side knows about the user behind them.
+ * <p>
+ * Reads are lock-free: the table is immutable and replaced as a whole, under a lock, by the rare writes coming from
+ * the WebSocket thread. Publishing it through a volatile field makes sure the receiving thread sees fully constructed
+ * entries.
+ */
+class SsrcRegistry
+{
+    private static final Table EMPTY = new Table(new Entry[0]);
+    private static final int MAX_SEQUENCE_GAP = 50;  //A second of 20ms packets
+
+    static final int DUPLICATE = -1;
+    static final int LATE = -2;
+
+    final AtomicLong lateFrames = new AtomicLong();   //Shared by the playout buffers of all entries
+    private volatile Table table = EMPTY;
+
+    /**
+     * Lock-free lookup, safe to call from any thread.
+     *
+     * @return Possibly-null entry of the ssrc
+     */
+    Entry get(int ssrc)
+    {
+        return table.get(ssrc);
+    }
+
+    /**
+     * Snapshot of all entries, safe to iterate from any thread.
+     */
+    Entry[] entries()
+    {
+        return table.entries;
+    }
+
+    void closeDecoders()
+    {
+        for (Entry entry : table.entries)
+            entry.closeDecoder();
+    }
+
+    /**
+     * Registers the userId for the ssrc, unless the ssrc is already known.
+     *
+     * @return The entry of the ssrc
+     */
+    synchronized Entry put(int ssrc, long userId)
+    {
+        Entry existing = table.get(ssrc);
+        if (existing != null)
+            return existing;
+
+        Entry[] entries = table.entries;
+        Entry[] updated = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, updated, 0, entries.length);
+        Entry entry = new Entry(ssrc, userId, lateFrames);
+        updated[entries.length] = entry;
+        table = new Table(updated);
+        return entry;
+    }
+
+    /**
+     * Removes all entries of the userId.
+     *
+     * @return The removed entries
+     */
+    synchronized Entry[] removeUser(long userId)
+    {
+        Entry[] entries = table.entries;
+        int removed = 0;
+        for (Entry entry : entries)
+        {
+            if (entry.userId == userId)
+                removed++;
+        }
+        if (removed == 0)
+            return EMPTY.entries;
+
+        Entry[] retained = new Entry[entries.length - removed];
+        Entry[] removedEntries = new Entry[removed];
+        int r = 0, d = 0;
+        for (Entry entry : entries)
+        {
+            if (entry.userId == userId)
+                removedEntries[d++] = entry;
+            else
+                retained[r++] = entry;
+        }
+        table = new Table(retained);
+        return removedEntries;
+    }
+
+    static class Entry
+    {
+        final int ssrc;
+        final long userId;
+        final PlayoutBuffer playout;
+
+        //Only created by the receiving thread, closed on removal/shutdown.
+        volatile Decoder decoder;
+        //Set before the decoder is closed on removal, the receiving thread checks it after creating a decoder.
+        volatile boolean removed = false;
+
+        //Receive filter, resolved from the handlers whenever they or the speaking state of the user change.
+        volatile boolean decode = true;
+        volatile boolean relay = true;
+
+        //Statistics, only written by the receiving thread.
+        long packets;
+        long filtered;
+        long outOfOrder;
+        long decodeFailures;
+
+        //Sequence tracking, only used by the receiving thread.
+        private boolean sequenced = false;
+        private char lastSequence;
+
+        //Metering, only written by the receiving thread. lastPacket is written last to publish the others.
+        long silentPackets;
+        long bytes;
+        int bandwidth;
+        int frames;
+        int samplesPerFrame;
+        int payloadSize;
+        float rms = Float.NaN;
+        float peak = Float.NaN;
+        boolean voiceActive;
+        volatile long lastPacket;
+
+        private Entry(int ssrc, long userId, AtomicLong lateFrames)
+        {
+            this.ssrc = ssrc;
+            this.userId = userId;
+            this.playout = new PlayoutBuffer(userId, ssrc, lateFrames);
+        }
+
+        boolean isReceived()
+        {
+            return decode || relay;
+        }
+
+        /**
+         * Follows the RTP sequence of the user.
+         *
+         * @return The amount of packets missing right before this one, {@link #LATE} if it is one of the packets
+         *         that were missing, or {@link #DUPLICATE} if it is the newest one again or too old to tell
+         */
+        int trackSequence(char sequence)
+        {
+            if (!sequenced)
+            {
+                sequenced = true;
+                lastSequence = sequence;
+                return 0;
+            }
+            int delta = (char) (sequence - lastSequence);   //char subtraction handles the wrap around
+            if (delta == 0)
+                return DUPLICATE;
+            if (delta > Character.MAX_VALUE / 2)
+                return Character.MAX_VALUE + 1 - delta <= MAX_SEQUENCE_GAP ? LATE : DUPLICATE;
+            lastSequence = sequence;
+            //Larger jumps are a client that restarted its sequence, not loss.
+            return delta - 1 <= MAX_SEQUENCE_GAP ? delta - 1 : 0;
+        }
+
+        /**
+         * Meters a received packet from its TOC byte and size.
+         *
+         * @return True, if the voice activity of the user changed with this packet
+         */
+        boolean meter(byte[] opus, long now)
+        {
+            boolean silent = OpusPacketInfo.isSilent(opus);
+            if (silent)
+            {
+                silentPackets++;
+            }
+            else
+            {
+                bandwidth = OpusPacketInfo.getBandwidth(opus);
+                frames = OpusPacketInfo.getFrameCount(opus);
+                samplesPerFrame = OpusPacketInfo.getSamplesPerFrame(opus);
+            }
+            bytes += opus.length;
+            payloadSize = opus.length;
+            boolean changed = voiceActive == silent;
+            voiceActive = !silent;
+            lastPacket = now;
+            return changed;
+        }
+
+        void meterLevels(Object audio)
+        {
+            if (audio instanceof float[])
+            {
+                rms = CombinedAudioMixer.estimateEnergy((float[]) audio);
+                peak = PcmUtil.peak((float[]) audio);
+            }
+            else
+            {
+                rms = CombinedAudioMixer.estimateEnergy((short[]) audio);
+                peak = PcmUtil.peak((short[]) audio);
+            }
+        }
+
+        VoiceMeter toMeter(long now)
+        {
+            long last = lastPacket; //Read first, see above
+            return new VoiceMeter(userId, ssrc, packets, silentPackets, bytes, bandwidth, frames, samplesPerFrame,
+                    payloadSize, rms, peak, voiceActive && now - last <= VoiceMeter.ACTIVITY_TIMEOUT, last);
+        }
+
+        /**
+         * Marks this entry as removed and closes its decoder. A decoder the receiving thread creates concurrently
+         * is closed by that thread once it sees {@link #removed}.
+         */
+        synchronized void remove()
+        {
+            removed = true;
+            closeDecoder();
+        }
+
+        void closeDecoder()
+        {
+            Decoder decoder = this.decoder;
+            this.decoder = null;
+            if (decoder != null)
+                decoder.close();
+        }
+    }
+
+    /**
+     * Immutable open-addressing table from ssrc to entry.
+     */
+    private static class Table
+    {
+        private final Entry[] entries;
+        private final int[] keys;
+        private final Entry[] slots;
+        private final int mask;
+
+        private Table(Entry[] entries)
+        {
+            this.entries = entries;
+            int capacity = Integer.highestOneBit(Math.max(4, entries.length * 2) - 1) << 1; //Load factor of at most 0.5
+            this.keys = new int[capacity];
+            this.slots = new Entry[capacity];
+            this.mask = capacity - 1;
+            for (Entry entry : entries)
+            {
+                int index = hash(entry.ssrc) & mask;
+                while (slots[index] != null)
+                    index = (index + 1) & mask;
+                keys[index] = entry.ssrc;
+                slots[index] = entry;
+            }
+        }
+
+        private Entry get(int ssrc)
+        {
+            int index = hash(ssrc) & mask;
+            Entry entry;
+            while ((entry = slots[index]) != null)
+            {
+                if (keys[index] == ssrc)
+                    return entry;
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int hash(int ssrc)
+        {
+            int h = ssrc * 0x9E3779B9; //SSRCs handed out by Discord are sequential, spread them over the table.
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -16,33 +16,102 @@
 
 package net.dv8tion.jda.audio;
 
+import net.dv8tion.jda.utils.MiscUtil;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
 /**
  * Represents a packet of User specific audio.
+ * <p>
+ * If the handler {@link AudioReceiveHandler#canReceivePooled() receives pooled audio} this frame is re-used after
+ * the callback it was provided to returns, unless it is {@link #retain() retained}.
  */
-public class UserAudio
+public class UserAudio extends PooledAudio
 {
-    protected String userId;
+    protected long userId;
+    protected int timestamp;
     protected short[] audioData;
+    protected float[] floatAudioData;
+    protected AudioFormat format = AudioReceiveHandler.OUTPUT_FORMAT;
 
-    public UserAudio(String userId, short[] audioData)
+    public UserAudio(long userId, short[] audioData)
     {
+        super(null);
         this.userId = userId;
         this.audioData = audioData;
     }
 
+    public UserAudio(long userId, float[] floatAudioData)
+    {
+        super(null);
+        this.userId = userId;
+        this.floatAudioData = floatAudioData;
+    }
+
+    public UserAudio(long userId, short[] audioData, AudioFormat format)
+    {
+        this(userId, audioData);
+        this.format = format;
+    }
+
+    public UserAudio(long userId, float[] floatAudioData, AudioFormat format)
+    {
+        this(userId, floatAudioData);
+        this.format = format;
+    }
+
+    public UserAudio(String userId, short[] audioData)
+    {
+        this(MiscUtil.parseSnowflake(userId), audioData);
+    }
+
+    UserAudio(AudioFramePool pool, long userId, AudioFormat format, boolean asFloat, int length)
+    {
+        super(pool);
+        this.userId = userId;
+        this.format = format;
+        if (asFloat)
+            this.floatAudioData = new float[length];
+        else
+            this.audioData = new short[length];
+    }
+
     /**
      * The id of the user that provided the audio data.
      *
      * @return Never-null String containing user id.
      */
     public String getUserId()
+    {
+        return MiscUtil.toSnowflake(userId);
+    }
+
+    /**
+     * The id of the user that provided the audio data.
+     *
+     * @return The user id as a {@code long}
+     */
+    public long getUserIdLong()
     {
         return userId;
     }
 
     /**
-     * Provides 20 Milliseconds of combined audio data in 48KHz 16bit stereo signed BigEndian PCM.
-     * <br>Format defined by: {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}.
+     * The RTP timestamp of the packet the audio was decoded from, in 48KHz samples regardless of {@link #getFormat()}.
+     * <br>Consecutive frames of a user differ by the amount of samples between them, which places them on the user's
+     * timeline even when packets were lost. The starting value is random and wraps around.
+     *
+     * @return The RTP timestamp, or {@code 0} if this frame was not received
+     */
+    public int getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Provides 20 Milliseconds of combined audio data in the format requested by the handler, see {@link #getFormat()}.
+     * <br>By default: 48KHz 16bit stereo signed BigEndian PCM, defined by {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}.
      * <p>
      * The output volume of the data can be modified by the provided {@code `volume`} parameter. {@code `1.0`} is considered to be 100% volume.
      * <br>Going above {@code `1.0`} can increase the volume further, but you run the risk of audio distortion.
@@ -50,25 +119,109 @@ public class UserAudio
      * @param  volume
      *         Value used to modify the "volume" of the returned audio data. 1.0 is normal volume.
      *
-     * @return Never-null byte array of PCM data defined by {@link net.dv8tion.jda.core.audio.AudioReceiveHandler#OUTPUT_FORMAT AudioReceiveHandler.OUTPUT_FORMAT}
+     * @return Never-null byte array of PCM data in the format of {@link #getFormat()}
      */
     public byte[] getAudioData(double volume)
     {
-        short s;
-        int byteIndex = 0;
-        byte[] audio = new byte[audioData.length * 2];
-        for (int i = 0; i < audioData.length; i++)
-        {
-            s = audioData[i];
-            if (volume != 1.0)
-                s = (short) (s * volume);
-
-            byte leftByte = (byte) ((0x000000FF) & (s >> 8));
-            byte rightByte =  (byte) (0x000000FF & s);
-            audio[byteIndex] = leftByte;
-            audio[byteIndex + 1] = rightByte;
-            byteIndex += 2;
-        }
+        byte[] audio = new byte[samplesLength() * 2];
+        getAudioData(volume, audio, 0);
         return audio;
     }
+
+    /**
+     * Writes the audio data of {@link #getAudioData(double)} into the provided array instead of allocating a new one.
+     *
+     * @param  volume
+     *         Value used to modify the "volume" of the returned audio data. 1.0 is normal volume.
+     * @param  target
+     *         The array to write to
+     * @param  offset
+     *         The index of the first byte to write
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If the target has no room for the audio data
+     *
+     * @return The amount of written bytes
+     */
+    public int getAudioData(double volume, byte[] target, int offset)
+    {
+        int length = samplesLength();
+        if (offset < 0 || target.length - offset < length * 2)
+            throw new IllegalArgumentException("Provided target has no room for " + length * 2 + " bytes at offset " + offset);
+        if (audioData != null)
+            PcmUtil.toBytes(audioData, 0, target, offset, length, format.isBigEndian(), (float) volume);
+        else
+            PcmUtil.toBytes(floatAudioData, 0, target, offset, length, format.isBigEndian(), (float) volume);
+        return length * 2;
+    }
+
+    /**
+     * Provides 20 Milliseconds of user audio data as float samples in the range {@code -1..1}, with the
+     * sample rate and channels of {@link #getFormat()}.
+     * <br>If the {@link net.dv8tion.jda.audio.AudioReceiveHandler#canReceiveFloat() handler receives float audio}
+     * this is the decoded audio itself, otherwise it is converted from the 16bit audio.
+     *
+     * @return Never-null float array of PCM data
+     */
+    public float[] getFloatAudioData()
+    {
+        return floatAudioData != null ? floatAudioData : PcmUtil.toFloat(audioData);
+    }
+
+    /**
+     * The format of the audio data, as requested by
+     * {@link net.dv8tion.jda.audio.AudioReceiveHandler#getOutputFormat() AudioReceiveHandler.getOutputFormat()}.
+     *
+     * @return The format of {@link #getAudioData(double)}
+     */
+    public AudioFormat getFormat()
+    {
+        return format;
+    }
+
+    boolean fits(boolean asFloat, int length)
+    {
+        return samplesLength() == length && (floatAudioData != null) == asFloat;
+    }
+
+    void reset(long userId, AudioFormat format)
+    {
+        super.reset();
+        this.userId = userId;
+        this.timestamp = 0;
+        this.format = format;
+    }
+
+    /**
+     * Cuts the samples to the amount that was actually decoded. Only packets that aren't 20ms long need that,
+     * the shortened frame doesn't fit the pool anymore.
+     */
+    void trim(int length)
+    {
+        if (length == samplesLength())
+            return;
+        if (floatAudioData != null)
+            floatAudioData = Arrays.copyOf(floatAudioData, length);
+        else
+            audioData = Arrays.copyOf(audioData, length);
+    }
+
+    int samplesLength()
+    {
+        return floatAudioData != null ? floatAudioData.length : audioData.length;
+    }
+
+    /**
+     * @return The samples without conversion, either {@code short[]} or {@code float[]}
+     */
+    Object samples()
+    {
+        return floatAudioData != null ? floatAudioData : audioData;
+    }
+
+    @Override
+    void recycle()
+    {
+        pool.recycle(this);
+    }
 }
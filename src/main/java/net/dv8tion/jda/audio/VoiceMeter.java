@@ -0,0 +1,184 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+import net.dv8tion.jda.utils.MiscUtil;
+
+/**
+ * Snapshot of the voice activity of a single SSRC, built from the Opus packets of the user without decoding them.
+ * <br>Only the {@link #getRms() RMS} and {@link #getPeak() peak} levels need decoded audio, they are taken from
+ * the frames that were decoded for the receiving handler anyway.
+ *
+ * @see net.dv8tion.jda.manager.AudioManager#getVoiceMeters()
+ */
+public class VoiceMeter
+{
+    /**
+     * The time, in milliseconds, after the last packet for which a user still counts as speaking.
+     * <br>Clients don't always send silence frames when they stop, sometimes the packets just stop coming.
+     */
+    public static final long ACTIVITY_TIMEOUT = 200;
+
+    protected final long userId;
+    protected final int ssrc;
+    protected final long packets;
+    protected final long silentPackets;
+    protected final long bytes;
+    protected final int bandwidth;
+    protected final int frames;
+    protected final int samplesPerFrame;
+    protected final int payloadSize;
+    protected final float rms;
+    protected final float peak;
+    protected final boolean voiceActive;
+    protected final long lastPacket;
+
+    public VoiceMeter(long userId, int ssrc, long packets, long silentPackets, long bytes, int bandwidth, int frames,
+                      int samplesPerFrame, int payloadSize, float rms, float peak, boolean voiceActive, long lastPacket)
+    {
+        this.userId = userId;
+        this.ssrc = ssrc;
+        this.packets = packets;
+        this.silentPackets = silentPackets;
+        this.bytes = bytes;
+        this.bandwidth = bandwidth;
+        this.frames = frames;
+        this.samplesPerFrame = samplesPerFrame;
+        this.payloadSize = payloadSize;
+        this.rms = rms;
+        this.peak = peak;
+        this.voiceActive = voiceActive;
+        this.lastPacket = lastPacket;
+    }
+
+    public String getUserId()
+    {
+        return MiscUtil.toSnowflake(userId);
+    }
+
+    public long getUserIdLong()
+    {
+        return userId;
+    }
+
+    public int getSSRC()
+    {
+        return ssrc;
+    }
+
+    /**
+     * @return The amount of metered packets, including silent ones
+     */
+    public long getPackets()
+    {
+        return packets;
+    }
+
+    /**
+     * @return The amount of packets that carried no audio, see {@link OpusPacketInfo#isSilent(byte[])}
+     */
+    public long getSilentPackets()
+    {
+        return silentPackets;
+    }
+
+    /**
+     * @return The total Opus payload size of all metered packets, in bytes
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return The bandwidth of the last packet, one of the {@code Opus.OPUS_BANDWIDTH_*} constants
+     */
+    public int getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * @return The amount of frames in the last packet
+     */
+    public int getFrameCount()
+    {
+        return frames;
+    }
+
+    /**
+     * @return The duration of the last packet, in milliseconds
+     */
+    public float getPacketDuration()
+    {
+        return frames * samplesPerFrame / (AudioConnection.OPUS_SAMPLE_RATE / 1000f);
+    }
+
+    /**
+     * @return The Opus payload size of the last packet, in bytes
+     */
+    public int getPayloadSize()
+    {
+        return payloadSize;
+    }
+
+    /**
+     * The RMS level of the last decoded frame, normalized to {@code 0..1}.
+     *
+     * @return The RMS level, or {@code NaN} if no frame of this user was decoded
+     */
+    public float getRms()
+    {
+        return rms;
+    }
+
+    /**
+     * The peak level of the last decoded frame, normalized to {@code 0..1}.
+     *
+     * @return The peak level, or {@code NaN} if no frame of this user was decoded
+     */
+    public float getPeak()
+    {
+        return peak;
+    }
+
+    /**
+     * Whether the user is speaking: the last packet carried audio and arrived within the {@link #ACTIVITY_TIMEOUT}
+     * before this snapshot was taken.
+     *
+     * @return True, if the user is speaking
+     */
+    public boolean isVoiceActive()
+    {
+        return voiceActive;
+    }
+
+    /**
+     * @return The time of the last packet, in milliseconds since the epoch, or 0 if no packet arrived yet
+     */
+    public long getLastPacketTime()
+    {
+        return lastPacket;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "VoiceMeter(" + getUserId() + ", ssrc " + ssrc + ", " + (voiceActive ? "active" : "silent")
+                + ", rms " + rms + ", peak " + peak + ")";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio;
+
+/**
+ * Notified about voice activity that is detected from the received Opus packets, see {@link VoiceMeter}.
+ * <br>Unlike {@link net.dv8tion.jda.audio.hooks.ConnectionListener#onUserSpeaking(String, boolean)
+ * ConnectionListener.onUserSpeaking(String, boolean)} this follows the audio itself rather than the speaking
+ * flag Discord sends over the WebSocket.
+ */
+public interface VoiceMeterListener
+{
+    /**
+     * Called on the receiving thread whenever a user starts sending audio, or sends silence after audio.
+     * <br>A user whose packets just stop is not reported, poll {@link VoiceMeter#isVoiceActive()} for that.
+     * <p>
+     * This should return quickly, it holds up the receiving of audio.
+     *
+     * @param  meter
+     *         The meter of the user at the time of the change
+     */
+    void onVoiceActivity(VoiceMeter meter);
+}
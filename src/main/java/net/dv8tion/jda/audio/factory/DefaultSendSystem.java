@@ -18,10 +18,10 @@ package net.dv8tion.jda.audio.factory;
 
 
 import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.transport.VoiceTransport;
 import net.dv8tion.jda.manager.AudioManager;
 
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.NoRouteToHostException;
 import java.net.SocketException;
 
@@ -44,7 +44,7 @@ public class DefaultSendSystem implements IAudioSendSystem
     @Override
     public void start()
     {
-        final DatagramSocket udpSocket = packetProvider.getUdpSocket();
+        final VoiceTransport transport = packetProvider.getTransport();
 
 
         sendThread = new Thread(AudioManager.AUDIO_THREADS, packetProvider.getIdentifier() + " Sending Thread")
@@ -53,7 +53,7 @@ public class DefaultSendSystem implements IAudioSendSystem
             public void run()
             {
                 long lastFrameSent = System.currentTimeMillis();
-                while (!udpSocket.isClosed() && !sendThread.isInterrupted())
+                while (!transport.isClosed() && !sendThread.isInterrupted())
                 {
                     try
                     {
@@ -61,7 +61,7 @@ public class DefaultSendSystem implements IAudioSendSystem
                         DatagramPacket packet = packetProvider.getNextPacket(changeTalking);
 
                         if (packet != null)
-                            udpSocket.send(packet);
+                            transport.send(packet);
                     }
                     catch (NoRouteToHostException e)
                     {
@@ -69,7 +69,7 @@ public class DefaultSendSystem implements IAudioSendSystem
                     }
                     catch (SocketException e)
                     {
-                        //Most likely the socket has been closed due to the audio connection be closed. Next iteration will kill loop.
+                        //Most likely the transport has been closed due to the audio connection be closed. Next iteration will kill loop.
                     }
                     catch (Exception e)
                     {
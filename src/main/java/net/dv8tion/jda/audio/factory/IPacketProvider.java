@@ -17,6 +17,7 @@
 package net.dv8tion.jda.audio.factory;
 
 import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.audio.transport.VoiceTransport;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -44,15 +45,25 @@ public interface IPacketProvider
     String getConnectedChannel();
 
     /**
-     * The UDP connection for this audio connection. The {@link net.dv8tion.jda.core.audio.factory.DefaultSendSystem DefaultSendSystem}
-     * uses this socket to send audio packets to discord, and this is also the socket used to receive audio packets from discord.
+     * The UDP connection for this audio connection, if it uses a {@link net.dv8tion.jda.audio.transport.SocketTransport SocketTransport}.
+     *
+     * @return The UDP socket connection used for audio sending, or null if the connection uses another transport.
+     *
+     * @deprecated Use {@link #getTransport()}, which works with every transport.
+     */
+    @Deprecated
+    DatagramSocket getUdpSocket();
+
+    /**
+     * The transport of this audio connection. The {@link net.dv8tion.jda.audio.factory.DefaultSendSystem DefaultSendSystem}
+     * uses this transport to send audio packets to discord, and this is also the transport used to receive audio packets from discord.
      * <br>If you are implementing your own system, it is recommended that you used this connection as it is part of JDA's internal
      * system that JDA monitors for errors and closures. It should be noted however that using this is not required to
      * send audio packets if the developer wishes to open their own UDP socket to send from.
      *
-     * @return The UDP socket connection used for audio sending.
+     * @return The transport used for audio sending.
      */
-    DatagramSocket getUdpSocket();
+    VoiceTransport getTransport();
 
     /**
      * Used to retrieve an audio packet to send to Discord. The packet provided is already converted to Opus and
@@ -0,0 +1,252 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dv8tion.jda.audio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Flight Recorder events of the audio pipeline.
+ * <br>The events are committed once a stage is done, the time it took is in their {@code elapsed} field rather than
+ * the duration of the event. A guild id of 0 belongs to a connection without a voice server, e.g. one of a
+ * {@link net.dv8tion.jda.audio.CaptureReplay CaptureReplay}.
+ *
+ * <p>Only usable if the JVM has the {@code jdk.jfr} API, see the {@link net.dv8tion.jda.audio.jfr package}.
+ */
+public final class AudioEventTypes
+{
+    /**
+     * All events of the audio pipeline.
+     */
+    public static final List<Class<? extends Event>> ALL = Collections.unmodifiableList(Arrays.asList(
+            FrameProvided.class, FrameEncoded.class, FrameEncrypted.class, FrameSent.class,
+            PacketReceived.class, PacketDecrypted.class, PacketDecoded.class, HandlerDispatch.class,
+            ConnectionStatusChange.class, UdpDiscovery.class));
+
+    private AudioEventTypes() {}
+
+    /**
+     * Enables all events of the audio pipeline in the provided recording.
+     *
+     * @param  recording
+     *         The recording, usually not started yet
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If the provided recording is null
+     */
+    public static void enable(Recording recording)
+    {
+        if (recording == null)
+            throw new IllegalArgumentException("Provided recording must not be null");
+        for (Class<? extends Event> type : ALL)
+            recording.enable(type);
+    }
+
+    @Enabled(false)
+    @StackTrace(false)
+    @Category({"JDA", "Audio"})
+    public abstract static class AudioEvent extends Event
+    {
+        @Label("Guild Id")
+        long guildId;
+
+        @Label("SSRC")
+        @Description("Own SSRC of the connection for sent frames, SSRC of the user for received packets, 0 for mixed audio")
+        int ssrc;
+
+        AudioEvent() {}
+    }
+
+    @Name("net.dv8tion.jda.audio.FrameProvided")
+    @Label("Audio Frame Provided")
+    @Description("The AudioSendHandler provided the next 20ms frame")
+    @Category({"JDA", "Audio", "Send"})
+    public static final class FrameProvided extends AudioEvent
+    {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Length")
+        @Description("Bytes of an Opus or PCM frame, samples of a float frame, 0 if the handler provided nothing")
+        int length;
+
+        @Label("Opus")
+        boolean opus;
+    }
+
+    @Name("net.dv8tion.jda.audio.FrameEncoded")
+    @Label("Audio Frame Encoded")
+    @Category({"JDA", "Audio", "Send"})
+    public static final class FrameEncoded extends AudioEvent
+    {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Length")
+        @Description("Bytes of the Opus frame, 0 if encoding failed")
+        int length;
+    }
+
+    @Name("net.dv8tion.jda.audio.FrameEncrypted")
+    @Label("Audio Frame Encrypted")
+    @Category({"JDA", "Audio", "Send"})
+    public static final class FrameEncrypted extends AudioEvent
+    {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Sequence")
+        int sequence;
+    }
+
+    @Name("net.dv8tion.jda.audio.FrameSent")
+    @Label("Audio Frame Sent")
+    @Description("A packet was handed to the send system")
+    @Category({"JDA", "Audio", "Send"})
+    public static final class FrameSent extends AudioEvent
+    {
+        @Label("Sequence")
+        int sequence;
+
+        @Label("Length")
+        @Description("Bytes of the encrypted packet")
+        int length;
+
+        @Label("Lateness")
+        @Description("How far the send system was behind the 20ms schedule when it asked for the packet")
+        @Timespan(Timespan.NANOSECONDS)
+        long lateness;
+    }
+
+    @Name("net.dv8tion.jda.audio.PacketReceived")
+    @Label("Audio Packet Received")
+    @Category({"JDA", "Audio", "Receive"})
+    public static final class PacketReceived extends AudioEvent
+    {
+        @Label("Length")
+        @Description("Bytes of the encrypted packet")
+        int length;
+    }
+
+    @Name("net.dv8tion.jda.audio.PacketDecrypted")
+    @Label("Audio Packet Decrypted")
+    @Category({"JDA", "Audio", "Receive"})
+    public static final class PacketDecrypted extends AudioEvent
+    {
+        @Label("User Id")
+        @Description("0 if the SSRC is not known yet")
+        long userId;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Sequence")
+        int sequence;
+    }
+
+    @Name("net.dv8tion.jda.audio.PacketDecoded")
+    @Label("Audio Packet Decoded")
+    @Category({"JDA", "Audio", "Receive"})
+    public static final class PacketDecoded extends AudioEvent
+    {
+        @Label("User Id")
+        long userId;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Sequence")
+        int sequence;
+
+        @Label("Samples")
+        @Description("Samples per channel, negative if decoding failed")
+        int samples;
+
+        @Label("Concealed")
+        @Description("The frame of a lost packet was made up by the decoder")
+        boolean concealed;
+    }
+
+    @Name("net.dv8tion.jda.audio.HandlerDispatch")
+    @Label("Audio Handler Dispatch")
+    @Description("A receiving handler was called")
+    @Category({"JDA", "Audio", "Receive"})
+    public static final class HandlerDispatch extends AudioEvent
+    {
+        @Label("User Id")
+        @Description("The speaking user, the listener for mix-minus audio, 0 for combined audio")
+        long userId;
+
+        @Label("Handler")
+        Class<?> handler;
+
+        @Label("Audio")
+        @Description("user, combined, mix-minus or opus")
+        String audio;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("net.dv8tion.jda.audio.ConnectionStatusChange")
+    @Label("Audio Connection Status Change")
+    @Category({"JDA", "Audio", "Connection"})
+    public static final class ConnectionStatusChange extends AudioEvent
+    {
+        @Label("Previous Status")
+        String previous;
+
+        @Label("Status")
+        String status;
+    }
+
+    @Name("net.dv8tion.jda.audio.UdpDiscovery")
+    @Label("Audio UDP Discovery")
+    @Description("The external address of the connection was discovered through the voice server")
+    @Category({"JDA", "Audio", "Connection"})
+    public static final class UdpDiscovery extends AudioEvent
+    {
+        @Label("Server")
+        String server;
+
+        @Label("External Address")
+        @Description("Missing if the discovery failed")
+        String external;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
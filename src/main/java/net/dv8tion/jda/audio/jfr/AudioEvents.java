@@ -0,0 +1,98 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dv8tion.jda.audio.jfr;
+
+import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Where the audio system reports the {@link AudioEventTypes events} of its pipeline.
+ * <br>If the JVM has a Flight Recorder, {@link #get()} commits them to it, as far as a recording enabled them.
+ * Otherwise it is this class itself, which discards them. Either way the instance never changes, so the JIT
+ * inlines the calls and they cost next to nothing while no recording wants the events.
+ *
+ * <p>This class doesn't refer to the {@code jdk.jfr} API, so it can be used on every JVM. Durations are measured
+ * by the caller, with {@link System#nanoTime()}.
+ */
+public class AudioEvents
+{
+    private static final AudioEvents INSTANCE = load();
+
+    AudioEvents() {}
+
+    /**
+     * @return The events of this JVM
+     */
+    public static AudioEvents get()
+    {
+        return INSTANCE;
+    }
+
+    private static AudioEvents load()
+    {
+        try
+        {
+            //Loaded by name, so that nothing links against jdk.jfr on a JVM without it.
+            return Class.forName("net.dv8tion.jda.audio.jfr.FlightRecorderEvents").asSubclass(AudioEvents.class)
+                    .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new AudioEvents();
+        }
+    }
+
+    /**
+     * Whether the events go to a Flight Recorder. If not, there is no need to measure anything for them.
+     *
+     * @return True, if the JVM has a Flight Recorder
+     */
+    public boolean isAvailable()
+    {
+        return false;
+    }
+
+    public void frameProvided(long guildId, int ssrc, long elapsed, int length, boolean opus) {}
+
+    public void frameEncoded(long guildId, int ssrc, long elapsed, int length) {}
+
+    public void frameEncrypted(long guildId, int ssrc, long elapsed, int sequence) {}
+
+    public void frameSent(long guildId, int ssrc, int sequence, int length, long lateness) {}
+
+    public void packetReceived(long guildId, int ssrc, int length) {}
+
+    public void packetDecrypted(long guildId, int ssrc, long userId, long elapsed, int sequence) {}
+
+    public void packetDecoded(long guildId, int ssrc, long userId, long elapsed, int sequence, int samples, boolean concealed) {}
+
+    /**
+     * @param  audio
+     *         The kind of audio the handler received: {@code user}, {@code combined}, {@code mix-minus} or {@code opus}
+     */
+    public void handlerDispatched(long guildId, int ssrc, long userId, Object handler, String audio, long elapsed) {}
+
+    public void connectionStatusChanged(long guildId, int ssrc, ConnectionStatus previous, ConnectionStatus status) {}
+
+    /**
+     * @param  external
+     *         The discovered address, or null if the discovery failed
+     */
+    public void udpDiscovery(long guildId, int ssrc, InetSocketAddress server, InetSocketAddress external, long elapsed) {}
+}
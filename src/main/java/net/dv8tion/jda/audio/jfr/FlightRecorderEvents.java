@@ -0,0 +1,195 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dv8tion.jda.audio.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Commits the events to the Flight Recorder. Only loaded by {@link AudioEvents#get()}, if the JVM has one.
+ * <br>Every event is checked with {@link Event#shouldCommit()} before its fields are filled in. While no recording
+ * enabled it, that is a single field read and the JIT removes the allocation of the event.
+ */
+class FlightRecorderEvents extends AudioEvents
+{
+    FlightRecorderEvents()
+    {
+        if (!FlightRecorder.isAvailable())
+            throw new IllegalStateException("The Flight Recorder is not available");
+        //Registered right away, so that the events can be configured before the first one is committed.
+        for (Class<? extends Event> type : AudioEventTypes.ALL)
+            FlightRecorder.register(type);
+    }
+
+    @Override
+    public boolean isAvailable()
+    {
+        return true;
+    }
+
+    @Override
+    public void frameProvided(long guildId, int ssrc, long elapsed, int length, boolean opus)
+    {
+        AudioEventTypes.FrameProvided event = new AudioEventTypes.FrameProvided();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.elapsed = elapsed;
+            event.length = length;
+            event.opus = opus;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void frameEncoded(long guildId, int ssrc, long elapsed, int length)
+    {
+        AudioEventTypes.FrameEncoded event = new AudioEventTypes.FrameEncoded();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.elapsed = elapsed;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void frameEncrypted(long guildId, int ssrc, long elapsed, int sequence)
+    {
+        AudioEventTypes.FrameEncrypted event = new AudioEventTypes.FrameEncrypted();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.elapsed = elapsed;
+            event.sequence = sequence;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void frameSent(long guildId, int ssrc, int sequence, int length, long lateness)
+    {
+        AudioEventTypes.FrameSent event = new AudioEventTypes.FrameSent();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.sequence = sequence;
+            event.length = length;
+            event.lateness = lateness;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void packetReceived(long guildId, int ssrc, int length)
+    {
+        AudioEventTypes.PacketReceived event = new AudioEventTypes.PacketReceived();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void packetDecrypted(long guildId, int ssrc, long userId, long elapsed, int sequence)
+    {
+        AudioEventTypes.PacketDecrypted event = new AudioEventTypes.PacketDecrypted();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.userId = userId;
+            event.elapsed = elapsed;
+            event.sequence = sequence;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void packetDecoded(long guildId, int ssrc, long userId, long elapsed, int sequence, int samples, boolean concealed)
+    {
+        AudioEventTypes.PacketDecoded event = new AudioEventTypes.PacketDecoded();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.userId = userId;
+            event.elapsed = elapsed;
+            event.sequence = sequence;
+            event.samples = samples;
+            event.concealed = concealed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void handlerDispatched(long guildId, int ssrc, long userId, Object handler, String audio, long elapsed)
+    {
+        AudioEventTypes.HandlerDispatch event = new AudioEventTypes.HandlerDispatch();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.userId = userId;
+            event.handler = handler.getClass();
+            event.audio = audio;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void connectionStatusChanged(long guildId, int ssrc, ConnectionStatus previous, ConnectionStatus status)
+    {
+        AudioEventTypes.ConnectionStatusChange event = new AudioEventTypes.ConnectionStatusChange();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.previous = previous == null ? null : previous.name();
+            event.status = status == null ? null : status.name();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void udpDiscovery(long guildId, int ssrc, InetSocketAddress server, InetSocketAddress external, long elapsed)
+    {
+        AudioEventTypes.UdpDiscovery event = new AudioEventTypes.UdpDiscovery();
+        if (event.shouldCommit())
+        {
+            event.guildId = guildId;
+            event.ssrc = ssrc;
+            event.server = server == null ? null : server.toString();
+            event.external = external == null ? null : external.toString();
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+}
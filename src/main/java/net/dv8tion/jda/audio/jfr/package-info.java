@@ -0,0 +1,38 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * Java Flight Recorder events of the audio pipeline, to find out where the time of a frame went when audio stutters: the
+ * {@link net.dv8tion.jda.audio.AudioSendHandler AudioSendHandler}, encoding, encryption, decryption, decoding, a
+ * receiving handler, or something outside of JDA like the garbage collector, which the same recording shows.
+ * <br>Every event carries the id of the guild and the SSRC of the stream, see
+ * {@link net.dv8tion.jda.audio.jfr.AudioEventTypes AudioEventTypes} for the events and their fields.
+ *
+ * <p>The events are <b>disabled by default</b>, also in the default and profile settings of the JVM. Enable them in
+ * the settings of a recording, e.g. with a copy of {@code default.jfc} that contains
+ * <pre><code>
+ * &lt;event name="net.dv8tion.jda.audio.FrameSent"&gt;
+ *     &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </code></pre>
+ * or programmatically with {@link net.dv8tion.jda.audio.jfr.AudioEventTypes#enable(jdk.jfr.Recording) AudioEventTypes.enable(Recording)}.
+ *
+ * <p>The events need the {@code jdk.jfr} API of Java 11, which OpenJDK 8 has since update 262. On a JVM without it
+ * {@link net.dv8tion.jda.audio.jfr.AudioEvents AudioEvents} discards them, the classes of this package apart from it
+ * must not be used there.
+ */
+package net.dv8tion.jda.audio.jfr;
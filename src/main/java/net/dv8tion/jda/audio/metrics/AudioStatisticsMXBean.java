@@ -0,0 +1,63 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.metrics;
+
+/**
+ * The {@link net.dv8tion.jda.audio.AudioStatistics AudioStatistics} of all guilds of a Core, as attributes of
+ * an MXBean, see {@link JmxExporter}.
+ * <br>Durations are in microseconds, percentiles are the upper bound of their log2 bucket.
+ */
+public interface AudioStatisticsMXBean
+{
+    int getGuilds();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getLateFrames();
+
+    long getSkippedFrames();
+
+    long getOutOfOrder();
+
+    long getLost();
+
+    long getConcealed();
+
+    long getDecodeFailures();
+
+    int getDecoders();
+
+    long getSendLatenessP99Micros();
+
+    double getEncodeMeanMicros();
+
+    long getEncodeP99Micros();
+
+    double getEncryptMeanMicros();
+
+    double getDecryptMeanMicros();
+
+    double getDecodeMeanMicros();
+
+    long getDecodeP99Micros();
+}
@@ -0,0 +1,239 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.metrics;
+
+import net.dv8tion.jda.Core;
+import net.dv8tion.jda.audio.AudioStatistics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the {@link AudioStatistics} of a {@link Core} as an {@link AudioStatisticsMXBean} on the platform MBean
+ * server, by default as {@code net.dv8tion.jda:type=AudioStatistics,user=<id of the bot>}.
+ * <br>The statistics are taken when an attribute is read, at most once per second, so that a client reading all
+ * attributes does not add up the guilds for every single one.
+ *
+ * <pre><code>
+ * JmxExporter exporter = JmxExporter.register(core);
+ * </code></pre>
+ */
+public class JmxExporter implements AudioStatisticsMXBean
+{
+    private static final long MAX_AGE = TimeUnit.SECONDS.toNanos(1);
+
+    protected final Core core;
+    protected final ObjectName name;
+
+    private AudioStatistics statistics;
+    private long taken;
+
+    protected JmxExporter(Core core, ObjectName name)
+    {
+        this.core = core;
+        this.name = name;
+    }
+
+    /**
+     * Registers the statistics of the provided Core under the default name.
+     *
+     * @param  core
+     *         The Core to export the statistics of
+     *
+     * @throws javax.management.JMException
+     *         If the MXBean could not be registered, e.g. because the name is already taken
+     *
+     * @return The registered exporter
+     */
+    public static JmxExporter register(Core core) throws JMException
+    {
+        if (core == null)
+            throw new IllegalArgumentException("Provided core must not be null");
+        return register(core, new ObjectName("net.dv8tion.jda:type=AudioStatistics,user=" + core.getUserId()));
+    }
+
+    /**
+     * Registers the statistics of the provided Core under the provided name.
+     *
+     * @param  core
+     *         The Core to export the statistics of
+     * @param  name
+     *         The name of the MXBean
+     *
+     * @throws javax.management.JMException
+     *         If the MXBean could not be registered, e.g. because the name is already taken
+     *
+     * @return The registered exporter
+     */
+    public static JmxExporter register(Core core, ObjectName name) throws JMException
+    {
+        if (core == null)
+            throw new IllegalArgumentException("Provided core must not be null");
+        if (name == null)
+            throw new IllegalArgumentException("Provided name must not be null");
+        JmxExporter exporter = new JmxExporter(core, name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(exporter, name);
+        return exporter;
+    }
+
+    public ObjectName getName()
+    {
+        return name;
+    }
+
+    /**
+     * Removes the MXBean from the platform MBean server again.
+     */
+    public void unregister()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        }
+        catch (JMException ignored) {}
+    }
+
+    protected synchronized AudioStatistics getStatistics()
+    {
+        long now = System.nanoTime();
+        if (statistics == null || now - taken > MAX_AGE)
+        {
+            statistics = core.getStatistics();
+            taken = now;
+        }
+        return statistics;
+    }
+
+    @Override
+    public int getGuilds()
+    {
+        return core.getAudioManagers().size();
+    }
+
+    @Override
+    public long getPacketsSent()
+    {
+        return getStatistics().getPacketsSent();
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return getStatistics().getBytesSent();
+    }
+
+    @Override
+    public long getPacketsReceived()
+    {
+        return getStatistics().getPacketsReceived();
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return getStatistics().getBytesReceived();
+    }
+
+    @Override
+    public long getLateFrames()
+    {
+        return getStatistics().getLateFrames();
+    }
+
+    @Override
+    public long getSkippedFrames()
+    {
+        return getStatistics().getSkippedFrames();
+    }
+
+    @Override
+    public long getOutOfOrder()
+    {
+        return getStatistics().getOutOfOrder();
+    }
+
+    @Override
+    public long getLost()
+    {
+        return getStatistics().getLost();
+    }
+
+    @Override
+    public long getConcealed()
+    {
+        return getStatistics().getConcealed();
+    }
+
+    @Override
+    public long getDecodeFailures()
+    {
+        return getStatistics().getDecodeFailures();
+    }
+
+    @Override
+    public int getDecoders()
+    {
+        return getStatistics().getDecoders();
+    }
+
+    @Override
+    public long getSendLatenessP99Micros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getStatistics().getSendLateness().getPercentile(99));
+    }
+
+    @Override
+    public double getEncodeMeanMicros()
+    {
+        return getStatistics().getEncode().getMean() / 1000;
+    }
+
+    @Override
+    public long getEncodeP99Micros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getStatistics().getEncode().getPercentile(99));
+    }
+
+    @Override
+    public double getEncryptMeanMicros()
+    {
+        return getStatistics().getEncrypt().getMean() / 1000;
+    }
+
+    @Override
+    public double getDecryptMeanMicros()
+    {
+        return getStatistics().getDecrypt().getMean() / 1000;
+    }
+
+    @Override
+    public double getDecodeMeanMicros()
+    {
+        return getStatistics().getDecode().getMean() / 1000;
+    }
+
+    @Override
+    public long getDecodeP99Micros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getStatistics().getDecode().getPercentile(99));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import net.dv8tion.jda.Core;
+import net.dv8tion.jda.audio.AudioStatistics;
+import net.dv8tion.jda.manager.AudioManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Renders the {@link AudioStatistics} of a {@link Core} in the Prometheus text exposition format, whenever it is scraped.
+ * <br>Counters can be labelled per guild, the histograms are always those of all guilds together, as every guild
+ * would add a few hundred series otherwise.
+ *
+ * <pre><code>
+ * PrometheusExporter exporter = new PrometheusExporter(core, false);
+ * exporter.serve(new InetSocketAddress(9400)); //Or put exporter.scrape() behind an existing http endpoint
+ * </code></pre>
+ */
+public class PrometheusExporter
+{
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    protected final Core core;
+    protected final boolean perGuild;
+
+    /**
+     * @param core
+     *        The Core to export the statistics of
+     * @param perGuild
+     *        Whether the counters are exported for every guild with a {@code guild} label, instead of once for all guilds
+     */
+    public PrometheusExporter(Core core, boolean perGuild)
+    {
+        if (core == null)
+            throw new IllegalArgumentException("Provided core must not be null");
+        this.core = core;
+        this.perGuild = perGuild;
+    }
+
+    /**
+     * Takes the statistics and renders them.
+     *
+     * @return The metrics in the Prometheus text format
+     */
+    public String scrape()
+    {
+        StringBuilder out = new StringBuilder(8192);
+        List<AudioManager> managers = core.getAudioManagers();
+        AudioStatistics[] guilds = new AudioStatistics[perGuild ? managers.size() : 0];
+        for (int i = 0; i < guilds.length; i++)
+            guilds[i] = managers.get(i).getStatistics();
+        AudioStatistics total = core.getStatistics();
+
+        counter(out, managers, guilds, total, "jda_audio_packets_sent_total", "Packets handed to the send system.", AudioStatistics::getPacketsSent);
+        counter(out, managers, guilds, total, "jda_audio_sent_bytes_total", "Bytes handed to the send system.", AudioStatistics::getBytesSent);
+        counter(out, managers, guilds, total, "jda_audio_packets_received_total", "Datagrams that reached the receiving pipeline.", AudioStatistics::getPacketsReceived);
+        counter(out, managers, guilds, total, "jda_audio_received_bytes_total", "Bytes that reached the receiving pipeline.", AudioStatistics::getBytesReceived);
+        counter(out, managers, guilds, total, "jda_audio_late_frames_total", "Frames sent half a frame or more behind schedule.", AudioStatistics::getLateFrames);
+        counter(out, managers, guilds, total, "jda_audio_skipped_frames_total", "Frames never sent because sending fell behind.", AudioStatistics::getSkippedFrames);
+        counter(out, managers, guilds, total, "jda_audio_out_of_order_packets_total", "Received packets older than the newest one of their user.", AudioStatistics::getOutOfOrder);
+        counter(out, managers, guilds, total, "jda_audio_lost_packets_total", "Packets missing from the sequence of their user.", AudioStatistics::getLost);
+        counter(out, managers, guilds, total, "jda_audio_concealed_frames_total", "Frames the decoder made up for lost packets.", AudioStatistics::getConcealed);
+        counter(out, managers, guilds, total, "jda_audio_decode_failures_total", "Packets Opus failed to decode.", AudioStatistics::getDecodeFailures);
+        gauge(out, managers, guilds, total, "jda_audio_decoders", "Decoders held by the connections.", AudioStatistics::getDecoders);
+
+        histogram(out, "jda_audio_send_lateness_seconds", "How far behind schedule frames were sent.", total.getSendLateness());
+        histogram(out, "jda_audio_encode_seconds", "Time spent encoding a frame to Opus.", total.getEncode());
+        histogram(out, "jda_audio_encrypt_seconds", "Time spent encrypting a packet.", total.getEncrypt());
+        histogram(out, "jda_audio_decrypt_seconds", "Time spent decrypting a packet.", total.getDecrypt());
+        histogram(out, "jda_audio_decode_seconds", "Time spent decoding or concealing a frame.", total.getDecode());
+        return out.toString();
+    }
+
+    /**
+     * Serves {@link #scrape()} on {@code /metrics} of a new http server, which is started on a daemon thread.
+     *
+     * @param  address
+     *         The address to listen on
+     *
+     * @throws java.io.IOException
+     *         If the server could not be bound
+     *
+     * @return The started server, stop it with {@link HttpServer#stop(int)}
+     */
+    public HttpServer serve(InetSocketAddress address) throws IOException
+    {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange ->
+        {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        //The default executor runs the exchanges on the dispatcher thread, which is not a daemon.
+        server.setExecutor(command ->
+        {
+            Thread thread = new Thread(AudioManager.AUDIO_THREADS, command, "Prometheus Exporter");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        server.start();
+        return server;
+    }
+
+    private void counter(StringBuilder out, List<AudioManager> managers, AudioStatistics[] guilds, AudioStatistics total,
+                         String name, String help, ToLongFunction<AudioStatistics> value)
+    {
+        metric(out, managers, guilds, total, name, help, "counter", value);
+    }
+
+    private void gauge(StringBuilder out, List<AudioManager> managers, AudioStatistics[] guilds, AudioStatistics total,
+                       String name, String help, ToLongFunction<AudioStatistics> value)
+    {
+        metric(out, managers, guilds, total, name, help, "gauge", value);
+    }
+
+    private void metric(StringBuilder out, List<AudioManager> managers, AudioStatistics[] guilds, AudioStatistics total,
+                        String name, String help, String type, ToLongFunction<AudioStatistics> value)
+    {
+        header(out, name, help, type);
+        if (!perGuild)
+        {
+            out.append(name).append(' ').append(value.applyAsLong(total)).append('\n');
+            return;
+        }
+        for (int i = 0; i < guilds.length; i++)
+        {
+            out.append(name).append("{guild=\"").append(managers.get(i).getGuildId()).append("\"} ")
+               .append(value.applyAsLong(guilds[i])).append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, AudioStatistics.Histogram histogram)
+    {
+        header(out, name, help, "histogram");
+        long cumulative = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++)
+        {
+            cumulative += histogram.getBucket(i);
+            out.append(name).append("_bucket{le=\"").append(AudioStatistics.Histogram.getUpperBound(i) / 1e9).append("\"} ")
+               .append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+        out.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Pull-based exporters of the {@link net.dv8tion.jda.audio.AudioStatistics AudioStatistics} of a
+ * {@link net.dv8tion.jda.Core Core}, in the Prometheus text format or as a JMX MXBean.
+ */
+package net.dv8tion.jda.audio.metrics;
@@ -0,0 +1,259 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.manager.AudioManager;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A 16bit little-endian PCM WAV file that is written through a memory mapping.
+ * <br>Frames are copied straight into the mapped file at the position of their first sample, regions that are never
+ * written stay zero and play as silence. The file grows by mapping the next {@link #CHUNK_SIZE} bytes, so there is
+ * one mapping call per chunk instead of a write call per frame.
+ * <br>Once the writes reach the middle of a chunk, the next one is mapped and its pages are faulted in on a background
+ * thread, so that the callbacks writing the frames don't block on growing the file.
+ * <p>
+ * The header reserves room for the {@code ds64} chunk of RF64. Files whose audio doesn't fit the 4GB of plain WAV
+ * are turned into RF64 when they are closed.
+ */
+class MappedWavTrack
+{
+    static final long CHUNK_SIZE = 16 << 20;   //16MB, about 87 seconds of 48KHz stereo
+    static final int HEADER_SIZE = 80;         //RIFF 12, JUNK/ds64 36, fmt 24, data 8
+    private static final int PAGE_SIZE = 4096;
+
+    //Shared by all tracks of the JVM, mapping ahead only happens once per chunk.
+    private static final ExecutorService MAPPER = Executors.newSingleThreadExecutor(r ->
+    {
+        Thread t = new Thread(AudioManager.AUDIO_THREADS, r, "JDA WAV Recorder Mapper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    protected final Path path;
+    protected final int frameBytes;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private MappedByteBuffer mapping;
+    private long mappingStart = -1;
+    private long end = HEADER_SIZE;             //Offset after the last written byte
+    private Future<MappedByteBuffer> ahead;     //Mapping of the chunk at aheadStart, nothing is written there before it is done
+    private long aheadStart = -1;
+
+    MappedWavTrack(Path path, AudioFormat format) throws IOException
+    {
+        this.path = path;
+        this.format = format;
+        this.frameBytes = format.getChannels() * 2;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Copies audio into the file.
+     *
+     * @param  position
+     *         The position of the first sample, in sample frames from the start of the file
+     * @param  audio
+     *         The audio bytes in the format of the file
+     * @param  length
+     *         The amount of bytes
+     */
+    void write(long position, byte[] audio, int length) throws IOException
+    {
+        if (position < 0)
+            return;
+        long offset = HEADER_SIZE + position * frameBytes;
+        int written = 0;
+        while (written < length)
+        {
+            long chunkStart = offset / CHUNK_SIZE * CHUNK_SIZE;
+            if (chunkStart != mappingStart)
+            {
+                mapping = map(chunkStart);
+                mappingStart = chunkStart;
+            }
+            int amount = (int) Math.min(length - written, chunkStart + CHUNK_SIZE - offset);
+            mapping.position((int) (offset - chunkStart));
+            mapping.put(audio, written, amount);
+            written += amount;
+            offset += amount;
+        }
+        end = Math.max(end, offset);
+
+        long next = mappingStart + CHUNK_SIZE;
+        if (offset - mappingStart > CHUNK_SIZE / 2 && aheadStart != next && (ahead == null || ahead.isDone()))
+            mapAhead(next);
+    }
+
+    private MappedByteBuffer map(long chunkStart) throws IOException
+    {
+        if (chunkStart == aheadStart)
+        {
+            //Usually done long ago, it was started half a chunk earlier.
+            MappedByteBuffer buffer = awaitAhead();
+            if (buffer != null)
+                return buffer;
+        }
+        //Mapping past the end of the file grows it.
+        return channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_SIZE);
+    }
+
+    private void mapAhead(long chunkStart)
+    {
+        //Only the part after everything written so far is touched, nobody writes into this chunk before we are done.
+        final long touchFrom = Math.max(chunkStart, end) - chunkStart;
+        aheadStart = chunkStart;
+        ahead = MAPPER.submit(() ->
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_SIZE);
+            //Writing into every page faults it in now, instead of when the first frame lands on it.
+            for (long page = (touchFrom + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE; page < CHUNK_SIZE; page += PAGE_SIZE)
+                buffer.put((int) page, (byte) 0);
+            return buffer;
+        });
+    }
+
+    /**
+     * Waits for the mapping ahead to finish, even when interrupted, since it might still touch its chunk otherwise.
+     *
+     * @return The mapping, or {@code null} if it failed
+     */
+    private MappedByteBuffer awaitAhead()
+    {
+        Future<MappedByteBuffer> ahead = this.ahead;
+        this.ahead = null;
+        aheadStart = -1;
+        if (ahead == null)
+            return null;
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return ahead.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    AudioConnection.LOG.debug("Could not map ahead in recording " + path + ": " + e.getCause());
+                    return null;
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The length of the written audio.
+     *
+     * @return The position after the last written sample, in sample frames
+     */
+    long getLength()
+    {
+        return (end - HEADER_SIZE) / frameBytes;
+    }
+
+    /**
+     * Writes the header, cuts off the unused part of the last chunk and closes the file.
+     */
+    void close() throws IOException
+    {
+        try
+        {
+            awaitAhead();
+            if (mapping != null)
+                mapping.force();
+            //There is no way to unmap a buffer in Java 8, the mapping goes away once it is garbage collected.
+            mapping = null;
+            try
+            {
+                channel.truncate(end);
+            }
+            catch (IOException e)
+            {
+                //Some platforms don't allow truncating mapped files, the file keeps its trailing zeros then.
+                AudioConnection.LOG.debug("Could not truncate recording " + path + ": " + e.getMessage());
+            }
+            ByteBuffer header = header(end - HEADER_SIZE);
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            channel.force(false);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer header(long dataSize)
+    {
+        boolean rf64 = HEADER_SIZE - 8 + dataSize > 0xFFFFFFFFL;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(ascii(rf64 ? "RF64" : "RIFF"))
+              .putInt(rf64 ? -1 : (int) (HEADER_SIZE - 8 + dataSize))
+              .put(ascii("WAVE"));
+
+        //Plain WAV files keep the ds64 chunk as JUNK, so that they can be turned into RF64 in place.
+        header.put(ascii(rf64 ? "ds64" : "JUNK")).putInt(28);
+        if (rf64)
+            header.putLong(HEADER_SIZE - 8 + dataSize).putLong(dataSize).putLong(dataSize / frameBytes).putInt(0);
+        else
+            header.position(header.position() + 28);
+
+        int sampleRate = (int) format.getSampleRate();
+        header.put(ascii("fmt ")).putInt(16)
+              .putShort((short) 1)                      //PCM
+              .putShort((short) format.getChannels())
+              .putInt(sampleRate)
+              .putInt(sampleRate * frameBytes)          //Byte rate
+              .putShort((short) frameBytes)             //Block align
+              .putShort((short) 16);                    //Bits per sample
+        header.put(ascii("data")).putInt(rf64 ? -1 : (int) dataSize);
+        header.flip();
+        return header;
+    }
+
+    private static byte[] ascii(String id)
+    {
+        return id.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.AudioPacket;
+import net.dv8tion.jda.audio.OpusReceiveHandler;
+import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.utils.MiscUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * Records the Opus audio of every user into an Ogg Opus file of its own, {@code <userId>.opus}, without decoding it.
+ * <br>The receiving thread only copies the packet into a queue, the pages are written by a thread of the recorder
+ * through a {@link java.nio.channels.FileChannel FileChannel} per user. Every user gets about one write per second.
+ * <p>
+ * Each file starts with the first packet of its user, the {@code START_TIME} comment holds the time that packet
+ * arrived. Silence and lost packets are filled in, see {@link OggOpusWriter}. When a user's SSRC changes, or their
+ * RTP timestamps jump ahead of the time that passed, the file continues by the arrival time of the packets.
+ *
+ * <pre><code>
+ * OggOpusRecorder recorder = new OggOpusRecorder(Paths.get("recordings"));
+ * audioManager.addOpusReceiveHandler(recorder);
+ * ...
+ * audioManager.removeOpusReceiveHandler(recorder);
+ * recorder.close();
+ * </code></pre>
+ */
+public class OggOpusRecorder implements OpusReceiveHandler
+{
+    /**
+     * The amount of packets the queue holds by default, a second of audio of 80 users.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 4000;
+
+    protected final Path directory;
+    protected final LongPredicate userFilter;
+
+    private final ArrayBlockingQueue<Packet> queue;
+    private final Thread writerThread;
+    private final TLongObjectMap<Track> tracks = new TLongObjectHashMap<>(); //Only used by the writer thread
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private volatile long writtenBytes;    //Only written by the writer thread
+    private volatile long rejectedPackets; //Only written by the writer thread
+    private volatile boolean closed = false;
+
+    public OggOpusRecorder(Path directory)
+    {
+        this(directory, userId -> true, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a recorder that writes into the provided directory.
+     *
+     * @param  directory
+     *         The directory the files are created in, it is created if it doesn't exist
+     * @param  userFilter
+     *         Filter of the userIds that should be recorded
+     * @param  queueSize
+     *         The amount of packets that can wait for the writer thread. Packets that arrive while the queue is full
+     *         are dropped, see {@link #getDroppedPackets()}.
+     *
+     * @throws java.io.UncheckedIOException
+     *         If the directory can't be created
+     */
+    public OggOpusRecorder(Path directory, LongPredicate userFilter, int queueSize)
+    {
+        if (directory == null)
+            throw new IllegalArgumentException("Provided directory must not be null");
+        if (userFilter == null)
+            throw new IllegalArgumentException("Provided userFilter must not be null");
+        if (queueSize < 1)
+            throw new IllegalArgumentException("Provided queueSize must be at least 1");
+        try
+        {
+            Files.createDirectories(directory);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        this.directory = directory;
+        this.userFilter = userFilter;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writerThread = new Thread(AudioManager.AUDIO_THREADS, this::writeLoop, "JDA Ogg Opus Recorder " + directory.getFileName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public boolean canReceiveUser(long userId)
+    {
+        return !closed && userFilter.test(userId);
+    }
+
+    @Override
+    public void handleOpusPacket(long userId, AudioPacket packet)
+    {
+        if (closed)
+            return;
+        if (!queue.offer(new Packet(userId, packet.getSSRC(), packet.getTimestamp(), System.currentTimeMillis(), packet.getEncodedAudio())))
+            droppedPackets.incrementAndGet();
+    }
+
+    /**
+     * Stops recording, writes the remaining packets and closes all files.
+     * <br>Blocks until everything is written.
+     */
+    public void close()
+    {
+        closed = true;
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return The amount of packets that were dropped because the writer thread did not keep up
+     */
+    public long getDroppedPackets()
+    {
+        return droppedPackets.get();
+    }
+
+    /**
+     * @return The amount of packets that were not written because they were malformed, duplicates or arrived
+     *         after a later packet of the same user
+     */
+    public long getRejectedPackets()
+    {
+        return rejectedPackets;
+    }
+
+    /**
+     * @return The amount of bytes written to all files so far
+     */
+    public long getWrittenBytes()
+    {
+        return writtenBytes;
+    }
+
+    private void writeLoop()
+    {
+        List<Packet> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty())
+        {
+            try
+            {
+                Packet first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch);
+                for (Packet packet : batch)
+                    write(packet);
+                batch.clear();
+            }
+            catch (InterruptedException e)
+            {
+                //Only close() ends the recording.
+            }
+        }
+
+        tracks.forEachValue(track ->
+        {
+            closeTrack(track);
+            return true;
+        });
+        tracks.clear();
+    }
+
+    private void write(Packet packet)
+    {
+        Track track = tracks.get(packet.userId);
+        if (track == null)
+            tracks.put(packet.userId, track = openTrack(packet.userId));
+        if (track.writer == null)
+            return; //Failed to open
+        int timestamp = track.timeline.continueAt(packet.ssrc, packet.timestamp, packet.time);
+        long before = track.writer.getWrittenBytes();
+        try
+        {
+            if (track.writer.writePacket(packet.audio, timestamp))
+                track.timeline.written(timestamp, packet.time);
+            else
+            {
+                rejectedPackets++;
+            }
+            writtenBytes += track.writer.getWrittenBytes() - before;
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.fatal("Failed to record audio of user " + MiscUtil.toSnowflake(packet.userId) + ", the recording of this user stops.");
+            AudioConnection.LOG.log(e);
+            closeTrack(track);
+        }
+    }
+
+    private Track openTrack(long userId)
+    {
+        Path path = directory.resolve(MiscUtil.toSnowflake(userId) + ".opus");
+        Track track = new Track();
+        try
+        {
+            track.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            track.writer = new OggOpusWriter(track.channel, (int) (userId ^ (userId >>> 32)));
+            Map<String, String> comments = new LinkedHashMap<>();
+            comments.put("DISCORD_USER_ID", MiscUtil.toSnowflake(userId));
+            comments.put("START_TIME", Instant.now().toString());
+            track.writer.writeHeaders(comments);
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.fatal("Failed to create the recording " + path + ", the audio of this user is not recorded.");
+            AudioConnection.LOG.log(e);
+            closeTrack(track);
+        }
+        return track;
+    }
+
+    private void closeTrack(Track track)
+    {
+        if (track.writer != null)
+        {
+            long before = track.writer.getWrittenBytes();
+            try
+            {
+                track.writer.close();
+            }
+            catch (IOException e)
+            {
+                AudioConnection.LOG.log(e);
+            }
+            writtenBytes += track.writer.getWrittenBytes() - before;
+            track.writer = null;
+        }
+        try
+        {
+            if (track.channel != null)
+                track.channel.close();
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.log(e);
+        }
+        track.channel = null;
+    }
+
+    private static class Track
+    {
+        private FileChannel channel;
+        private OggOpusWriter writer;   //Null once closed or if the file could not be created
+        private final StreamTimeline timeline = new StreamTimeline();
+    }
+
+    private static class Packet
+    {
+        private final long userId;
+        private final int ssrc;
+        private final int timestamp;
+        private final long time;
+        private final byte[] audio;
+
+        private Packet(long userId, int ssrc, int timestamp, long time, byte[] audio)
+        {
+            this.userId = userId;
+            this.ssrc = ssrc;
+            this.timestamp = timestamp;
+            this.time = time;
+            this.audio = audio;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.OpusPacketInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes Opus packets into a single Ogg Opus stream (RFC 7845) without decoding them.
+ * <br>Packets are collected into pages of up to {@link #PACKETS_PER_PAGE} packets, so a page is written about once a
+ * second. The granule position of every page is the end of its last packet in 48KHz samples, counted from the first
+ * packet of the stream.
+ * <p>
+ * Gaps in the packet timestamps, caused by packet loss or by the user not speaking, are filled with silence packets
+ * so that the position in the file matches the time of the audio.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class OggOpusWriter
+{
+    /**
+     * The amount of samples libopus encoders look ahead, which players skip at the start of the stream.
+     */
+    public static final int DEFAULT_PRE_SKIP = 312;
+    /**
+     * The amount of packets collected into a page, 50 packets of 20 milliseconds make pages of a second.
+     */
+    public static final int PACKETS_PER_PAGE = 50;
+    /**
+     * Gaps longer than this, in 48KHz samples, are considered a reset of the timestamps instead of silence and are
+     * not filled. 10 minutes.
+     */
+    public static final long MAX_GAP = 10L * 60 * AudioConnection.OPUS_SAMPLE_RATE;
+
+    private static final int MAX_REJECTED = 5;  //Consecutive packets behind the previous one before the timestamps count as reset
+    private static final byte[] SILENCE = {(byte) 0xF8, (byte) 0xFF, (byte) 0xFE};
+    private static final int SILENCE_DURATION = AudioConnection.OPUS_FRAME_SIZE;
+    private static final int MAX_OVERLAP = AudioConnection.OPUS_FRAME_SIZE;   //How far the stream may run ahead of the timestamps
+    private static final int MAX_SEGMENTS = 255;
+    private static final int HEADER_SIZE = 27;
+    private static final int[] CRC_TABLE = new int[256];
+
+    static
+    {
+        //Ogg uses the CRC-32 polynomial 0x04C11DB7 without reflection, which is not what java.util.zip.CRC32 does.
+        for (int i = 0; i < 256; i++)
+        {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++)
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    protected final WritableByteChannel channel;
+    protected final int serial;
+    protected final int preSkip;
+
+    private final ByteBuffer page = ByteBuffer.allocate(HEADER_SIZE + MAX_SEGMENTS + MAX_SEGMENTS * 255).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] segments = new byte[MAX_SEGMENTS];
+    private final ByteBuffer data = ByteBuffer.allocate(MAX_SEGMENTS * 255);
+    private int segmentCount;
+    private int pagePackets;
+    private int pageSequence;
+
+    private boolean started;
+    private boolean closed;
+    private boolean hasPackets;
+    private int lastTimestamp;
+    private int lastDuration;
+    private long drift;      //How far the end of the stream is ahead of the timestamps, negative if behind
+    private int rejected;
+    private long position;   //End of the last packet, in samples since the first packet
+    private long written;
+
+    /**
+     * Creates a writer for a stereo stream.
+     *
+     * @param  channel
+     *         The channel the stream is written to, usually a {@link java.nio.channels.FileChannel FileChannel}
+     * @param  serial
+     *         The serial number of the stream, which distinguishes it from other streams of the same file
+     */
+    public OggOpusWriter(WritableByteChannel channel, int serial)
+    {
+        this(channel, serial, DEFAULT_PRE_SKIP);
+    }
+
+    public OggOpusWriter(WritableByteChannel channel, int serial, int preSkip)
+    {
+        if (channel == null)
+            throw new IllegalArgumentException("Provided channel must not be null");
+        if (preSkip < 0 || preSkip > 0xFFFF)
+            throw new IllegalArgumentException("Provided preSkip must be between 0 and 65535");
+        this.channel = channel;
+        this.serial = serial;
+        this.preSkip = preSkip;
+    }
+
+    /**
+     * Writes the identification and comment headers. Has to be called once before the first packet.
+     *
+     * @param  comments
+     *         User comments of the stream, such as {@code TITLE}, may be empty
+     *
+     * @throws java.io.IOException
+     *         If writing to the channel fails
+     */
+    public void writeHeaders(Map<String, String> comments) throws IOException
+    {
+        if (started)
+            throw new IllegalStateException("Headers were already written");
+        started = true;
+
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put("OpusHead".getBytes(StandardCharsets.US_ASCII))
+            .put((byte) 1)                                      //Version
+            .put((byte) AudioConnection.OPUS_CHANNEL_COUNT)
+            .putShort((short) preSkip)
+            .putInt(AudioConnection.OPUS_SAMPLE_RATE)           //Input sample rate, informational only
+            .putShort((short) 0)                                //Output gain
+            .put((byte) 0);                                     //Channel mapping family
+        addPacket(head.array());
+        flushPage(0x02, 0);
+
+        byte[] vendor = "JDA".getBytes(StandardCharsets.UTF_8);
+        int size = 8 + 4 + vendor.length + 4;
+        byte[][] encoded = new byte[comments.size()][];
+        int i = 0;
+        for (Map.Entry<String, String> comment : comments.entrySet())
+        {
+            encoded[i] = (comment.getKey() + "=" + comment.getValue()).getBytes(StandardCharsets.UTF_8);
+            size += 4 + encoded[i++].length;
+        }
+        if (size / 255 + 1 > MAX_SEGMENTS)
+            throw new IllegalArgumentException("Provided comments don't fit into a single page");
+        ByteBuffer tags = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        tags.put("OpusTags".getBytes(StandardCharsets.US_ASCII)).putInt(vendor.length).put(vendor).putInt(encoded.length);
+        for (byte[] comment : encoded)
+            tags.putInt(comment.length).put(comment);
+        addPacket(tags.array());
+        flushPage(0, 0);
+    }
+
+    /**
+     * Adds a packet to the stream.
+     * <br>Packets whose timestamp is not after the previous one are duplicates or arrived out of order, they are
+     * skipped since an Ogg stream can't go back in time. If several packets in a row are behind, the timestamps
+     * were reset to an earlier value and the stream continues right after the previous packet.
+     * <br>A packet that overlaps the previous one puts the stream ahead of the timestamps, which the next gap makes up
+     * for. Packets that would put it ahead by more than 20 milliseconds are skipped as well.
+     *
+     * @param  opus
+     *         The Opus packet
+     * @param  timestamp
+     *         The RTP timestamp of the packet
+     *
+     * @throws java.io.IOException
+     *         If writing to the channel fails
+     *
+     * @return True, if the packet was written
+     */
+    public boolean writePacket(byte[] opus, int timestamp) throws IOException
+    {
+        if (!started)
+            throw new IllegalStateException("Headers have to be written first");
+        if (closed)
+            throw new IllegalStateException("Writer is closed");
+        int duration = OpusPacketInfo.getFrameCount(opus) * OpusPacketInfo.getSamplesPerFrame(opus);
+        if (duration <= 0)
+            return false;   //Malformed
+
+        if (hasPackets)
+        {
+            //int subtraction handles the wrap around of the RTP timestamp.
+            long elapsed = timestamp - lastTimestamp;
+            long gap;
+            if (Math.abs(elapsed) > MAX_GAP)
+            {
+                gap = 0;    //The timestamps were reset, continue right after the previous packet.
+            }
+            else if (elapsed <= 0)
+            {
+                if (++rejected < MAX_REJECTED)
+                    return false;
+                gap = 0;    //Not a straggler, the timestamps went back for good.
+            }
+            else
+            {
+                gap = elapsed - lastDuration - drift;
+                if (gap < -MAX_OVERLAP)
+                    return false;   //Mostly audio we already have, writing it would push the stream further ahead.
+            }
+            for (; gap >= SILENCE_DURATION; gap -= SILENCE_DURATION)
+                append(SILENCE, SILENCE_DURATION);
+            //Whatever is left is less than a silence packet, or the overlap with the previous packet.
+            drift = -gap;
+        }
+        hasPackets = true;
+        rejected = 0;
+        lastTimestamp = timestamp;
+        lastDuration = duration;
+        append(opus, duration);
+        return true;
+    }
+
+    /**
+     * Writes the last page, marked as the end of the stream. Does not close the channel.
+     *
+     * @throws java.io.IOException
+     *         If writing to the channel fails
+     */
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        if (started)
+            flushPage(0x04, position);
+    }
+
+    /**
+     * @return The length of the stream so far, in 48KHz samples
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * @return The amount of bytes written to the channel so far
+     */
+    public long getWrittenBytes()
+    {
+        return written;
+    }
+
+    private void append(byte[] opus, int duration) throws IOException
+    {
+        int lacing = opus.length / 255 + 1;
+        if (segmentCount + lacing > MAX_SEGMENTS || pagePackets >= PACKETS_PER_PAGE)
+            flushPage(0, position);
+        addPacket(opus);
+        position += duration;
+    }
+
+    private void addPacket(byte[] packet)
+    {
+        int remaining = packet.length;
+        while (remaining >= 255)
+        {
+            segments[segmentCount++] = (byte) 255;
+            remaining -= 255;
+        }
+        segments[segmentCount++] = (byte) remaining;   //A packet ends with a segment shorter than 255, possibly empty
+        data.put(packet);
+        pagePackets++;
+    }
+
+    private void flushPage(int flags, long granule) throws IOException
+    {
+        page.clear();
+        page.put((byte) 'O').put((byte) 'g').put((byte) 'g').put((byte) 'S')
+            .put((byte) 0)                  //Version
+            .put((byte) flags)
+            .putLong(granule)
+            .putInt(serial)
+            .putInt(pageSequence++)
+            .putInt(0)                      //CRC, filled in below
+            .put((byte) segmentCount)
+            .put(segments, 0, segmentCount);
+        data.flip();
+        page.put(data);
+        data.clear();
+        page.flip();
+
+        int crc = 0;
+        byte[] bytes = page.array();
+        for (int i = 0; i < page.limit(); i++)
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ bytes[i]) & 0xFF];
+        page.putInt(22, crc);
+
+        while (page.hasRemaining())
+            written += channel.write(page);
+        segmentCount = 0;
+        pagePackets = 0;
+    }
+}
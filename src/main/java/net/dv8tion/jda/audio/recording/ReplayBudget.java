@@ -0,0 +1,161 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The off-heap memory shared by {@link ReplayBuffer ReplayBuffers}, handed out in blocks of {@link #BLOCK_SIZE} bytes.
+ * <br>Blocks are allocated as they are needed, so buffers of quiet connections cost nothing. Once the limit is
+ * reached, the expired blocks of all buffers are collected first, then buffers overwrite their own oldest audio
+ * instead of growing. Blocks given back are kept for re-use, direct memory is only freed by the garbage collector.
+ * <p>
+ * One budget is usually shared by the buffers of all guilds, {@link #getDefault()} is used unless another one is
+ * provided.
+ */
+public class ReplayBudget
+{
+    /**
+     * The size of a block, enough for about 5 seconds of a single speaker.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+    /**
+     * The limit of the default budget, 256MB.
+     */
+    public static final long DEFAULT_LIMIT = 256L * 1024 * 1024;
+
+    private static final ReplayBudget DEFAULT = new ReplayBudget(DEFAULT_LIMIT);
+
+    protected final long limit;
+
+    final ReferenceQueue<ReplayBuffer> collected = new ReferenceQueue<>();
+    private final Set<ReplayBuffer.Registration> buffers = new HashSet<>();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocated;
+
+    /**
+     * Creates a budget.
+     *
+     * @param  limit
+     *         The maximum amount of bytes allocated by the buffers of this budget
+     */
+    public ReplayBudget(long limit)
+    {
+        if (limit < BLOCK_SIZE)
+            throw new IllegalArgumentException("Provided limit must be at least " + BLOCK_SIZE + " bytes");
+        this.limit = limit;
+    }
+
+    /**
+     * The budget used by {@link ReplayBuffer ReplayBuffers} that are created without one, {@link #DEFAULT_LIMIT} bytes.
+     *
+     * @return The default budget
+     */
+    public static ReplayBudget getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return The amount of bytes allocated so far, including blocks that were given back
+     */
+    public synchronized long getAllocated()
+    {
+        return allocated;
+    }
+
+    /**
+     * @return The amount of bytes held by buffers
+     */
+    public synchronized long getUsed()
+    {
+        return allocated - (long) free.size() * BLOCK_SIZE;
+    }
+
+    /**
+     * Provides a cleared block.
+     *
+     * @return The block, or null if the budget is exhausted
+     */
+    ByteBuffer take()
+    {
+        List<ReplayBuffer.Registration> registered;
+        synchronized (this)
+        {
+            expunge();
+            ByteBuffer block = free.pollFirst();
+            if (block != null)
+                return block;
+            registered = allocated + BLOCK_SIZE > limit ? new ArrayList<>(buffers) : null;
+            if (registered == null)
+                allocated += BLOCK_SIZE;
+        }
+        if (registered == null)
+            return ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+        //Buffers of quiet connections never append, so they never trim themselves.
+        // Busy buffers are skipped, locking them here could deadlock with one that is taking a block right now.
+        long now = System.currentTimeMillis();
+        for (ReplayBuffer.Registration registration : registered)
+        {
+            ReplayBuffer buffer = registration.get();
+            if (buffer != null)
+                buffer.tryTrim(now);
+        }
+        synchronized (this)
+        {
+            return free.pollFirst();
+        }
+    }
+
+    /**
+     * Takes back the blocks of buffers that were garbage collected without being cleared.
+     */
+    private void expunge()
+    {
+        Reference<? extends ReplayBuffer> reference;
+        while ((reference = collected.poll()) != null)
+        {
+            ReplayBuffer.Registration registration = (ReplayBuffer.Registration) reference;
+            buffers.remove(registration);
+            registration.release(this);
+        }
+    }
+
+    synchronized void register(ReplayBuffer.Registration registration)
+    {
+        buffers.add(registration);
+    }
+
+    synchronized void giveBack(ByteBuffer block)
+    {
+        block.clear();
+        free.offerFirst(block);
+    }
+}
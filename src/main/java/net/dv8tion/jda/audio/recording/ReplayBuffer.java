@@ -0,0 +1,454 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.audio.AudioPacket;
+import net.dv8tion.jda.audio.OpusReceiveHandler;
+import net.dv8tion.jda.utils.MiscUtil;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the Opus packets of the last minutes of a connection, so that what was just said can be saved on request.
+ * <br>The packets are stored in off-heap blocks of a {@link ReplayBudget}, receiving a packet costs a copy of it and
+ * nothing else. Blocks whose packets are all older than the retention are given back to the budget once the next
+ * block is needed, on every export, and whenever the budget runs out, so that buffers of quiet connections don't
+ * hold on to their stale audio.
+ * <br>{@link #clear() Clear} a buffer that is no longer used. One that is only dropped gives its blocks back once it
+ * was garbage collected and the budget runs out.
+ * <p>
+ * {@link #exportOgg(long, Path)} writes the packets of the requested duration into an Ogg Opus file per user,
+ * with the silence between the packets filled in. Like in {@link OggOpusRecorder}, a file continues by the arrival
+ * time of the packets when the user's SSRC changes or their timestamps jump ahead. The export copies the packets out
+ * first, so receiving is only held up by that copy and never by the file I/O.
+ *
+ * <pre><code>
+ * ReplayBuffer replay = new ReplayBuffer(TimeUnit.MINUTES.toMillis(2));
+ * audioManager.addOpusReceiveHandler(replay);
+ * ...
+ * replay.exportOgg(TimeUnit.MINUTES.toMillis(2), Paths.get("clips", guildId));
+ * </code></pre>
+ */
+public class ReplayBuffer implements OpusReceiveHandler
+{
+    //Per packet: arrival time, userId, SSRC, RTP timestamp and length, followed by the Opus packet.
+    private static final int RECORD_HEADER = 8 + 8 + 4 + 4 + 2;
+
+    protected final long retention;
+    protected final ReplayBudget budget;
+
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();    //Not synchronized, so that the budget can try to trim
+    private Block current;
+
+    /**
+     * Creates a buffer in the {@link ReplayBudget#getDefault() default budget}.
+     *
+     * @param  retention
+     *         How long packets are kept, in milliseconds
+     */
+    public ReplayBuffer(long retention)
+    {
+        this(retention, ReplayBudget.getDefault());
+    }
+
+    public ReplayBuffer(long retention, ReplayBudget budget)
+    {
+        if (retention <= 0)
+            throw new IllegalArgumentException("Provided retention must be positive");
+        if (budget == null)
+            throw new IllegalArgumentException("Provided budget must not be null");
+        this.retention = retention;
+        this.budget = budget;
+        budget.register(new Registration(this, budget.collected, blocks));
+    }
+
+    @Override
+    public void handleOpusPacket(long userId, AudioPacket packet)
+    {
+        append(userId, packet, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the packets of every user received during the last {@code duration} milliseconds into Ogg Opus files,
+     * named {@code <userId>.opus}.
+     *
+     * @param  duration
+     *         How far back to export, in milliseconds. Limited by the retention.
+     * @param  directory
+     *         The directory to write the files into, it is created if it doesn't exist
+     *
+     * @throws java.io.IOException
+     *         If writing the files fails
+     *
+     * @return The amount of written files, one per user that spoke
+     */
+    public int exportOgg(long duration, Path directory) throws IOException
+    {
+        Files.createDirectories(directory);
+        TLongObjectMap<Export> exports = new TLongObjectHashMap<>();
+        try
+        {
+            forEachPacket(duration, (time, userId, ssrc, timestamp, opus) ->
+            {
+                Export export = exports.get(userId);
+                if (export == null)
+                {
+                    FileChannel channel = FileChannel.open(directory.resolve(MiscUtil.toSnowflake(userId) + ".opus"),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    try
+                    {
+                        export = new Export(channel, userId, time);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        //Not in the exports yet, so the finally below wouldn't close it.
+                        try
+                        {
+                            channel.close();
+                        }
+                        catch (IOException suppressed)
+                        {
+                            e.addSuppressed(suppressed);
+                        }
+                        throw e;
+                    }
+                    exports.put(userId, export);
+                }
+                export.write(time, ssrc, timestamp, opus);
+            });
+        }
+        finally
+        {
+            IOException[] failure = {null};
+            exports.forEachValue(export ->
+            {
+                try
+                {
+                    export.close();
+                }
+                catch (IOException e)
+                {
+                    failure[0] = e;
+                }
+                return true;
+            });
+            if (failure[0] != null)
+                throw failure[0];
+        }
+        return exports.size();
+    }
+
+    /**
+     * Writes the packets of a single user received during the last {@code duration} milliseconds as an Ogg Opus
+     * stream, e.g. to upload it without creating a file.
+     *
+     * @param  duration
+     *         How far back to export, in milliseconds. Limited by the retention.
+     * @param  userId
+     *         The user whose audio is exported
+     * @param  channel
+     *         The channel to write the stream to, it is not closed
+     *
+     * @throws java.io.IOException
+     *         If writing to the channel fails
+     *
+     * @return False, if there were no packets of the user and nothing was written
+     */
+    public boolean exportOgg(long duration, long userId, WritableByteChannel channel) throws IOException
+    {
+        Export[] export = {null};
+        forEachPacket(duration, (time, packetUserId, ssrc, timestamp, opus) ->
+        {
+            if (packetUserId != userId)
+                return;
+            if (export[0] == null)
+                export[0] = new Export(channel, userId, time);
+            export[0].write(time, ssrc, timestamp, opus);
+        });
+        if (export[0] == null)
+            return false;
+        export[0].writer.close();
+        return true;
+    }
+
+    /**
+     * Gives all blocks back to the budget. The buffer starts over with the next packet.
+     * <br>Call this once the buffer is no longer used, e.g. after removing it from its connection.
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            for (Block block : blocks)
+                budget.giveBack(block.buffer);
+            blocks.clear();
+            current = null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getRetention()
+    {
+        return retention;
+    }
+
+    /**
+     * @return The amount of off-heap bytes held by this buffer
+     */
+    public long getSize()
+    {
+        lock.lock();
+        try
+        {
+            return (long) blocks.size() * ReplayBudget.BLOCK_SIZE;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of packets that were not kept because the budget was exhausted
+     */
+    public long getDroppedPackets()
+    {
+        return droppedPackets.get();
+    }
+
+    private void append(long userId, AudioPacket packet, long now)
+    {
+        int size = RECORD_HEADER + packet.getEncodedAudioLength();
+        if (size > ReplayBudget.BLOCK_SIZE)
+            return;
+        lock.lock();
+        try
+        {
+            if (current == null || current.buffer.remaining() < size)
+            {
+                current = nextBlock(now);
+                if (current == null)
+                {
+                    droppedPackets.incrementAndGet();
+                    return;
+                }
+            }
+            ByteBuffer buffer = current.buffer;
+            buffer.putLong(now)
+                  .putLong(userId)
+                  .putInt(packet.getSSRC())
+                  .putInt(packet.getTimestamp())
+                  .putShort((short) packet.getEncodedAudioLength());
+            packet.getEncodedAudio(buffer);
+            current.lastTime = now;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the blocks back whose packets are all older than the retention, unless the buffer is busy.
+     * Called by the budget once it is exhausted.
+     */
+    void tryTrim(long now)
+    {
+        if (!lock.tryLock())
+            return;
+        try
+        {
+            trim(now);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void trim(long now)
+    {
+        while (!blocks.isEmpty() && blocks.peekFirst().lastTime < now - retention)
+        {
+            Block block = blocks.pollFirst();
+            if (block == current)
+                current = null;
+            budget.giveBack(block.buffer);
+        }
+    }
+
+    private Block nextBlock(long now)
+    {
+        trim(now);
+
+        ByteBuffer buffer = budget.take();
+        if (buffer == null)
+        {
+            //The budget is exhausted, overwrite our own oldest audio instead.
+            if (blocks.size() < 2)
+                return null;
+            buffer = blocks.pollFirst().buffer;
+            buffer.clear();
+        }
+        Block block = new Block(buffer);
+        blocks.addLast(block);
+        return block;
+    }
+
+    /**
+     * Provides the packets received since {@code now - duration}, oldest first.
+     * <br>The packets are copied onto the heap first, so the consumer runs without holding up receiving.
+     */
+    private void forEachPacket(long duration, PacketConsumer consumer) throws IOException
+    {
+        long from = System.currentTimeMillis() - Math.min(duration, retention);
+        ByteBuffer copy;
+        lock.lock();
+        try
+        {
+            trim(System.currentTimeMillis());
+            int size = 0;
+            for (Block block : blocks)
+            {
+                if (block.lastTime >= from)
+                    size += block.buffer.position();
+            }
+            copy = ByteBuffer.allocate(size);
+            for (Block block : blocks)
+            {
+                if (block.lastTime < from)
+                    continue;
+                ByteBuffer content = block.buffer.duplicate();
+                content.flip();
+                copy.put(content);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        copy.flip();
+
+        while (copy.remaining() >= RECORD_HEADER)
+        {
+            long time = copy.getLong();
+            long userId = copy.getLong();
+            int ssrc = copy.getInt();
+            int timestamp = copy.getInt();
+            byte[] opus = new byte[copy.getShort() & 0xFFFF];
+            copy.get(opus);
+            if (time >= from)
+                consumer.accept(time, userId, ssrc, timestamp, opus);
+        }
+    }
+
+    private interface PacketConsumer
+    {
+        void accept(long time, long userId, int ssrc, int timestamp, byte[] opus) throws IOException;
+    }
+
+    private static class Block
+    {
+        private final ByteBuffer buffer;
+        private long lastTime;      //Arrival of the newest packet
+
+        private Block(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Gives the blocks of a buffer back to the budget once the buffer was garbage collected without being cleared.
+     */
+    static class Registration extends WeakReference<ReplayBuffer>
+    {
+        private final ArrayDeque<Block> blocks;
+
+        private Registration(ReplayBuffer buffer, ReferenceQueue<ReplayBuffer> queue, ArrayDeque<Block> blocks)
+        {
+            super(buffer, queue);
+            this.blocks = blocks;
+        }
+
+        //Only called once the buffer is gone, nothing else uses the blocks anymore.
+        void release(ReplayBudget budget)
+        {
+            for (Block block : blocks)
+                budget.giveBack(block.buffer);
+            blocks.clear();
+        }
+    }
+
+    private static class Export
+    {
+        private final WritableByteChannel channel;
+        private final OggOpusWriter writer;
+        private final StreamTimeline timeline = new StreamTimeline();
+
+        private Export(WritableByteChannel channel, long userId, long start) throws IOException
+        {
+            this.channel = channel;
+            this.writer = new OggOpusWriter(channel, (int) (userId ^ (userId >>> 32)));
+            Map<String, String> comments = new LinkedHashMap<>();
+            comments.put("DISCORD_USER_ID", MiscUtil.toSnowflake(userId));
+            comments.put("START_TIME", Instant.ofEpochMilli(start).toString());
+            writer.writeHeaders(comments);
+        }
+
+        private void write(long time, int ssrc, int timestamp, byte[] opus) throws IOException
+        {
+            int continued = timeline.continueAt(ssrc, timestamp, time);
+            if (writer.writePacket(opus, continued))
+                timeline.written(continued, time);
+        }
+
+        private void close() throws IOException
+        {
+            try
+            {
+                writer.close();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+}
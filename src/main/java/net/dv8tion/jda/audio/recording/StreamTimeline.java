@@ -0,0 +1,80 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.dv8tion.jda.audio.recording;
+
+import net.dv8tion.jda.audio.AudioConnection;
+
+/**
+ * Turns the RTP timestamps of a user into one continuous timeline for an {@link OggOpusWriter}.
+ * <br>When the user's SSRC changes, e.g. because they reconnected, the new timestamps start anywhere. When the
+ * timestamps jump ahead by more than {@link #MAX_AHEAD} samples without the time having passed, writing them as they
+ * are would fill the jump with silence. In both cases the timeline continues by the arrival time of the packets.
+ * <p>
+ * This class is not thread-safe.
+ */
+class StreamTimeline
+{
+    //How far the timestamps may run ahead of the arrival time before they are re-based, in samples.
+    static final int MAX_AHEAD = AudioConnection.OPUS_SAMPLE_RATE;
+
+    private int ssrc;
+    private int offset;             //Added to the RTP timestamps, so that the stream continues across resets
+    private int lastTimestamp;      //Of the last written packet, offset included
+    private long lastTime;          //Arrival of the last written packet, 0 before the first one
+
+    /**
+     * @param  ssrc
+     *         The SSRC the packet was received from
+     * @param  timestamp
+     *         The RTP timestamp of the packet
+     * @param  time
+     *         The arrival time of the packet, in milliseconds
+     *
+     * @return The timestamp to write the packet at
+     */
+    int continueAt(int ssrc, int timestamp, long time)
+    {
+        if (lastTime == 0)
+        {
+            this.ssrc = ssrc;
+            return timestamp + offset;
+        }
+        int expected = lastTimestamp + (int) ((time - lastTime) * AudioConnection.OPUS_SAMPLE_RATE / 1000);
+        if (this.ssrc != ssrc)
+        {
+            //A new SSRC starts its timestamps anywhere, continue by the time that passed instead.
+            this.ssrc = ssrc;
+            offset = expected - timestamp;
+        }
+        else if (timestamp + offset - expected > MAX_AHEAD)
+        {
+            //The timestamps jumped ahead without the time having passed, don't fill the jump with silence.
+            offset = expected - timestamp;
+        }
+        return timestamp + offset;
+    }
+
+    /**
+     * Has to be called once the writer accepted a packet at the timestamp returned by {@link #continueAt(int, int, long)}.
+     */
+    void written(int timestamp, long time)
+    {
+        lastTimestamp = timestamp;
+        lastTime = time;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.recording;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.AudioReceiveHandler;
+import net.dv8tion.jda.audio.CombinedAudio;
+import net.dv8tion.jda.audio.UserAudio;
+import net.dv8tion.jda.utils.MiscUtil;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * Records the received audio into WAV files, one track per user ({@code <userId>.wav}) and one of the combined audio
+ * ({@code combined.wav}). All tracks share a timeline that starts when the recorder is created, so they can be
+ * laid on top of each other in an editor.
+ * <br>The frames are copied into {@link MappedWavTrack memory-mapped files} right in the callbacks, which costs
+ * a copy per frame rather than a write call. Files larger than 4GB are written as RF64.
+ * <p>
+ * Every user's frames are placed by their {@link UserAudio#getTimestamp() RTP timestamp}, so lost packets and silence
+ * leave gaps of silence instead of shifting the rest of the track. The timestamps are mapped to the timeline when a
+ * user's first frame arrives, and again whenever they drift away from the arrival time by more than
+ * {@link #RESYNC_THRESHOLD} milliseconds, e.g. because the user reconnected.
+ * <br>Combined audio lags behind by the {@link #setCombinedDelay(long) combined delay}, which the recorder takes back out.
+ *
+ * <pre><code>
+ * WavRecorder recorder = new WavRecorder(Paths.get("recordings"), true, true);
+ * audioManager.setReceivingHandler(recorder);
+ * ...
+ * audioManager.setReceivingHandler(null);
+ * recorder.close();
+ * </code></pre>
+ */
+public class WavRecorder implements AudioReceiveHandler
+{
+    /**
+     * Drift between a user's RTP timestamps and the arrival of their frames, in milliseconds, after which the frames
+     * are placed by their arrival again.
+     */
+    public static final long RESYNC_THRESHOLD = 1000;
+    /**
+     * The format recorded by default, 48KHz 16bit stereo little-endian PCM.
+     */
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(48000.0f, 16, 2, true, false);
+
+    private static final int MAX_FRAME_BYTES = 120 * 48 * 2 * 2;   //The longest Opus packet, 120ms of 48KHz stereo
+
+    protected final Path directory;
+    protected final AudioFormat format;
+    protected final boolean recordUsers;
+    protected final boolean recordCombined;
+    protected final LongPredicate userFilter;
+
+    private final long start = System.nanoTime();
+    private final int sampleRate;
+    private final AtomicLong resyncs = new AtomicLong();
+    private final TLongObjectMap<UserTrack> userTracks = new TLongObjectHashMap<>();
+    private final byte[] userBuffer = new byte[MAX_FRAME_BYTES];      //Guarded by userTracks
+    private final byte[] combinedBuffer = new byte[MAX_FRAME_BYTES];  //Guarded by this
+    private MappedWavTrack combinedTrack;
+    private long combinedPosition = -1;
+    private volatile long combinedDelay = 40;
+    private volatile boolean closed = false;
+
+    public WavRecorder(Path directory, boolean recordUsers, boolean recordCombined)
+    {
+        this(directory, DEFAULT_FORMAT, recordUsers, recordCombined, userId -> true);
+    }
+
+    /**
+     * Creates a recorder that writes into the provided directory.
+     *
+     * @param  directory
+     *         The directory the files are created in, it is created if it doesn't exist
+     * @param  format
+     *         The format to record, 16bit signed PCM in a sample rate supported by
+     *         {@link AudioReceiveHandler#getOutputFormat()}. It is recorded little-endian, as WAV requires.
+     * @param  recordUsers
+     *         Whether a track is recorded for every user
+     * @param  recordCombined
+     *         Whether the combined audio is recorded
+     * @param  userFilter
+     *         Filter of the userIds that are recorded, in their own tracks as well as in the combined audio
+     *
+     * @throws java.io.UncheckedIOException
+     *         If the directory can't be created
+     */
+    public WavRecorder(Path directory, AudioFormat format, boolean recordUsers, boolean recordCombined, LongPredicate userFilter)
+    {
+        if (directory == null)
+            throw new IllegalArgumentException("Provided directory must not be null");
+        if (format == null || format.getSampleSizeInBits() != 16 || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED)
+            throw new IllegalArgumentException("Provided format must be 16bit signed PCM");
+        if (userFilter == null)
+            throw new IllegalArgumentException("Provided userFilter must not be null");
+        try
+        {
+            Files.createDirectories(directory);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        this.directory = directory;
+        this.format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+        this.recordUsers = recordUsers;
+        this.recordCombined = recordCombined;
+        this.userFilter = userFilter;
+        this.sampleRate = (int) format.getSampleRate();
+    }
+
+    /**
+     * The delay of the combined audio, which should match
+     * {@link net.dv8tion.jda.manager.AudioManager#setCombinedDelay(long) AudioManager.setCombinedDelay(long)}
+     * so that the combined track lines up with the user tracks. Has to be set before the first frame.
+     *
+     * @param  delay
+     *         The delay in milliseconds, default 40
+     */
+    public void setCombinedDelay(long delay)
+    {
+        this.combinedDelay = Math.max(0, delay);
+    }
+
+    @Override
+    public AudioFormat getOutputFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public boolean canReceiveCombined()
+    {
+        return recordCombined && !closed;
+    }
+
+    @Override
+    public boolean canReceiveUser()
+    {
+        return recordUsers && !closed;
+    }
+
+    @Override
+    public boolean shouldReceiveUser(long userId)
+    {
+        return userFilter.test(userId);
+    }
+
+    @Override
+    public boolean canReceivePooled()
+    {
+        //Frames are copied into the files during the callback.
+        return true;
+    }
+
+    @Override
+    public void handleUserAudio(UserAudio userAudio)
+    {
+        synchronized (userTracks)
+        {
+            if (closed)
+                return;
+            long userId = userAudio.getUserIdLong();
+            UserTrack track = userTracks.get(userId);
+            if (track == null)
+                userTracks.put(userId, track = new UserTrack(open(MiscUtil.toSnowflake(userId) + ".wav")));
+            if (track.file == null)
+                return;
+            long position = track.place(userAudio.getTimestamp(), now());
+            int length = userAudio.getAudioData(1.0, userBuffer, 0);
+            try
+            {
+                track.file.write(position, userBuffer, length);
+            }
+            catch (IOException e)
+            {
+                AudioConnection.LOG.fatal("Failed to record audio of user " + MiscUtil.toSnowflake(userId) + ", the recording of this user stops.");
+                AudioConnection.LOG.log(e);
+                close(track.file);
+                track.file = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleCombinedAudio(CombinedAudio combinedAudio)
+    {
+        if (closed)
+            return;
+        if (combinedPosition < 0)
+        {
+            combinedTrack = open("combined.wav");
+            combinedPosition = Math.max(0, now() - combinedDelay * sampleRate / 1000);
+        }
+        if (combinedTrack == null)
+            return;
+        int length = combinedAudio.getAudioData(1.0, combinedBuffer, 0);
+        try
+        {
+            combinedTrack.write(combinedPosition, combinedBuffer, length);
+            combinedPosition += length / combinedTrack.frameBytes;
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.fatal("Failed to record the combined audio, the recording of it stops.");
+            AudioConnection.LOG.log(e);
+            close(combinedTrack);
+            combinedTrack = null;
+        }
+    }
+
+    /**
+     * Stops recording and finishes all files.
+     * <br>The handler should be removed from the {@link net.dv8tion.jda.manager.AudioManager AudioManager} first.
+     */
+    public void close()
+    {
+        closed = true;
+        synchronized (userTracks)
+        {
+            userTracks.forEachValue(track ->
+            {
+                if (track.file != null)
+                    close(track.file);
+                track.file = null;
+                return true;
+            });
+            userTracks.clear();
+        }
+        synchronized (this)
+        {
+            if (combinedTrack != null)
+                close(combinedTrack);
+            combinedTrack = null;
+        }
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return The amount of times a user's frames were placed by their arrival again, see {@link #RESYNC_THRESHOLD}
+     */
+    public long getResyncs()
+    {
+        return resyncs.get();
+    }
+
+    private long now()
+    {
+        return (System.nanoTime() - start) * sampleRate / 1_000_000_000L;
+    }
+
+    private MappedWavTrack open(String name)
+    {
+        Path path = directory.resolve(name);
+        try
+        {
+            return new MappedWavTrack(path, format);
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.fatal("Failed to create the recording " + path + ", it is not recorded.");
+            AudioConnection.LOG.log(e);
+            return null;
+        }
+    }
+
+    private static void close(MappedWavTrack track)
+    {
+        try
+        {
+            track.close();
+        }
+        catch (IOException e)
+        {
+            AudioConnection.LOG.fatal("Failed to finish the recording " + track.path);
+            AudioConnection.LOG.log(e);
+        }
+    }
+
+    private class UserTrack
+    {
+        private MappedWavTrack file;
+        private boolean anchored = false;
+        private int lastTimestamp;
+        private long extendedTimestamp;     //RTP timestamp extended to 64bit so that we survive the 32bit wrap around.
+        private long anchorTimestamp;
+        private long anchorPosition;
+
+        private UserTrack(MappedWavTrack file)
+        {
+            this.file = file;
+        }
+
+        /**
+         * Maps the RTP timestamp of a frame to its position on the timeline, in sample frames.
+         */
+        private long place(int timestamp, long now)
+        {
+            if (!anchored)
+                return anchor(timestamp, now);
+            extendedTimestamp += timestamp - lastTimestamp; //int subtraction handles the wrap around
+            lastTimestamp = timestamp;
+            long position = anchorPosition + (extendedTimestamp - anchorTimestamp) * sampleRate / AudioConnection.OPUS_SAMPLE_RATE;
+            if (Math.abs(position - now) > RESYNC_THRESHOLD * sampleRate / 1000)
+            {
+                resyncs.incrementAndGet();
+                return anchor(timestamp, now);
+            }
+            return position;
+        }
+
+        private long anchor(int timestamp, long now)
+        {
+            anchored = true;
+            lastTimestamp = timestamp;
+            extendedTimestamp = timestamp & 0xFFFFFFFFL;
+            anchorTimestamp = extendedTimestamp;
+            anchorPosition = now;
+            return now;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link VoiceTransport} over a non-blocking {@link java.nio.channels.DatagramChannel DatagramChannel} that is
+ * connected to the voice server.
+ * <br>Datagrams of other senders are filtered by the operating system, and direct buffers are sent and received
+ * without copying them to the heap first. Sending never blocks: a datagram that does not fit into the send buffer
+ * of the socket is dropped, like the network would.
+ *
+ * <pre><code>
+ * core.setTransportFactory(ChannelTransport::new);
+ * </code></pre>
+ */
+public class ChannelTransport implements VoiceTransport
+{
+    protected final InetSocketAddress server;
+    protected final DatagramChannel channel;
+    protected final Selector selector;     //Only used by the receiving thread.
+
+    public ChannelTransport(InetSocketAddress server) throws IOException
+    {
+        if (server == null)
+            throw new IllegalArgumentException("Provided server must not be null");
+        this.server = server;
+        this.channel = DatagramChannel.open();
+        try
+        {
+            channel.connect(server);
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InetSocketAddress getServerAddress()
+    {
+        return server;
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException
+    {
+        try
+        {
+            if (channel.write(packet) == 0)
+                packet.position(packet.limit()); //Dropped, the send buffer is full.
+        }
+        catch (ClosedChannelException e)
+        {
+            throw new SocketException("Transport is closed");
+        }
+    }
+
+    @Override
+    public int receive(ByteBuffer target, int timeout) throws IOException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try
+        {
+            while (true)
+            {
+                int length = channel.read(target);
+                if (length > 0)
+                    return length;
+
+                long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (wait <= 0)
+                    return -1;
+                selector.select(wait);
+                selector.selectedKeys().clear();
+            }
+        }
+        catch (ClosedChannelException | ClosedSelectorException e)
+        {
+            throw new SocketException("Transport is closed");
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ignored) {}
+        try
+        {
+            selector.close();
+        }
+        catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.transport;
+
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One end of an in-memory datagram link, created in pairs by {@link #pair(InetSocketAddress, InetSocketAddress)}.
+ * <br>What one end sends the other end receives, without sockets or the network. This allows running voice
+ * connections and a voice server in the same JVM, e.g. for tests and load tests that should not depend on the
+ * network stack of the machine.
+ *
+ * <p>Every end has a bounded queue of slots for the datagrams sent to it. The slots are allocated once and reused,
+ * so a link does not allocate while it is busy. Datagrams sent to a full queue or a closed end are dropped,
+ * like the network would, and counted by {@link #getDropped()}.
+ *
+ * <pre><code>
+ * core.setTransportFactory(server -&gt;
+ * {
+ *     LoopbackTransport[] link = LoopbackTransport.pair(new InetSocketAddress("127.0.0.1", 1), server);
+ *     voiceServer.accept(link[1]);
+ *     return link[0];
+ * });
+ * </code></pre>
+ */
+public class LoopbackTransport implements VoiceTransport
+{
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int MAX_DATAGRAM_LENGTH = 2048;
+
+    protected final InetSocketAddress localAddress;
+    protected final InetSocketAddress remoteAddress;
+    protected LoopbackTransport peer;
+    protected volatile boolean closed = false;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final byte[][] slots;
+    private final int[] lengths;
+    private int head = 0;
+    private int count = 0;
+
+    protected LoopbackTransport(InetSocketAddress localAddress, InetSocketAddress remoteAddress, int capacity)
+    {
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.slots = new byte[capacity][];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Creates two linked ends with the {@link #DEFAULT_CAPACITY default capacity}.
+     *
+     * @param  first
+     *         The address of the first end
+     * @param  second
+     *         The address of the second end
+     *
+     * @return The two ends, the first end sends to the second one and the other way around
+     */
+    public static LoopbackTransport[] pair(InetSocketAddress first, InetSocketAddress second)
+    {
+        return pair(first, second, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates two linked ends.
+     *
+     * @param  first
+     *         The address of the first end
+     * @param  second
+     *         The address of the second end
+     * @param  capacity
+     *         How many datagrams each end can hold until they are received
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If an address is null or the capacity is not positive
+     *
+     * @return The two ends, the first end sends to the second one and the other way around
+     */
+    public static LoopbackTransport[] pair(InetSocketAddress first, InetSocketAddress second, int capacity)
+    {
+        if (first == null || second == null)
+            throw new IllegalArgumentException("Provided addresses must not be null");
+        if (capacity < 1)
+            throw new IllegalArgumentException("Provided capacity must be positive");
+        LoopbackTransport firstEnd = new LoopbackTransport(first, second, capacity);
+        LoopbackTransport secondEnd = new LoopbackTransport(second, first, capacity);
+        firstEnd.peer = secondEnd;
+        secondEnd.peer = firstEnd;
+        return new LoopbackTransport[] { firstEnd, secondEnd };
+    }
+
+    public LoopbackTransport getPeer()
+    {
+        return peer;
+    }
+
+    public InetSocketAddress getLocalAddress()
+    {
+        return localAddress;
+    }
+
+    @Override
+    public InetSocketAddress getServerAddress()
+    {
+        return remoteAddress;
+    }
+
+    /**
+     * @return The amount of datagrams sent to this end that were dropped, because its queue was full or it was closed
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If the datagram is longer than {@link #MAX_DATAGRAM_LENGTH}
+     */
+    @Override
+    public void send(ByteBuffer packet) throws SocketException
+    {
+        if (closed)
+            throw new SocketException("Transport is closed");
+        if (packet.remaining() > MAX_DATAGRAM_LENGTH)
+            throw new IllegalArgumentException("Provided packet must not be longer than " + MAX_DATAGRAM_LENGTH + " bytes");
+        peer.offer(packet);
+    }
+
+    @Override
+    public int receive(ByteBuffer target, int timeout) throws SocketException
+    {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try
+        {
+            while (count == 0)
+            {
+                if (closed)
+                    throw new SocketException("Transport is closed");
+                if (remaining <= 0)
+                    return -1;
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            if (closed)
+                throw new SocketException("Transport is closed");
+
+            int length = Math.min(lengths[head], target.remaining());
+            target.put(slots[head], 0, length);
+            head = (head + 1) % slots.length;
+            count--;
+            return length;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void offer(ByteBuffer packet)
+    {
+        lock.lock();
+        try
+        {
+            if (closed || count == slots.length)
+            {
+                dropped.incrementAndGet();
+                packet.position(packet.limit());
+                return;
+            }
+            int tail = (head + count) % slots.length;
+            if (slots[tail] == null)
+                slots[tail] = new byte[MAX_DATAGRAM_LENGTH];    //Allocated on first use, so idle links stay small.
+            lengths[tail] = packet.remaining();
+            packet.get(slots[tail], 0, lengths[tail]);
+            count++;
+            notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Closes this end. The other end stays open, but what it sends from now on is dropped.
+     */
+    @Override
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            count = 0;
+            notEmpty.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * The default {@link VoiceTransport}: a blocking {@link java.net.DatagramSocket DatagramSocket}.
+ */
+public class SocketTransport implements VoiceTransport
+{
+    protected final InetSocketAddress server;
+    protected final DatagramSocket socket;
+
+    //Only used by the receiving thread.
+    private final DatagramPacket receivePacket = new DatagramPacket(new byte[0], 0);
+    private int timeout;
+
+    public SocketTransport(InetSocketAddress server) throws IOException
+    {
+        if (server == null)
+            throw new IllegalArgumentException("Provided server must not be null");
+        this.server = server;
+        this.socket = new DatagramSocket();   //Use UDP, not TCP.
+    }
+
+    /**
+     * The socket of this transport, e.g. for send systems that still use
+     * {@link net.dv8tion.jda.audio.factory.IPacketProvider#getUdpSocket() IPacketProvider.getUdpSocket()}.
+     *
+     * @return The socket
+     */
+    public DatagramSocket getSocket()
+    {
+        return socket;
+    }
+
+    @Override
+    public InetSocketAddress getServerAddress()
+    {
+        return server;
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException
+    {
+        if (packet.hasArray())
+        {
+            socket.send(new DatagramPacket(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining(), server));
+        }
+        else
+        {
+            byte[] data = new byte[packet.remaining()];
+            packet.duplicate().get(data);
+            socket.send(new DatagramPacket(data, data.length, server));
+        }
+        packet.position(packet.limit());
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException
+    {
+        if (packet.getAddress() == null)
+            packet.setSocketAddress(server);
+        socket.send(packet);
+    }
+
+    @Override
+    public int receive(ByteBuffer target, int timeout) throws IOException
+    {
+        if (this.timeout != timeout)
+        {
+            socket.setSoTimeout(timeout);
+            this.timeout = timeout;
+        }
+
+        byte[] data = target.hasArray() ? target.array() : new byte[target.remaining()];
+        int offset = target.hasArray() ? target.arrayOffset() + target.position() : 0;
+        receivePacket.setData(data, offset, target.remaining());
+        try
+        {
+            socket.receive(receivePacket);
+        }
+        catch (SocketTimeoutException e)
+        {
+            return -1;
+        }
+
+        int length = receivePacket.getLength();
+        if (target.hasArray())
+            target.position(target.position() + length);
+        else
+            target.put(data, 0, length);
+        return length;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close()
+    {
+        socket.close();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * The datagram path between an audio connection and its voice server: IP discovery, sending, receiving and closing.
+ * <br>Instances are created by a {@link VoiceTransportFactory} once the voice server told JDA where to send to.
+ *
+ * <p>{@link #send(ByteBuffer)} may be called by several threads at once, {@link #receive(ByteBuffer, int)} is only
+ * called by the receiving thread of the connection.
+ * <br>Once the transport is closed both throw a {@link java.net.SocketException SocketException}, which the
+ * send and receive loops take as the signal to stop.
+ */
+public interface VoiceTransport extends Closeable
+{
+    /**
+     * The length of the IP discovery packet, taken from
+     * https://github.com/Rapptz/discord.py/blob/async/discord/voice_client.py#L208
+     */
+    int DISCOVERY_LENGTH = 70;
+
+    /**
+     * The voice server this transport sends to.
+     *
+     * @return The address of the voice server
+     */
+    InetSocketAddress getServerAddress();
+
+    /**
+     * Sends the remaining bytes of the provided buffer as one datagram to the voice server.
+     * <br>Like UDP, a datagram that can't be sent right now may be dropped silently.
+     *
+     * @param  packet
+     *         The datagram, from its position to its limit
+     *
+     * @throws java.net.SocketException
+     *         If the transport is closed
+     * @throws java.io.IOException
+     *         If the datagram could not be sent, e.g. a {@link java.net.NoRouteToHostException NoRouteToHostException}
+     */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Sends the data of the provided packet to the voice server. The address of the packet is ignored.
+     *
+     * @param  packet
+     *         The datagram to send
+     *
+     * @throws java.io.IOException
+     *         See {@link #send(ByteBuffer)}
+     */
+    default void send(DatagramPacket packet) throws IOException
+    {
+        send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+    }
+
+    /**
+     * Receives the next datagram from the voice server into the provided buffer, starting at its position.
+     * <br>Bytes of the datagram that don't fit are discarded.
+     *
+     * @param  target
+     *         The buffer to receive into, its position is advanced by the received length
+     * @param  timeout
+     *         The maximum time to wait in milliseconds, must be positive
+     *
+     * @throws java.net.SocketException
+     *         If the transport is closed
+     * @throws java.io.IOException
+     *         If receiving failed
+     *
+     * @return The length of the received datagram, or -1 if none arrived in time
+     */
+    int receive(ByteBuffer target, int timeout) throws IOException;
+
+    /**
+     * Whether {@link #close()} was called.
+     *
+     * @return True, if this transport is closed
+     */
+    boolean isClosed();
+
+    /**
+     * Closes this transport. Threads blocked in {@link #receive(ByteBuffer, int)} return with an exception.
+     */
+    @Override
+    void close();
+
+    /**
+     * Performs the IP discovery: sends our ssrc to the voice server, which responds with the external address
+     * that our packets came from. This also punches the hole into the NAT wall for the packets of the server,
+     * which is called UDP hole punching.
+     *
+     * @param  ssrc
+     *         The ssrc the voice server assigned to us
+     *
+     * @throws java.net.SocketTimeoutException
+     *         If the voice server did not respond within one second
+     * @throws java.io.IOException
+     *         If sending or receiving failed
+     *
+     * @return Our external address as seen by the voice server
+     */
+    default InetSocketAddress discover(int ssrc) throws IOException
+    {
+        //Create a byte array of length 70 containing our ssrc.
+        ByteBuffer buffer = ByteBuffer.allocate(DISCOVERY_LENGTH);
+        buffer.putInt(ssrc);                            //Put the ssrc that we were given into the packet to send back to discord.
+        buffer.clear();
+        send(buffer);
+
+        //Discord responds to our packet, returning a packet containing our external ip and the port we connected through.
+        buffer.clear();                                 //Give a buffer the same size as the one we sent.
+        if (receive(buffer, 1000) < 0)
+            throw new SocketTimeoutException("The voice server did not respond to the IP discovery");
+
+        //The byte array returned by discord containing our external ip and the port that we used
+        //to connect to discord with.
+        byte[] received = buffer.array();
+
+        //Example string:"   121.83.253.66                                                   ��"
+        //You'll notice that there are 4 leading nulls and a large amount of nulls between the the ip and
+        // the last 2 bytes. Not sure why these exist.  The last 2 bytes are the port. More info below.
+        String ourIP = new String(received);            //Puts the entire byte array in. nulls are converted to spaces.
+        ourIP = ourIP.substring(4, ourIP.length() - 2); //Removes the port that is stuck on the end of this string. (last 2 bytes are the port)
+        ourIP = ourIP.trim();                           //Removes the extra whitespace(nulls) attached to both sides of the IP
+
+        //The port exists as the last 2 bytes in the packet data, and is encoded as an UNSIGNED short.
+        //Furthermore, it is stored in Little Endian instead of normal Big Endian.
+        //We will first need to convert the byte order from Little Endian to Big Endian (reverse the order)
+        //Then we will need to deal with the fact that the bytes represent an unsigned short.
+        //Java cannot deal with unsigned types, so we will have to promote the short to a higher type.
+        //Options:  char or int.  I will be doing int because it is just easier to work with.
+        byte[] portBytes = new byte[2];                 //The port is exactly 2 bytes in size.
+        portBytes[0] = received[received.length - 1];   //Get the second byte and store as the first
+        portBytes[1] = received[received.length - 2];   //Get the first byte and store as the second.
+        //We have now effectively converted from Little Endian -> Big Endian by reversing the order.
+
+        //For more information on how this is converting from an unsigned short to an int refer to:
+        //http://www.darksleep.com/player/JavaAndUnsignedTypes.html
+        int firstByte = (0x000000FF & ((int) portBytes[0]));    //Promotes to int and handles the fact that it was unsigned.
+        int secondByte = (0x000000FF & ((int) portBytes[1]));   //
+
+        //Combines the 2 bytes back together.
+        int ourPort = (firstByte << 8) | secondByte;
+
+        return new InetSocketAddress(ourIP, ourPort);
+    }
+}
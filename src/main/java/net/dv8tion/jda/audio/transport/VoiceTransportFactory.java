@@ -0,0 +1,43 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.audio.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Creates the {@link VoiceTransport} of an audio connection.
+ * <br>The built-in transports can be used through their constructors, e.g. {@code ChannelTransport::new}.
+ *
+ * @see net.dv8tion.jda.Core#setTransportFactory(VoiceTransportFactory)
+ */
+@FunctionalInterface
+public interface VoiceTransportFactory
+{
+    /**
+     * Creates a new transport to the provided voice server.
+     *
+     * @param  server
+     *         The address of the voice server, as provided by the voice websocket
+     *
+     * @throws java.io.IOException
+     *         If the transport could not be opened
+     *
+     * @return A new, open transport
+     */
+    VoiceTransport create(InetSocketAddress server) throws IOException;
+}
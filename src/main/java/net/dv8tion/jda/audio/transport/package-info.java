@@ -0,0 +1,22 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The datagram transports that carry the voice packets between JDA and the voice server.
+ * <br>{@link net.dv8tion.jda.audio.transport.SocketTransport SocketTransport} is used by default, another one can be
+ * selected with {@link net.dv8tion.jda.Core#setTransportFactory(VoiceTransportFactory) Core.setTransportFactory(...)}.
+ */
+package net.dv8tion.jda.audio.transport;
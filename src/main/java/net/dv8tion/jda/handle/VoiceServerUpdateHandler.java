@@ -20,6 +20,7 @@ import net.dv8tion.jda.Core;
 import net.dv8tion.jda.audio.AudioConnection;
 import net.dv8tion.jda.audio.AudioWebSocket;
 import net.dv8tion.jda.manager.AudioManager;
+import net.dv8tion.jda.utils.MiscUtil;
 import org.json.JSONObject;
 
 public class VoiceServerUpdateHandler
@@ -37,7 +38,7 @@ public class VoiceServerUpdateHandler
         if (sessionId == null || sessionId.isEmpty())
             throw new IllegalArgumentException("Provided session id was null or empty!");
 
-        final String guildId = content.getString("guild_id");
+        final long guildId = MiscUtil.parseSnowflake(content.getString("guild_id"));
         core.getConnectionManager().removeAudioConnection(guildId);
 
         if (content.isNull("endpoint"))
@@ -50,11 +51,10 @@ public class VoiceServerUpdateHandler
 
         String endpoint = content.getString("endpoint");
         String token = content.getString("token");
-        if (guildId == null)
-            throw new IllegalArgumentException("Attempted to start audio connection with Guild that doesn't exist! JSON: " + content);
 
-        //Strip the port from the endpoint.
-        endpoint = endpoint.replace(":80", "");
+        //Strip the port from the endpoint, unless it is a complete URI of a local voice server.
+        if (!endpoint.contains("://"))
+            endpoint = endpoint.replace(":80", "");
 
         AudioManager audioManager = core.getAudioManager(guildId);
         synchronized (audioManager.CONNECTION_LOCK) //Synchronized to prevent attempts to close while setting up initial objects.
@@ -63,7 +63,7 @@ public class VoiceServerUpdateHandler
                 audioManager.prepareForRegionChange();
             
             AudioWebSocket socket = new AudioWebSocket(audioManager.getListenerProxy(), endpoint, core, guildId, sessionId, token, audioManager.isAutoReconnect());
-            AudioConnection connection = new AudioConnection(socket, audioManager.getQueuedAudioConnectionId(), core.getSendFactory());
+            AudioConnection connection = new AudioConnection(socket, audioManager.getQueuedAudioConnectionIdLong(), core.getSendFactory(), core.getCombinedAudioScheduler());
             audioManager.setAudioConnection(connection);
             socket.startConnection();
 
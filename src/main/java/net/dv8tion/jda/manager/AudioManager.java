@@ -17,18 +17,31 @@
 package net.dv8tion.jda.manager;
 
 import com.sun.jna.Platform;
+import gnu.trove.TCollections;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import net.dv8tion.jda.Core;
 import net.dv8tion.jda.audio.AudioConnection;
+import net.dv8tion.jda.audio.AudioCounters;
 import net.dv8tion.jda.audio.AudioReceiveHandler;
 import net.dv8tion.jda.audio.AudioSendHandler;
+import net.dv8tion.jda.audio.AudioStatistics;
+import net.dv8tion.jda.audio.NetworkImpairment;
+import net.dv8tion.jda.audio.OpusReceiveHandler;
+import net.dv8tion.jda.audio.VoiceMeter;
+import net.dv8tion.jda.audio.VoiceMeterListener;
 import net.dv8tion.jda.audio.hooks.ConnectionListener;
 import net.dv8tion.jda.audio.hooks.ConnectionStatus;
 import net.dv8tion.jda.audio.hooks.ListenerProxy;
+import net.dv8tion.jda.utils.MiscUtil;
 import net.dv8tion.jda.utils.NativeUtil;
 import net.dv8tion.jda.utils.SimpleLog;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AudioManager
 {
@@ -45,14 +58,23 @@ public class AudioManager
     public final Object CONNECTION_LOCK = new Object();
 
     protected final Core core;
-    protected String guildId;
+    protected long guildId;
     protected AudioConnection audioConnection = null;
-    protected String queuedAudioConnectionId = null; //String id of VoiceChannel
+    protected long queuedAudioConnectionId = 0; //Id of VoiceChannel, 0 if none is queued
 
     protected AudioSendHandler sendHandler;
     protected AudioReceiveHandler receiveHandler;
+    protected final List<OpusReceiveHandler> opusHandlers = new CopyOnWriteArrayList<>();
     protected ListenerProxy connectionListener = new ListenerProxy();
+    protected VoiceMeterListener meterListener;
+    protected boolean decodeSilence = true;
     protected long queueTimeout = 100;
+    protected long combinedDelay = 40;
+    protected int combinedMixLimit = 0;
+    protected final TLongSet mixMinusUsers = TCollections.synchronizedSet(new TLongHashSet());
+    protected NetworkImpairment receiveImpairment;
+    protected NetworkImpairment sendImpairment;
+    protected final AudioCounters counters = new AudioCounters();
     protected boolean shouldReconnect = true;
 
     protected boolean selfMuted = false;
@@ -60,20 +82,35 @@ public class AudioManager
 
     protected long timeout = DEFAULT_CONNECTION_TIMEOUT;
 
-    public AudioManager(Core core, String guildId)
+    public AudioManager(Core core, long guildId)
     {
         this.core = core;
         this.guildId = guildId;
         init(); //Just to make sure that the audio libs have been initialized.
     }
 
-    public void setGuild(String guildId)
+    public AudioManager(Core core, String guildId)
+    {
+        this(core, MiscUtil.parseSnowflake(guildId));
+    }
+
+    public void setGuild(long guildId)
     {
         this.guildId = guildId;
     }
 
+    public void setGuild(String guildId)
+    {
+        setGuild(MiscUtil.parseSnowflake(guildId));
+    }
+
     
     public void openAudioConnection(String channelId)
+    {
+        openAudioConnection(MiscUtil.parseSnowflake(channelId));
+    }
+
+    public void openAudioConnection(long channelId)
     {
 
         if (!AUDIO_SUPPORTED)
@@ -90,7 +127,7 @@ public class AudioManager
             //Connection is already established, move to specified channel
 
             //If we are already connected to this VoiceChannel, then do nothing.
-            if (channelId.equals(audioConnection.getChannelId()))
+            if (channelId == audioConnection.getChannelIdLong())
                 return;
 
             core.getConnectionManager().queueAudioConnect(guildId, channelId);
@@ -109,7 +146,7 @@ public class AudioManager
         synchronized (CONNECTION_LOCK)
         {
             core.getConnectionManager().removeAudioConnection(guildId);
-            this.queuedAudioConnectionId = null;
+            this.queuedAudioConnectionId = 0;
             if (audioConnection == null)
                 return;
             this.audioConnection.close(reason);
@@ -119,6 +156,11 @@ public class AudioManager
 
     
     public String getGuildId()
+    {
+        return MiscUtil.toSnowflake(guildId);
+    }
+
+    public long getGuildIdLong()
     {
         return guildId;
     }
@@ -126,11 +168,19 @@ public class AudioManager
     
     public boolean isAttemptingToConnect()
     {
-        return queuedAudioConnectionId != null;
+        return queuedAudioConnectionId != 0;
     }
 
     
     public String getQueuedAudioConnectionId()
+    {
+        return queuedAudioConnectionId == 0 ? null : MiscUtil.toSnowflake(queuedAudioConnectionId);
+    }
+
+    /**
+     * @return The id of the queued VoiceChannel, or 0 if no connection is queued
+     */
+    public long getQueuedAudioConnectionIdLong()
     {
         return queuedAudioConnectionId;
     }
@@ -141,6 +191,15 @@ public class AudioManager
         return audioConnection == null ? null : audioConnection.getChannelId();
     }
 
+    /**
+     * @return The id of the connected VoiceChannel, or 0 if not connected
+     */
+    public long getConnectedChannelLong()
+    {
+        AudioConnection connection = audioConnection;
+        return connection == null ? 0 : connection.getChannelIdLong();
+    }
+
     
     public boolean isConnected()
     {
@@ -173,9 +232,19 @@ public class AudioManager
         return sendHandler;
     }
 
-    
+    /**
+     * Sets the handler that receives the audio of this guild.
+     * <br>Combined and mix-minus audio is provided on a mixing thread shared with other guilds, a handler that
+     * blocks there delays their audio too. Decorate such a handler with an
+     * {@link net.dv8tion.jda.audio.AsyncAudioReceiveHandler AsyncAudioReceiveHandler}.
+     *
+     * @param  handler
+     *         The handler, or null to stop receiving
+     */
     public void setReceivingHandler(AudioReceiveHandler handler)
     {
+        if (handler != null)
+            AudioConnection.checkOutputFormat(handler.getOutputFormat());
         receiveHandler = handler;
         if (audioConnection != null)
             audioConnection.setReceivingHandler(handler);
@@ -187,6 +256,112 @@ public class AudioManager
         return receiveHandler;
     }
 
+    /**
+     * Resolves the receive filters of the handlers again, for example after the set of users a
+     * {@link net.dv8tion.jda.audio.AudioReceiveHandler#shouldReceiveUser(long) receiving handler} is interested in changed.
+     * <br>This happens automatically whenever a user starts or stops speaking.
+     */
+    public void updateReceiveFilter()
+    {
+        if (audioConnection != null)
+            audioConnection.refreshReceiveFilter();
+    }
+
+    /**
+     * Adds a handler that is provided with the decrypted Opus packets of the connected channel, before they are decoded.
+     * <br>Unlike the {@link #setReceivingHandler(AudioReceiveHandler) receiving handler} any amount of these can be added.
+     *
+     * @param  handler
+     *         The {@link net.dv8tion.jda.audio.OpusReceiveHandler OpusReceiveHandler} to add
+     */
+    public void addOpusReceiveHandler(OpusReceiveHandler handler)
+    {
+        if (handler == null)
+            throw new IllegalArgumentException("Provided handler must not be null");
+        if (!opusHandlers.contains(handler))
+            opusHandlers.add(handler);
+        if (audioConnection != null)
+            audioConnection.addOpusReceiveHandler(handler);
+    }
+
+    public void removeOpusReceiveHandler(OpusReceiveHandler handler)
+    {
+        opusHandlers.remove(handler);
+        if (audioConnection != null)
+            audioConnection.removeOpusReceiveHandler(handler);
+    }
+
+    public List<OpusReceiveHandler> getOpusReceiveHandlers()
+    {
+        return Collections.unmodifiableList(opusHandlers);
+    }
+
+    /**
+     * Sets the listener for voice activity that is detected from the received Opus packets, without decoding them.
+     * <br>While a listener is set the audio of the connected channel is received even without any handler.
+     *
+     * @param  listener
+     *         The {@link net.dv8tion.jda.audio.VoiceMeterListener VoiceMeterListener}, or {@code null} to remove it
+     */
+    public void setVoiceMeterListener(VoiceMeterListener listener)
+    {
+        this.meterListener = listener;
+        if (audioConnection != null)
+            audioConnection.setVoiceMeterListener(listener);
+    }
+
+    public VoiceMeterListener getVoiceMeterListener()
+    {
+        return meterListener;
+    }
+
+    /**
+     * Snapshot of the voice activity of every SSRC of the connected channel, see
+     * {@link net.dv8tion.jda.audio.VoiceMeter VoiceMeter}.
+     * <br>Packets are only metered while they are received, that is while a handler or a
+     * {@link #setVoiceMeterListener(VoiceMeterListener) meter listener} is set.
+     *
+     * @return The meters, empty if not connected
+     */
+    public List<VoiceMeter> getVoiceMeters()
+    {
+        AudioConnection connection = audioConnection;
+        return connection == null ? Collections.emptyList() : connection.getVoiceMeters();
+    }
+
+    /**
+     * @return Possibly-null {@link net.dv8tion.jda.audio.VoiceMeter VoiceMeter} of the user
+     */
+    public VoiceMeter getVoiceMeter(long userId)
+    {
+        AudioConnection connection = audioConnection;
+        return connection == null ? null : connection.getVoiceMeter(userId);
+    }
+
+    public VoiceMeter getVoiceMeter(String userId)
+    {
+        return getVoiceMeter(MiscUtil.parseSnowflake(userId));
+    }
+
+    /**
+     * Whether packets that carry no audio are passed to the decoder. Dropping them saves decoding the DTX and silence
+     * frames clients send, the {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio} is silent for them either way.
+     *
+     * @param  decodeSilence
+     *         False, to drop silent packets before decoding. Default: true
+     */
+    public void setDecodeSilence(boolean decodeSilence)
+    {
+        this.decodeSilence = decodeSilence;
+        if (audioConnection != null)
+            audioConnection.setDecodeSilence(decodeSilence);
+    }
+
+    public boolean isDecodeSilence()
+    {
+        return decodeSilence;
+    }
+
     
     public void setConnectionListener(ConnectionListener listener)
     {
@@ -266,31 +441,61 @@ public class AudioManager
         if (audioConnection == null)
             return;
 
-        this.queuedAudioConnectionId = null;
+        this.queuedAudioConnectionId = 0;
+        audioConnection.setCounters(counters);
         audioConnection.setSendingHandler(sendHandler);
         audioConnection.setReceivingHandler(receiveHandler);
+        opusHandlers.forEach(audioConnection::addOpusReceiveHandler);
+        audioConnection.setVoiceMeterListener(meterListener);
+        audioConnection.setDecodeSilence(decodeSilence);
         audioConnection.setQueueTimeout(queueTimeout);
+        audioConnection.setCombinedDelay(combinedDelay);
+        audioConnection.setCombinedMixLimit(combinedMixLimit);
+        for (long userId : mixMinusUsers.toArray())
+            audioConnection.addMixMinusUser(userId);
+        audioConnection.setReceiveImpairment(receiveImpairment);
+        audioConnection.setSendImpairment(sendImpairment);
         audioConnection.ready(timeout);
     }
 
     public void prepareForRegionChange()
     {
-        String queuedChannel = audioConnection.getChannelId();
+        long queuedChannel = audioConnection.getChannelIdLong();
         closeAudioConnection(ConnectionStatus.AUDIO_REGION_CHANGE);
         this.queuedAudioConnectionId = queuedChannel;
     }
 
-    public void setQueuedAudioConnectionId(String channelId)
+    public void setQueuedAudioConnectionId(long channelId)
     {
         queuedAudioConnectionId = channelId;
     }
 
-    public void setConnectedChannel(String channelId)
+    public void setQueuedAudioConnectionId(String channelId)
+    {
+        setQueuedAudioConnectionId(channelId == null ? 0 : MiscUtil.parseSnowflake(channelId));
+    }
+
+    public void setConnectedChannel(long channelId)
     {
         if (audioConnection != null)
             audioConnection.setChannelId(channelId);
     }
 
+    public void setConnectedChannel(String channelId)
+    {
+        setConnectedChannel(MiscUtil.parseSnowflake(channelId));
+    }
+
+    /**
+     * Sets how far, in milliseconds, a user's audio may fall behind the combined playout clock before the mixer
+     * stops treating it as late and re-aligns that user to the clock instead.
+     * <br>Late frames within this window are dropped and counted, see {@link #getCombinedLateFrames()}. A user whose
+     * frames keep arriving late, e.g. because their network delay rose for good, is re-aligned after a few frames,
+     * as is one of whom no frame is waiting to be mixed.
+     *
+     * @param  queueTimeout
+     *         The resync threshold in milliseconds. Default: 100
+     */
     public void setQueueTimeout(long queueTimeout)
     {
         this.queueTimeout = queueTimeout;
@@ -298,6 +503,165 @@ public class AudioManager
             audioConnection.setQueueTimeout(queueTimeout);
     }
 
+    /**
+     * Sets how long, in milliseconds, received audio is held back before it is mixed into
+     * {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio}. A larger delay absorbs more network jitter
+     * at the cost of latency. Rounded down to a multiple of 20 milliseconds.
+     *
+     * @param  delay
+     *         The playout delay in milliseconds. Default: 40
+     */
+    public void setCombinedDelay(long delay)
+    {
+        this.combinedDelay = delay;
+        if (audioConnection != null)
+            audioConnection.setCombinedDelay(delay);
+    }
+
+    public long getCombinedDelay()
+    {
+        return combinedDelay;
+    }
+
+    /**
+     * Limits {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio} to the audio of the loudest userIds of every
+     * 20 millisecond period. Users are ranked by a cheap loudness estimate, and the estimate of every userId is still
+     * reported through {@link net.dv8tion.jda.audio.CombinedAudio#getEnergies() CombinedAudio.getEnergies()}.
+     * <br>This bounds the cost of mixing and avoids clipping in channels with many speakers.
+     *
+     * @param  limit
+     *         The maximum amount of mixed userIds, or {@code 0} to mix everyone. Default: 0
+     */
+    public void setCombinedMixLimit(int limit)
+    {
+        if (limit < 0)
+            throw new IllegalArgumentException("Provided limit must not be negative");
+        this.combinedMixLimit = limit;
+        if (audioConnection != null)
+            audioConnection.setCombinedMixLimit(limit);
+    }
+
+    public int getCombinedMixLimit()
+    {
+        return combinedMixLimit;
+    }
+
+    /**
+     * Passes the received packets of this guild's connections through a simulated bad network.
+     * For testing only, see {@link net.dv8tion.jda.audio.NetworkImpairment NetworkImpairment}.
+     *
+     * @param  impairment
+     *         The impairment, or {@code null} to receive packets as they arrive. Default: null
+     */
+    public void setReceiveImpairment(NetworkImpairment impairment)
+    {
+        this.receiveImpairment = impairment;
+        if (audioConnection != null)
+            audioConnection.setReceiveImpairment(impairment);
+    }
+
+    public NetworkImpairment getReceiveImpairment()
+    {
+        return receiveImpairment;
+    }
+
+    /**
+     * Passes the sent packets of this guild's connections through a simulated bad network.
+     * For testing only, see {@link net.dv8tion.jda.audio.NetworkImpairment NetworkImpairment}.
+     *
+     * @param  impairment
+     *         The impairment, or {@code null} to send packets right away. Default: null
+     */
+    public void setSendImpairment(NetworkImpairment impairment)
+    {
+        this.sendImpairment = impairment;
+        if (audioConnection != null)
+            audioConnection.setSendImpairment(impairment);
+    }
+
+    public NetworkImpairment getSendImpairment()
+    {
+        return sendImpairment;
+    }
+
+    /**
+     * Subscribes the provided userId to mix-minus audio, the combined audio of everyone but that userId.
+     * <br>The audio is provided to {@link net.dv8tion.jda.audio.AudioReceiveHandler#handleMixMinusAudio(long, net.dv8tion.jda.audio.CombinedAudio)
+     * AudioReceiveHandler.handleMixMinusAudio(long, CombinedAudio)} if the receiving handler
+     * {@link net.dv8tion.jda.audio.AudioReceiveHandler#canReceiveMixMinus() can receive mix-minus audio}.
+     *
+     * @param  userId
+     *         The id of the user to provide mix-minus audio for
+     */
+    public void addMixMinusUser(long userId)
+    {
+        mixMinusUsers.add(userId);
+        if (audioConnection != null)
+            audioConnection.addMixMinusUser(userId);
+    }
+
+    public void addMixMinusUser(String userId)
+    {
+        addMixMinusUser(MiscUtil.parseSnowflake(userId));
+    }
+
+    public void removeMixMinusUser(long userId)
+    {
+        mixMinusUsers.remove(userId);
+        if (audioConnection != null)
+            audioConnection.removeMixMinusUser(userId);
+    }
+
+    public void removeMixMinusUser(String userId)
+    {
+        removeMixMinusUser(MiscUtil.parseSnowflake(userId));
+    }
+
+    /**
+     * @return Snapshot of the ids of all users subscribed to mix-minus audio
+     */
+    public long[] getMixMinusUsers()
+    {
+        return mixMinusUsers.toArray();
+    }
+
+    /**
+     * The amount of frames that arrived too late to be mixed into the
+     * {@link net.dv8tion.jda.audio.CombinedAudio CombinedAudio} of the current connection.
+     *
+     * @return The amount of late frames, or 0 if not connected.
+     */
+    public long getCombinedLateFrames()
+    {
+        AudioConnection connection = audioConnection;
+        return connection == null ? 0 : connection.getCombinedLateFrames();
+    }
+
+    /**
+     * Snapshot of the {@link net.dv8tion.jda.audio.AudioStatistics AudioStatistics} of this guild.
+     * <br>The counts are totals of all connections of this manager, they don't start over when reconnecting.
+     *
+     * @return The statistics
+     */
+    public AudioStatistics getStatistics()
+    {
+        return counters.snapshot(getDecoderCount());
+    }
+
+    public AudioCounters getCounters()
+    {
+        return counters;
+    }
+
+    /**
+     * @return The amount of decoders the current connection holds, 0 if not connected
+     */
+    public int getDecoderCount()
+    {
+        AudioConnection connection = audioConnection;
+        return connection == null ? 0 : connection.getDecoderCount();
+    }
+
     protected void updateVoiceState()
     {
         if (isConnected() || isAttemptingToConnect())
@@ -308,7 +672,7 @@ public class AudioManager
             JSONObject voiceStateChange = new JSONObject()
                     .put("op", 4)
                     .put("d", new JSONObject()
-                            .put("guild_id", guildId)
+                            .put("guild_id", getGuildId())
                             .put("channel_id", channelId)
                             .put("self_mute", isSelfMuted())
                             .put("self_deaf", isSelfDeafened())
@@ -1,5 +1,7 @@
 package net.dv8tion.jda.manager;
 
+import net.dv8tion.jda.utils.MiscUtil;
+
 /**
  * Created by Repulser
  * https://github.com/Repulser
@@ -10,4 +12,12 @@ public interface ConnectionManager {
 
     void removeAudioConnection(String guildId);
 
+    default void queueAudioConnect(long guildId, long channelId) {
+        queueAudioConnect(MiscUtil.toSnowflake(guildId), MiscUtil.toSnowflake(channelId));
+    }
+
+    default void removeAudioConnection(long guildId) {
+        removeAudioConnection(MiscUtil.toSnowflake(guildId));
+    }
+
 }
@@ -16,23 +16,25 @@
 
 package net.dv8tion.jda.manager;
 
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import net.dv8tion.jda.Core;
 import net.dv8tion.jda.audio.hooks.ConnectionListener;
 import net.dv8tion.jda.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.utils.MiscUtil;
 import net.dv8tion.jda.utils.SimpleLog;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.json.JSONObject;
 
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 public class DefaultConnectionManager implements ConnectionManager
 {
     public static final SimpleLog LOG = SimpleLog.getLog("ConnectionManager");
 
     //GuildId, <TimeOfNextAttempt, AudioConnection (ChannelId)>
-    private final HashMap<String, MutablePair<Long, String>> queuedAudioConnections = new HashMap<>();
+    private final TLongObjectMap<MutablePair<Long, Long>> queuedAudioConnections = new TLongObjectHashMap<>();
     private final Core core;
 
     private volatile Thread ratelimitThread = null;
@@ -51,19 +53,64 @@ public class DefaultConnectionManager implements ConnectionManager
     @Override
     public void queueAudioConnect(String guildId, String channelId)
     {
-        queuedAudioConnections.put(guildId, new MutablePair<>(System.currentTimeMillis(), channelId));
+        queueAudioConnect(MiscUtil.parseSnowflake(guildId), MiscUtil.parseSnowflake(channelId));
     }
 
     @Override
     public void removeAudioConnection(String guildId) {
-        queuedAudioConnections.remove(guildId);
+        removeAudioConnection(MiscUtil.parseSnowflake(guildId));
     }
 
-    public HashMap<String, MutablePair<Long, String>> getQueuedAudioConnectionMap()
+    @Override
+    public void queueAudioConnect(long guildId, long channelId)
+    {
+        synchronized (queuedAudioConnections)
+        {
+            queuedAudioConnections.put(guildId, new MutablePair<>(System.currentTimeMillis(), channelId));
+        }
+    }
+
+    @Override
+    public void removeAudioConnection(long guildId) {
+        synchronized (queuedAudioConnections)
+        {
+            queuedAudioConnections.remove(guildId);
+        }
+    }
+
+    /**
+     * The queued connection requests, keyed by guild id.
+     * <br>Synchronize on the returned map when accessing it.
+     *
+     * @return The map of guild id to the time of the next attempt and the id of the channel to connect to
+     */
+    public TLongObjectMap<MutablePair<Long, Long>> getQueuedAudioConnectionMapLong()
     {
         return queuedAudioConnections;
     }
 
+    /**
+     * A copy of the queued connection requests with String ids. Changes to it are not written back.
+     *
+     * @return The map of guild id to the time of the next attempt and the id of the channel to connect to
+     *
+     * @deprecated Use {@link #getQueuedAudioConnectionMapLong()}
+     */
+    @Deprecated
+    public HashMap<String, MutablePair<Long, String>> getQueuedAudioConnectionMap()
+    {
+        HashMap<String, MutablePair<Long, String>> map = new HashMap<>();
+        synchronized (queuedAudioConnections)
+        {
+            queuedAudioConnections.forEachEntry((guildId, request) ->
+            {
+                map.put(MiscUtil.toSnowflake(guildId), new MutablePair<>(request.getLeft(), MiscUtil.toSnowflake(request.getRight())));
+                return true;
+            });
+        }
+        return map;
+    }
+
     public int getMaxWebsocketMessagesPerMinute()
     {
         return maxWebsocketMessagesPerMinute;
@@ -75,21 +122,22 @@ public class DefaultConnectionManager implements ConnectionManager
             throw new IllegalArgumentException("Provided max must be between 1 and 120");
     }
 
-    private Map.Entry<String, MutablePair<Long, String>> getNextAudioConnectRequest()
+    //Returns the guild id of the next request, or 0 if there is none.
+    private long getNextAudioConnectRequest()
     {
         synchronized (queuedAudioConnections)
         {
             long now = System.currentTimeMillis();
-            Iterator<Map.Entry<String, MutablePair<Long, String>>> it =  queuedAudioConnections.entrySet().iterator();
+            TLongObjectIterator<MutablePair<Long, Long>> it =  queuedAudioConnections.iterator();
             while (it.hasNext())
             {
-                Map.Entry<String, MutablePair<Long, String>> entry = it.next();
-                MutablePair<Long, String> audioRequest = entry.getValue();
+                it.advance();
+                MutablePair<Long, Long> audioRequest = it.value();
                 if (audioRequest.getLeft() < now)
                 {
-                    String channelId = audioRequest.getRight();
-                    String guildId = entry.getKey();
-                    ConnectionListener listener = core.getAudioManager(guildId).getConnectionListener();
+                    String channelId = MiscUtil.toSnowflake(audioRequest.getRight());
+                    String guildId = MiscUtil.toSnowflake(it.key());
+                    ConnectionListener listener = core.getAudioManager(it.key()).getConnectionListener();
 
                     if (!core.getClient().inGuild(guildId))
                     {
@@ -115,12 +163,12 @@ public class DefaultConnectionManager implements ConnectionManager
                         continue;
                     }
 
-                    return entry;
+                    return it.key();
                 }
             }
         }
 
-        return null;
+        return 0;
     }
 
     private boolean send(String message)
@@ -179,20 +227,23 @@ public class DefaultConnectionManager implements ConnectionManager
                         attemptedToSend = false;
                         needRatelimit = false;
 
-                        Map.Entry<String, MutablePair<Long, String>> requestEntry = getNextAudioConnectRequest();
+                        long guildId = getNextAudioConnectRequest();
+                        MutablePair<Long, Long> audioRequest;
+                        synchronized (queuedAudioConnections)
+                        {
+                            audioRequest = guildId == 0 ? null : queuedAudioConnections.get(guildId);
+                        }
 
-                        LOG.trace(requestEntry);
-                        if (requestEntry != null)
+                        LOG.trace(audioRequest);
+                        if (audioRequest != null)
                         {
-                            String guildId = requestEntry.getKey();
-                            MutablePair<Long, String> audioRequest = requestEntry.getValue();
-                            String channelId = audioRequest.getRight();
+                            long channelId = audioRequest.getRight();
                             AudioManager audioManager = core.getAudioManager(guildId);
                             JSONObject audioConnectPacket = new JSONObject()
                                     .put("op", 4)
                                     .put("d", new JSONObject()
-                                            .put("guild_id", guildId)
-                                            .put("channel_id", channelId)
+                                            .put("guild_id", MiscUtil.toSnowflake(guildId))
+                                            .put("channel_id", MiscUtil.toSnowflake(channelId))
                                             .put("self_mute", audioManager.isSelfMuted())
                                             .put("self_deaf", audioManager.isSelfDeafened())
                                     );
@@ -209,7 +260,7 @@ public class DefaultConnectionManager implements ConnectionManager
                                 // that event just for a move, so we remove it here after successfully sending.
                                 if (audioManager.isConnected())
                                 {
-                                    queuedAudioConnections.remove(guildId);
+                                    removeAudioConnection(guildId);
                                 }
                             }
                             attemptedToSend = true;
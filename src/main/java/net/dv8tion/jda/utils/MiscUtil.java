@@ -0,0 +1,60 @@
+/*
+ *     Copyright 2015-2017 Austin Keener & Michael Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dv8tion.jda.utils;
+
+public class MiscUtil
+{
+    private MiscUtil() {}
+
+    /**
+     * Parses the String representation of a Discord snowflake id.
+     *
+     * @param  input
+     *         The id to parse
+     *
+     * @throws java.lang.IllegalArgumentException
+     *         If the provided input is null or not a valid snowflake
+     *
+     * @return The id as a {@code long}
+     */
+    public static long parseSnowflake(String input)
+    {
+        if (input == null)
+            throw new IllegalArgumentException("Provided id must not be null");
+        try
+        {
+            return Long.parseUnsignedLong(input);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("The specified ID is not a valid snowflake (" + input + ")", e);
+        }
+    }
+
+    /**
+     * The String representation of a Discord snowflake id, as used in JSON payloads.
+     *
+     * @param  id
+     *         The id
+     *
+     * @return The id as a String
+     */
+    public static String toSnowflake(long id)
+    {
+        return Long.toUnsignedString(id);
+    }
+}